@@ -1,6 +1,7 @@
 package org.onosproject.oxp;
 
 import org.onosproject.net.DeviceId;
+import org.onosproject.oxp.oxpsuper.SbpPacketInContext;
 import org.onosproject.oxp.protocol.OXPMessage;
 
 import java.util.List;
@@ -11,5 +12,14 @@ import java.util.List;
 public interface OxpDomainMessageListener {
     void handleIncomingMessage(DeviceId deviceId, OXPMessage msg);
 
+    /**
+     * Called for every SBP packet-in, with the packet already decoded once
+     * for all listeners. Does nothing by default.
+     * @param deviceId domain the packet-in comes from
+     * @param context decoded packet-in
+     */
+    default void handlePacketIn(DeviceId deviceId, SbpPacketInContext context) {
+    }
+
     void handleOutGoingMessage(DeviceId deviceId, List<OXPMessage> msgs);
 }
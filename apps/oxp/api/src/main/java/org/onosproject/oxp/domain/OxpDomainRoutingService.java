@@ -0,0 +1,18 @@
+package org.onosproject.oxp.domain;
+
+import java.util.Map;
+
+/**
+ * Reactive forwarding of a domain towards its super.
+ */
+public interface OxpDomainRoutingService {
+
+    /**
+     * Returns counters of the requests pending at the super: forwarded,
+     * suppressed, buffered, released and expired packets, and current
+     * pending requests.
+     *
+     * @return counters by name
+     */
+    Map<String, Long> getPendingStatis();
+}
@@ -41,6 +41,17 @@ public interface OxpSuperController {
 
     void sendMsg(DeviceId deviceId, OXPMessage msg);
 
+    /**
+     * Queues a message for the domain; queued messages are written to the
+     * domain together after a short window. A message whose pending key
+     * equals one still waiting for the same domain is dropped.
+     *
+     * @param deviceId   domain device
+     * @param msg        message to send
+     * @param pendingKey key for duplicate suppression, null for none
+     */
+    void sendBatchedMsg(DeviceId deviceId, OXPMessage msg, Object pendingKey);
+
     void sendSbpPacketOut(DeviceId deviceId, PortNumber outPort, byte[] data);
     void sendSbpFwdReply(DeviceId deviceId, IpAddress srcIp, IpAddress dstIp,
                          PortNumber srcPort, PortNumber dstPort,
@@ -56,6 +67,15 @@ public interface OxpSuperController {
     Set<OXPDomain> getOxpDomains();
     long getDomainCount();
 
+    /**
+     * Returns whether a domain is connected to this node; in a cluster the
+     * other domains are connected to, and reached through, other nodes.
+     *
+     * @param deviceId device of the domain
+     * @return true if the domain channel ends on this node
+     */
+    boolean isLocalDomain(DeviceId deviceId);
+
     Device getDevice(DeviceId deviceId);
     Set<Device> getDevices();
 
@@ -64,4 +84,18 @@ public interface OxpSuperController {
 
     Map<OXPType, Long> getMsgCountStatis();
     Map<OXPType, Long> getMsgLengthStatis();
+
+    /**
+     * Returns counters of the domain message dispatch stage: dispatched,
+     * dropped and queued messages plus queue wait times.
+     * @return counters by name
+     */
+    Map<String, Long> getDispatchStatis();
+
+    /**
+     * Returns counters of the outbound batching stage: queued and
+     * suppressed messages, channel writes and pending messages.
+     * @return counters by name
+     */
+    Map<String, Long> getBatchStatis();
 }
@@ -0,0 +1,18 @@
+package org.onosproject.oxp.oxpsuper;
+
+import java.util.Map;
+
+/**
+ * Inter-domain routing of the super.
+ */
+public interface OxpSuperRoutingService {
+
+    /**
+     * Returns counters of packets for unknown targets: floods to all
+     * domains, floods suppressed by the negative cache or the rate limit,
+     * proxy ARP replies, and remembered unknown targets.
+     *
+     * @return counters by name
+     */
+    Map<String, Long> getFloodStatis();
+}
@@ -1,6 +1,7 @@
 package org.onosproject.oxp.oxpsuper;
 
 import org.onlab.packet.IpAddress;
+import org.onlab.packet.IpPrefix;
 import org.onosproject.net.*;
 import org.onosproject.net.topology.LinkWeight;
 import org.onosproject.net.*;
@@ -12,6 +13,7 @@ import org.onosproject.oxp.types.OXPInternalLink;
 import org.onosproject.oxp.types.OXPVport;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -40,6 +42,15 @@ public interface OxpSuperTopoService {
 
     DeviceId getHostLocation(HostId hostId);
 
+    /**
+     * Returns the domain every known host within a prefix is located in.
+     *
+     * @param prefix IPv4 prefix
+     * @return domain device, or null if the prefix holds no known host or
+     * hosts of several domains
+     */
+    DeviceId getPrefixLocation(IpPrefix prefix);
+
     Set<OXPHost> getHostsByDevice(DeviceId deviceId);
 
 
@@ -49,6 +60,32 @@ public interface OxpSuperTopoService {
 
     Set<DisjointPath> getDisjointPaths(DeviceId src, DeviceId dst);
 
+    /**
+     * Returns the path used to route traffic between two domains, according
+     * to the current load-balance setting. Paths are cached per domain pair
+     * and weight mode until a link on them changes.
+     *
+     * @param src source domain
+     * @param dst destination domain
+     * @return path, or null if the domains are not connected
+     */
+    Path getInterDomainPath(DeviceId src, DeviceId dst);
+
+    /**
+     * Returns path cache counters: size, hit, miss and eviction.
+     *
+     * @return counters by name
+     */
+    Map<String, Long> getPathCacheStatis();
+
+    /**
+     * Returns latency estimates in us: the RTT of each domain channel as
+     * "rtt:domain" and the delay of each inter-link as "delay:src-dst".
+     *
+     * @return estimates by name
+     */
+    Map<String, Long> getLatencyStatis();
+
     Set<DisjointPath> getDisjointPaths(DeviceId src, DeviceId dst, LinkWeight weight);
 
     /**
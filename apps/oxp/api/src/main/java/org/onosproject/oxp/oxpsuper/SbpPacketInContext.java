@@ -0,0 +1,158 @@
+package org.onosproject.oxp.oxpsuper;
+
+import org.onlab.packet.DeserializationException;
+import org.onlab.packet.Ethernet;
+import org.onosproject.net.PortNumber;
+import org.onosproject.oxp.protocol.OXPForwardingRequest;
+import org.onosproject.oxp.protocol.OXPSbp;
+import org.onosproject.oxp.protocol.OXPSbpCmpType;
+import org.projectfloodlight.openflow.exceptions.OFParseError;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFPacketIn;
+import org.projectfloodlight.openflow.protocol.OFType;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.U64;
+
+/**
+ * Decoded view of a packet-in carried by an OXP SBP message.
+ *
+ * The OpenFlow message and the in-port are decoded once when the context is
+ * built; the Ethernet frame is only deserialized the first time a listener
+ * asks for it, so listeners that only look at the ether type (e.g. LLDP
+ * discovery) never pay for the L3/L4 decode.
+ */
+public final class SbpPacketInContext {
+
+    private static final int ETH_TYPE_OFFSET = 12;
+    private static final int VLAN_HEADER_LENGTH = 4;
+
+    private final OXPSbp sbp;
+    private final OFMessage ofMessage;
+    private final PortNumber inPort;
+    private final byte[] frame;
+    private final long xid;
+    private final long cookie;
+
+    private Ethernet ethernet;
+    private boolean ethernetDecoded = false;
+
+    private SbpPacketInContext(OXPSbp sbp, OFMessage ofMessage, PortNumber inPort,
+                               byte[] frame, long xid, long cookie) {
+        this.sbp = sbp;
+        this.ofMessage = ofMessage;
+        this.inPort = inPort;
+        this.frame = frame;
+        this.xid = xid;
+        this.cookie = cookie;
+    }
+
+    /**
+     * Decodes the packet-in carried by the given SBP message.
+     *
+     * @param sbp SBP message received from a domain
+     * @return packet-in context, or null if the message is not a packet-in
+     */
+    public static SbpPacketInContext of(OXPSbp sbp) {
+        if (sbp.getSbpCmpType().equals(OXPSbpCmpType.NORMAL)) {
+            if (null == sbp.getSbpData()) {
+                return null;
+            }
+            OFMessage ofMsg;
+            try {
+                ofMsg = OFFactories.getGenericReader().readFrom(sbp.getSbpData().getBuffer());
+            } catch (OFParseError e) {
+                return null;
+            }
+            if (null == ofMsg || ofMsg.getType() != OFType.PACKET_IN) {
+                return null;
+            }
+            OFPacketIn packetIn = (OFPacketIn) ofMsg;
+            PortNumber inPort = PortNumber.portNumber(packetIn.getMatch().get(MatchField.IN_PORT).getPortNumber());
+            return new SbpPacketInContext(sbp, ofMsg, inPort, packetIn.getData(),
+                    packetIn.getXid(), packetIn.getCookie().getValue());
+        } else if (sbp.getSbpCmpType().equals(OXPSbpCmpType.FORWARDING_REQUEST)) {
+            OXPForwardingRequest fwdReq = (OXPForwardingRequest) sbp.getSbpCmpData();
+            if (null == fwdReq) {
+                return null;
+            }
+            return new SbpPacketInContext(sbp, null, PortNumber.portNumber(fwdReq.getInport()),
+                    fwdReq.getData(), 0, U64.ZERO.getValue());
+        }
+        return null;
+    }
+
+    public OXPSbp sbp() {
+        return sbp;
+    }
+
+    /**
+     * Returns the OpenFlow packet-in, null if the domain works in compressed mode.
+     *
+     * @return OpenFlow message
+     */
+    public OFMessage ofMessage() {
+        return ofMessage;
+    }
+
+    public PortNumber inPort() {
+        return inPort;
+    }
+
+    public long xid() {
+        return xid;
+    }
+
+    public long cookie() {
+        return cookie;
+    }
+
+    /**
+     * Returns the raw Ethernet frame, not copied.
+     *
+     * @return frame bytes
+     */
+    public byte[] frame() {
+        return frame;
+    }
+
+    /**
+     * Reads the ether type straight from the frame header, skipping one
+     * VLAN tag if present. No deserialization takes place.
+     *
+     * @return ether type, or 0 if the frame is too short
+     */
+    public short etherType() {
+        if (null == frame || frame.length < ETH_TYPE_OFFSET + 2) {
+            return 0;
+        }
+        short type = readShort(ETH_TYPE_OFFSET);
+        if (type == Ethernet.TYPE_VLAN && frame.length >= ETH_TYPE_OFFSET + VLAN_HEADER_LENGTH + 2) {
+            type = readShort(ETH_TYPE_OFFSET + VLAN_HEADER_LENGTH);
+        }
+        return type;
+    }
+
+    /**
+     * Returns the parsed Ethernet frame; decoded on first access only.
+     *
+     * @return Ethernet packet, or null if the frame cannot be decoded
+     */
+    public Ethernet ethernet() {
+        if (!ethernetDecoded) {
+            ethernetDecoded = true;
+            if (null != frame) {
+                try {
+                    ethernet = Ethernet.deserializer().deserialize(frame, 0, frame.length);
+                } catch (DeserializationException e) {
+                    ethernet = null;
+                }
+            }
+        }
+        return ethernet;
+    }
+
+    private short readShort(int offset) {
+        return (short) (((frame[offset] & 0xff) << 8) | (frame[offset + 1] & 0xff));
+    }
+}
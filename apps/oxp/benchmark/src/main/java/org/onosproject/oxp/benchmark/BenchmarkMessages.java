@@ -0,0 +1,240 @@
+package org.onosproject.oxp.benchmark;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.onlab.packet.Data;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.UDP;
+import org.onosproject.oxp.protocol.OXPBadRequestCode;
+import org.onosproject.oxp.protocol.OXPConfigFlags;
+import org.onosproject.oxp.protocol.OXPFactories;
+import org.onosproject.oxp.protocol.OXPFactory;
+import org.onosproject.oxp.protocol.OXPForwardingReply;
+import org.onosproject.oxp.protocol.OXPForwardingRequest;
+import org.onosproject.oxp.protocol.OXPHostState;
+import org.onosproject.oxp.protocol.OXPMessage;
+import org.onosproject.oxp.protocol.OXPPacketOut;
+import org.onosproject.oxp.protocol.OXPSbp;
+import org.onosproject.oxp.protocol.OXPSbpCmpType;
+import org.onosproject.oxp.protocol.OXPSbpFlags;
+import org.onosproject.oxp.protocol.OXPSbpType;
+import org.onosproject.oxp.protocol.OXPSbpVersion;
+import org.onosproject.oxp.protocol.OXPVersion;
+import org.onosproject.oxp.protocol.OXPVportReason;
+import org.onosproject.oxp.protocol.OXPVportState;
+import org.onosproject.oxp.protocol.ver10.OXPForwardingReplyVer10;
+import org.onosproject.oxp.protocol.ver10.OXPForwardingRequestVer10;
+import org.onosproject.oxp.protocol.ver10.OXPPacketOutVer10;
+import org.onosproject.oxp.protocol.ver10.OXPVportDescVer10;
+import org.onosproject.oxp.types.IPv4Address;
+import org.onosproject.oxp.types.MacAddress;
+import org.onosproject.oxp.types.OXPErrorCauseData;
+import org.onosproject.oxp.types.OXPHost;
+import org.onosproject.oxp.types.OXPInternalLink;
+import org.onosproject.oxp.types.OXPSbpData;
+import org.onosproject.oxp.types.OXPVport;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFPacketIn;
+import org.projectfloodlight.openflow.protocol.OFPacketInReason;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.OFBufferId;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.TableId;
+import org.projectfloodlight.openflow.types.U64;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * OXP 1.0 messages as domains and the super exchange them, for the
+ * benchmarks.
+ */
+final class BenchmarkMessages {
+
+    static final OXPFactory FACTORY = OXPFactories.getFactory(OXPVersion.OXP_10);
+    static final OFFactory OF_FACTORY = OFFactories.getFactory(OFVersion.OF_13);
+
+    private static final int UDP_PAYLOAD_LENGTH = 64;
+
+    /**
+     * Message kinds covered by the codec benchmarks.
+     */
+    enum Kind {
+        HELLO, ECHO_REQUEST, FEATURES_REPLY, GET_CONFIG_REPLY, SET_CONFIG, ERROR,
+        TOPO_REQUEST, TOPO_REPLY, HOST_REQUEST, HOST_REPLY, HOST_UPDATE, VPORT_STATUS,
+        SBP_PACKET_IN, SBP_FWD_REQUEST, SBP_FWD_REPLY, SBP_PACKET_OUT
+    }
+
+    private BenchmarkMessages() {
+    }
+
+    /**
+     * Builds a message of the given kind.
+     *
+     * @param kind    message kind
+     * @param entries number of hosts or internal links of list messages
+     * @return message
+     */
+    static OXPMessage build(Kind kind, int entries) {
+        switch (kind) {
+            case HELLO:
+                return FACTORY.buildHello().build();
+            case ECHO_REQUEST:
+                return FACTORY.buildEchoRequest().setData(new byte[Long.BYTES]).build();
+            case FEATURES_REPLY:
+                return FACTORY.buildFeaturesReply()
+                        .setSbpType(OXPSbpType.OPENFLOW)
+                        .setSbpVersion(OXPSbpVersion.of((byte) 4, OXPVersion.OXP_10))
+                        .build();
+            case GET_CONFIG_REPLY:
+                return FACTORY.buildGetConfigReply().setFlags(configFlags()).build();
+            case SET_CONFIG:
+                return FACTORY.buildSetConfig().setFlags(configFlags()).build();
+            case ERROR:
+                return FACTORY.errorMsgs().buildBadRequestErrorMsg()
+                        .setCode(OXPBadRequestCode.BAD_EXP_TYPE)
+                        .setData(OXPErrorCauseData.NONE)
+                        .build();
+            case TOPO_REQUEST:
+                return FACTORY.buildTopologyRequest().build();
+            case TOPO_REPLY:
+                return FACTORY.buildTopologyReply().setInternalLink(internalLinks(entries)).build();
+            case HOST_REQUEST:
+                return FACTORY.buildHostRequest().build();
+            case HOST_REPLY:
+                return FACTORY.buildHostReply().setHosts(hosts(0, entries)).build();
+            case HOST_UPDATE:
+                return FACTORY.buildHostUpdate().setHosts(hosts(0, entries)).build();
+            case VPORT_STATUS:
+                return FACTORY.buildVportStatus()
+                        .setReason(OXPVportReason.ADD)
+                        .setVportDesc(new OXPVportDescVer10.Builder()
+                                .setPortNo(OXPVport.ofShort((short) 1))
+                                .setState(EnumSet.of(OXPVportState.LIVE))
+                                .build())
+                        .build();
+            case SBP_PACKET_IN:
+                return packetIn(hostIp(0, 1), hostIp(1, 1), 1);
+            case SBP_FWD_REQUEST:
+                byte[] frame = ipv4Frame(hostIp(0, 1), hostIp(1, 1));
+                OXPForwardingRequest fwdReq = OXPForwardingRequestVer10.of(
+                        IPv4Address.of(hostIp(0, 1)), IPv4Address.of(hostIp(1, 1)), 1,
+                        IPv4Address.of("255.255.255.255"), Ethernet.TYPE_IPV4, (byte) 0, frame);
+                return sbp(OXPSbpCmpType.FORWARDING_REQUEST)
+                        .setDataLength((short) fwdReq.getData().length)
+                        .setSbpCmpData(fwdReq)
+                        .build();
+            case SBP_FWD_REPLY:
+                OXPForwardingReply fwdReply = OXPForwardingReplyVer10.of(
+                        IPv4Address.of(hostIp(0, 1)), IPv4Address.of(hostIp(1, 1)), 1, 2,
+                        IPv4Address.of("255.255.255.255"), Ethernet.TYPE_IPV4, (byte) 0);
+                return sbp(OXPSbpCmpType.FORWARDING_REPLY)
+                        .setDataLength((short) fwdReply.getData().length)
+                        .setSbpCmpData(fwdReply)
+                        .build();
+            case SBP_PACKET_OUT:
+                OXPPacketOut packetOut = OXPPacketOutVer10.of(1, ipv4Frame(hostIp(0, 1), hostIp(1, 1)));
+                return sbp(OXPSbpCmpType.PACKET_OUT)
+                        .setDataLength((short) packetOut.getData().length)
+                        .setSbpCmpData(packetOut)
+                        .build();
+            default:
+                throw new IllegalArgumentException("Unknown message kind " + kind);
+        }
+    }
+
+    /**
+     * Builds the SBP message a domain sends for an IPv4 packet-in, in
+     * normal (OpenFlow) mode.
+     *
+     * @param srcIp  source address
+     * @param dstIp  destination address
+     * @param inPort in-vport of the packet
+     * @return SBP message carrying an OpenFlow 1.3 packet-in
+     */
+    static OXPSbp packetIn(int srcIp, int dstIp, int inPort) {
+        byte[] frame = ipv4Frame(srcIp, dstIp);
+        OFPacketIn packetIn = OF_FACTORY.buildPacketIn()
+                .setBufferId(OFBufferId.NO_BUFFER)
+                .setReason(OFPacketInReason.NO_MATCH)
+                .setTableId(TableId.ZERO)
+                .setCookie(U64.ZERO)
+                .setMatch(OF_FACTORY.buildMatch().setExact(MatchField.IN_PORT, OFPort.of(inPort)).build())
+                .setTotalLen(frame.length)
+                .setData(frame)
+                .build();
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+        packetIn.writeTo(buffer);
+        return sbp(OXPSbpCmpType.NORMAL)
+                .setSbpData(OXPSbpData.wrap(buffer, OXPVersion.OXP_10))
+                .build();
+    }
+
+    /**
+     * Returns the address of a host: 10.(domain / 256).(domain % 256).host,
+     * one /24 per domain.
+     */
+    static int hostIp(int domain, int host) {
+        return (10 << 24) | (domain << 8) | host;
+    }
+
+    /**
+     * Returns count hosts numbered from the first address of a domain's
+     * /24; large lists run over into the next subnets.
+     */
+    static List<OXPHost> hosts(int domain, int count) {
+        List<OXPHost> hosts = new ArrayList<>(count);
+        IPv4Address mask = IPv4Address.of("255.255.255.0");
+        for (int i = 0; i < count; i++) {
+            int ip = hostIp(domain, 1) + i;
+            hosts.add(OXPHost.of(IPv4Address.of(ip), MacAddress.of(0x020000000000L | ip & 0xffffffffL),
+                    mask, OXPHostState.ACTIVE));
+        }
+        return hosts;
+    }
+
+    static byte[] ipv4Frame(int srcIp, int dstIp) {
+        UDP udp = new UDP();
+        udp.setSourcePort(5000).setDestinationPort(5001);
+        udp.setPayload(new Data(new byte[UDP_PAYLOAD_LENGTH]));
+        IPv4 ipv4 = new IPv4();
+        ipv4.setSourceAddress(srcIp)
+                .setDestinationAddress(dstIp)
+                .setProtocol(IPv4.PROTOCOL_UDP)
+                .setTtl((byte) 64)
+                .setPayload(udp);
+        Ethernet eth = new Ethernet();
+        eth.setEtherType(Ethernet.TYPE_IPV4)
+                .setSourceMACAddress(org.onlab.packet.MacAddress.valueOf(0x020000000000L | srcIp & 0xffffffffL))
+                .setDestinationMACAddress(org.onlab.packet.MacAddress.valueOf(0x020000000000L | dstIp & 0xffffffffL))
+                .setPayload(ipv4);
+        return eth.serialize();
+    }
+
+    private static OXPSbp.Builder sbp(OXPSbpCmpType cmpType) {
+        Set<OXPSbpFlags> flags = Collections.singleton(OXPSbpFlags.DATA_EXIST);
+        return FACTORY.buildSbp()
+                .setSbpCmpType(cmpType)
+                .setFlags(flags)
+                .setSbpXid(1);
+    }
+
+    private static Set<OXPConfigFlags> configFlags() {
+        return EnumSet.of(OXPConfigFlags.MODE_ADVANCED, OXPConfigFlags.CAP_BW);
+    }
+
+    private static List<OXPInternalLink> internalLinks(int count) {
+        List<OXPInternalLink> links = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            links.add(OXPInternalLink.of(OXPVport.ofShort((short) (1 + i % 64)),
+                    OXPVport.ofShort((short) (1 + (i + 1) % 64)), 1000000000L, OXPVersion.OXP_10));
+        }
+        return links;
+    }
+}
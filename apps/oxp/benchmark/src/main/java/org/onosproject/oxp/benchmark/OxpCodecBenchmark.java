@@ -0,0 +1,71 @@
+package org.onosproject.oxp.benchmark;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.onosproject.oxp.exceptions.OXPParseError;
+import org.onosproject.oxp.protocol.OXPFactories;
+import org.onosproject.oxp.protocol.OXPMessage;
+import org.onosproject.oxp.protocol.OXPMessageReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding throughput of single OXP 1.0 messages.
+ *
+ * entries sets the number of internal links of topology replies and of
+ * hosts of host replies and updates; other kinds ignore it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OxpCodecBenchmark {
+
+    @Param({"HELLO", "ECHO_REQUEST", "FEATURES_REPLY", "GET_CONFIG_REPLY", "SET_CONFIG", "ERROR",
+            "TOPO_REQUEST", "TOPO_REPLY", "HOST_REQUEST", "HOST_REPLY", "HOST_UPDATE", "VPORT_STATUS",
+            "SBP_PACKET_IN", "SBP_FWD_REQUEST", "SBP_FWD_REPLY", "SBP_PACKET_OUT"})
+    private BenchmarkMessages.Kind kind;
+
+    @Param({"1", "64", "1024"})
+    private int entries;
+
+    private final OXPMessageReader<OXPMessage> reader = OXPFactories.getGenericReader();
+
+    private OXPMessage message;
+    private byte[] encoded;
+    private ChannelBuffer out;
+
+    @Setup
+    public void setup() {
+        message = BenchmarkMessages.build(kind, entries);
+        out = ChannelBuffers.dynamicBuffer();
+        message.writeTo(out);
+        encoded = new byte[out.readableBytes()];
+        out.getBytes(out.readerIndex(), encoded);
+    }
+
+    @Benchmark
+    public ChannelBuffer encode() {
+        out.clear();
+        message.writeTo(out);
+        return out;
+    }
+
+    @Benchmark
+    public OXPMessage decode() throws OXPParseError {
+        return reader.readFrom(ChannelBuffers.wrappedBuffer(encoded));
+    }
+}
@@ -0,0 +1,88 @@
+package org.onosproject.oxp.benchmark;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.onosproject.oxp.impl.OxpMessageDecoder;
+import org.onosproject.oxp.protocol.OXPMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Framing of coalesced reads by the OXP channel decoder: a batch of
+ * messages arrives either in one read or cut into TCP segment sized reads,
+ * and is decoded into messages. Scores are batches per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OxpMessageDecoderBenchmark {
+
+    private static final int LIST_ENTRIES = 16;
+
+    @Param({"SBP_PACKET_IN", "HOST_UPDATE", "VPORT_STATUS"})
+    private BenchmarkMessages.Kind kind;
+
+    @Param({"1", "16", "128"})
+    private int batchSize;
+
+    // 0: the whole batch in one read
+    @Param({"0", "1460"})
+    private int segmentSize;
+
+    private DecoderEmbedder<OXPMessage> embedder;
+    private ChannelBuffer[] segments;
+
+    @Setup
+    public void setup() {
+        ChannelBuffer batch = ChannelBuffers.dynamicBuffer();
+        for (int i = 0; i < batchSize; i++) {
+            BenchmarkMessages.build(kind, LIST_ENTRIES).writeTo(batch);
+        }
+        byte[] bytes = new byte[batch.readableBytes()];
+        batch.readBytes(bytes);
+        int size = segmentSize <= 0 ? bytes.length : segmentSize;
+        segments = new ChannelBuffer[(bytes.length + size - 1) / size];
+        for (int i = 0; i < segments.length; i++) {
+            int offset = i * size;
+            segments[i] = ChannelBuffers.wrappedBuffer(bytes, offset, Math.min(size, bytes.length - offset));
+        }
+        embedder = new DecoderEmbedder<>(new OxpMessageDecoder());
+    }
+
+    @TearDown
+    public void tearDown() {
+        embedder.finish();
+    }
+
+    @Benchmark
+    public int decodeBatch(Blackhole blackhole) {
+        for (ChannelBuffer segment : segments) {
+            // 每次都从头读取同一段数据
+            embedder.offer(segment.duplicate());
+        }
+        int decoded = 0;
+        OXPMessage msg;
+        while ((msg = embedder.poll()) != null) {
+            blackhole.consume(msg);
+            decoded++;
+        }
+        return decoded;
+    }
+}
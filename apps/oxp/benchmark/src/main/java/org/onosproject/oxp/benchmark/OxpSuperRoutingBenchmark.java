@@ -0,0 +1,348 @@
+package org.onosproject.oxp.benchmark;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.onlab.junit.TestUtils;
+import org.onlab.packet.IpAddress;
+import org.onlab.packet.IpPrefix;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DefaultLink;
+import org.onosproject.net.DefaultPath;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.DisjointPath;
+import org.onosproject.net.ElementId;
+import org.onosproject.net.HostId;
+import org.onosproject.net.Link;
+import org.onosproject.net.Path;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.provider.ProviderId;
+import org.onosproject.net.topology.LinkWeight;
+import org.onosproject.net.topology.Topology;
+import org.onosproject.oxp.OxpDomainMessageListener;
+import org.onosproject.oxp.impl.OxpDomain10;
+import org.onosproject.oxp.impl.oxpsuper.OxpSuperControllerImpl;
+import org.onosproject.oxp.impl.oxpsuper.OxpSuperRouting;
+import org.onosproject.oxp.oxpsuper.OxpSuperController;
+import org.onosproject.oxp.oxpsuper.OxpSuperTopoService;
+import org.onosproject.oxp.oxpsuper.SbpPacketInContext;
+import org.onosproject.oxp.protocol.OXPConfigFlags;
+import org.onosproject.oxp.protocol.OXPFactories;
+import org.onosproject.oxp.protocol.OXPMessage;
+import org.onosproject.oxp.protocol.OXPSbp;
+import org.onosproject.oxp.protocol.OXPSbpType;
+import org.onosproject.oxp.protocol.OXPSbpVersion;
+import org.onosproject.oxp.protocol.OXPVersion;
+import org.onosproject.oxp.protocol.OXPVportDesc;
+import org.onosproject.oxp.types.DomainId;
+import org.onosproject.oxp.types.OXPHost;
+import org.onosproject.oxp.types.OXPInternalLink;
+import org.onosproject.oxp.types.OXPVport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handling of an IPv4 packet-in by the super routing, from the SBP frame
+ * as it arrives from a domain to the flow-mods and packet-out written back
+ * to the domains.
+ *
+ * The domains form a line, domain i linked to domain i + 1, with one host
+ * per domain. The packet goes from the host of the first domain to the
+ * host of the next domain (near) or of the last one (far), so the far case
+ * installs a rule on every domain. Paths are precomputed, as if served by
+ * the path cache of the topology manager; messages written to a domain are
+ * counted and dropped.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OxpSuperRoutingBenchmark {
+
+    private static final ProviderId PROVIDER_ID = new ProviderId("oxp", "org.onosproject.oxp.benchmark");
+    private static final PortNumber LEFT_VPORT = PortNumber.portNumber(1);
+    private static final PortNumber RIGHT_VPORT = PortNumber.portNumber(2);
+
+    @Param({"2", "8", "32", "128"})
+    private int domainCount;
+
+    @Param({"near", "far"})
+    private String destination;
+
+    private OxpDomainMessageListener routingListener;
+    private DeviceId srcDeviceId;
+    private byte[] packetIn;
+    private long sentMessages;
+
+    @Setup
+    public void setup() throws TestUtils.TestUtilsException {
+        OxpSuperControllerImpl controller = new OxpSuperControllerImpl();
+        TestUtils.setField(controller, "domainMap", new ConcurrentHashMap<>());
+        TestUtils.setField(controller, "deviceMap", new ConcurrentHashMap<>());
+        TestUtils.setField(controller, "oxpFactory", OXPFactories.getFactory(OXPVersion.OXP_10));
+        LineTopology topology = new LineTopology(domainCount);
+        for (int i = 0; i < domainCount; i++) {
+            BenchmarkDomain domain = new BenchmarkDomain(controller, i);
+            controller.addDomain(domain.getDeviceId(), domain);
+        }
+
+        OxpSuperRouting routing = new OxpSuperRouting();
+        TestUtils.setField(routing, "superController", controller);
+        TestUtils.setField(routing, "topoService", topology);
+        routingListener = TestUtils.getField(routing, "domainMessageListener");
+
+        int dstDomain = "far".equals(destination) ? domainCount - 1 : 1;
+        srcDeviceId = deviceId(0);
+        OXPSbp sbp = BenchmarkMessages.packetIn(BenchmarkMessages.hostIp(0, 1),
+                BenchmarkMessages.hostIp(dstDomain, 1), OXPVport.LOCAL.getPortNumber());
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+        sbp.writeTo(buffer);
+        packetIn = new byte[buffer.readableBytes()];
+        buffer.readBytes(packetIn);
+    }
+
+    @Benchmark
+    public long processIpv4() throws Exception {
+        OXPMessage msg = OXPFactories.getGenericReader().readFrom(ChannelBuffers.wrappedBuffer(packetIn));
+        SbpPacketInContext context = SbpPacketInContext.of((OXPSbp) msg);
+        routingListener.handlePacketIn(srcDeviceId, context);
+        return sentMessages;
+    }
+
+    private static DeviceId deviceId(int domain) {
+        return DeviceId.deviceId("oxp:" + DomainId.of(domain + 1));
+    }
+
+    /**
+     * Domain that counts the messages written to it.
+     */
+    private final class BenchmarkDomain extends OxpDomain10 {
+
+        private BenchmarkDomain(OxpSuperController controller, int index) {
+            super(controller);
+            setDomainId(DomainId.of(index + 1));
+            setDeviceId(deviceId(index));
+            setOxpVersion(OXPVersion.OXP_10);
+            setOxpSbpType(OXPSbpType.OPENFLOW);
+            setOxpSbpVersion(OXPSbpVersion.of((byte) 4, OXPVersion.OXP_10));
+            setFlags(EnumSet.of(OXPConfigFlags.MODE_ADVANCED, OXPConfigFlags.CAP_HOP));
+            setConnected(true);
+        }
+
+        @Override
+        public void sendMsg(OXPMessage msg) {
+            sentMessages++;
+        }
+
+        @Override
+        public void sendMsg(List<OXPMessage> msgs) {
+            sentMessages += msgs.size();
+        }
+    }
+
+    /**
+     * Line of domains with one host each and precomputed paths.
+     */
+    private static final class LineTopology implements OxpSuperTopoService {
+
+        private final List<Link> links = new ArrayList<>();
+        private final Map<IpAddress, Set<OXPHost>> hostsByIp = new HashMap<>();
+        private final Map<HostId, DeviceId> hostLocations = new HashMap<>();
+        private final Map<List<DeviceId>, Path> paths = new HashMap<>();
+
+        private LineTopology(int domainCount) {
+            for (int i = 0; i + 1 < domainCount; i++) {
+                links.add(DefaultLink.builder()
+                        .src(new ConnectPoint(deviceId(i), RIGHT_VPORT))
+                        .dst(new ConnectPoint(deviceId(i + 1), LEFT_VPORT))
+                        .type(Link.Type.DIRECT)
+                        .providerId(PROVIDER_ID)
+                        .build());
+            }
+            for (int i = 0; i < domainCount; i++) {
+                OXPHost host = BenchmarkMessages.hosts(i, 1).get(0);
+                hostsByIp.put(IpAddress.valueOf(host.getIpAddress().getInt()), ImmutableSet.of(host));
+                hostLocations.put(HostId.hostId(MacAddress.valueOf(host.getMacAddress().getLong())),
+                        deviceId(i));
+            }
+            for (int dst = 1; dst < domainCount; dst++) {
+                paths.put(ImmutableList.of(deviceId(0), deviceId(dst)),
+                        new DefaultPath(PROVIDER_ID, links.subList(0, dst), dst));
+            }
+        }
+
+        @Override
+        public Set<OXPHost> getHostsByIp(IpAddress ipAddress) {
+            return hostsByIp.getOrDefault(ipAddress, Collections.emptySet());
+        }
+
+        @Override
+        public DeviceId getHostLocation(HostId hostId) {
+            return hostLocations.get(hostId);
+        }
+
+        @Override
+        public DeviceId getPrefixLocation(IpPrefix prefix) {
+            DeviceId location = null;
+            for (Set<OXPHost> hosts : hostsByIp.values()) {
+                for (OXPHost host : hosts) {
+                    if (!prefix.contains(IpAddress.valueOf(host.getIpAddress().getInt()))) {
+                        continue;
+                    }
+                    DeviceId hostLocation = getHostLocation(
+                            HostId.hostId(MacAddress.valueOf(host.getMacAddress().getLong())));
+                    if (null != location && !location.equals(hostLocation)) {
+                        return null;
+                    }
+                    location = hostLocation;
+                }
+            }
+            return location;
+        }
+
+        @Override
+        public Path getInterDomainPath(DeviceId src, DeviceId dst) {
+            return paths.get(ImmutableList.of(src, dst));
+        }
+
+        @Override
+        public List<PortNumber> getVports(DeviceId deviceId) {
+            return ImmutableList.of(LEFT_VPORT, RIGHT_VPORT);
+        }
+
+        @Override
+        public List<Link> getInterlinks() {
+            return links;
+        }
+
+        @Override
+        public long getInterLinkCapability(Link link) {
+            return 0;
+        }
+
+        @Override
+        public long getInterLinkLoadCapability(Link link) {
+            return 0;
+        }
+
+        @Override
+        public List<Link> getIntraLinks(DeviceId deviceId) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public OXPInternalLink getIntraLinkDesc(Link link) {
+            return null;
+        }
+
+        @Override
+        public OXPVportDesc getVportDesc(DeviceId deviceId, PortNumber portNumber) {
+            return null;
+        }
+
+        @Override
+        public long getVportMaxCapability(ConnectPoint portLocation) {
+            return 0;
+        }
+
+        @Override
+        public long getVportLoadCapability(ConnectPoint portLocation) {
+            return 0;
+        }
+
+        @Override
+        public long getVportRestCapability(ConnectPoint portLocation) {
+            return 0;
+        }
+
+        @Override
+        public Set<OXPHost> getHostsByDevice(DeviceId deviceId) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Set<Path> getPaths(DeviceId src, DeviceId dst) {
+            Path path = getInterDomainPath(src, dst);
+            return null == path ? Collections.emptySet() : ImmutableSet.of(path);
+        }
+
+        @Override
+        public Set<Path> getPaths(DeviceId src, DeviceId dst, LinkWeight weight) {
+            return getPaths(src, dst);
+        }
+
+        @Override
+        public Set<DisjointPath> getDisjointPaths(DeviceId src, DeviceId dst) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Set<DisjointPath> getDisjointPaths(DeviceId src, DeviceId dst, LinkWeight weight) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Map<String, Long> getPathCacheStatis() {
+            return ImmutableMap.of();
+        }
+
+        @Override
+        public Map<String, Long> getLatencyStatis() {
+            return ImmutableMap.of();
+        }
+
+        @Override
+        public Set<Path> getLoadBalancePaths(Topology topo, ElementId src, ElementId dst, LinkWeight linkWeight) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Set<Path> getLoadBalancePaths(Topology topo, ElementId src, ElementId dst) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Set<Path> getLoadBalancePaths(ElementId src, ElementId dst, LinkWeight linkWeight) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Set<Path> getLoadBalancePaths(ElementId src, ElementId dst) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public long getInterLinkCount() {
+            return links.size();
+        }
+
+        @Override
+        public long getHostCount() {
+            return hostsByIp.size();
+        }
+    }
+}
@@ -42,7 +42,7 @@ public class OxpDomain10 implements OXPDomain {
 
     boolean advancedModeFlag = false;
     boolean bwFlag = false;
-    boolean delayFlag = false;  // TODO: support latency in the future
+    boolean delayFlag = false;  // 由Super的echo/LLDP探测测量邻间链路时延, Domain内时延上报为0
     boolean hopFlag = false;
     boolean compressModeFlag = false;
 
@@ -7,21 +7,42 @@ import org.jboss.netty.handler.codec.frame.FrameDecoder;
 import org.onosproject.oxp.protocol.OXPFactories;
 import org.onosproject.oxp.protocol.OXPMessage;
 import org.onosproject.oxp.protocol.OXPMessageReader;
+import org.onosproject.oxp.protocol.OXPType;
 
 /**
  * Created by cr on 16-8-15.
  */
 public class OxpMessageDecoder extends FrameDecoder {
 
+    private static final int OXP_HEADER_LENGTH = 4;
+    private static final int TYPE_OFFSET = 1;
+    private static final int LENGTH_OFFSET = 2;
+
     @Override
     protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
         if (!channel.isConnected()) {
             return null;
         }
 
+        // wait for the whole frame instead of parsing and rewinding partial messages
+        if (buffer.readableBytes() < OXP_HEADER_LENGTH) {
+            return null;
+        }
+        int start = buffer.readerIndex();
+        int length = buffer.getUnsignedShort(start + LENGTH_OFFSET);
+        if (length >= OXP_HEADER_LENGTH && buffer.readableBytes() < length) {
+            return null;
+        }
+
         OXPMessageReader<OXPMessage> reader = OXPFactories.getGenericReader();
-        OXPMessage message = reader.readFrom(buffer);
+        if (length < OXP_HEADER_LENGTH || buffer.getByte(start + TYPE_OFFSET) != (byte) OXPType.OXPT_SBP.value()) {
+            return reader.readFrom(buffer);
+        }
 
-        return message;
+        // SBP payloads keep a slice of the frame they came in, while the
+        // cumulation buffer may be reused: copy the frame once and parse from it
+        ChannelBuffer frame = extractFrame(buffer, start, length);
+        buffer.skipBytes(length);
+        return reader.readFrom(frame);
     }
 }
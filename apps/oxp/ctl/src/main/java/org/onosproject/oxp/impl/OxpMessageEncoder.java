@@ -5,14 +5,32 @@ import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
+import org.onosproject.oxp.protocol.OXPHostReply;
+import org.onosproject.oxp.protocol.OXPHostUpdate;
 import org.onosproject.oxp.protocol.OXPMessage;
+import org.onosproject.oxp.protocol.OXPSbp;
+import org.onosproject.oxp.protocol.OXPTopologyReply;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * Created by cr on 16-8-15.
  */
 public class OxpMessageEncoder extends OneToOneEncoder {
+
+    private static final int HEADER_LENGTH = 8;
+    private static final int SBP_HEADER_LENGTH = 16;
+    // srcVport(2) + dstVport(2) + capability(8)
+    private static final int INTERNAL_LINK_LENGTH = 12;
+    // ip(4) + mac(6) + mask(1) + state(1)
+    private static final int HOST_LENGTH = 12;
+    private static final int DEFAULT_ESTIMATE = 64;
+    private static final int MAX_TYPE = 256;
+
+    // recently seen encoded size per message type, shared by all channels
+    private static final AtomicIntegerArray SIZE_ESTIMATES = new AtomicIntegerArray(MAX_TYPE);
+
     @Override
     protected Object encode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
         if (!(msg instanceof List)) {
@@ -20,13 +38,64 @@ public class OxpMessageEncoder extends OneToOneEncoder {
         }
         List<OXPMessage> msgList = (List<OXPMessage>) msg;
 
-        ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+        // size the buffer for the whole list up front so that big topology
+        // and host replies are written without growing and copying the buffer
+        int capacity = 0;
+        for (OXPMessage oxpm : msgList) {
+            if (oxpm != null) {
+                capacity += predictLength(oxpm);
+            }
+        }
+        ChannelBuffer buf = ChannelBuffers.dynamicBuffer(Math.max(capacity, HEADER_LENGTH));
 
-        for (OXPMessage oxpm :msgList) {
+        for (OXPMessage oxpm : msgList) {
             if (oxpm != null) {
+                int start = buf.writerIndex();
                 oxpm.writeTo(buf);
+                recordLength(oxpm, buf.writerIndex() - start);
             }
         }
         return buf;
     }
+
+    /**
+     * Returns the serialized length of a message: exact for messages made
+     * of fixed size elements, estimated from recent messages of the same
+     * type otherwise.
+     *
+     * @param msg OXP message
+     * @return length in bytes
+     */
+    static int predictLength(OXPMessage msg) {
+        switch (msg.getType()) {
+            case OXPT_TOPO_REPLY:
+                return HEADER_LENGTH + INTERNAL_LINK_LENGTH * ((OXPTopologyReply) msg).getInternalLinks().size();
+            case OXPT_HOST_REPLY:
+                return HEADER_LENGTH + HOST_LENGTH * ((OXPHostReply) msg).getHosts().size();
+            case OXPT_HOST_UPDATE:
+                return HEADER_LENGTH + HOST_LENGTH * ((OXPHostUpdate) msg).getHosts().size();
+            case OXPT_SBP:
+                OXPSbp sbp = (OXPSbp) msg;
+                if (null != sbp.getSbpData()) {
+                    return SBP_HEADER_LENGTH + sbp.getSbpData().getLength();
+                }
+                break;
+            default:
+                break;
+        }
+        int estimate = SIZE_ESTIMATES.get(typeIndex(msg));
+        return estimate == 0 ? DEFAULT_ESTIMATE : estimate;
+    }
+
+    private static void recordLength(OXPMessage msg, int length) {
+        int index = typeIndex(msg);
+        int estimate = SIZE_ESTIMATES.get(index);
+        // follow growth at once, decay slowly when messages get smaller
+        int next = length >= estimate ? length : estimate - ((estimate - length) >> 3);
+        SIZE_ESTIMATES.lazySet(index, next);
+    }
+
+    private static int typeIndex(OXPMessage msg) {
+        return msg.getType().value() & (MAX_TYPE - 1);
+    }
 }
@@ -1,6 +1,7 @@
 package org.onosproject.oxp.impl.domain;
 
 import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.channel.AdaptiveReceiveBufferSizePredictorFactory;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
@@ -29,8 +30,10 @@ public class DomainConnector {
     private ChannelGroup cg;
 
     //Configuration options
-    protected int workerThreads = 16;
+    // 域控制器只有一条到Super的连接, 一个I/O线程即可
+    protected int workerThreads = 1;
 
+    // TODO move to Netty 4 together with SuperConnector, see there
     private NioClientSocketChannelFactory execFactory;
     private ClientBootstrap bootstrap;
     private long systemStartTime;
@@ -38,6 +41,10 @@ public class DomainConnector {
     private OxpDomainController domainController;
 
     private static final int SEND_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final int RECEIVE_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final int MIN_READ_SIZE = 1024;
+    private static final int INITIAL_READ_SIZE = 16 * 1024;
+    private static final int MAX_READ_SIZE = 256 * 1024;
 
     public DomainConnector(OxpDomainController domainController) {
         this.domainController = domainController;
@@ -58,10 +65,14 @@ public class DomainConnector {
 
         try {
             bootstrap = createBootStrap();
+            // 客户端通道的选项不带"child."前缀
             bootstrap.setOption("reuseAddr", true);
-            bootstrap.setOption("child.keepAlive", true);
-            bootstrap.setOption("child.tcpNodelay", true);
-            bootstrap.setOption("child.sendBufferSize",SEND_BUFFER_SIZE);
+            bootstrap.setOption("keepAlive", true);
+            bootstrap.setOption("tcpNoDelay", true);
+            bootstrap.setOption("sendBufferSize", SEND_BUFFER_SIZE);
+            bootstrap.setOption("receiveBufferSize", RECEIVE_BUFFER_SIZE);
+            bootstrap.setOption("receiveBufferSizePredictorFactory",
+                    new AdaptiveReceiveBufferSizePredictorFactory(MIN_READ_SIZE, INITIAL_READ_SIZE, MAX_READ_SIZE));
 
             //TODO PiplineFactory
             ChannelPipelineFactory pfact =
@@ -56,7 +56,7 @@ public class OxpDomainControllerImpl implements OxpDomainController {
     private OXPFactory oxpFactory;
     boolean advancedModeFlag = false;
     boolean bwFlag = false;
-    boolean delayFlag = false;  // TODO: support latency in the future
+    boolean delayFlag = false;  // 由Super的echo/LLDP探测测量邻间链路时延, Domain内时延上报为0
     boolean hopFlag = false;
     boolean compressModeFlag = false;
 
@@ -0,0 +1,218 @@
+package org.onosproject.oxp.impl.domain;
+
+import com.google.common.collect.ImmutableMap;
+import org.onlab.packet.Ethernet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Requests forwarded to the super that are still waiting for a decision,
+ * keyed by (src IP, dst IP, in-vport).
+ *
+ * The first packet of a flow is forwarded and opens an entry; packets of
+ * the same flow arriving within the hold time are not forwarded again, a
+ * few of them are kept and handed back when the super's flow-mod or
+ * packet-out for the flow arrives. An entry older than the hold time is
+ * treated as gone so a lost answer only delays the flow; such entries are
+ * removed by {@link #sweep()}, which the owner runs periodically.
+ *
+ * The in-vports of the requests between two addresses are indexed, for the
+ * answers that do not carry the in-vport.
+ */
+class OxpDomainPendingRequests {
+
+    private final Map<PendingKey, Pending> pendings = new ConcurrentHashMap<>();
+    // (src IP, dst IP) -> in-vports of the pending requests
+    private final Map<Long, Set<Integer>> inVportsByAddresses = new ConcurrentHashMap<>();
+
+    private volatile long holdNanos;
+    private volatile int bufferSize;
+
+    private final AtomicLong forwardedCount = new AtomicLong();
+    private final AtomicLong suppressedCount = new AtomicLong();
+    private final AtomicLong bufferedCount = new AtomicLong();
+    private final AtomicLong releasedCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    OxpDomainPendingRequests(long holdMillis, int bufferSize) {
+        configure(holdMillis, bufferSize);
+    }
+
+    void configure(long holdMillis, int bufferSize) {
+        this.holdNanos = Math.max(0, holdMillis) * 1000000L;
+        this.bufferSize = Math.max(0, bufferSize);
+    }
+
+    /**
+     * Registers a packet-in; returns whether it has to be sent to the super.
+     *
+     * @param srcIp   source IPv4 address
+     * @param dstIp   destination IPv4 address
+     * @param inVport logical in-vport
+     * @param frame   packet, kept if the request is already pending
+     * @return true if the packet opens a new request
+     */
+    boolean begin(int srcIp, int dstIp, int inVport, Ethernet frame) {
+        if (holdNanos == 0) {
+            forwardedCount.incrementAndGet();
+            return true;
+        }
+        long now = System.nanoTime();
+        PendingKey key = new PendingKey(srcIp, dstIp, inVport);
+        boolean[] forward = {false};
+        pendings.compute(key, (k, pending) -> {
+            if (null == pending || now - pending.since > holdNanos) {
+                if (null != pending) {
+                    expiredCount.incrementAndGet();
+                }
+                forward[0] = true;
+                return new Pending(now);
+            }
+            if (pending.frames.size() < bufferSize) {
+                pending.frames.add(frame);
+                bufferedCount.incrementAndGet();
+            }
+            return pending;
+        });
+        if (forward[0]) {
+            inVportsByAddresses.computeIfAbsent(addresses(srcIp, dstIp), k -> ConcurrentHashMap.newKeySet())
+                    .add(inVport);
+            forwardedCount.incrementAndGet();
+        } else {
+            suppressedCount.incrementAndGet();
+        }
+        return forward[0];
+    }
+
+    /**
+     * Closes the request of a flow the super answered.
+     *
+     * @return packets kept while the request was pending
+     */
+    List<Ethernet> release(int srcIp, int dstIp, int inVport) {
+        PendingKey key = new PendingKey(srcIp, dstIp, inVport);
+        Pending pending = pendings.remove(key);
+        unindex(key);
+        return drain(pending);
+    }
+
+    /**
+     * Closes the requests between two addresses whatever their in-vport,
+     * for answers that do not carry it.
+     *
+     * @return packets kept while the requests were pending
+     */
+    List<Ethernet> release(int srcIp, int dstIp) {
+        Set<Integer> inVports = inVportsByAddresses.remove(addresses(srcIp, dstIp));
+        if (null == inVports) {
+            return Collections.emptyList();
+        }
+        List<Ethernet> frames = new ArrayList<>();
+        for (int inVport : inVports) {
+            frames.addAll(drain(pendings.remove(new PendingKey(srcIp, dstIp, inVport))));
+        }
+        return frames;
+    }
+
+    void clear() {
+        pendings.clear();
+        inVportsByAddresses.clear();
+    }
+
+    /**
+     * Returns counters: forwarded, suppressed, buffered, released and
+     * expired packets, and current pending requests.
+     *
+     * @return counters by name
+     */
+    Map<String, Long> getStatis() {
+        return ImmutableMap.<String, Long>builder()
+                .put("forwarded", forwardedCount.get())
+                .put("suppressed", suppressedCount.get())
+                .put("buffered", bufferedCount.get())
+                .put("released", releasedCount.get())
+                .put("expired", expiredCount.get())
+                .put("pending", (long) pendings.size())
+                .build();
+    }
+
+    private List<Ethernet> drain(Pending pending) {
+        if (null == pending) {
+            return Collections.emptyList();
+        }
+        // 已从表中移除, compute()不会再追加
+        releasedCount.addAndGet(pending.frames.size());
+        return pending.frames;
+    }
+
+    /**
+     * Removes the requests older than the hold time.
+     */
+    void sweep() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<PendingKey, Pending>> it = pendings.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<PendingKey, Pending> entry = it.next();
+            if (now - entry.getValue().since > holdNanos && pendings.remove(entry.getKey(), entry.getValue())) {
+                expiredCount.incrementAndGet();
+                unindex(entry.getKey());
+            }
+        }
+    }
+
+    private void unindex(PendingKey key) {
+        inVportsByAddresses.computeIfPresent(addresses(key.srcIp, key.dstIp), (k, inVports) -> {
+            inVports.remove(key.inVport);
+            return inVports.isEmpty() ? null : inVports;
+        });
+    }
+
+    private static long addresses(int srcIp, int dstIp) {
+        return ((long) srcIp << 32) | (dstIp & 0xffffffffL);
+    }
+
+    private static final class Pending {
+        private final long since;
+        private final List<Ethernet> frames = new ArrayList<>();
+
+        private Pending(long since) {
+            this.since = since;
+        }
+    }
+
+    private static final class PendingKey {
+        private final int srcIp;
+        private final int dstIp;
+        private final int inVport;
+
+        private PendingKey(int srcIp, int dstIp, int inVport) {
+            this.srcIp = srcIp;
+            this.dstIp = dstIp;
+            this.inVport = inVport;
+        }
+
+        @Override
+        public int hashCode() {
+            return (srcIp * 31 + dstIp) * 31 + inVport;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof PendingKey)) {
+                return false;
+            }
+            PendingKey that = (PendingKey) obj;
+            return srcIp == that.srcIp && dstIp == that.dstIp && inVport == that.inVport;
+        }
+    }
+}
@@ -4,6 +4,8 @@ import org.apache.felix.scr.annotations.*;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.onlab.packet.*;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
 import org.onosproject.net.*;
@@ -24,6 +26,7 @@ import org.onosproject.net.topology.TopologyService;
 import org.onosproject.oxp.OxpSuper;
 import org.onosproject.oxp.OxpSuperMessageListener;
 import org.onosproject.oxp.domain.OxpDomainController;
+import org.onosproject.oxp.domain.OxpDomainRoutingService;
 import org.onosproject.oxp.domain.OxpDomainTopoService;
 import org.onosproject.oxp.domain.OxpSuperListener;
 import org.onosproject.oxp.protocol.*;
@@ -37,20 +40,29 @@ import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.projectfloodlight.openflow.types.EthType;
 import org.projectfloodlight.openflow.types.*;
 import org.projectfloodlight.openflow.types.IPv4Address;
+import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 
 import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Dictionary;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static org.onlab.util.Tools.groupedThreads;
 import static org.slf4j.LoggerFactory.getLogger;
 
 /**
  * Created by cr on 16-8-20.
  */
 @Component(immediate = true)
-public class OxpDomainRouting {
+@Service
+public class OxpDomainRouting implements OxpDomainRoutingService {
 
     private final Logger log = getLogger(getClass());
 
@@ -92,6 +104,26 @@ public class OxpDomainRouting {
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected FlowObjectiveService flowObjectiveService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected ComponentConfigService cfgService;
+
+    private static final int DEFAULT_PENDING_HOLD_MS = 1000;
+    private static final int DEFAULT_PENDING_BUFFER_SIZE = 4;
+    // 过期请求的清理周期(ms)
+    private static final long PENDING_SWEEP_PERIOD_MS = 1000;
+
+    @Property(name = "pendingHoldMs", intValue = DEFAULT_PENDING_HOLD_MS,
+            label = "Time in ms packets of a flow forwarded to the super are held back; 0 disables it")
+    private int pendingHoldMs = DEFAULT_PENDING_HOLD_MS;
+
+    @Property(name = "pendingBufferSize", intValue = DEFAULT_PENDING_BUFFER_SIZE,
+            label = "Number of held-back packets kept per flow and sent once the super answers")
+    private int pendingBufferSize = DEFAULT_PENDING_BUFFER_SIZE;
+
+    private final OxpDomainPendingRequests pendingRequests =
+            new OxpDomainPendingRequests(DEFAULT_PENDING_HOLD_MS, DEFAULT_PENDING_BUFFER_SIZE);
+    private ScheduledExecutorService pendingSweeper;
+
     private ApplicationId appId;
 
     private PacketProcessor packetProcessor = new ReactivePacketProcessor();
@@ -100,11 +132,20 @@ public class OxpDomainRouting {
     private boolean bootFlag = false;
 
     private static final Ip4Address broadcast = Ip4Address.valueOf("255.255.255.255");
+    // OF1.3 packet-in头部及in_port匹配的长度上限
+    private static final int PACKET_IN_OVERHEAD = 64;
+    // 聚合规则优先级低于逐主机对的精确规则
+    private static final int AGGREGATE_PRIORITY = 5;
 
 
     @Activate
-    public void activate() {
+    public void activate(ComponentContext context) {
+        cfgService.registerProperties(getClass());
+        readComponentConfiguration(context);
         appId = coreService.getAppId("org.onosproject.oxp");
+        pendingSweeper = newSingleThreadScheduledExecutor(groupedThreads("onos/oxp", "pending-sweeper", log));
+        pendingSweeper.scheduleAtFixedRate(pendingRequests::sweep,
+                PENDING_SWEEP_PERIOD_MS, PENDING_SWEEP_PERIOD_MS, TimeUnit.MILLISECONDS);
         domainController.addOxpSuperListener(oxpSuperListener);
 
         log.info("Started");
@@ -112,7 +153,10 @@ public class OxpDomainRouting {
 
     @Deactivate
     public void deactivate() {
+        cfgService.unregisterProperties(getClass(), false);
         domainController.removeOxpSuperListener(oxpSuperListener);
+        pendingSweeper.shutdownNow();
+        pendingRequests.clear();
         if (!bootFlag) {
             return;
         }
@@ -121,6 +165,26 @@ public class OxpDomainRouting {
         log.info("Stoped");
     }
 
+    @Modified
+    public void modified(ComponentContext context) {
+        readComponentConfiguration(context);
+    }
+
+    private void readComponentConfiguration(ComponentContext context) {
+        Dictionary<?, ?> properties = context.getProperties();
+        pendingHoldMs = Tools.getIntegerProperty(properties, "pendingHoldMs", DEFAULT_PENDING_HOLD_MS);
+        pendingBufferSize = Tools.getIntegerProperty(properties, "pendingBufferSize",
+                DEFAULT_PENDING_BUFFER_SIZE);
+        pendingRequests.configure(pendingHoldMs, pendingBufferSize);
+        log.info("Configured. Pending hold time {} ms, pending buffer size {}",
+                pendingHoldMs, pendingBufferSize);
+    }
+
+    @Override
+    public Map<String, Long> getPendingStatis() {
+        return pendingRequests.getStatis();
+    }
+
     private void setUp() {
         bootFlag = true;
         oxpVersion = domainController.getOxpVersion();
@@ -173,10 +237,39 @@ public class OxpDomainRouting {
                 Ethernet.deserializer().deserialize(data, 0, data.length));
     }
 
+    /**
+     * Sends a packet-out of the super, then the packets of the same flow
+     * held back while the super was deciding.
+     */
     private void translatePacketOutMessage(PortNumber outPort, Ethernet ethpkt) {
         if (outPort == null) {
             return;
         }
+        emitPacketOut(outPort, ethpkt);
+        for (Ethernet held : releasePending(ethpkt)) {
+            emitPacketOut(outPort, held);
+        }
+    }
+
+    private List<Ethernet> releasePending(Ethernet ethpkt) {
+        if (ethpkt.getEtherType() == Ethernet.TYPE_ARP) {
+            ARP arp = (ARP) ethpkt.getPayload();
+            int sender = Ip4Address.valueOf(arp.getSenderProtocolAddress()).toInt();
+            int target = Ip4Address.valueOf(arp.getTargetProtocolAddress()).toInt();
+            if (arp.getOpCode() == ARP.OP_REPLY) {
+                // 代理ARP应答与等待的请求方向相反, 该应答已回答这些请求, 不再发送
+                pendingRequests.release(target, sender);
+                return Collections.emptyList();
+            }
+            return pendingRequests.release(sender, target);
+        } else if (ethpkt.getEtherType() == Ethernet.TYPE_IPV4) {
+            IPv4 ipv4 = (IPv4) ethpkt.getPayload();
+            return pendingRequests.release(ipv4.getSourceAddress(), ipv4.getDestinationAddress());
+        }
+        return Collections.emptyList();
+    }
+
+    private void emitPacketOut(PortNumber outPort, Ethernet ethpkt) {
         if (outPort.toLong() == OXPVport.LOCAL.getPortNumber()) {
             if (ethpkt.getEtherType() == Ethernet.TYPE_ARP) {
                 ARP arp = (ARP) ethpkt.getPayload();
@@ -202,16 +295,41 @@ public class OxpDomainRouting {
                 IPv4Address.of(cmpFwdReply.getDstIpAddress().getBytes()),
                 cmpFwdReply.getSrcVport(),
                 cmpFwdReply.getDstVport(),
+                Ip4Prefix.MAX_MASK_LENGTH,
+                dstMaskLength(cmpFwdReply.getMask()),
                 EthType.of(cmpFwdReply.getEthType()));
     }
 
+    private static int dstMaskLength(org.onosproject.oxp.types.IPv4Address mask) {
+        if (null == mask || !mask.isCidrMask() || mask.asCidrMaskLength() == 0) {
+            return Ip4Prefix.MAX_MASK_LENGTH;
+        }
+        return mask.asCidrMaskLength();
+    }
+
     private void translateFlowModeMessage(OFFlowMod flowMod) {
         //Ethernet ethpkt = Ethernet.deserializer().deserialize(flowMod.getData(), 0, pktout.getData().length);
         Match match = flowMod.getMatch();
-        IPv4Address srcIp = (IPv4Address) match.get(MatchField.IPV4_SRC);
-        IPv4Address dstIp = (IPv4Address) match.get(MatchField.IPV4_DST);
-        Host srcHost = getFirstHostByIp(IpAddress.valueOf(srcIp.getInt()));
-        Host dstHost = getFirstHostByIp(IpAddress.valueOf(dstIp.getInt()));
+        IPv4Address srcIp;
+        int srcMaskLength = Ip4Prefix.MAX_MASK_LENGTH;
+        if (match.isPartiallyMasked(MatchField.IPV4_SRC)) {
+            // 聚合规则: 按源前缀匹配, 值为源主机地址
+            org.projectfloodlight.openflow.types.Masked<IPv4Address> src = match.getMasked(MatchField.IPV4_SRC);
+            srcIp = src.getValue();
+            srcMaskLength = src.getMask().asCidrMaskLength();
+        } else {
+            srcIp = (IPv4Address) match.get(MatchField.IPV4_SRC);
+        }
+        IPv4Address dstIp;
+        int dstMaskLength = Ip4Prefix.MAX_MASK_LENGTH;
+        if (match.isPartiallyMasked(MatchField.IPV4_DST)) {
+            // 聚合规则: 按目的前缀匹配
+            org.projectfloodlight.openflow.types.Masked<IPv4Address> dst = match.getMasked(MatchField.IPV4_DST);
+            dstIp = dst.getValue();
+            dstMaskLength = dst.getMask().asCidrMaskLength();
+        } else {
+            dstIp = (IPv4Address) match.get(MatchField.IPV4_DST);
+        }
         EthType ethType = (EthType) match.get(MatchField.ETH_TYPE);
         OFPort inPort  = match.get(MatchField.IN_PORT);
         OFPort outPort  = null;
@@ -221,7 +339,8 @@ public class OxpDomainRouting {
                 break;
             }
         }
-        translateFlowModeMessage(srcIp, dstIp, inPort.getPortNumber(), outPort.getPortNumber(), ethType);
+        translateFlowModeMessage(srcIp, dstIp, inPort.getPortNumber(), outPort.getPortNumber(),
+                srcMaskLength, dstMaskLength, ethType);
 //        ConnectPoint srcConnectPoint = null;
 //        ConnectPoint dstConnectPoint = null;
 //        if (null == srcHost) {
@@ -270,9 +389,43 @@ public class OxpDomainRouting {
         //packetOut(dstConnectPoint, ethpkt);
     }
 
+    /**
+     * Installs the flow decided by the super, then sends the packets of the
+     * flow held back while the super was deciding.
+     */
     private void translateFlowModeMessage(IPv4Address srcIp, IPv4Address dstIp,
                                      long srcVport, long dstVport,
-                                     EthType ethType) {
+                                     int srcMaskLength, int dstMaskLength, EthType ethType) {
+        installFlowPath(srcIp, dstIp, srcVport, dstVport, srcMaskLength, dstMaskLength, ethType);
+        PortNumber outPort = PortNumber.portNumber(dstVport);
+        for (Ethernet held : pendingRequests.release(srcIp.getInt(), dstIp.getInt(), (int) srcVport)) {
+            emitPacketOut(outPort, held);
+        }
+    }
+
+    /**
+     * Installs the rules from the in-vport, or the source host, to the
+     * out-vport, or the destination host. Aggregated rules match the source
+     * and destination prefixes given by the masks, and serve every flow
+     * between them entering through the same port. Towards local hosts a
+     * destination prefix is expanded to one path per known host of the
+     * prefix, as the hosts may sit behind different switches.
+     */
+    private void installFlowPath(IPv4Address srcIp, IPv4Address dstIp,
+                                 long srcVport, long dstVport,
+                                 int srcMaskLength, int dstMaskLength, EthType ethType) {
+        if (dstVport == OXPVport.LOCAL.getPortNumber() && dstMaskLength < Ip4Prefix.MAX_MASK_LENGTH) {
+            Ip4Prefix dstPrefix = Ip4Prefix.valueOf(dstIp.getInt(), dstMaskLength);
+            for (Host host : hostService.getHosts()) {
+                for (IpAddress ip : host.ipAddresses()) {
+                    if (ip.isIp4() && dstPrefix.contains(ip)) {
+                        installFlowPath(srcIp, IPv4Address.of(ip.getIp4Address().toInt()), srcVport, dstVport,
+                                srcMaskLength, Ip4Prefix.MAX_MASK_LENGTH, ethType);
+                    }
+                }
+            }
+            return;
+        }
         OFPort inPort  = OFPort.of((int) srcVport);
         OFPort outPort  = OFPort.of((int) dstVport);
         Host srcHost = getFirstHostByIp(IpAddress.valueOf(srcIp.getInt()));
@@ -295,7 +448,7 @@ public class OxpDomainRouting {
         // check if src and dst are on same device
         if (srcConnectPoint.deviceId().equals(dstConnectPoint.deviceId())) {
             installForwardRule(srcConnectPoint.deviceId(), ethType,
-                    srcIp, dstIp,
+                    srcIp, dstIp, srcMaskLength, dstMaskLength,
                     srcConnectPoint.port(), dstConnectPoint.port());
             return;
         }
@@ -308,16 +461,16 @@ public class OxpDomainRouting {
         for (Link link : links) {
             if (link.src().equals(path.src())) {
                 installForwardRule(link.src().deviceId(), ethType,
-                        srcIp, dstIp,
+                        srcIp, dstIp, srcMaskLength, dstMaskLength,
                         srcConnectPoint.port(), link.src().port());
             } else {
                 installForwardRule(link.src().deviceId(), ethType,
-                        srcIp, dstIp,
+                        srcIp, dstIp, srcMaskLength, dstMaskLength,
                         lastLink.dst().port(), link.src().port());
             }
             if (link.dst().equals(path.dst())) {
                 installForwardRule(link.dst().deviceId(), ethType,
-                        srcIp, dstIp,
+                        srcIp, dstIp, srcMaskLength, dstMaskLength,
                         link.dst().port(), dstConnectPoint.port());
             }
             lastLink = link;
@@ -325,22 +478,22 @@ public class OxpDomainRouting {
     }
 
     private void installForwardRule(DeviceId deviceId, EthType ethType,
-                               IPv4Address srcIp, IPv4Address dstIp,
+                               IPv4Address srcIp, IPv4Address dstIp, int srcMaskLength, int dstMaskLength,
                                     PortNumber inPort,PortNumber outPort) {
+        boolean aggregated = srcMaskLength < Ip4Prefix.MAX_MASK_LENGTH
+                || dstMaskLength < Ip4Prefix.MAX_MASK_LENGTH;
         TrafficSelector.Builder selectorBuilder = DefaultTrafficSelector.builder();
         selectorBuilder.matchInPort(inPort)
                 .matchEthType((short) ethType.getValue())
-                .matchIPSrc(Ip4Prefix.valueOf(srcIp.getInt(),
-                        Ip4Prefix.MAX_MASK_LENGTH))
-                .matchIPDst(Ip4Prefix.valueOf(dstIp.getInt(),
-                        Ip4Prefix.MAX_MASK_LENGTH));
+                .matchIPSrc(Ip4Prefix.valueOf(srcIp.getInt(), srcMaskLength))
+                .matchIPDst(Ip4Prefix.valueOf(dstIp.getInt(), dstMaskLength));
         TrafficTreatment treatment = DefaultTrafficTreatment.builder()
                 .setOutput(outPort)
                 .build();
         ForwardingObjective forwardingObjective = DefaultForwardingObjective.builder()
                 .withSelector(selectorBuilder.build())
                 .withTreatment(treatment)
-                .withPriority(10)
+                .withPriority(aggregated ? AGGREGATE_PRIORITY : 10)
                 .withFlag(ForwardingObjective.Flag.VERSATILE)
                 .fromApp(appId)
                 .makeTemporary(15)
@@ -389,6 +542,21 @@ public class OxpDomainRouting {
         }
     }
 
+    /**
+     * Returns a copy of the received frame to relay to the super. Relayed
+     * packet-ins carry no buffer id, so the whole frame is sent: the super
+     * builds its packet-outs from these bytes.
+     */
+    private byte[] relayFrame(InboundPacket pkt, Ethernet ethPkt) {
+        ByteBuffer unparsed = pkt.unparsed();
+        if (null == unparsed) {
+            return ethPkt.serialize();
+        }
+        byte[] frame = new byte[unparsed.remaining()];
+        unparsed.duplicate().get(frame);
+        return frame;
+    }
+
     /**
      * 处理来自device的Packet-in消息,处理一下三种数据包:
      *  1.ARP-Request
@@ -434,36 +602,41 @@ public class OxpDomainRouting {
                 return;
             }
 
-            Match.Builder mBuilder = ofFactory.buildMatch();
-            mBuilder.setExact(MatchField.IN_PORT, OFPort.of((int) oxpDomainTopoService.getLogicalVportNum(connectPoint).toLong()));
-            //byte[] frame = context.inPacket().parsed().serialize();
-            byte[] frame = ethPkt.serialize();
-            OFPacketIn ofPacketInForSuper = ofFactory.buildPacketIn()
-                    .setBufferId(OFBufferId.NO_BUFFER)
-                    .setReason(OFPacketInReason.NO_MATCH)
-                    .setTableId(TableId.ZERO)
-                    .setCookie(U64.ofRaw(context.inPacket().cookie().get()))
-                    .setMatch(mBuilder.build())
-                    .setData(frame)
-                    //.setTotalLen(frame.length)
-                    .build();
-            ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
-            ofPacketInForSuper.writeTo(buffer);
-            //byte[] data = buffer.array();
-            byte[] data = new byte[buffer.readableBytes()];
-            buffer.readBytes(data, 0, buffer.readableBytes());
+            int inVport = (int) oxpDomainTopoService.getLogicalVportNum(connectPoint).toLong();
+            // 同一流已有请求在等待Super决策时不再上送
+            if (!pendingRequests.begin(srcAddress.getIp4Address().toInt(), target.getIp4Address().toInt(),
+                    inVport, ethPkt)) {
+                context.block();
+                return;
+            }
+
+            // 直接使用收到的原始帧, 无buffer_id时不截断
+            byte[] frame = relayFrame(pkt, ethPkt);
             if (domainController.isCompressedMode()) {
                 domainController.sendSbpFwdReqMsg(srcAddress, target,
-                        (int) oxpDomainTopoService.getLogicalVportNum(connectPoint).toLong()
-                        , Ip4Address.valueOf("255.255.255.255"),
-                        ethPkt.getEtherType(), (byte) 0, ethPkt.serialize());
+                        inVport, Ip4Address.valueOf("255.255.255.255"),
+                        ethPkt.getEtherType(), (byte) 0, frame);
             } else {
+                Match.Builder mBuilder = ofFactory.buildMatch();
+                mBuilder.setExact(MatchField.IN_PORT, OFPort.of(inVport));
+                OFPacketIn ofPacketInForSuper = ofFactory.buildPacketIn()
+                        .setBufferId(OFBufferId.NO_BUFFER)
+                        .setReason(OFPacketInReason.NO_MATCH)
+                        .setTableId(TableId.ZERO)
+                        .setCookie(U64.ofRaw(context.inPacket().cookie().get()))
+                        .setMatch(mBuilder.build())
+                        .setTotalLen(frame.length)
+                        .setData(frame)
+                        .build();
+                // packet-in直接编码进SBP数据缓冲区, 不再拷贝成byte[]
+                ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(frame.length + PACKET_IN_OVERHEAD);
+                ofPacketInForSuper.writeTo(buffer);
                 Set<OXPSbpFlags> oxpSbpflgs = new HashSet<>();
                 oxpSbpflgs.add(OXPSbpFlags.DATA_EXIST);
                 OXPSbp oxpSbp = oxpFactory.buildSbp()
                         .setSbpCmpType(OXPSbpCmpType.NORMAL)
                         .setFlags(oxpSbpflgs)
-                        .setSbpData(OXPSbpData.of(data, domainController.getOxpVersion()))
+                        .setSbpData(OXPSbpData.wrap(buffer, domainController.getOxpVersion()))
                         .build();
                 domainController.write(oxpSbp);
             }
@@ -1,6 +1,9 @@
 package org.onosproject.oxp.impl.domain;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import org.apache.felix.scr.annotations.*;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
@@ -8,6 +11,8 @@ import org.onlab.packet.Ethernet;
 import org.onlab.packet.Ip4Address;
 import org.onlab.packet.ONOSLLDP;
 import org.onlab.packet.OXPLLDP;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.cluster.ClusterMetadataService;
 import org.onosproject.incubator.net.PortStatisticsService;
 import org.onosproject.net.*;
@@ -20,7 +25,7 @@ import org.onosproject.net.link.LinkListener;
 import org.onosproject.net.link.LinkService;
 import org.onosproject.net.link.ProbedLinkProvider;
 import org.onosproject.net.packet.*;
-import org.onosproject.net.topology.PathService;
+import org.onosproject.net.topology.TopologyService;
 import org.onosproject.oxp.OxpSuper;
 import org.onosproject.oxp.OxpSuperMessageListener;
 import org.onosproject.oxp.domain.OxpDomainController;
@@ -31,6 +36,7 @@ import org.onosproject.oxp.protocol.ver10.OXPVportDescVer10;
 import org.onosproject.oxp.types.OXPInternalLink;
 import org.onosproject.oxp.types.OXPSbpData;
 import org.onosproject.oxp.types.OXPVport;
+import org.osgi.service.component.ComponentContext;
 import org.projectfloodlight.openflow.protocol.*;
 import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.protocol.match.MatchField;
@@ -39,6 +45,7 @@ import org.slf4j.Logger;
 
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -82,7 +89,7 @@ public class OxpDomainTopoManager implements OxpDomainTopoService {
     protected HostService hostService;
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
-    protected PathService pathService;
+    protected TopologyService topologyService;
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected PortStatisticsService portStatisticsService;
@@ -90,6 +97,29 @@ public class OxpDomainTopoManager implements OxpDomainTopoService {
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected DeviceService deviceService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected ComponentConfigService cfgService;
+
+    private static final int DEFAULT_FULL_SYNC_PERIODS = 10;
+    private static final int DEFAULT_VPORT_LOAD_THRESHOLD = 10;
+    private static final int DEFAULT_VPORT_MATRIX_THREADS = 4;
+
+    @Property(name = "incrementalTopo", boolValue = true,
+            label = "Send only changed internal links to the super between full resyncs")
+    private boolean incrementalTopo = true;
+
+    @Property(name = "topoFullSyncPeriods", intValue = DEFAULT_FULL_SYNC_PERIODS,
+            label = "Number of topology periods between two full topology replies")
+    private int topoFullSyncPeriods = DEFAULT_FULL_SYNC_PERIODS;
+
+    @Property(name = "vportLoadThreshold", intValue = DEFAULT_VPORT_LOAD_THRESHOLD,
+            label = "Vport load change, in percent of its capability, reported to the super")
+    private int vportLoadThreshold = DEFAULT_VPORT_LOAD_THRESHOLD;
+
+    @Property(name = "vportMatrixThreads", intValue = DEFAULT_VPORT_MATRIX_THREADS,
+            label = "Number of threads computing the vport reachability matrix")
+    private int vportMatrixThreads = DEFAULT_VPORT_MATRIX_THREADS;
+
     //TODO 需要添加Device监听,当有设备下线时,更新vport列表和links列表.
 
     private LinkListener linkListener = new InternalLinkListener();
@@ -99,13 +129,23 @@ public class OxpDomainTopoManager implements OxpDomainTopoService {
     private DeviceListener deviceListener = new InternalDeviceListener();
 
     private AtomicLong vportNo = new AtomicLong(1);
-    private Map<ConnectPoint, PortNumber> vportMap = new HashMap<>();
-    private Map<PortNumber, Long> vportCapabilityMap = new HashMap<>();
-    private Map<PortNumber, Long> vportTimes = new HashMap<>();
-    private Map<ConnectPoint, PortNumber> vportAllocateCache = new HashMap<>();
-    private Set<Link> intraLinkSet = new HashSet<>();
+    // 由Netty、包处理、设备事件与定时任务线程并发访问
+    private Map<ConnectPoint, PortNumber> vportMap = new ConcurrentHashMap<>();
+    private Map<PortNumber, ConnectPoint> vportLocations = new ConcurrentHashMap<>();
+    private Map<PortNumber, Long> vportCapabilityMap = new ConcurrentHashMap<>();
+    private Map<PortNumber, Long> vportTimes = new ConcurrentHashMap<>();
+    private Map<ConnectPoint, PortNumber> vportAllocateCache = new ConcurrentHashMap<>();
+    private Set<Link> intraLinkSet = ConcurrentHashMap.newKeySet();
     private boolean bootFlag = false;
 
+    // 增量拓扑: 已上报的internal links, 以及自上次上报后变化的vport
+    private final Map<Integer, OXPInternalLink> reportedIntraLinks = new HashMap<>();
+    private final Map<ConnectPoint, Long> reportedVportLoad = new HashMap<>();
+    private final Set<PortNumber> dirtyVports = Sets.newConcurrentHashSet();
+    private volatile boolean intraTopoDirty = true;
+    private volatile OxpVportMatrix vportMatrix;
+    private int periodsSinceFullSync = 0;
+
     private long staleVportAge = 10000;
 
 
@@ -117,13 +157,16 @@ public class OxpDomainTopoManager implements OxpDomainTopoService {
 
 
     @Activate
-    public void activate() {
+    public void activate(ComponentContext context) {
+        cfgService.registerProperties(getClass());
+        readComponentConfiguration(context);
         domainController.addOxpSuperListener(oxpSuperListener);
         log.info("Started");
     }
 
     @Deactivate
     public void deactivate() {
+        cfgService.unregisterProperties(getClass(), false);
         domainController.removeOxpSuperListener(oxpSuperListener);
         if (!bootFlag) {
             return;
@@ -131,18 +174,45 @@ public class OxpDomainTopoManager implements OxpDomainTopoService {
         if (executor != null) {
             executor.shutdownNow();
         }
+        if (vportMatrix != null) {
+            vportMatrix.stop();
+        }
         linkService.removeListener(linkListener);
         domainController.removeMessageListener(oxpMsgListener);
         packetService.removeProcessor(oxpLlapPacketProcessor);
         deviceService.removeListener(deviceListener);
         vportMap.clear();
+        vportLocations.clear();
         vportCapabilityMap.clear();
         intraLinkSet.clear();
         vportAllocateCache.clear();
         vportTimes.clear();
+        resetReportedTopo();
         log.info("Stoped");
     }
 
+    @Modified
+    public void modified(ComponentContext context) {
+        readComponentConfiguration(context);
+    }
+
+    private void readComponentConfiguration(ComponentContext context) {
+        Dictionary<?, ?> properties = context.getProperties();
+        Boolean incremental = Tools.isPropertyEnabled(properties, "incrementalTopo");
+        if (incremental != null) {
+            incrementalTopo = incremental;
+        }
+        topoFullSyncPeriods = Tools.getIntegerProperty(properties, "topoFullSyncPeriods",
+                DEFAULT_FULL_SYNC_PERIODS);
+        vportLoadThreshold = Tools.getIntegerProperty(properties, "vportLoadThreshold",
+                DEFAULT_VPORT_LOAD_THRESHOLD);
+        vportMatrixThreads = Tools.getIntegerProperty(properties, "vportMatrixThreads",
+                DEFAULT_VPORT_MATRIX_THREADS);
+        log.info("Configured. Incremental topo {}, full sync every {} periods, vport load threshold {}%, "
+                        + "vport matrix threads {}",
+                incrementalTopo, topoFullSyncPeriods, vportLoadThreshold, vportMatrixThreads);
+    }
+
     private void setUp() {
         bootFlag = true;
         oxpVersion = domainController.getOxpVersion();
@@ -153,6 +223,14 @@ public class OxpDomainTopoManager implements OxpDomainTopoService {
         linkService.addListener(linkListener);
         deviceService.addListener(deviceListener);
         packetService.addProcessor(oxpLlapPacketProcessor, PacketProcessor.advisor(0));
+        if (vportMatrix != null) {
+            vportMatrix.stop();
+        }
+        vportMatrix = new OxpVportMatrix(topologyService, deviceService, vportMatrixThreads);
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        resetReportedTopo();
         executor = newSingleThreadScheduledExecutor(groupedThreads("oxp/topoupdate", "oxp-topoupdate-%d", log));
         executor.scheduleAtFixedRate(new TopoUpdateTask(),
                 domainController.getPeriod(), domainController.getPeriod(), SECONDS);
@@ -160,22 +238,41 @@ public class OxpDomainTopoManager implements OxpDomainTopoService {
                 VPORT_PRUNER_DELAY, VPORT_PRUNER_DELAY, SECONDS);
     }
 
-    private void sendTopoReplyMsg(List<OXPInternalLink> oxpInternalLinks) {
-
-        //TODO
-    }
-
-    private void addVportInternal(ConnectPoint location, PortNumber vportNum) {
-        vportMap.put(location, vportNum);
+    /**
+     * Forgets what was reported to the super, so that the next topology
+     * reply carries every internal link.
+     */
+    private synchronized void resetReportedTopo() {
+        reportedIntraLinks.clear();
+        reportedVportLoad.clear();
+        dirtyVports.clear();
+        intraTopoDirty = true;
+        periodsSinceFullSync = 0;
+    }
+
+    /**
+     * Records a vport unless its location already has one.
+     *
+     * @return true if the vport was added
+     */
+    private boolean addVportInternal(ConnectPoint location, PortNumber vportNum) {
+        if (null != vportMap.putIfAbsent(location, vportNum)) {
+            return false;
+        }
+        vportLocations.put(vportNum, location);
         vportCapabilityMap.put(vportNum, DEFAULT_VPORT_CAP);
         touchVport(vportNum);
+        return true;
     }
 
     private void removeVPortInternal(PortNumber vportNum) {
-        ConnectPoint location = getLocationByVport(vportNum);
-        checkNotNull(location);
+        ConnectPoint location = vportLocations.remove(vportNum);
+        if (null == location) {
+            return;
+        }
         vportMap.remove(location);
         vportCapabilityMap.remove(vportNum);
+        vportTimes.remove(vportNum);
     }
 
     private void touchVport(PortNumber vportNum) {
@@ -184,35 +281,32 @@ public class OxpDomainTopoManager implements OxpDomainTopoService {
 
 
     private PortNumber allocateVportNo(ConnectPoint location) {
-        if (vportAllocateCache.containsKey(location)) {
-            return vportAllocateCache.get(location);
-        } else {
-            PortNumber newVportNum = portNumber(vportNo.getAndIncrement());
-            vportAllocateCache.put(location, newVportNum);
-            return newVportNum;
-        }
+        return vportAllocateCache.computeIfAbsent(location, k -> portNumber(vportNo.getAndIncrement()));
     }
     private void addOrUpdateVport(ConnectPoint edgeConnectPoint, OXPVportState vportState, OXPVportReason reason) {
         checkNotNull(edgeConnectPoint);
-        if (reason.equals(OXPVportReason.ADD) && vportMap.containsKey(edgeConnectPoint)) {
-            touchVport(vportMap.get(edgeConnectPoint));
-            return;
-        }
-        if (reason.equals(OXPVportReason.ADD) && !vportMap.containsKey(edgeConnectPoint)) {
+        if (reason.equals(OXPVportReason.ADD)) {
             // 添加Vport
-            // 1.分配Vport号,并记录<ConnectPoint, vportNo>
+            // 1.分配Vport号,并记录<ConnectPoint, vportNo>; 已存在则只刷新时间
             PortNumber allocatedVportNum = allocateVportNo(edgeConnectPoint);
-            addVportInternal(edgeConnectPoint, allocatedVportNum);
+            if (!addVportInternal(edgeConnectPoint, allocatedVportNum)) {
+                touchVport(vportMap.getOrDefault(edgeConnectPoint, allocatedVportNum));
+                return;
+            }
         }
         // 1.获取对应的vportNum
         PortNumber vportNum = vportMap.get(edgeConnectPoint);
+        if (null == vportNum) {
+            return;
+        }
         // 2.构造vportStatus消息:
         //    Reason:Add, State:Live
         if (reason.equals(OXPVportReason.DELETE)) {
             removeVPortInternal(vportNum);
         }
         updateVportToSuper(vportNum, vportState, reason);
-        updateTopo();
+        dirtyVports.add(vportNum);
+        updateTopo(false);
     }
 
     private void updateVportsToSuper() {
@@ -236,50 +330,168 @@ public class OxpDomainTopoManager implements OxpDomainTopoService {
         domainController.write(msg);
     }
 
-    private void updateTopo() {
+    /**
+     * Reports internal links to the super.
+     *
+     * In incremental mode only entries whose capability changed since they
+     * were last reported are sent, and withdrawn entries are sent with an
+     * unreachable capability. Entries are recomputed for every vport pair
+     * after an intra-domain link or device change, and only for the changed
+     * vports otherwise.
+     *
+     * @param full whether to send every internal link
+     */
+    private synchronized void updateTopo(boolean full) {
         // if mode is Advanced: synchronize intra links
         // else if mode is Simple: only send information of vport
-        List<OXPInternalLink> internalLinks = new ArrayList<>();
-        Set<PortNumber> hasHandledVport = new HashSet<>();
-        for (ConnectPoint srcConnectPoint : vportMap.keySet()) {
-            PortNumber srcVport = vportMap.get(srcConnectPoint);
-            OXPVport srcVportDesc = OXPVport.ofShort((short) srcVport.toLong());
-            long srcVportMaxCapability = getVportMaxCapability(srcConnectPoint);
-            long srcVportLoadCapability = getVportLoadCapability(srcConnectPoint);
-            for (ConnectPoint dstConnectPoint : vportMap.keySet()) {
-                PortNumber dstVport = vportMap.get(dstConnectPoint);
-                OXPVport dstVportDesc = OXPVport.ofShort((short) dstVport.toLong());
-                if (srcVport.equals(dstVport) && !hasHandledVport.contains(srcVport)) {
-                    hasHandledVport.add(srcVport);
-                    internalLinks.add(OXPInternalLink.of(srcVportDesc, dstVportDesc, srcVportMaxCapability, OXPVersion.OXP_10));
-                    internalLinks.add(OXPInternalLink.of(srcVportDesc, OXPVport.LOCAL, srcVportLoadCapability, OXPVersion.OXP_10));
-                    if (!domainController.isAdvancedMode()) {
-                        break;
-                    }
-                } else {
-                    if (!domainController.isAdvancedMode()) {
-                        continue;
-                    }
-                    if (srcConnectPoint.deviceId().equals(dstConnectPoint.deviceId())) {
-                        long linkCapability = getIntraLinkCapability(srcConnectPoint, dstConnectPoint);
-                        internalLinks.add(OXPInternalLink.of(srcVportDesc, dstVportDesc,
-                                linkCapability, OXPVersion.OXP_10));
-                    } else if (!pathService.getPaths(srcConnectPoint.deviceId(), dstConnectPoint.deviceId()).isEmpty()) {
-                        long linkCapability = getIntraLinkCapability(srcConnectPoint, dstConnectPoint);
-                        internalLinks.add(OXPInternalLink.of(srcVportDesc, dstVportDesc,
-                                linkCapability, OXPVersion.OXP_10));
-                    }
+        if (full || !incrementalTopo) {
+            dirtyVports.clear();
+            intraTopoDirty = false;
+            Map<Integer, OXPInternalLink> entries = computeInternalLinks(null);
+            List<OXPInternalLink> internalLinks = new ArrayList<>(entries.values());
+            // withdraw what the super still holds from earlier replies
+            for (OXPInternalLink reported : reportedIntraLinks.values()) {
+                if (!entries.containsKey(intraLinkKey(reported))) {
+                    internalLinks.add(OXPInternalLink.of(reported.getSrcVport(), reported.getDstVport(),
+                            OXPInternalLink.CAPABILITY_UNREACHABLE, OXPVersion.OXP_10));
                 }
             }
+            reportedIntraLinks.clear();
+            reportedIntraLinks.putAll(entries);
+            sendTopoReplyMsg(internalLinks);
+            return;
         }
+
+        Set<PortNumber> scope = null;
+        if (intraTopoDirty) {
+            intraTopoDirty = false;
+            dirtyVports.clear();
+        } else {
+            if (dirtyVports.isEmpty()) {
+                return;
+            }
+            scope = ImmutableSet.copyOf(dirtyVports);
+            dirtyVports.removeAll(scope);
+        }
+        Map<Integer, OXPInternalLink> entries = computeInternalLinks(scope);
+        List<OXPInternalLink> changed = new ArrayList<>();
+        for (Map.Entry<Integer, OXPInternalLink> entry : entries.entrySet()) {
+            OXPInternalLink reported = reportedIntraLinks.get(entry.getKey());
+            if (null == reported || reported.getCapability() != entry.getValue().getCapability()) {
+                reportedIntraLinks.put(entry.getKey(), entry.getValue());
+                changed.add(entry.getValue());
+            }
+        }
+        Iterator<Map.Entry<Integer, OXPInternalLink>> it = reportedIntraLinks.entrySet().iterator();
+        while (it.hasNext()) {
+            OXPInternalLink reported = it.next().getValue();
+            if (isInScope(reported, scope) && !entries.containsKey(intraLinkKey(reported))) {
+                it.remove();
+                changed.add(OXPInternalLink.of(reported.getSrcVport(), reported.getDstVport(),
+                        OXPInternalLink.CAPABILITY_UNREACHABLE, OXPVersion.OXP_10));
+            }
+        }
+        if (!changed.isEmpty()) {
+            sendTopoReplyMsg(changed);
+        }
+    }
+
+    private void sendTopoReplyMsg(List<OXPInternalLink> oxpInternalLinks) {
         // 将internalLinks发送至Super
         OXPTopologyReply topologyReply = oxpFactory
                 .buildTopologyReply()
-                .setInternalLink(internalLinks)
+                .setInternalLink(oxpInternalLinks)
                 .build();
         domainController.write(topologyReply);
     }
 
+    /**
+     * Computes the internal links touching the given vports, or all of
+     * them if scope is null. Reachability between vport devices comes from
+     * the vport matrix of the current topology.
+     */
+    private Map<Integer, OXPInternalLink> computeInternalLinks(Set<PortNumber> scope) {
+        Map<Integer, OXPInternalLink> internalLinks = new HashMap<>();
+        boolean advanced = domainController.isAdvancedMode();
+        Map<ConnectPoint, PortNumber> vports = ImmutableMap.copyOf(vportMap);
+        OxpVportMatrix.Snapshot matrix = null;
+        if (advanced) {
+            Set<DeviceId> vportDevices = new HashSet<>();
+            vports.keySet().forEach(connectPoint -> vportDevices.add(connectPoint.deviceId()));
+            matrix = vportMatrix.snapshot(vportDevices);
+        }
+        for (Map.Entry<ConnectPoint, PortNumber> src : vports.entrySet()) {
+            ConnectPoint srcConnectPoint = src.getKey();
+            PortNumber srcVport = src.getValue();
+            OXPVport srcVportDesc = OXPVport.ofShort((short) srcVport.toLong());
+            boolean srcInScope = null == scope || scope.contains(srcVport);
+            if (srcInScope) {
+                putInternalLink(internalLinks, OXPInternalLink.of(srcVportDesc, srcVportDesc,
+                        getVportMaxCapability(srcConnectPoint), OXPVersion.OXP_10));
+                putInternalLink(internalLinks, OXPInternalLink.of(srcVportDesc, OXPVport.LOCAL,
+                        getVportLoadCapability(srcConnectPoint), OXPVersion.OXP_10));
+            }
+            if (!advanced) {
+                continue;
+            }
+            for (Map.Entry<ConnectPoint, PortNumber> dst : vports.entrySet()) {
+                ConnectPoint dstConnectPoint = dst.getKey();
+                PortNumber dstVport = dst.getValue();
+                if (srcVport.equals(dstVport) || !(srcInScope || scope.contains(dstVport))) {
+                    continue;
+                }
+                int hops = matrix.hops(srcConnectPoint.deviceId(), dstConnectPoint.deviceId());
+                if (hops == OxpVportMatrix.UNREACHABLE) {
+                    continue;
+                }
+                OXPVport dstVportDesc = OXPVport.ofShort((short) dstVport.toLong());
+                long linkCapability = getIntraLinkCapability(srcConnectPoint, dstConnectPoint, hops,
+                        matrix.bottleneck(srcConnectPoint.deviceId(), dstConnectPoint.deviceId()));
+                putInternalLink(internalLinks, OXPInternalLink.of(srcVportDesc, dstVportDesc,
+                        linkCapability, OXPVersion.OXP_10));
+            }
+        }
+        return internalLinks;
+    }
+
+    private void putInternalLink(Map<Integer, OXPInternalLink> internalLinks, OXPInternalLink internalLink) {
+        internalLinks.put(intraLinkKey(internalLink), internalLink);
+    }
+
+    private static int intraLinkKey(OXPInternalLink internalLink) {
+        return (internalLink.getSrcVport().getPortNumber() & 0xffff) << 16
+                | (internalLink.getDstVport().getPortNumber() & 0xffff);
+    }
+
+    private static boolean isInScope(OXPInternalLink internalLink, Set<PortNumber> scope) {
+        if (null == scope) {
+            return true;
+        }
+        PortNumber src = PortNumber.portNumber(internalLink.getSrcVport().getPortNumber() & 0xffff);
+        PortNumber dst = PortNumber.portNumber(internalLink.getDstVport().getPortNumber() & 0xffff);
+        return scope.contains(src) || scope.contains(dst);
+    }
+
+    /**
+     * Marks vports whose load moved by more than the configured threshold
+     * since it was last reported.
+     */
+    private synchronized void checkVportLoad() {
+        for (Map.Entry<ConnectPoint, PortNumber> vport : ImmutableMap.copyOf(vportMap).entrySet()) {
+            long load = getVportLoadCapability(vport.getKey());
+            Long reported = reportedVportLoad.get(vport.getKey());
+            if (null != reported) {
+                long base = Math.max(getVportMaxCapability(vport.getKey()), 1);
+                if (Math.abs(load - reported) * 100 < base * vportLoadThreshold) {
+                    continue;
+                }
+            }
+            reportedVportLoad.put(vport.getKey(), load);
+            dirtyVports.add(vport.getValue());
+        }
+        reportedVportLoad.keySet().retainAll(vportMap.keySet());
+    }
+
     private long getVportLoadCapability(ConnectPoint connectPoint) {
         if (domainController.isCapBwSet()) {
             long vportCurSpeed =0;
@@ -328,13 +540,22 @@ public class OxpDomainTopoManager implements OxpDomainTopoService {
         return getIntraLinkMaxBw(srcConnectPoint, dstConnectPoint) - getIntraLinkLoadBw(srcConnectPoint, dstConnectPoint);
     }
 
-    private long getIntraLinkCapability(ConnectPoint srcConnectPoint, ConnectPoint dstConnectPoint) {
+    /**
+     * Returns the capability of an internal link: its load in percent of the
+     * smaller of the vport speeds and the bottleneck bandwidth of the path
+     * between them, or its hop count.
+     */
+    private long getIntraLinkCapability(ConnectPoint srcConnectPoint, ConnectPoint dstConnectPoint,
+                                        int hops, long bottleneck) {
         if (domainController.isCapBwSet()) {
-            if (srcConnectPoint.deviceId().equals(dstConnectPoint.deviceId())
-                    || !pathService.getPaths(srcConnectPoint.deviceId(), dstConnectPoint.deviceId()).isEmpty()) {
+            if (hops != OxpVportMatrix.UNREACHABLE) {
 //                long srcVportCap = getVportRestCapability(srcConnectPoint);
 //                long dstVportCap = getVportRestCapability(dstConnectPoint);
-                return getIntraLinkLoadBw(srcConnectPoint, dstConnectPoint) / getIntraLinkMaxBw(srcConnectPoint, dstConnectPoint) * 100;
+                long maxBw = Long.min(getIntraLinkMaxBw(srcConnectPoint, dstConnectPoint), bottleneck);
+                if (maxBw <= 0) {
+                    return 100;
+                }
+                return getIntraLinkLoadBw(srcConnectPoint, dstConnectPoint) * 100 / maxBw;
             } else {
                 return Long.MIN_VALUE;
             }
@@ -343,12 +564,8 @@ public class OxpDomainTopoManager implements OxpDomainTopoService {
             return 0;
         } else {
             // hop flag is set
-            if (srcConnectPoint.deviceId().equals(dstConnectPoint.deviceId())) {
-                return 0;
-            }
-            Set<Path> path = pathService.getPaths(srcConnectPoint.deviceId(), dstConnectPoint.deviceId());
-            if (!path.isEmpty()) {
-                return ((Path) path.toArray()[0]).links().size();
+            if (hops != OxpVportMatrix.UNREACHABLE) {
+                return hops;
             } else {
                 return Long.MAX_VALUE;
             }
@@ -357,7 +574,7 @@ public class OxpDomainTopoManager implements OxpDomainTopoService {
     }
 
     public PortNumber getLogicalVportNum(ConnectPoint connectPoint) {
-        return vportMap.containsKey(connectPoint) ? vportMap.get(connectPoint) : PortNumber.portNumber(OXPVport.LOCAL.getPortNumber());
+        return vportMap.getOrDefault(connectPoint, PortNumber.portNumber(OXPVport.LOCAL.getPortNumber()));
     }
 
     @Override
@@ -371,12 +588,7 @@ public class OxpDomainTopoManager implements OxpDomainTopoService {
 
     @Override
     public ConnectPoint getLocationByVport(PortNumber portNum) {
-        for (ConnectPoint connectPoint : vportMap.keySet()) {
-            if (vportMap.get(connectPoint).equals(portNum)) {
-                return connectPoint;
-            }
-        }
-        return null;
+        return vportLocations.get(portNum);
     }
 
     private final String buildSrcMac() {
@@ -392,7 +604,10 @@ public class OxpDomainTopoManager implements OxpDomainTopoService {
 
     private void vportVanished(PortNumber vportNum) {
         ConnectPoint location = getLocationByVport(vportNum);
-        checkNotNull(location);
+        if (null == location) {
+            // 已被其他线程移除
+            return;
+        }
         addOrUpdateVport(location,OXPVportState.BLOCKED, OXPVportReason.DELETE);
     }
 
@@ -400,7 +615,8 @@ public class OxpDomainTopoManager implements OxpDomainTopoService {
     private class InternalLinkListener implements LinkListener {
         @Override
         public void event(LinkEvent event) {
-            //TODO handle link event
+            // 域内链路变化可能改变任意vport对之间的连通性, 下个周期重算
+            intraTopoDirty = true;
         }
     }
 
@@ -411,26 +627,9 @@ public class OxpDomainTopoManager implements OxpDomainTopoService {
             if (msg.getType() != OXPType.OXPT_TOPO_REQUEST) {
                 return;
             }
-            List<OXPInternalLink> internalLinks = new ArrayList<>();
-            for (ConnectPoint srcConnectPoint : vportMap.keySet()) {
-                PortNumber srcVportNum = vportMap.get(srcConnectPoint);
-                for (ConnectPoint dstConnectPoint : vportMap.keySet()) {
-                    PortNumber dstVportNum = vportMap.get(dstConnectPoint);
-                    if (pathService.getPaths(srcConnectPoint.deviceId(), dstConnectPoint.deviceId()).size() > 0) {
-                        OXPVport srcOxpVport = OXPVport.ofShort((short) srcVportNum.toLong());
-                        OXPVport dstOxpVport = OXPVport.ofShort((short) dstVportNum.toLong());
-                        internalLinks.add(OXPInternalLink.of(srcOxpVport, dstOxpVport, PortSpeed.SPEED_10MB.getSpeedBps(), OXPVersion.OXP_10));
-                    }
-                }
-            }
-            if (internalLinks.size() == 0) {
-                return;
-            }
-            OXPTopologyReply topologyReply = oxpFactory
-                    .buildTopologyReply()
-                    .setInternalLink(internalLinks)
-                    .build();
-            domainController.write(topologyReply);
+            // Super的新节点也需要vport, 一并重新上报
+            updateVportsToSuper();
+            updateTopo(true);
         }
 
         @Override
@@ -514,6 +713,11 @@ public class OxpDomainTopoManager implements OxpDomainTopoService {
                         oxplldp.getVportNum(),
                         oxplldp.getDomainId(),
                         oxplldp.getVportNum());
+                // 保留Super时延探测的时间戳
+                Long timestamp = oxplldp.getTimestamp();
+                if (null != timestamp) {
+                    sbpOxplldp.setTimestamp(timestamp);
+                }
                 Ethernet ethPacket = new Ethernet();
                 ethPacket.setEtherType(Ethernet.TYPE_LLDP);
                 ethPacket.setDestinationMACAddress(ONOSLLDP.LLDP_NICIRA);
@@ -568,7 +772,18 @@ public class OxpDomainTopoManager implements OxpDomainTopoService {
                     ConnectPoint location = new ConnectPoint(delPort.element().id(), delPort.number());
                     addOrUpdateVport(location,OXPVportState.BLOCKED, OXPVportReason.DELETE);
                     break;
+                case PORT_UPDATED:
+                    PortNumber vportNum = vportMap.get(new ConnectPoint(event.subject().id(), event.port().number()));
+                    if (null != vportNum) {
+                        dirtyVports.add(vportNum);
+                    }
+                    break;
+                case DEVICE_ADDED:
+                case DEVICE_REMOVED:
+                    intraTopoDirty = true;
+                    break;
                 case DEVICE_AVAILABILITY_CHANGED:
+                    intraTopoDirty = true;
                     Device device = event.subject();
                     if (!deviceService.isAvailable(device.id())) {
                         for (Port port : deviceService.getPorts(device.id())) {
@@ -590,8 +805,13 @@ public class OxpDomainTopoManager implements OxpDomainTopoService {
         public void run() {
             // update vport
             updateVportsToSuper();
-            // update intra_links
-            updateTopo();
+            // update intra_links, full resync every topoFullSyncPeriods
+            checkVportLoad();
+            boolean full = ++periodsSinceFullSync >= topoFullSyncPeriods;
+            if (full) {
+                periodsSinceFullSync = 0;
+            }
+            updateTopo(full);
         }
     }
 
@@ -599,13 +819,13 @@ public class OxpDomainTopoManager implements OxpDomainTopoService {
         @Override
         public void run() {
             Set<PortNumber> toRemoedVports = new HashSet<>();
-            for (ConnectPoint location : vportMap.keySet()) {
-                PortNumber vportNum = vportMap.get(location);
-                if (isStale(vportTimes.get(vportNum))) {
+            for (PortNumber vportNum : vportMap.values()) {
+                long lastSeen = vportTimes.getOrDefault(vportNum, 0L);
+                if (isStale(lastSeen)) {
                     toRemoedVports.add(vportNum);
                     log.debug("Vport : {} is stale, remove it.", vportNum);
                 } else {
-                    log.debug("Vport : {} is in date, keep it. Live time:{}", vportNum,System.currentTimeMillis() - vportTimes.get(vportNum));
+                    log.debug("Vport : {} is in date, keep it. Live time:{}", vportNum, System.currentTimeMillis() - lastSeen);
                 }
             }
             for (PortNumber vport : toRemoedVports) {
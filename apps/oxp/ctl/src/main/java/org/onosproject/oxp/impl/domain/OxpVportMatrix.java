@@ -0,0 +1,194 @@
+package org.onosproject.oxp.impl.domain;
+
+import com.google.common.collect.ImmutableSet;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Port;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.topology.DefaultTopologyVertex;
+import org.onosproject.net.topology.Topology;
+import org.onosproject.net.topology.TopologyEdge;
+import org.onosproject.net.topology.TopologyGraph;
+import org.onosproject.net.topology.TopologyService;
+import org.onosproject.net.topology.TopologyVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * Reachability, hop count and bottleneck bandwidth between the devices
+ * holding vports.
+ *
+ * The matrix is built with one breadth-first search per source device
+ * over the graph of the current topology, sources being searched in
+ * parallel, and is kept until the topology changes or new vport devices
+ * show up. It replaces one path query per vport pair.
+ */
+class OxpVportMatrix {
+
+    private static final Logger log = LoggerFactory.getLogger(OxpVportMatrix.class);
+
+    static final int UNREACHABLE = -1;
+
+    private final TopologyService topologyService;
+    private final DeviceService deviceService;
+    private final ForkJoinPool pool;
+
+    private volatile Snapshot snapshot;
+
+    OxpVportMatrix(TopologyService topologyService, DeviceService deviceService, int parallelism) {
+        this.topologyService = topologyService;
+        this.deviceService = deviceService;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    void stop() {
+        pool.shutdownNow();
+        snapshot = null;
+    }
+
+    /**
+     * Returns the matrix between the given devices for the current topology,
+     * computing it only if the topology or the device set changed. If the
+     * computation fails the previous matrix is kept and returned, or an empty
+     * one if there is none yet.
+     *
+     * @param devices devices holding vports
+     * @return matrix snapshot
+     */
+    Snapshot snapshot(Set<DeviceId> devices) {
+        Topology topology = topologyService.currentTopology();
+        Snapshot current = snapshot;
+        if (null != current && current.topology == topology && current.devices.containsAll(devices)) {
+            return current;
+        }
+        Snapshot computed = compute(topology, ImmutableSet.copyOf(devices));
+        if (null == computed) {
+            return null != current ? current : new Snapshot(topology, ImmutableSet.of(), Collections.emptyMap());
+        }
+        snapshot = computed;
+        return computed;
+    }
+
+    /**
+     * Computes the matrix between the given devices.
+     *
+     * @return matrix snapshot, null if the computation failed
+     */
+    private Snapshot compute(Topology topology, Set<DeviceId> devices) {
+        TopologyGraph graph = topologyService.getGraph(topology);
+        Map<ConnectPoint, Long> speeds = new ConcurrentHashMap<>();
+        Map<DeviceId, Map<DeviceId, Entry>> rows;
+        try {
+            rows = pool.submit(() -> devices.parallelStream()
+                    .collect(toMap(src -> src, src -> search(graph, src, devices, speeds))))
+                    .get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            log.warn("Failed to compute vport matrix", e.getCause());
+            return null;
+        } catch (RejectedExecutionException e) {
+            // stopped, replaced by the matrix of a new super connection
+            return null;
+        }
+        return new Snapshot(topology, devices, rows);
+    }
+
+    /**
+     * Breadth-first search from one device; records hop count and the
+     * smallest link speed along the discovered shortest path.
+     */
+    private Map<DeviceId, Entry> search(TopologyGraph graph, DeviceId src,
+                                        Set<DeviceId> targets, Map<ConnectPoint, Long> speeds) {
+        Map<DeviceId, Entry> visited = new HashMap<>();
+        visited.put(src, new Entry(0, Long.MAX_VALUE));
+        Queue<DeviceId> queue = new ArrayDeque<>();
+        queue.add(src);
+        while (!queue.isEmpty()) {
+            DeviceId current = queue.poll();
+            Entry entry = visited.get(current);
+            TopologyVertex vertex = new DefaultTopologyVertex(current);
+            for (TopologyEdge edge : graph.getEdgesFrom(vertex)) {
+                DeviceId next = edge.dst().deviceId();
+                if (visited.containsKey(next)) {
+                    continue;
+                }
+                long speed = speeds.computeIfAbsent(edge.link().src(), this::portSpeed);
+                visited.put(next, new Entry(entry.hops + 1, Math.min(entry.bottleneck, speed)));
+                queue.add(next);
+            }
+        }
+        visited.keySet().retainAll(targets);
+        return visited;
+    }
+
+    // bps
+    private long portSpeed(ConnectPoint connectPoint) {
+        Port port = deviceService.getPort(connectPoint.deviceId(), connectPoint.port());
+        return null == port ? 0 : port.portSpeed() * 1000 * 1000;
+    }
+
+    static final class Entry {
+        private final int hops;
+        private final long bottleneck;
+
+        private Entry(int hops, long bottleneck) {
+            this.hops = hops;
+            this.bottleneck = bottleneck;
+        }
+    }
+
+    static final class Snapshot {
+        private final Topology topology;
+        private final Set<DeviceId> devices;
+        private final Map<DeviceId, Map<DeviceId, Entry>> rows;
+
+        private Snapshot(Topology topology, Set<DeviceId> devices, Map<DeviceId, Map<DeviceId, Entry>> rows) {
+            this.topology = topology;
+            this.devices = devices;
+            this.rows = rows;
+        }
+
+        private Entry entry(DeviceId src, DeviceId dst) {
+            Map<DeviceId, Entry> row = rows.get(src);
+            return null == row ? null : row.get(dst);
+        }
+
+        /**
+         * Returns the hop count of the shortest path, UNREACHABLE if none.
+         */
+        int hops(DeviceId src, DeviceId dst) {
+            if (src.equals(dst)) {
+                return 0;
+            }
+            Entry entry = entry(src, dst);
+            return null == entry ? UNREACHABLE : entry.hops;
+        }
+
+        /**
+         * Returns the smallest link speed in bps on the shortest path,
+         * 0 if unreachable, Long.MAX_VALUE within a device.
+         */
+        long bottleneck(DeviceId src, DeviceId dst) {
+            if (src.equals(dst)) {
+                return Long.MAX_VALUE;
+            }
+            Entry entry = entry(src, dst);
+            return null == entry ? 0 : entry.bottleneck;
+        }
+    }
+}
@@ -131,6 +131,12 @@ public class OxpSuperChannelHandler extends IdleStateAwareChannelHandler {
             void processOxpSbp(OxpSuperChannelHandler h, OXPSbp m) throws IOException {
                 h.dispatchMessage(m);
             }
+
+            @Override
+            void processOxpEchoReply(OxpSuperChannelHandler h, OXPEchoReply m) throws IOException {
+                // 时延探测的回复
+                h.dispatchMessage(m);
+            }
         };
 
         private final boolean handshakeComplete;
@@ -0,0 +1,279 @@
+package org.onosproject.oxp.impl.oxpsuper;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.onlab.util.KryoNamespace;
+import org.onosproject.cluster.ClusterEvent;
+import org.onosproject.cluster.ClusterEventListener;
+import org.onosproject.cluster.ClusterService;
+import org.onosproject.cluster.NodeId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.oxp.OXPDomain;
+import org.onosproject.oxp.exceptions.OXPParseError;
+import org.onosproject.oxp.protocol.OXPFactories;
+import org.onosproject.oxp.protocol.OXPMessage;
+import org.onosproject.store.cluster.messaging.ClusterCommunicationService;
+import org.onosproject.store.cluster.messaging.MessageSubject;
+import org.onosproject.store.serializers.KryoNamespaces;
+import org.onosproject.store.service.EventuallyConsistentMap;
+import org.onosproject.store.service.EventuallyConsistentMapEvent;
+import org.onosproject.store.service.EventuallyConsistentMapListener;
+import org.onosproject.store.service.StorageService;
+import org.onosproject.store.service.WallClockTimestamp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Shares the domains of the super across the nodes of an ONOS cluster.
+ *
+ * Each domain connects to one node, its owner. Ownership is kept in an
+ * eventually consistent map so every node knows all domains; the node a
+ * domain is connected to publishes it and withdraws it when the domain goes
+ * away, and the entries of a node that leaves the cluster are dropped by the
+ * others. The owner replays the topology and host messages of its domains to
+ * the other nodes, so each node builds the same super topology and can
+ * compute inter-domain paths; messages for a domain owned by another node
+ * are forwarded to that node, which writes them to the domain channel.
+ */
+class OxpSuperClusterSync {
+
+    private static final Logger log = LoggerFactory.getLogger(OxpSuperClusterSync.class);
+
+    private static final MessageSubject DOMAIN_MSG_SUBJECT = new MessageSubject("oxp-super-domain-msg");
+    private static final MessageSubject DOMAIN_OUT_SUBJECT = new MessageSubject("oxp-super-domain-out");
+
+    private final OxpSuperControllerImpl superController;
+    private final ClusterService clusterService;
+    private final ClusterCommunicationService clusterCommunicator;
+    private final StorageService storageService;
+
+    private final EventuallyConsistentMapListener<DeviceId, OxpSuperDomainDescription> ownershipListener =
+            new InternalOwnershipListener();
+    private final ClusterEventListener clusterListener = new InternalClusterListener();
+
+    private EventuallyConsistentMap<DeviceId, OxpSuperDomainDescription> domainOwners;
+    private ExecutorService messageExecutor;
+    private NodeId localNodeId;
+
+    OxpSuperClusterSync(OxpSuperControllerImpl superController, ClusterService clusterService,
+                        ClusterCommunicationService clusterCommunicator, StorageService storageService) {
+        this.superController = superController;
+        this.clusterService = clusterService;
+        this.clusterCommunicator = clusterCommunicator;
+        this.storageService = storageService;
+    }
+
+    void activate() {
+        localNodeId = clusterService.getLocalNode().id();
+        KryoNamespace.Builder serializer = KryoNamespace.newBuilder()
+                .register(KryoNamespaces.API)
+                .register(OxpSuperDomainDescription.class);
+        domainOwners = storageService.<DeviceId, OxpSuperDomainDescription>eventuallyConsistentMapBuilder()
+                .withName("oxp-super-domains")
+                .withSerializer(serializer)
+                .withTimestampProvider((k, v) -> new WallClockTimestamp())
+                .build();
+        // 单线程处理, 保证同一Domain的消息按序交付
+        messageExecutor = Executors.newSingleThreadExecutor(groupedThreads("onos/oxp", "cluster-sync", log));
+        clusterCommunicator.addSubscriber(DOMAIN_MSG_SUBJECT, OxpSuperClusterSync::decode,
+                this::processDomainMessages, messageExecutor);
+        clusterCommunicator.addSubscriber(DOMAIN_OUT_SUBJECT, OxpSuperClusterSync::decode,
+                this::processForwardedMessages, messageExecutor);
+        domainOwners.addListener(ownershipListener);
+        clusterService.addListener(clusterListener);
+        for (Map.Entry<DeviceId, OxpSuperDomainDescription> entry : domainOwners.entrySet()) {
+            if (!localNodeId.equals(entry.getValue().owner())) {
+                addRemoteDomain(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    void deactivate() {
+        clusterService.removeListener(clusterListener);
+        domainOwners.removeListener(ownershipListener);
+        clusterCommunicator.removeSubscriber(DOMAIN_MSG_SUBJECT);
+        clusterCommunicator.removeSubscriber(DOMAIN_OUT_SUBJECT);
+        messageExecutor.shutdown();
+        domainOwners.destroy();
+    }
+
+    /**
+     * Publishes a domain connected to this node.
+     *
+     * @param domain domain whose handshake completed
+     */
+    void localDomainAdded(OXPDomain domain) {
+        domainOwners.put(domain.getDeviceId(), new OxpSuperDomainDescription(localNodeId, domain));
+    }
+
+    /**
+     * Withdraws a domain disconnected from this node, unless another node
+     * took it over meanwhile.
+     *
+     * @param deviceId device of the domain
+     */
+    void localDomainRemoved(DeviceId deviceId) {
+        OxpSuperDomainDescription description = domainOwners.get(deviceId);
+        if (null != description && localNodeId.equals(description.owner())) {
+            domainOwners.remove(deviceId);
+        }
+    }
+
+    /**
+     * Returns the node a domain is connected to.
+     *
+     * @param deviceId device of the domain
+     * @return owning node, or null if the domain is unknown
+     */
+    NodeId getOwner(DeviceId deviceId) {
+        OxpSuperDomainDescription description = domainOwners.get(deviceId);
+        return null == description ? null : description.owner();
+    }
+
+    /**
+     * Replays a message received from a local domain on the other nodes.
+     *
+     * @param deviceId device of the domain
+     * @param msg      message received
+     */
+    void replicate(DeviceId deviceId, OXPMessage msg) {
+        clusterCommunicator.broadcast(encode(deviceId, msg), DOMAIN_MSG_SUBJECT, Function.identity());
+    }
+
+    /**
+     * Sends messages to a domain owned by another node.
+     *
+     * @param deviceId device of the domain
+     * @param msgs     messages to write to the domain
+     */
+    void forward(DeviceId deviceId, List<OXPMessage> msgs) {
+        NodeId owner = getOwner(deviceId);
+        if (null == owner || localNodeId.equals(owner)) {
+            log.debug("Drop msgs to {}, no other node owns it", deviceId);
+            return;
+        }
+        clusterCommunicator.unicast(encode(deviceId, msgs.toArray(new OXPMessage[msgs.size()])),
+                DOMAIN_OUT_SUBJECT, Function.identity(), owner)
+                .whenComplete((r, e) -> {
+                    if (null != e) {
+                        log.warn("Failed to forward msgs to {} through {}", deviceId, owner);
+                    }
+                });
+    }
+
+    private void processDomainMessages(DomainMessages domainMessages) {
+        for (OXPMessage msg : domainMessages.msgs) {
+            superController.processReplicatedMessage(domainMessages.deviceId, msg);
+        }
+    }
+
+    private void processForwardedMessages(DomainMessages domainMessages) {
+        superController.sendLocalMsgs(domainMessages.deviceId, domainMessages.msgs);
+    }
+
+    private void addRemoteDomain(DeviceId deviceId, OxpSuperDomainDescription description) {
+        OxpSuperRemoteDomain domain = new OxpSuperRemoteDomain(superController, this);
+        description.applyTo(deviceId, domain);
+        if (superController.addRemoteDomain(deviceId, domain)) {
+            // 向Domain重新请求拓扑与主机, 回复经属主节点复制到各节点
+            domain.sendMsg(domain.factory().buildTopologyRequest().build());
+            domain.sendMsg(domain.factory().buildHostRequest().build());
+        }
+    }
+
+    private static byte[] encode(DeviceId deviceId, OXPMessage... msgs) {
+        byte[] id = deviceId.toString().getBytes(StandardCharsets.UTF_8);
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+        buffer.writeShort(id.length);
+        buffer.writeBytes(id);
+        for (OXPMessage msg : msgs) {
+            msg.writeTo(buffer);
+        }
+        byte[] bytes = new byte[buffer.readableBytes()];
+        buffer.readBytes(bytes);
+        return bytes;
+    }
+
+    private static DomainMessages decode(byte[] bytes) {
+        ChannelBuffer buffer = ChannelBuffers.wrappedBuffer(bytes);
+        byte[] id = new byte[buffer.readUnsignedShort()];
+        buffer.readBytes(id);
+        DeviceId deviceId = DeviceId.deviceId(new String(id, StandardCharsets.UTF_8));
+        List<OXPMessage> msgs = new ArrayList<>();
+        try {
+            while (buffer.readable()) {
+                OXPMessage msg = OXPFactories.getGenericReader().readFrom(buffer);
+                if (null == msg) {
+                    break;
+                }
+                msgs.add(msg);
+            }
+        } catch (OXPParseError e) {
+            log.warn("Failed to decode msgs of {} from cluster: {}", deviceId, e.getMessage());
+        }
+        return new DomainMessages(deviceId, msgs);
+    }
+
+    private static final class DomainMessages {
+        private final DeviceId deviceId;
+        private final List<OXPMessage> msgs;
+
+        private DomainMessages(DeviceId deviceId, List<OXPMessage> msgs) {
+            this.deviceId = deviceId;
+            this.msgs = msgs;
+        }
+    }
+
+    private class InternalOwnershipListener
+            implements EventuallyConsistentMapListener<DeviceId, OxpSuperDomainDescription> {
+        @Override
+        public void event(EventuallyConsistentMapEvent<DeviceId, OxpSuperDomainDescription> event) {
+            DeviceId deviceId = event.key();
+            OXPDomain current = superController.getOxpDomain(deviceId);
+            boolean connectedHere = null != current && !(current instanceof OxpSuperRemoteDomain);
+            switch (event.type()) {
+                case PUT:
+                    if (!localNodeId.equals(event.value().owner()) && !connectedHere) {
+                        addRemoteDomain(deviceId, event.value());
+                    }
+                    break;
+                case REMOVE:
+                    if (connectedHere) {
+                        // 迟到的删除覆盖了本节点的登记, 重新登记
+                        localDomainAdded(current);
+                    } else {
+                        superController.removeRemoteDomain(deviceId);
+                    }
+                    break;
+                default:
+            }
+        }
+    }
+
+    private class InternalClusterListener implements ClusterEventListener {
+        @Override
+        public void event(ClusterEvent event) {
+            if (event.type() != ClusterEvent.Type.INSTANCE_DEACTIVATED
+                    && event.type() != ClusterEvent.Type.INSTANCE_REMOVED) {
+                return;
+            }
+            NodeId nodeId = event.subject().id();
+            // 节点离开后其Domain会重连到其他节点, 先撤销其登记
+            for (Map.Entry<DeviceId, OxpSuperDomainDescription> entry : domainOwners.entrySet()) {
+                if (nodeId.equals(entry.getValue().owner())) {
+                    domainOwners.remove(entry.getKey());
+                }
+            }
+        }
+    }
+}
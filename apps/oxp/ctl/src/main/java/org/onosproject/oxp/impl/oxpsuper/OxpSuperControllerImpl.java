@@ -9,6 +9,9 @@ import org.onlab.packet.ChassisId;
 import org.onlab.packet.DeserializationException;
 import org.onlab.packet.Ethernet;
 import org.onlab.packet.IpAddress;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.cluster.ClusterService;
 import org.onosproject.core.CoreService;
 import org.onosproject.net.DefaultDevice;
 import org.onosproject.net.Device;
@@ -21,17 +24,22 @@ import org.onosproject.oxp.OXPDomain;
 import org.onosproject.oxp.OxpDomainMessageListener;
 import org.onosproject.oxp.oxpsuper.OxpDomainListener;
 import org.onosproject.oxp.oxpsuper.OxpSuperController;
+import org.onosproject.oxp.oxpsuper.SbpPacketInContext;
 import org.onosproject.oxp.protocol.*;
 import org.onosproject.oxp.protocol.ver10.OXPForwardingReplyVer10;
 import org.onosproject.oxp.protocol.ver10.OXPPacketOutVer10;
 import org.onosproject.oxp.types.IPv4Address;
 import org.projectfloodlight.openflow.exceptions.OFParseError;
 import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.osgi.service.component.ComponentContext;
 import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.onosproject.store.cluster.messaging.ClusterCommunicationService;
+import org.onosproject.store.service.StorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
@@ -49,10 +57,56 @@ public class OxpSuperControllerImpl implements OxpSuperController {
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected CoreService coreService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected ComponentConfigService cfgService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected ClusterService clusterService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected ClusterCommunicationService clusterCommunicator;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected StorageService storageService;
+
+    private static final int DEFAULT_DISPATCH_THREADS = 8;
+    private static final int DEFAULT_DISPATCH_QUEUE_DEPTH = 4096;
+    private static final int DEFAULT_BATCH_WINDOW_US = 1000;
+    private static final int DEFAULT_BATCH_MAX_SIZE = 64;
+    private static final int DEFAULT_IO_THREADS = 0;
+
+    @Property(name = "dispatchThreads", intValue = DEFAULT_DISPATCH_THREADS,
+            label = "Number of threads handling domain messages; applied on restart")
+    private int dispatchThreads = DEFAULT_DISPATCH_THREADS;
+
+    @Property(name = "dispatchQueueDepth", intValue = DEFAULT_DISPATCH_QUEUE_DEPTH,
+            label = "Maximum queued messages per dispatch thread; applied on restart")
+    private int dispatchQueueDepth = DEFAULT_DISPATCH_QUEUE_DEPTH;
+
+    @Property(name = "dropSbpOnOverload", boolValue = true,
+            label = "Drop SBP packet-ins instead of blocking the I/O thread when the dispatch queue is full")
+    private boolean dropSbpOnOverload = true;
+
+    @Property(name = "batchWindowUs", intValue = DEFAULT_BATCH_WINDOW_US,
+            label = "Time in microseconds flow-mods and packet-outs to a domain are aggregated; 0 disables batching")
+    private int batchWindowUs = DEFAULT_BATCH_WINDOW_US;
+
+    @Property(name = "batchMaxSize", intValue = DEFAULT_BATCH_MAX_SIZE,
+            label = "Maximum messages aggregated in one write to a domain")
+    private int batchMaxSize = DEFAULT_BATCH_MAX_SIZE;
+
+    @Property(name = "ioThreads", intValue = DEFAULT_IO_THREADS,
+            label = "Number of I/O threads serving domain connections, 0 for twice the cores; applied on restart")
+    private int ioThreads = DEFAULT_IO_THREADS;
+
+    private OxpSuperMessageDispatcher dispatcher;
+    private OxpSuperOutboundBatcher batcher;
+    private OxpSuperClusterSync clusterSync;
+
     private Map<DeviceId, OXPDomain> domainMap;
     private Map<DeviceId, Device> deviceMap;
-    private Map<OXPType, Long> msgCountStatis = new HashMap<>();
-    private Map<OXPType, Long> msgLengthStatis = new HashMap<>();
+    private Map<OXPType, Long> msgCountStatis = new ConcurrentHashMap<>();
+    private Map<OXPType, Long> msgLengthStatis = new ConcurrentHashMap<>();
 
     private OxpDomainMessageListener msgStatisListener = new InternalDomainMsgListener();
     private OxpDomainListener domainListener = new InternalDomainListener();
@@ -70,7 +124,9 @@ public class OxpSuperControllerImpl implements OxpSuperController {
     private boolean isLoadBalance = true;
 
     @Activate
-    public void activate() {
+    public void activate(ComponentContext context) {
+        cfgService.registerProperties(getClass());
+        readComponentConfiguration(context);
 //        OxpSuperConfig superConfig = null;
 //        int tryTimes = 10;
 //        int i = 0;
@@ -92,20 +148,29 @@ public class OxpSuperControllerImpl implements OxpSuperController {
             return;
         }
         initSuperCfg();
-        domainMap = new HashMap<>();
-        deviceMap = new HashMap<>();
+        domainMap = new ConcurrentHashMap<>();
+        deviceMap = new ConcurrentHashMap<>();
+        dispatcher = new OxpSuperMessageDispatcher(dispatchThreads, dispatchQueueDepth, dropSbpOnOverload);
+        batcher = new OxpSuperOutboundBatcher(this::sendMsgs, batchWindowUs, batchMaxSize);
         this.addMessageListener(msgStatisListener);
         this.addOxpDomainListener(domainListener);
+        clusterSync = new OxpSuperClusterSync(this, clusterService, clusterCommunicator, storageService);
+        clusterSync.activate();
+        connector.setWorkerThreads(ioThreads);
         connector.start();
         log.info("OxpSuperController started...");
     }
 
     @Deactivate
     public void deactivate() {
+        cfgService.unregisterProperties(getClass(), false);
         if (!superConfig.getBootFlag()) {
             return;
         }
         connector.stop();
+        clusterSync.deactivate();
+        dispatcher.stop();
+        batcher.stop();
         domainMap.clear();
         deviceMap.clear();
         msgCountStatis.clear();
@@ -113,6 +178,33 @@ public class OxpSuperControllerImpl implements OxpSuperController {
         log.info("OxpSuperController stoped...");
     }
 
+    @Modified
+    public void modified(ComponentContext context) {
+        readComponentConfiguration(context);
+        if (null != dispatcher) {
+            dispatcher.setDropOnOverload(dropSbpOnOverload);
+        }
+        if (null != batcher) {
+            batcher.setWindow(batchWindowUs, batchMaxSize);
+        }
+    }
+
+    private void readComponentConfiguration(ComponentContext context) {
+        Dictionary<?, ?> properties = context.getProperties();
+        dispatchThreads = Tools.getIntegerProperty(properties, "dispatchThreads", DEFAULT_DISPATCH_THREADS);
+        dispatchQueueDepth = Tools.getIntegerProperty(properties, "dispatchQueueDepth", DEFAULT_DISPATCH_QUEUE_DEPTH);
+        Boolean dropEnabled = Tools.isPropertyEnabled(properties, "dropSbpOnOverload");
+        if (dropEnabled != null) {
+            dropSbpOnOverload = dropEnabled;
+        }
+        batchWindowUs = Tools.getIntegerProperty(properties, "batchWindowUs", DEFAULT_BATCH_WINDOW_US);
+        batchMaxSize = Tools.getIntegerProperty(properties, "batchMaxSize", DEFAULT_BATCH_MAX_SIZE);
+        ioThreads = Tools.getIntegerProperty(properties, "ioThreads", DEFAULT_IO_THREADS);
+        log.info("Configured. Dispatch threads {}, queue depth {}, drop SBP on overload {}, " +
+                        "batch window {}us, batch size {}, I/O threads {}",
+                dispatchThreads, dispatchQueueDepth, dropSbpOnOverload, batchWindowUs, batchMaxSize, ioThreads);
+    }
+
     public void initSuperCfg() {
         this.setOxpVersion(OXPVersion.ofWireValue(superConfig.getOxpVersin()));
         this.setOxpSuperPort(superConfig.getSuperPort());
@@ -200,6 +292,31 @@ public class OxpSuperControllerImpl implements OxpSuperController {
         }
     }
 
+    @Override
+    public void sendBatchedMsg(DeviceId deviceId, OXPMessage msg, Object pendingKey) {
+        if (null == batcher) {
+            sendMsg(deviceId, msg);
+            return;
+        }
+        batcher.send(deviceId, msg, pendingKey);
+    }
+
+    private void sendMsgs(DeviceId deviceId, List<OXPMessage> msgs) {
+        OXPDomain domain = getOxpDomain(deviceId);
+        if (null != domain && domain.isConnected()) {
+            domain.sendMsg(msgs);
+        }
+    }
+
+    /**
+     * Writes messages forwarded by another node to a domain connected here.
+     */
+    void sendLocalMsgs(DeviceId deviceId, List<OXPMessage> msgs) {
+        if (isLocalDomain(deviceId)) {
+            sendMsgs(deviceId, msgs);
+        }
+    }
+
     @Override
     public void sendSbpPacketOut(DeviceId deviceId, PortNumber outPort, byte[] data) {
         OXPPacketOut oxpPacketOut = OXPPacketOutVer10.of((int) outPort.toLong(), data);
@@ -213,7 +330,7 @@ public class OxpSuperControllerImpl implements OxpSuperController {
                 .setSbpXid(1)
                 .setSbpCmpData(oxpPacketOut)
                 .build();
-        sendMsg(deviceId, sbpMsg);
+        sendBatchedMsg(deviceId, sbpMsg, null);
     }
 
     @Override
@@ -236,12 +353,20 @@ public class OxpSuperControllerImpl implements OxpSuperController {
                 .setSbpXid(1)
                 .setSbpCmpData(sbpCmpFwdReply)
                 .build();
-        sendMsg(deviceId, sbpMsg);
+        // 同一匹配(srcIp, dstIp, inport, ethType)的转发回复在批次内只发一次
+        sendBatchedMsg(deviceId, sbpMsg, Arrays.asList(sbpCmpType, srcIp, dstIp, srcPort, ethType));
     }
 
     @Override
     public void addDomain(DeviceId deviceId, OXPDomain domain) {
-        domainMap.put(deviceId, domain);
+        OXPDomain previous = domainMap.put(deviceId, domain);
+        if (null != clusterSync && !(domain instanceof OxpSuperRemoteDomain)) {
+            clusterSync.localDomainAdded(domain);
+        }
+        // 由其他节点接管回本节点时拓扑已存在, 不再通知
+        if (previous instanceof OxpSuperRemoteDomain) {
+            return;
+        }
         Device device = new DefaultDevice(ProviderId.NONE, deviceId, Device.Type.CONTROLLER,
                 "FNL", "1.0", "1.0", "001", new ChassisId(domain.getDomainId().getLong()));
         deviceMap.put(deviceId, device);
@@ -256,12 +381,52 @@ public class OxpSuperControllerImpl implements OxpSuperController {
         if (null != oxpDomain) {
             domainMap.remove(deviceId);
             deviceMap.remove(deviceId);
+            if (null != dispatcher) {
+                dispatcher.discard(oxpDomain.getDomainId());
+            }
+            if (null != batcher) {
+                batcher.remove(deviceId);
+            }
+            if (null != clusterSync && !(oxpDomain instanceof OxpSuperRemoteDomain)) {
+                clusterSync.localDomainRemoved(deviceId);
+            }
             for (OxpDomainListener listener : oxpDomainListeners) {
                 listener.domainDisconnected(oxpDomain);
             }
         }
     }
 
+    /**
+     * Adds or replaces a domain owned by another node, unless the domain is
+     * connected to this node.
+     *
+     * @return true if the domain was added or moved to another owner
+     */
+    boolean addRemoteDomain(DeviceId deviceId, OxpSuperRemoteDomain domain) {
+        OXPDomain current = domainMap.get(deviceId);
+        if (null != current && !(current instanceof OxpSuperRemoteDomain)) {
+            return false;
+        }
+        if (null != current) {
+            domainMap.put(deviceId, domain);
+            return true;
+        }
+        addDomain(deviceId, domain);
+        return true;
+    }
+
+    void removeRemoteDomain(DeviceId deviceId) {
+        if (getOxpDomain(deviceId) instanceof OxpSuperRemoteDomain) {
+            removeDomain(deviceId);
+        }
+    }
+
+    @Override
+    public boolean isLocalDomain(DeviceId deviceId) {
+        OXPDomain domain = getOxpDomain(deviceId);
+        return null != domain && !(domain instanceof OxpSuperRemoteDomain);
+    }
+
     @Override
     public void processDownstreamMessage(DeviceId deviceId,List<OXPMessage> msgs) {
         for (OxpDomainMessageListener msgListener : messageListeners) {
@@ -271,8 +436,84 @@ public class OxpSuperControllerImpl implements OxpSuperController {
 
     @Override
     public void processMessage(DeviceId deviceId,OXPMessage msg) {
+        OXPDomain domain = getOxpDomain(deviceId);
+        if (null == domain) {
+            return;
+        }
+        if (null == dispatcher) {
+            deliverMessage(deviceId, msg, true);
+            return;
+        }
+        // SBP packet-ins may be dropped under overload, control messages never are
+        dispatcher.dispatch(domain.getDomainId(), () -> deliverMessage(deviceId, msg, true),
+                msg.getType() == OXPType.OXPT_SBP);
+    }
+
+    /**
+     * Handles a message another node received from one of its domains.
+     */
+    void processReplicatedMessage(DeviceId deviceId, OXPMessage msg) {
+        OXPDomain domain = getOxpDomain(deviceId);
+        // 未知的Domain在登记后会重新请求拓扑
+        if (!(domain instanceof OxpSuperRemoteDomain)) {
+            return;
+        }
+        if (null == dispatcher) {
+            deliverMessage(deviceId, msg, false);
+            return;
+        }
+        dispatcher.dispatch(domain.getDomainId(), () -> deliverMessage(deviceId, msg, false),
+                msg.getType() == OXPType.OXPT_SBP);
+    }
+
+    private void deliverMessage(DeviceId deviceId, OXPMessage msg, boolean local) {
+        // 断开后仍在处理的消息不能重建该Domain的状态
+        if (null == getOxpDomain(deviceId)) {
+            return;
+        }
+        if (local && null != clusterSync && isReplicated(msg.getType())) {
+            clusterSync.replicate(deviceId, msg);
+        }
         for (OxpDomainMessageListener listener : messageListeners) {
-            listener.handleIncomingMessage(deviceId, msg);
+            // 其他节点复制来的消息由属主节点统计
+            if (local || listener != msgStatisListener) {
+                listener.handleIncomingMessage(deviceId, msg);
+            }
+        }
+        if (msg.getType() != OXPType.OXPT_SBP) {
+            return;
+        }
+        OXPSbp sbp = (OXPSbp) msg;
+        // decode the packet-in once and share it with every listener
+        SbpPacketInContext context = SbpPacketInContext.of(sbp);
+        // 链路发现的LLDP复制到其他节点, 其余Packet-in只由属主节点处理
+        if (local && null != clusterSync && null != context && context.etherType() == Ethernet.TYPE_LLDP) {
+            clusterSync.replicate(deviceId, msg);
+        }
+        if (null != context) {
+            for (OxpDomainMessageListener listener : messageListeners) {
+                listener.handlePacketIn(deviceId, context);
+            }
+        }
+        // listeners are done with the payload, let go of the inbound frame
+        if (null != sbp.getSbpData()) {
+            sbp.getSbpData().release();
+        }
+    }
+
+    /**
+     * Returns whether the messages of the type build state that every node
+     * keeps: vports, internal links and hosts.
+     */
+    private static boolean isReplicated(OXPType type) {
+        switch (type) {
+            case OXPT_VPORT_STATUS:
+            case OXPT_TOPO_REPLY:
+            case OXPT_HOST_UPDATE:
+            case OXPT_HOST_REPLY:
+                return true;
+            default:
+                return false;
         }
     }
 
@@ -303,8 +544,7 @@ public class OxpSuperControllerImpl implements OxpSuperController {
 
     @Override
     public OFMessage parseOfMessage(OXPSbp sbp) {
-        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
-        sbp.getSbpData().writeTo(buffer);
+        ChannelBuffer buffer = sbp.getSbpData().getBuffer();
         OFMessage ofMsg = null;
         try {
             ofMsg = OFFactories.getGenericReader().readFrom(buffer);
@@ -316,10 +556,9 @@ public class OxpSuperControllerImpl implements OxpSuperController {
     }
     @Override
     public Ethernet parseEthernet(byte data[]) {
-        ChannelBuffer buffer = ChannelBuffers.copiedBuffer(data);
         Ethernet eth = null;
         try {
-            eth = Ethernet.deserializer().deserialize(buffer.array(), 0, buffer.readableBytes());
+            eth = Ethernet.deserializer().deserialize(data, 0, data.length);
         } catch (DeserializationException e) {
             return null;
         }
@@ -336,19 +575,25 @@ public class OxpSuperControllerImpl implements OxpSuperController {
         return ImmutableMap.copyOf(msgLengthStatis);
     }
 
-    synchronized private void updateMsgStatis(OXPType type, long newLength) {
-        Long msgCount = null;
-        Long msgLength = null;
-        msgCount = msgCountStatis.get(type);
-        if (null == msgCount) {
-            msgCount = Long.valueOf(0);
+    @Override
+    public Map<String, Long> getDispatchStatis() {
+        if (null == dispatcher) {
+            return ImmutableMap.of();
         }
-        msgCountStatis.put(type, ++msgCount);
-        msgLength = msgLengthStatis.get(type);
-        if (null == msgLength) {
-            msgLength = Long.valueOf(0);
+        return dispatcher.getStatis();
+    }
+
+    @Override
+    public Map<String, Long> getBatchStatis() {
+        if (null == batcher) {
+            return ImmutableMap.of();
         }
-        msgLengthStatis.put(type, msgLength + newLength);
+        return batcher.getStatis();
+    }
+
+    private void updateMsgStatis(OXPType type, long newLength) {
+        msgCountStatis.merge(type, 1L, Long::sum);
+        msgLengthStatis.merge(type, newLength, Long::sum);
     }
 
     class InternalDomainMsgListener implements OxpDomainMessageListener {
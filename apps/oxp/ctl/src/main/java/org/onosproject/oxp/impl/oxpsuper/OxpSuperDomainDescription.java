@@ -0,0 +1,106 @@
+package org.onosproject.oxp.impl.oxpsuper;
+
+import org.onosproject.cluster.NodeId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.oxp.OXPDomain;
+import org.onosproject.oxp.protocol.OXPCapabilities;
+import org.onosproject.oxp.protocol.OXPConfigFlags;
+import org.onosproject.oxp.protocol.OXPSbpType;
+import org.onosproject.oxp.protocol.OXPSbpVersion;
+import org.onosproject.oxp.protocol.OXPVersion;
+import org.onosproject.oxp.types.DomainId;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Domain connected to a super node, as shared with the other nodes of the
+ * cluster: the owning node and what the domain announced in its handshake.
+ *
+ * Protocol values are kept as plain names and numbers so the description
+ * serializes without registering the OXP types.
+ */
+final class OxpSuperDomainDescription {
+
+    private final NodeId owner;
+    private final long domainId;
+    private final int oxpVersion;
+    private final String sbpType;
+    private final byte sbpVersion;
+    private final ArrayList<String> flags = new ArrayList<>();
+    private final ArrayList<String> capabilities = new ArrayList<>();
+    private final int period;
+    private final long missSendLen;
+
+    OxpSuperDomainDescription(NodeId owner, OXPDomain domain) {
+        this.owner = owner;
+        this.domainId = domain.getDomainId().getLong();
+        this.oxpVersion = domain.getOxpVersion().getWireVersion();
+        this.sbpType = null == domain.getOxpSbpTpe() ? null : domain.getOxpSbpTpe().name();
+        this.sbpVersion = null == domain.getOxpSbpVersion() ? 0 : domain.getOxpSbpVersion().getSbpVersion();
+        if (null != domain.getFlags()) {
+            domain.getFlags().forEach(flag -> flags.add(flag.name()));
+        }
+        if (null != domain.getCapabilities()) {
+            domain.getCapabilities().forEach(capability -> capabilities.add(capability.name()));
+        }
+        this.period = domain.getPeriod();
+        this.missSendLen = domain.getMissSendLen();
+    }
+
+    NodeId owner() {
+        return owner;
+    }
+
+    /**
+     * Fills a domain of this node with the announced values.
+     *
+     * @param deviceId device of the domain
+     * @param domain   domain to fill
+     */
+    void applyTo(DeviceId deviceId, OXPDomain domain) {
+        OXPVersion version = OXPVersion.ofWireValue(oxpVersion);
+        domain.setDeviceId(deviceId);
+        domain.setDomainId(DomainId.of(domainId));
+        domain.setOxpVersion(version);
+        domain.setCapabilities(toSet(capabilities, OXPCapabilities.class));
+        if (null != sbpType) {
+            // 先设置类型, 版本依赖类型确定OpenFlow版本
+            domain.setOxpSbpType(OXPSbpType.valueOf(sbpType));
+            domain.setOxpSbpVersion(OXPSbpVersion.of(sbpVersion, version));
+        }
+        domain.setFlags(toSet(flags, OXPConfigFlags.class));
+        domain.setPeriod(period);
+        domain.setMissSendLen(missSendLen);
+    }
+
+    private static <E extends Enum<E>> Set<E> toSet(List<String> names, Class<E> type) {
+        Set<E> set = EnumSet.noneOf(type);
+        names.forEach(name -> set.add(Enum.valueOf(type, name)));
+        return set;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(owner, domainId);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof OxpSuperDomainDescription)) {
+            return false;
+        }
+        OxpSuperDomainDescription that = (OxpSuperDomainDescription) obj;
+        return Objects.equals(owner, that.owner) && domainId == that.domainId
+                && oxpVersion == that.oxpVersion && Objects.equals(sbpType, that.sbpType)
+                && sbpVersion == that.sbpVersion && flags.equals(that.flags)
+                && capabilities.equals(that.capabilities) && period == that.period
+                && missSendLen == that.missSendLen;
+    }
+}
@@ -0,0 +1,184 @@
+package org.onosproject.oxp.impl.oxpsuper;
+
+import com.google.common.collect.ImmutableList;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.PortNumber;
+import org.onosproject.oxp.protocol.OXPVportDesc;
+import org.onosproject.oxp.types.OXPInternalLink;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Per-domain state of the super: vports, vport capabilities and internal
+ * links reported by each domain.
+ *
+ * Each domain has its own state and lock, so updates from different domains
+ * do not contend. Updates run under the domain lock through
+ * {@link #update(DeviceId, Consumer)} and publish immutable lists of the
+ * domain's vports and internal links when they are done; readers use those
+ * lists or the concurrent maps and never take a lock.
+ *
+ * State exists from {@link #addDomain(DeviceId)} to
+ * {@link #removeDomain(DeviceId)}; updates for a domain outside that window,
+ * such as late replies of a disconnected domain, are ignored.
+ */
+class OxpSuperDomainStore {
+
+    private final Map<DeviceId, DomainState> domains = new ConcurrentHashMap<>();
+
+    /**
+     * Applies an update to the state of a domain and publishes its views.
+     *
+     * @param deviceId domain device
+     * @param update   changes to apply
+     */
+    void update(DeviceId deviceId, Consumer<DomainState> update) {
+        DomainState state = domains.get(deviceId);
+        if (null == state) {
+            return;
+        }
+        synchronized (state) {
+            update.accept(state);
+            state.publish();
+        }
+    }
+
+    void addDomain(DeviceId deviceId) {
+        domains.computeIfAbsent(deviceId, DomainState::new);
+    }
+
+    void removeDomain(DeviceId deviceId) {
+        domains.remove(deviceId);
+    }
+
+    void clear() {
+        domains.clear();
+    }
+
+    List<PortNumber> getVports(DeviceId deviceId) {
+        DomainState state = domains.get(deviceId);
+        return null == state ? Collections.emptyList() : state.vportView;
+    }
+
+    OXPVportDesc getVportDesc(ConnectPoint vport) {
+        DomainState state = domains.get(vport.deviceId());
+        return null == state ? null : state.vports.get(vport.port());
+    }
+
+    long getVportMaxCapability(ConnectPoint vport) {
+        DomainState state = domains.get(vport.deviceId());
+        return null == state ? 0 : state.maxCapability.getOrDefault(vport.port(), 0L);
+    }
+
+    long getVportLoadCapability(ConnectPoint vport) {
+        DomainState state = domains.get(vport.deviceId());
+        return null == state ? 0 : state.loadCapability.getOrDefault(vport.port(), 0L);
+    }
+
+    List<Link> getIntraLinks(DeviceId deviceId) {
+        DomainState state = domains.get(deviceId);
+        return null == state ? Collections.emptyList() : state.intraLinkView;
+    }
+
+    OXPInternalLink getIntraLinkDesc(Link link) {
+        DomainState state = domains.get(link.src().deviceId());
+        return null == state ? null : state.intraLinks.get(link);
+    }
+
+    /**
+     * Mutable state of one domain; only modified under its own lock.
+     */
+    static final class DomainState {
+        private final DeviceId deviceId;
+        private final Map<PortNumber, OXPVportDesc> vports = new ConcurrentHashMap<>();
+        private final Map<PortNumber, Long> maxCapability = new ConcurrentHashMap<>();
+        private final Map<PortNumber, Long> loadCapability = new ConcurrentHashMap<>();
+        private final Map<Link, OXPInternalLink> intraLinks = new ConcurrentHashMap<>();
+
+        private volatile List<PortNumber> vportView = ImmutableList.of();
+        private volatile List<Link> intraLinkView = ImmutableList.of();
+        private boolean vportsChanged = false;
+        private boolean intraLinksChanged = false;
+
+        private DomainState(DeviceId deviceId) {
+            this.deviceId = deviceId;
+        }
+
+        DeviceId deviceId() {
+            return deviceId;
+        }
+
+        void putVport(PortNumber vportNum, OXPVportDesc vportDesc) {
+            vportsChanged |= null == vports.put(vportNum, vportDesc);
+        }
+
+        void removeVportDesc(PortNumber vportNum) {
+            vportsChanged |= null != vports.remove(vportNum);
+        }
+
+        /**
+         * Removes a vport with its capabilities and the internal links
+         * attached to it.
+         */
+        void removeVport(PortNumber vportNum) {
+            vportsChanged |= null != vports.remove(vportNum);
+            maxCapability.remove(vportNum);
+            loadCapability.remove(vportNum);
+            removeIntraLinks(vportNum);
+        }
+
+        Long putMaxCapability(PortNumber vportNum, long capability) {
+            return maxCapability.put(vportNum, capability);
+        }
+
+        void removeMaxCapability(PortNumber vportNum) {
+            maxCapability.remove(vportNum);
+        }
+
+        Long putLoadCapability(PortNumber vportNum, long capability) {
+            return loadCapability.put(vportNum, capability);
+        }
+
+        void removeLoadCapability(PortNumber vportNum) {
+            loadCapability.remove(vportNum);
+        }
+
+        OXPInternalLink putIntraLink(Link link, OXPInternalLink internalLink) {
+            OXPInternalLink old = intraLinks.put(link, internalLink);
+            intraLinksChanged |= null == old;
+            return old;
+        }
+
+        boolean removeIntraLink(Link link) {
+            boolean removed = null != intraLinks.remove(link);
+            intraLinksChanged |= removed;
+            return removed;
+        }
+
+        /**
+         * Removes the internal links attached to a vport, or all of them if
+         * vportNum is null.
+         */
+        void removeIntraLinks(PortNumber vportNum) {
+            intraLinksChanged |= intraLinks.keySet().removeIf(link -> null == vportNum
+                    || link.src().port().equals(vportNum) || link.dst().port().equals(vportNum));
+        }
+
+        private void publish() {
+            if (vportsChanged) {
+                vportView = ImmutableList.copyOf(vports.keySet());
+                vportsChanged = false;
+            }
+            if (intraLinksChanged) {
+                intraLinkView = ImmutableList.copyOf(intraLinks.keySet());
+                intraLinksChanged = false;
+            }
+        }
+    }
+}
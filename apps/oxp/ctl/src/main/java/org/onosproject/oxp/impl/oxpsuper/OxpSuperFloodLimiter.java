@@ -0,0 +1,126 @@
+package org.onosproject.oxp.impl.oxpsuper;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a packet for an unknown target may be flooded to all
+ * domains.
+ *
+ * A target flooded recently is remembered in a bounded negative cache and
+ * is not flooded again within the hold time; on top of that floods are
+ * limited to a number per second across all targets.
+ */
+class OxpSuperFloodLimiter {
+
+    private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Map<Integer, Long> recentTargets;
+
+    private volatile long holdNanos;
+    private volatile int ratePerSecond;
+    private volatile int cacheSize;
+
+    private long tokens;
+    private long lastRefill = System.nanoTime();
+
+    private final AtomicLong floodCount = new AtomicLong();
+    private final AtomicLong suppressedCount = new AtomicLong();
+    private final AtomicLong rateLimitedCount = new AtomicLong();
+    private final AtomicLong proxyReplyCount = new AtomicLong();
+
+    OxpSuperFloodLimiter(long holdMillis, int ratePerSecond, int cacheSize) {
+        configure(holdMillis, ratePerSecond, cacheSize);
+        this.tokens = this.ratePerSecond;
+        this.recentTargets = new LinkedHashMap<Integer, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+                return size() > OxpSuperFloodLimiter.this.cacheSize;
+            }
+        };
+    }
+
+    void configure(long holdMillis, int ratePerSecond, int cacheSize) {
+        this.holdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, holdMillis));
+        this.ratePerSecond = Math.max(0, ratePerSecond);
+        this.cacheSize = Math.max(1, cacheSize);
+    }
+
+    /**
+     * Checks whether a packet for the given unknown target may be flooded,
+     * and records the flood if so.
+     *
+     * @param target target IPv4 address
+     * @return true if the packet may be flooded
+     */
+    synchronized boolean tryFlood(int target) {
+        long now = System.nanoTime();
+        Long last = recentTargets.get(target);
+        if (null != last && now - last < holdNanos) {
+            suppressedCount.incrementAndGet();
+            return false;
+        }
+        if (ratePerSecond > 0) {
+            refill(now);
+            if (tokens == 0) {
+                rateLimitedCount.incrementAndGet();
+                return false;
+            }
+            tokens--;
+        }
+        recentTargets.put(target, now);
+        floodCount.incrementAndGet();
+        return true;
+    }
+
+    void proxyReplied() {
+        proxyReplyCount.incrementAndGet();
+    }
+
+    synchronized void clear() {
+        recentTargets.clear();
+    }
+
+    /**
+     * Returns counters: floods, floods suppressed by the negative cache or
+     * the rate limit, proxy ARP replies, and negative cache size.
+     *
+     * @return counters by name
+     */
+    Map<String, Long> getStatis() {
+        long cached;
+        synchronized (this) {
+            cached = recentTargets.size();
+        }
+        return ImmutableMap.<String, Long>builder()
+                .put("flood", floodCount.get())
+                .put("suppressed", suppressedCount.get())
+                .put("rateLimited", rateLimitedCount.get())
+                .put("proxyReply", proxyReplyCount.get())
+                .put("unknownTargets", cached)
+                .build();
+    }
+
+    /**
+     * Adds the tokens earned since the last refill. Only the time worth the
+     * added tokens is consumed, so the fraction of a token earned meanwhile
+     * counts towards the next one; a full bucket earns nothing.
+     */
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        if (elapsed >= SECOND_NANOS) {
+            tokens = ratePerSecond;
+            lastRefill = now;
+            return;
+        }
+        long refill = elapsed * ratePerSecond / SECOND_NANOS;
+        if (refill > 0) {
+            tokens = Math.min(ratePerSecond, tokens + refill);
+            lastRefill = tokens == ratePerSecond ? now : lastRefill + refill * SECOND_NANOS / ratePerSecond;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package org.onosproject.oxp.impl.oxpsuper;
+
+import com.google.common.collect.ImmutableSet;
+import org.onlab.packet.IpAddress;
+import org.onlab.packet.IpPrefix;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.HostId;
+import org.onosproject.oxp.protocol.OXPHostState;
+import org.onosproject.oxp.types.OXPHost;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Hosts reported by the domains, indexed by IP address, by HostId and by
+ * domain.
+ *
+ * A host belongs to the domain that reported it last. The IP index is an
+ * open-addressing table keyed by the IPv4 address as an int, whose values
+ * are small immutable host sets replaced on every change, so lookups do not
+ * allocate. OXP hosts only carry IPv4 addresses; IPv6 lookups find nothing.
+ *
+ * Only hosts of domains added with {@link #addDomain(DeviceId)} and not
+ * removed since are kept, so late reports of a disconnected domain are
+ * ignored.
+ *
+ * The domain holding every host of a prefix is computed on demand and
+ * cached until a host appears, moves or goes away.
+ */
+class OxpSuperHostDirectory {
+
+    private final Map<DeviceId, Map<HostId, OXPHost>> hostsByDomain = new ConcurrentHashMap<>();
+    private final Map<HostId, DeviceId> locations = new ConcurrentHashMap<>();
+    private final Ip4Index ipIndex = new Ip4Index();
+    private final Map<IpPrefix, Optional<DeviceId>> prefixLocations = new ConcurrentHashMap<>();
+
+    private static final int PREFIX_CACHE_SIZE = 4096;
+
+    /**
+     * Applies one host entry reported by a domain.
+     *
+     * @param deviceId domain device
+     * @param host     reported host
+     */
+    synchronized void update(DeviceId deviceId, OXPHost host) {
+        Map<HostId, OXPHost> domainHosts = hostsByDomain.get(deviceId);
+        if (null == domainHosts) {
+            return;
+        }
+        HostId hostId = HostId.hostId(MacAddress.valueOf(host.getMacAddress().getLong()));
+        if (host.getState().equals(OXPHostState.ACTIVE)) {
+            DeviceId oldLocation = locations.put(hostId, deviceId);
+            Map<HostId, OXPHost> oldHosts = null == oldLocation ? null : hostsByDomain.get(oldLocation);
+            OXPHost old = null == oldHosts ? null : oldHosts.remove(hostId);
+            if (null != old) {
+                ipIndex.remove(old.getIpAddress().getInt(), old);
+            }
+            domainHosts.put(hostId, host);
+            ipIndex.add(host.getIpAddress().getInt(), host);
+            if (null == old || !deviceId.equals(oldLocation)
+                    || old.getIpAddress().getInt() != host.getIpAddress().getInt()) {
+                prefixLocations.clear();
+            }
+        } else if (deviceId.equals(locations.get(hostId))) {
+            locations.remove(hostId);
+            OXPHost old = domainHosts.remove(hostId);
+            if (null != old) {
+                ipIndex.remove(old.getIpAddress().getInt(), old);
+                prefixLocations.clear();
+            }
+        }
+    }
+
+    /**
+     * Starts keeping the hosts of a domain.
+     *
+     * @param deviceId domain device
+     */
+    synchronized void addDomain(DeviceId deviceId) {
+        hostsByDomain.putIfAbsent(deviceId, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Forgets every host of a domain.
+     *
+     * @param deviceId domain device
+     */
+    synchronized void removeDomain(DeviceId deviceId) {
+        Map<HostId, OXPHost> hosts = hostsByDomain.remove(deviceId);
+        if (null == hosts) {
+            return;
+        }
+        for (Map.Entry<HostId, OXPHost> entry : hosts.entrySet()) {
+            locations.remove(entry.getKey(), deviceId);
+            ipIndex.remove(entry.getValue().getIpAddress().getInt(), entry.getValue());
+        }
+        prefixLocations.clear();
+    }
+
+    synchronized void clear() {
+        hostsByDomain.clear();
+        locations.clear();
+        ipIndex.clear();
+        prefixLocations.clear();
+    }
+
+    /**
+     * Returns the domain every known host within a prefix belongs to.
+     *
+     * @param prefix IPv4 prefix
+     * @return domain device, or null if the prefix holds no known host or
+     * hosts of several domains
+     */
+    DeviceId getPrefixLocation(IpPrefix prefix) {
+        if (!prefix.isIp4()) {
+            return null;
+        }
+        Optional<DeviceId> location = prefixLocations.get(prefix);
+        if (null == location) {
+            synchronized (this) {
+                location = locate(prefix);
+                if (prefixLocations.size() >= PREFIX_CACHE_SIZE) {
+                    prefixLocations.clear();
+                }
+                prefixLocations.put(prefix, location);
+            }
+        }
+        return location.orElse(null);
+    }
+
+    private Optional<DeviceId> locate(IpPrefix prefix) {
+        int length = prefix.prefixLength();
+        int mask = length == 0 ? 0 : -1 << (Integer.SIZE - length);
+        int network = prefix.address().getIp4Address().toInt() & mask;
+        DeviceId location = null;
+        for (Map.Entry<DeviceId, Map<HostId, OXPHost>> entry : hostsByDomain.entrySet()) {
+            for (OXPHost host : entry.getValue().values()) {
+                if ((host.getIpAddress().getInt() & mask) != network) {
+                    continue;
+                }
+                if (null != location && !location.equals(entry.getKey())) {
+                    return Optional.empty();
+                }
+                location = entry.getKey();
+                break;
+            }
+        }
+        return Optional.ofNullable(location);
+    }
+
+    Set<OXPHost> getHostsByIp(IpAddress ipAddress) {
+        if (!ipAddress.isIp4()) {
+            return Collections.emptySet();
+        }
+        return ipIndex.get(ipAddress.getIp4Address().toInt());
+    }
+
+    Set<OXPHost> getHostsByDomain(DeviceId deviceId) {
+        Map<HostId, OXPHost> hosts = hostsByDomain.get(deviceId);
+        return null == hosts ? Collections.emptySet() : ImmutableSet.copyOf(hosts.values());
+    }
+
+    DeviceId getLocation(HostId hostId) {
+        return locations.get(hostId);
+    }
+
+    long size() {
+        return locations.size();
+    }
+
+    /**
+     * Open-addressing map from IPv4 address to host set, with linear probing
+     * and backward-shift deletion.
+     */
+    static final class Ip4Index {
+        static final int INITIAL_CAPACITY = 1024;
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private int[] keys = new int[INITIAL_CAPACITY];
+        private Object[] values = new Object[INITIAL_CAPACITY];
+        private int size = 0;
+
+        @SuppressWarnings("unchecked")
+        Set<OXPHost> get(int key) {
+            lock.readLock().lock();
+            try {
+                int slot = find(key);
+                return slot < 0 ? Collections.emptySet() : (Set<OXPHost>) values[slot];
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void add(int key, OXPHost host) {
+            lock.writeLock().lock();
+            try {
+                int slot = find(key);
+                if (slot >= 0) {
+                    Set<OXPHost> hosts = (Set<OXPHost>) values[slot];
+                    values[slot] = ImmutableSet.<OXPHost>builder().addAll(hosts).add(host).build();
+                    return;
+                }
+                if ((size + 1) * 2 > keys.length) {
+                    resize(keys.length * 2);
+                }
+                insert(key, ImmutableSet.of(host));
+                size++;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void remove(int key, OXPHost host) {
+            lock.writeLock().lock();
+            try {
+                int slot = find(key);
+                if (slot < 0) {
+                    return;
+                }
+                Set<OXPHost> hosts = (Set<OXPHost>) values[slot];
+                if (!hosts.contains(host)) {
+                    return;
+                }
+                if (hosts.size() > 1) {
+                    ImmutableSet.Builder<OXPHost> builder = ImmutableSet.builder();
+                    hosts.stream().filter(h -> !h.equals(host)).forEach(builder::add);
+                    values[slot] = builder.build();
+                    return;
+                }
+                delete(slot);
+                size--;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        int size() {
+            lock.readLock().lock();
+            try {
+                return size;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        int capacity() {
+            lock.readLock().lock();
+            try {
+                return keys.length;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void clear() {
+            lock.writeLock().lock();
+            try {
+                keys = new int[INITIAL_CAPACITY];
+                values = new Object[INITIAL_CAPACITY];
+                size = 0;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private int find(int key) {
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        private void insert(int key, Object value) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        private void delete(int slot) {
+            int mask = keys.length - 1;
+            int hole = slot;
+            values[hole] = null;
+            for (int next = (hole + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+                int home = hash(keys[next]) & mask;
+                // 空位位于 home 与 next 之间时, 把条目前移填补空位
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    values[hole] = values[next];
+                    values[next] = null;
+                    hole = next;
+                }
+            }
+        }
+
+        private void resize(int capacity) {
+            int[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new int[capacity];
+            values = new Object[capacity];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    insert(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.onosproject.oxp.impl.oxpsuper;
+
+import com.google.common.collect.ImmutableMap;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.LinkKey;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Smoothed latency estimates of the domain channels and of the inter-links.
+ *
+ * Channel RTTs come from echo requests the super sends to each domain. An
+ * inter-link delay comes from a timestamped LLDP probe the super sends out of
+ * the source vport and receives back from the peer domain: the time the probe
+ * spent on the two domain channels, taken as half of each channel RTT, is
+ * subtracted from the probe's round trip. Samples are smoothed as the TCP
+ * SRTT is, new = old + (sample - old) / 8.
+ *
+ * Probe timestamps are only comparable on the node that took them, so a node
+ * only measures the inter-links whose two domains are connected to it. Delays
+ * measured by other nodes are set through {@link #putLinkDelay}.
+ */
+class OxpSuperLatencyTracker {
+
+    static final long UNKNOWN = -1;
+
+    private static final int SMOOTHING_SHIFT = 3;
+
+    private final Map<DeviceId, Long> channelRtts = new ConcurrentHashMap<>();
+    private final Map<LinkKey, Long> linkDelays = new ConcurrentHashMap<>();
+
+    /**
+     * Records a channel RTT sample.
+     *
+     * @param deviceId domain device
+     * @param rttNanos RTT of an echo request, in ns
+     */
+    void recordEcho(DeviceId deviceId, long rttNanos) {
+        if (rttNanos >= 0) {
+            channelRtts.merge(deviceId, rttNanos, OxpSuperLatencyTracker::smooth);
+        }
+    }
+
+    /**
+     * Records a probe received over an inter-link.
+     *
+     * @param link          inter-link the probe crossed
+     * @param probeRttNanos time between sending the probe and receiving it, in ns
+     * @return new delay estimate of the link in ns, or UNKNOWN if the channel
+     * RTT of either domain is not known yet
+     */
+    long recordProbe(Link link, long probeRttNanos) {
+        Long srcRtt = channelRtts.get(link.src().deviceId());
+        Long dstRtt = channelRtts.get(link.dst().deviceId());
+        if (null == srcRtt || null == dstRtt || probeRttNanos < 0) {
+            return UNKNOWN;
+        }
+        long sample = Math.max(0, probeRttNanos - (srcRtt + dstRtt) / 2);
+        return linkDelays.merge(LinkKey.linkKey(link), sample, OxpSuperLatencyTracker::smooth);
+    }
+
+    /**
+     * Sets the delay of an inter-link measured by another node.
+     *
+     * @param key        inter-link
+     * @param delayNanos delay in ns
+     * @return previous delay in ns, or UNKNOWN
+     */
+    long putLinkDelay(LinkKey key, long delayNanos) {
+        Long old = linkDelays.put(key, delayNanos);
+        return null == old ? UNKNOWN : old;
+    }
+
+    /**
+     * Returns the delay estimate of an inter-link.
+     *
+     * @param link inter-link
+     * @return delay in ns, or UNKNOWN
+     */
+    long getLinkDelay(Link link) {
+        return linkDelays.getOrDefault(LinkKey.linkKey(link), UNKNOWN);
+    }
+
+    long getChannelRtt(DeviceId deviceId) {
+        return channelRtts.getOrDefault(deviceId, UNKNOWN);
+    }
+
+    void removeLink(LinkKey key) {
+        linkDelays.remove(key);
+    }
+
+    void removeDomain(DeviceId deviceId) {
+        channelRtts.remove(deviceId);
+        linkDelays.keySet().removeIf(key -> key.src().deviceId().equals(deviceId)
+                || key.dst().deviceId().equals(deviceId));
+    }
+
+    void clear() {
+        channelRtts.clear();
+        linkDelays.clear();
+    }
+
+    /**
+     * Returns the estimates in us: channel RTTs as "rtt:domain" and
+     * inter-link delays as "delay:src-dst".
+     *
+     * @return estimates by name
+     */
+    Map<String, Long> getStatis() {
+        ImmutableMap.Builder<String, Long> builder = ImmutableMap.builder();
+        channelRtts.forEach((deviceId, rtt) ->
+                builder.put("rtt:" + deviceId, TimeUnit.NANOSECONDS.toMicros(rtt)));
+        linkDelays.forEach((key, delay) ->
+                builder.put("delay:" + key.src() + "-" + key.dst(), TimeUnit.NANOSECONDS.toMicros(delay)));
+        return builder.build();
+    }
+
+    private static long smooth(long old, long sample) {
+        return old + ((sample - old) >> SMOOTHING_SHIFT);
+    }
+}
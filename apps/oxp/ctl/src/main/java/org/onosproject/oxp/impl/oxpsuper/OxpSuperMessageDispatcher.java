@@ -0,0 +1,247 @@
+package org.onosproject.oxp.impl.oxpsuper;
+
+import com.google.common.collect.ImmutableMap;
+import org.onosproject.oxp.types.DomainId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Moves domain message handling off the Netty I/O workers.
+ *
+ * Every domain is pinned to one single-threaded lane (chosen by DomainId), so
+ * messages of a domain are handled in arrival order while different domains
+ * are processed in parallel. Each lane has a bounded queue: droppable work
+ * (SBP packet-ins) is discarded when the lane is full, other messages block
+ * the I/O thread until the lane has room. The domain's channel is not read
+ * meanwhile, which pushes back on its TCP connection while keeping the
+ * domain's messages in order.
+ */
+public class OxpSuperMessageDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(OxpSuperMessageDispatcher.class);
+
+    // 队列满时I/O线程每次等待的时间与最长等待时间(ms)
+    private static final long OVERLOAD_WAIT_MS = 100;
+    private static final long OVERLOAD_MAX_WAIT_MS = 5000;
+
+    // 当前处理的消息在I/O线程上被读出的时间
+    private static final ThreadLocal<Long> RECEIVE_TIME = new ThreadLocal<>();
+
+    private final List<Lane> lanes;
+    private volatile boolean dropOnOverload;
+
+    private final AtomicLong dispatchedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong blockedCount = new AtomicLong();
+    private final AtomicLong blockedNanos = new AtomicLong();
+    private final AtomicLong queueWaitNanos = new AtomicLong();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+
+    public OxpSuperMessageDispatcher(int threads, int queueDepth, boolean dropOnOverload) {
+        this.dropOnOverload = dropOnOverload;
+        int laneCount = Math.max(1, threads);
+        this.lanes = new ArrayList<>(laneCount);
+        for (int i = 0; i < laneCount; i++) {
+            lanes.add(new Lane(i, Math.max(1, queueDepth)));
+        }
+    }
+
+    public void setDropOnOverload(boolean dropOnOverload) {
+        this.dropOnOverload = dropOnOverload;
+    }
+
+    /**
+     * Queues a task on the lane owning the given domain.
+     *
+     * @param domainId  domain the message comes from
+     * @param task      message handling
+     * @param droppable whether the task may be discarded when the lane is full
+     */
+    public void dispatch(DomainId domainId, Runnable task, boolean droppable) {
+        Lane lane = lanes.get(laneIndex(domainId));
+        lane.executor.execute(new TimedTask(task, domainId, droppable));
+    }
+
+    /**
+     * Drops the tasks of a domain still waiting in its lane, so that
+     * messages of a disconnected domain are not handled after it is gone.
+     *
+     * @param domainId disconnected domain
+     */
+    public void discard(DomainId domainId) {
+        Lane lane = lanes.get(laneIndex(domainId));
+        lane.queue.removeIf(r -> Objects.equals(domainId, ((TimedTask) r).domainId));
+    }
+
+    /**
+     * Returns when the message handled by the calling thread was read from
+     * its domain channel, in System.nanoTime() terms, or the current time
+     * if the thread is not handling a dispatched message. Latency probes use
+     * it so that the time a message waited in its lane is not measured.
+     *
+     * @return receive time in ns
+     */
+    static long receiveTime() {
+        Long time = RECEIVE_TIME.get();
+        return null == time ? System.nanoTime() : time;
+    }
+
+    public void stop() {
+        for (Lane lane : lanes) {
+            lane.executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns dispatcher counters: dispatched, dropped and blocked messages,
+     * time the I/O threads were blocked, average and maximum queue wait in
+     * microseconds, and current queued messages.
+     *
+     * @return counters by name
+     */
+    public Map<String, Long> getStatis() {
+        long dispatched = dispatchedCount.get();
+        long queued = 0;
+        for (Lane lane : lanes) {
+            queued += lane.queue.size();
+        }
+        return ImmutableMap.<String, Long>builder()
+                .put("dispatched", dispatched)
+                .put("dropped", droppedCount.get())
+                .put("blocked", blockedCount.get())
+                .put("blockedUs", TimeUnit.NANOSECONDS.toMicros(blockedNanos.get()))
+                .put("queued", queued)
+                .put("avgQueueWaitUs", dispatched == 0 ? 0 :
+                        TimeUnit.NANOSECONDS.toMicros(queueWaitNanos.get() / dispatched))
+                .put("maxQueueWaitUs", TimeUnit.NANOSECONDS.toMicros(maxQueueWaitNanos.get()))
+                .build();
+    }
+
+    private int laneIndex(DomainId domainId) {
+        if (null == domainId) {
+            return 0;
+        }
+        long id = domainId.getLong();
+        return (int) ((id ^ (id >>> 32)) & Integer.MAX_VALUE) % lanes.size();
+    }
+
+    private void recordWait(long waitNanos) {
+        dispatchedCount.incrementAndGet();
+        queueWaitNanos.addAndGet(waitNanos);
+        long max = maxQueueWaitNanos.get();
+        while (waitNanos > max && !maxQueueWaitNanos.compareAndSet(max, waitNanos)) {
+            max = maxQueueWaitNanos.get();
+        }
+    }
+
+    private final class Lane {
+        private final LinkedBlockingQueue<Runnable> queue;
+        private final ExecutorService executor;
+
+        private Lane(int index, int queueDepth) {
+            this.queue = new LinkedBlockingQueue<>(queueDepth);
+            this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, queue,
+                    groupedThreads("onos/oxp", "dispatch-" + index, log), new OverloadPolicy(index));
+            ((ThreadPoolExecutor) executor).prestartCoreThread();
+        }
+    }
+
+    /**
+     * Handles the tasks a full lane rejects: droppable ones are discarded,
+     * others wait on the dispatching thread until the lane takes them.
+     * Running them there instead would overtake the domain's queued
+     * messages.
+     */
+    private final class OverloadPolicy implements RejectedExecutionHandler {
+        private final int index;
+
+        private OverloadPolicy(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                return;
+            }
+            TimedTask task = (TimedTask) r;
+            if (task.droppable && dropOnOverload) {
+                droppedCount.incrementAndGet();
+                log.debug("Dispatch lane {} is full, drop message from domain {}", index, task.domainId);
+                return;
+            }
+            blockedCount.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                if (!offer(executor, task)) {
+                    droppedCount.incrementAndGet();
+                    log.warn("Dispatch lane {} stayed full for {} ms, drop message from domain {}",
+                            index, OVERLOAD_MAX_WAIT_MS, task.domainId);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                droppedCount.incrementAndGet();
+                log.warn("Interrupted while waiting for dispatch lane {}, drop message from domain {}",
+                        index, task.domainId);
+            } finally {
+                blockedNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * Waits for room in the lane; returns false if the lane stayed full
+         * for OVERLOAD_MAX_WAIT_MS. A stopped lane takes nothing anymore.
+         */
+        private boolean offer(ThreadPoolExecutor executor, TimedTask task) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(OVERLOAD_MAX_WAIT_MS);
+            while (!executor.getQueue().offer(task, OVERLOAD_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                if (executor.isShutdown()) {
+                    return true;
+                }
+                if (System.nanoTime() - deadline > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final class TimedTask implements Runnable {
+        private final Runnable task;
+        private final DomainId domainId;
+        private final boolean droppable;
+        private final long enqueueTime = System.nanoTime();
+
+        private TimedTask(Runnable task, DomainId domainId, boolean droppable) {
+            this.task = task;
+            this.domainId = domainId;
+            this.droppable = droppable;
+        }
+
+        @Override
+        public void run() {
+            recordWait(System.nanoTime() - enqueueTime);
+            RECEIVE_TIME.set(enqueueTime);
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.warn("Failed to handle domain message", e);
+            } finally {
+                RECEIVE_TIME.remove();
+            }
+        }
+    }
+}
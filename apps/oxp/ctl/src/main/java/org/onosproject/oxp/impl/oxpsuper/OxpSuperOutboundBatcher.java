@@ -0,0 +1,190 @@
+package org.onosproject.oxp.impl.oxpsuper;
+
+import com.google.common.collect.ImmutableMap;
+import org.onosproject.net.DeviceId;
+import org.onosproject.oxp.protocol.OXPMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Aggregates messages sent from the super to a domain.
+ *
+ * Messages queued for a domain within a short window are written to its
+ * channel as one list, i.e. one channel write. A message queued with a
+ * pending key is dropped when a message with the same key is still waiting
+ * in the domain's batch, so bursts of packet-ins for the same flow only
+ * install it once. Messages of a domain keep their queueing order.
+ */
+public class OxpSuperOutboundBatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(OxpSuperOutboundBatcher.class);
+
+    private final BiConsumer<DeviceId, List<OXPMessage>> sender;
+    private final Map<DeviceId, Batch> batches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor =
+            newSingleThreadScheduledExecutor(groupedThreads("onos/oxp", "batcher", log));
+
+    private volatile long windowMicros;
+    private volatile int maxBatchSize;
+
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong suppressedCount = new AtomicLong();
+    private final AtomicLong writeCount = new AtomicLong();
+
+    public OxpSuperOutboundBatcher(BiConsumer<DeviceId, List<OXPMessage>> sender,
+                                   long windowMicros, int maxBatchSize) {
+        this.sender = sender;
+        setWindow(windowMicros, maxBatchSize);
+    }
+
+    public void setWindow(long windowMicros, int maxBatchSize) {
+        this.windowMicros = Math.max(0, windowMicros);
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    /**
+     * Queues a message for the given domain.
+     *
+     * @param deviceId   domain device
+     * @param msg        message to send
+     * @param pendingKey identity of the message for duplicate suppression, null for none
+     */
+    public void send(DeviceId deviceId, OXPMessage msg, Object pendingKey) {
+        queuedCount.incrementAndGet();
+        if (windowMicros == 0) {
+            writeCount.incrementAndGet();
+            sender.accept(deviceId, Collections.singletonList(msg));
+            return;
+        }
+        Batch batch = batches.computeIfAbsent(deviceId, Batch::new);
+        boolean schedule = false;
+        // writes happen under the batch lock to keep the domain's message order
+        synchronized (batch) {
+            if (batch.removed) {
+                // the domain went away while the message was being queued
+                return;
+            }
+            if (null != pendingKey && !batch.pendingKeys.add(pendingKey)) {
+                suppressedCount.incrementAndGet();
+                return;
+            }
+            batch.msgs.add(msg);
+            if (batch.msgs.size() >= maxBatchSize) {
+                write(deviceId, batch.drain());
+            } else if (!batch.scheduled) {
+                batch.scheduled = true;
+                schedule = true;
+            }
+        }
+        if (schedule) {
+            try {
+                executor.schedule(() -> flush(batch), windowMicros, TimeUnit.MICROSECONDS);
+            } catch (RejectedExecutionException e) {
+                flush(batch);
+            }
+        }
+    }
+
+    /**
+     * Drops pending messages of a domain that went away. A flush already
+     * scheduled for them writes nothing, so they never reach a new session
+     * of the domain.
+     *
+     * @param deviceId domain device
+     */
+    public void remove(DeviceId deviceId) {
+        Batch batch = batches.remove(deviceId);
+        if (null != batch) {
+            synchronized (batch) {
+                batch.removed = true;
+                batch.drain();
+            }
+        }
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+        for (Batch batch : batches.values()) {
+            flush(batch);
+        }
+        batches.clear();
+    }
+
+    /**
+     * Returns batcher counters: queued and suppressed messages, channel
+     * writes, and current pending messages.
+     *
+     * @return counters by name
+     */
+    public Map<String, Long> getStatis() {
+        long pending = 0;
+        for (Batch batch : batches.values()) {
+            synchronized (batch) {
+                pending += batch.msgs.size();
+            }
+        }
+        return ImmutableMap.<String, Long>builder()
+                .put("queued", queuedCount.get())
+                .put("suppressed", suppressedCount.get())
+                .put("writes", writeCount.get())
+                .put("pending", pending)
+                .build();
+    }
+
+    private void flush(Batch batch) {
+        synchronized (batch) {
+            if (batch.removed) {
+                return;
+            }
+            List<OXPMessage> msgs = batch.drain();
+            if (!msgs.isEmpty()) {
+                write(batch.deviceId, msgs);
+            }
+        }
+    }
+
+    private void write(DeviceId deviceId, List<OXPMessage> msgs) {
+        writeCount.incrementAndGet();
+        try {
+            sender.accept(deviceId, msgs);
+        } catch (Exception e) {
+            log.warn("Failed to write {} messages to domain {}", msgs.size(), deviceId, e);
+        }
+    }
+
+    private static final class Batch {
+        private final DeviceId deviceId;
+        private List<OXPMessage> msgs = new ArrayList<>();
+        private final Set<Object> pendingKeys = new HashSet<>();
+        private boolean scheduled = false;
+        private boolean removed = false;
+
+        private Batch(DeviceId deviceId) {
+            this.deviceId = deviceId;
+        }
+
+        private List<OXPMessage> drain() {
+            List<OXPMessage> drained = msgs;
+            msgs = new ArrayList<>();
+            pendingKeys.clear();
+            scheduled = false;
+            return drained;
+        }
+    }
+}
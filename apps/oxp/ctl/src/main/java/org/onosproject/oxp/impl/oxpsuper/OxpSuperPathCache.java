@@ -0,0 +1,138 @@
+package org.onosproject.oxp.impl.oxpsuper;
+
+import com.google.common.collect.ImmutableMap;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.LinkKey;
+import org.onosproject.net.Path;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Cache of selected inter-domain paths keyed by (src domain, dst domain,
+ * weight mode).
+ *
+ * Entries are evicted selectively: when a link on a cached path goes away,
+ * when a domain leaves, or when the load of a traversed vport moves enough
+ * to change the choice. Every eviction bumps an epoch so that a path
+ * computed before an eviction is not stored afterwards.
+ */
+class OxpSuperPathCache {
+
+    private final Map<PathKey, Path> paths = new ConcurrentHashMap<>();
+    private long epoch = 0;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    Path get(DeviceId src, DeviceId dst, String mode) {
+        Path path = paths.get(new PathKey(src, dst, mode));
+        if (null == path) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return path;
+    }
+
+    synchronized long epoch() {
+        return epoch;
+    }
+
+    /**
+     * Stores a path unless something was evicted since the given epoch.
+     *
+     * @param src   source domain
+     * @param dst   destination domain
+     * @param mode  weight mode the path was computed with
+     * @param path  selected path
+     * @param since epoch read before the path was computed
+     */
+    synchronized void put(DeviceId src, DeviceId dst, String mode, Path path, long since) {
+        if (since == epoch) {
+            paths.put(new PathKey(src, dst, mode), path);
+        }
+    }
+
+    void invalidateLink(Link link) {
+        evictIf(path -> path.links().contains(link));
+    }
+
+    void invalidateLink(LinkKey key) {
+        evictIf(path -> path.links().stream()
+                .anyMatch(link -> link.src().equals(key.src()) && link.dst().equals(key.dst())));
+    }
+
+    void invalidateVport(ConnectPoint vport) {
+        evictIf(path -> path.links().stream()
+                .anyMatch(link -> link.src().equals(vport) || link.dst().equals(vport)));
+    }
+
+    void invalidateDevice(DeviceId deviceId) {
+        evictIf(path -> path.links().stream()
+                .anyMatch(link -> link.src().deviceId().equals(deviceId)
+                        || link.dst().deviceId().equals(deviceId)));
+    }
+
+    synchronized void clear() {
+        epoch++;
+        evictionCount.addAndGet(paths.size());
+        paths.clear();
+    }
+
+    private synchronized void evictIf(Predicate<Path> predicate) {
+        epoch++;
+        Iterator<Path> it = paths.values().iterator();
+        while (it.hasNext()) {
+            if (predicate.test(it.next())) {
+                it.remove();
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    Map<String, Long> getStatis() {
+        return ImmutableMap.<String, Long>builder()
+                .put("size", (long) paths.size())
+                .put("hit", hitCount.get())
+                .put("miss", missCount.get())
+                .put("eviction", evictionCount.get())
+                .build();
+    }
+
+    private static final class PathKey {
+        private final DeviceId src;
+        private final DeviceId dst;
+        private final String mode;
+
+        private PathKey(DeviceId src, DeviceId dst, String mode) {
+            this.src = src;
+            this.dst = dst;
+            this.mode = mode;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(src, dst, mode);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof PathKey)) {
+                return false;
+            }
+            PathKey that = (PathKey) obj;
+            return src.equals(that.src) && dst.equals(that.dst) && mode.equals(that.mode);
+        }
+    }
+}
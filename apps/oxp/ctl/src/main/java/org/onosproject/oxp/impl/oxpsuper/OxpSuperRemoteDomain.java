@@ -0,0 +1,33 @@
+package org.onosproject.oxp.impl.oxpsuper;
+
+import org.onosproject.oxp.impl.OxpDomain10;
+import org.onosproject.oxp.oxpsuper.OxpSuperController;
+import org.onosproject.oxp.protocol.OXPMessage;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Domain connected to another node of the cluster. Messages sent to it are
+ * forwarded to the owning node, which writes them to the domain channel.
+ */
+class OxpSuperRemoteDomain extends OxpDomain10 {
+
+    private final OxpSuperClusterSync clusterSync;
+
+    OxpSuperRemoteDomain(OxpSuperController superController, OxpSuperClusterSync clusterSync) {
+        super(superController);
+        this.clusterSync = clusterSync;
+        setConnected(true);
+    }
+
+    @Override
+    public void sendMsg(OXPMessage msg) {
+        clusterSync.forward(getDeviceId(), Collections.singletonList(msg));
+    }
+
+    @Override
+    public void sendMsg(List<OXPMessage> msgs) {
+        clusterSync.forward(getDeviceId(), msgs);
+    }
+}
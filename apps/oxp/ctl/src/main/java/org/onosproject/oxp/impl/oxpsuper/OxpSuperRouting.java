@@ -5,11 +5,15 @@ import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.onlab.packet.*;
 import org.onlab.packet.MacAddress;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.net.*;
 import org.onosproject.oxp.OXPDomain;
 import org.onosproject.oxp.OxpDomainMessageListener;
 import org.onosproject.oxp.oxpsuper.OxpSuperController;
+import org.onosproject.oxp.oxpsuper.OxpSuperRoutingService;
 import org.onosproject.oxp.oxpsuper.OxpSuperTopoService;
+import org.onosproject.oxp.oxpsuper.SbpPacketInContext;
 import org.onosproject.oxp.protocol.*;
 import org.onosproject.oxp.protocol.ver10.OXPForwardingReplyVer10;
 import org.onosproject.oxp.types.*;
@@ -21,9 +25,11 @@ import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.projectfloodlight.openflow.types.*;
 import org.projectfloodlight.openflow.types.EthType;
 import org.projectfloodlight.openflow.types.IPv4Address;
+import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.onlab.packet.Ethernet.TYPE_ARP;
 import static org.onlab.packet.Ethernet.TYPE_IPV4;
@@ -33,7 +39,8 @@ import static org.slf4j.LoggerFactory.getLogger;
  * Created by cr on 16-9-5.
  */
 @Component(immediate = true)
-public class OxpSuperRouting {
+@Service
+public class OxpSuperRouting implements OxpSuperRoutingService {
 
     private final Logger log = getLogger(getClass());
 
@@ -44,16 +51,82 @@ public class OxpSuperRouting {
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     private OxpSuperTopoService topoService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected ComponentConfigService cfgService;
+
+    private static final int DEFAULT_FLOOD_HOLD_MS = 1000;
+    private static final int DEFAULT_FLOOD_RATE = 100;
+    private static final int DEFAULT_FLOOD_CACHE_SIZE = 4096;
+
+    @Property(name = "floodHoldMs", intValue = DEFAULT_FLOOD_HOLD_MS,
+            label = "Time in ms an unknown target is not flooded to the domains again")
+    private int floodHoldMs = DEFAULT_FLOOD_HOLD_MS;
+
+    @Property(name = "floodRate", intValue = DEFAULT_FLOOD_RATE,
+            label = "Maximum number of floods to all domains per second; 0 means unlimited")
+    private int floodRate = DEFAULT_FLOOD_RATE;
+
+    @Property(name = "floodCacheSize", intValue = DEFAULT_FLOOD_CACHE_SIZE,
+            label = "Maximum number of recently flooded unknown targets remembered")
+    private int floodCacheSize = DEFAULT_FLOOD_CACHE_SIZE;
+
+    @Property(name = "aggregateRules", boolValue = false,
+            label = "Install destination prefix rules on inter-domain hops instead of per host pair rules")
+    private boolean aggregateRules = false;
+
+    // 低于域内流表超时(15s), 重复的聚合规则在此时间内不再下发
+    private static final long AGGREGATE_REFRESH_MS = 10000;
+    private static final int AGGREGATE_CACHE_SIZE = 65536;
+    private static final IpAddress EXACT_MASK = IpAddress.valueOf("255.255.255.255");
+
+    // (域, 目的前缀, 入端口, 出端口, 源IP或源前缀) -> 下发时间
+    private final Map<List<Object>, Long> installedAggregates = new ConcurrentHashMap<>();
+
+    private final OxpSuperFloodLimiter floodLimiter =
+            new OxpSuperFloodLimiter(DEFAULT_FLOOD_HOLD_MS, DEFAULT_FLOOD_RATE, DEFAULT_FLOOD_CACHE_SIZE);
+
     private OxpDomainMessageListener domainMessageListener = new InternalDomainMsgListener();
 
     @Activate
-    public void actviate() {
+    public void actviate(ComponentContext context) {
+        cfgService.registerProperties(getClass());
+        readComponentConfiguration(context);
         superController.addMessageListener(domainMessageListener);
     }
 
     @Deactivate
     public void deactivate() {
+        cfgService.unregisterProperties(getClass(), false);
         superController.removeMessageListener(domainMessageListener);
+        floodLimiter.clear();
+        installedAggregates.clear();
+    }
+
+    @Modified
+    public void modified(ComponentContext context) {
+        readComponentConfiguration(context);
+    }
+
+    private void readComponentConfiguration(ComponentContext context) {
+        Dictionary<?, ?> properties = context.getProperties();
+        floodHoldMs = Tools.getIntegerProperty(properties, "floodHoldMs", DEFAULT_FLOOD_HOLD_MS);
+        floodRate = Tools.getIntegerProperty(properties, "floodRate", DEFAULT_FLOOD_RATE);
+        floodCacheSize = Tools.getIntegerProperty(properties, "floodCacheSize", DEFAULT_FLOOD_CACHE_SIZE);
+        floodLimiter.configure(floodHoldMs, floodRate, floodCacheSize);
+        Boolean aggregateEnabled = Tools.isPropertyEnabled(properties, "aggregateRules");
+        if (aggregateEnabled != null) {
+            aggregateRules = aggregateEnabled;
+        }
+        if (!aggregateRules) {
+            installedAggregates.clear();
+        }
+        log.info("Configured. Flood hold time {} ms, flood rate {}/s, flood cache size {}, aggregate rules {}",
+                floodHoldMs, floodRate, floodCacheSize, aggregateRules ? "enabled" : "disabled");
+    }
+
+    @Override
+    public Map<String, Long> getFloodStatis() {
+        return floodLimiter.getStatis();
     }
 
     private void processArp(DeviceId deviceId, Ethernet eth, PortNumber inPort, long xid) {
@@ -62,21 +135,25 @@ public class OxpSuperRouting {
         IpAddress sender = Ip4Address.valueOf(arp.getSenderProtocolAddress());
         Set<OXPHost> hosts = topoService.getHostsByIp(target);
         if (hosts.isEmpty()) {
-            flood(eth, xid);
+            floodUnknown(target, eth, xid);
             return;
-        };
-        OXPHost host = (OXPHost) hosts.toArray()[0];
-        HostId hostId = HostId.hostId(MacAddress.valueOf(host.getMacAddress().getLong()));
-        DeviceId hostLocation = topoService.getHostLocation(hostId);
-        OXPDomain domain = superController.getOxpDomain(deviceId);
-        if (null == hostLocation) return;
+        }
+        OXPHost host = hosts.iterator().next();
         switch (arp.getOpCode()) {
             case ARP.OP_REPLY:
+                HostId hostId = HostId.hostId(MacAddress.valueOf(host.getMacAddress().getLong()));
+                DeviceId hostLocation = topoService.getHostLocation(hostId);
+                if (null == hostLocation) {
+                    return;
+                }
                 packetOut(hostLocation, inPort, PortNumber.portNumber(OXPVport.LOCAL.getPortNumber()), eth, xid);
                 break;
             case ARP.OP_REQUEST:
-                Ethernet reply = ARP.buildArpReply(Ip4Address.valueOf(arp.getTargetProtocolAddress()), MacAddress.valueOf(host.getMacAddress().getLong()), eth);
+                // 代理ARP: 由Super根据主机目录直接应答, 不转发到目的域
+                Ethernet reply = ARP.buildArpReply(target.getIp4Address(),
+                        MacAddress.valueOf(host.getMacAddress().getLong()), eth);
                 packetOut(deviceId, inPort, PortNumber.portNumber(OXPVport.LOCAL.getPortNumber()), reply, xid);
+                floodLimiter.proxyReplied();
                 break;
             default:
                 return;
@@ -90,7 +167,7 @@ public class OxpSuperRouting {
         IpAddress target = Ip4Address.valueOf(iPv4.getDestinationAddress());
         Set<OXPHost> dstHosts = topoService.getHostsByIp(target);
         if (dstHosts.isEmpty()) {
-            flood(eth, xid);
+            floodUnknown(target, eth, xid);
             return;
         }
         OXPHost host = (OXPHost) dstHosts.toArray()[0];
@@ -99,9 +176,11 @@ public class OxpSuperRouting {
         DeviceId dstDeviceId = topoService.getHostLocation(hostId);
         OXPDomain srcDomain = superController.getOxpDomain(deviceId);
         if (null == dstDeviceId) {
-            flood(eth, xid);
+            floodUnknown(target, eth, xid);
             return;
         }
+        IpPrefix dstPrefix = aggregatePrefix(host, dstDeviceId);
+        IpPrefix srcPrefix = null == dstPrefix ? null : sourcePrefix(srcIp, srcDeviceId);
         //若在同一域内
         if (srcDeviceId.equals(dstDeviceId)) {
             // 安装流表 inport: inport, outPort:local
@@ -129,23 +208,12 @@ public class OxpSuperRouting {
 //                    .build();
             //installFlow(deviceId, fm);
             installFlow(deviceId, srcIp, target, inPort, PortNumber.portNumber(OXPVport.LOCAL.getPortNumber()),
-                    IpAddress.valueOf("255.255.255.255"), eth.getEtherType(), (byte) 0, xid, cookie);
+                    EXACT_MASK, EXACT_MASK, eth.getEtherType(), (byte) 0, xid, cookie);
             packetOut(deviceId, inPort, PortNumber.portNumber(OXPVport.LOCAL.getPortNumber()), eth, xid);
             return;
         }
-        // TODO use loadbalance path instead
-        Set<Path> paths = null;
-        Set<DisjointPath> dPaths = null;
-        Path path = null;
-        if (superController.isLoadBalance()) {
-            paths = topoService.getLoadBalancePaths(srcDeviceId, dstDeviceId);
-            if (paths.isEmpty()) return;
-            path = (Path) paths.toArray()[0];
-        } else {
-            dPaths = topoService.getDisjointPaths(srcDeviceId, dstDeviceId);
-            if (dPaths.isEmpty()) return;
-            path = ((DisjointPath)dPaths.toArray()[0]).primary();
-        }
+        Path path = topoService.getInterDomainPath(srcDeviceId, dstDeviceId);
+        if (null == path) return;
         // 安装
         Link formerLink = null;
         for (Link link : path.links()) {
@@ -153,23 +221,24 @@ public class OxpSuperRouting {
 //                OFFlowMod fm = buildFlowMod(superController.getOxpDomain(link.src().deviceId()), inPort, link.src().port(),
 //                        srcIp, target, xid, cookie);
 //                installFlow(link.src().deviceId(), fm);
-                installFlow(link.src().deviceId(), srcIp, target, inPort, link.src().port(),
-                        IpAddress.valueOf("255.255.255.255"), eth.getEtherType(), (byte) 0, xid, cookie);
+                installHop(deviceId, link.src().deviceId(), srcIp, target, srcPrefix, dstPrefix,
+                        inPort, link.src().port(), eth.getEtherType(), xid, cookie);
 
             } else {
 //                OFFlowMod fmFommer = buildFlowMod(superController.getOxpDomain(link.src().deviceId()), formerLink.dst().port(), link.src().port(),
 //                        srcIp, target, xid, cookie);
 //                installFlow(link.src().deviceId(), fmFommer);
-                installFlow(link.src().deviceId(), srcIp, target, formerLink.dst().port(), link.src().port(),
-                        IpAddress.valueOf("255.255.255.255"), eth.getEtherType(), (byte) 0, xid, cookie);
+                installHop(deviceId, link.src().deviceId(), srcIp, target, srcPrefix, dstPrefix,
+                        formerLink.dst().port(), link.src().port(), eth.getEtherType(), xid, cookie);
             }
             if (link.dst().equals(path.dst())) {
 //                OFFlowMod fmLatter = buildFlowMod(superController.getOxpDomain(link.dst().deviceId()), link.dst().port(),
 //                        PortNumber.portNumber(OXPVport.LOCAL.getPortNumber()),
 //                        srcIp, target, xid, cookie);
 //                installFlow(link.dst().deviceId(), fmLatter);
-                installFlow(link.dst().deviceId(), srcIp, target, link.dst().port(), PortNumber.portNumber(OXPVport.LOCAL.getPortNumber()),
-                        IpAddress.valueOf("255.255.255.255"), eth.getEtherType(), (byte) 0, xid, cookie);
+                installHop(deviceId, link.dst().deviceId(), srcIp, target, srcPrefix, dstPrefix,
+                        link.dst().port(), PortNumber.portNumber(OXPVport.LOCAL.getPortNumber()),
+                        eth.getEtherType(), xid, cookie);
                 packetOut(link.dst().deviceId(), link.dst().port(), PortNumber.portNumber(OXPVport.LOCAL.getPortNumber()), eth, xid);
             }
             formerLink = link;
@@ -178,6 +247,78 @@ public class OxpSuperRouting {
 //                formerLink.dst().port(), PortNumber.portNumber(OXPVport.LOCAL.getPortNumber()), eth, xid);
     }
 
+    /**
+     * Returns the prefix of a host's subnet the hops of a path can be
+     * aggregated on, or null if rules are exact: the mode is off, the host
+     * mask is not a usable CIDR mask, or known hosts of the prefix are in
+     * other domains than the host's.
+     */
+    private IpPrefix aggregatePrefix(OXPHost host, DeviceId location) {
+        if (!aggregateRules || !host.getMask().isCidrMask()) {
+            return null;
+        }
+        int length = host.getMask().asCidrMaskLength();
+        if (length == 0 || length >= Ip4Prefix.MAX_MASK_LENGTH) {
+            return null;
+        }
+        IpPrefix prefix = IpPrefix.valueOf(Ip4Address.valueOf(host.getIpAddress().getInt()), length);
+        // 子网跨多个域时, 同一入端口的前缀规则会指向不同出端口而互相覆盖
+        return location.equals(topoService.getPrefixLocation(prefix)) ? prefix : null;
+    }
+
+    /**
+     * Returns the prefix of the source host's subnet aggregated rules match
+     * the source on, or null if the source host is unknown, or its subnet
+     * is not aggregated, and is matched exactly.
+     */
+    private IpPrefix sourcePrefix(IpAddress srcIp, DeviceId location) {
+        for (OXPHost host : topoService.getHostsByIp(srcIp)) {
+            IpPrefix prefix = aggregatePrefix(host, location);
+            if (null != prefix) {
+                return prefix;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Installs the rule of one domain on an inter-domain path. Aggregated
+     * rules match the source and destination prefixes and are installed
+     * once per domain, in-port and out-port, or per source host on the
+     * source domain, within the refresh time; the domain that raised the
+     * packet-in always gets its rule. The destination domain expands its
+     * aggregated rule to the hosts of the prefix itself.
+     */
+    private void installHop(DeviceId requester, DeviceId deviceId, IpAddress srcIp, IpAddress dstIp,
+                            IpPrefix srcPrefix, IpPrefix dstPrefix, PortNumber inPort, PortNumber outPort,
+                            short ethType, long xid, long cookie) {
+        if (null == dstPrefix) {
+            installFlow(deviceId, srcIp, dstIp, inPort, outPort, EXACT_MASK, EXACT_MASK,
+                    ethType, (byte) 0, xid, cookie);
+            return;
+        }
+        boolean fromHost = inPort.toLong() == OXPVport.LOCAL.getPortNumber();
+        // 源域按源主机下发, 其余域按源前缀聚合; 压缩模式的转发回复只带目的掩码, 源地址精确匹配
+        IpPrefix matchedSrc = fromHost || superController.getOxpDomain(deviceId).isCompressedMode()
+                ? null : srcPrefix;
+        List<Object> key = Arrays.asList(deviceId, dstPrefix, inPort, outPort,
+                null == matchedSrc ? srcIp : matchedSrc);
+        long now = System.currentTimeMillis();
+        Long last = installedAggregates.get(key);
+        if (!deviceId.equals(requester) && null != last && now - last < AGGREGATE_REFRESH_MS) {
+            return;
+        }
+        if (installedAggregates.size() >= AGGREGATE_CACHE_SIZE) {
+            installedAggregates.values().removeIf(time -> now - time >= AGGREGATE_REFRESH_MS);
+        }
+        installedAggregates.put(key, now);
+        installFlow(deviceId, srcIp, dstIp, inPort, outPort,
+                null == matchedSrc ? EXACT_MASK
+                        : IpAddress.makeMaskPrefix(IpAddress.Version.INET, matchedSrc.prefixLength()),
+                IpAddress.makeMaskPrefix(IpAddress.Version.INET, dstPrefix.prefixLength()),
+                ethType, (byte) 0, xid, cookie);
+    }
+
     private void packetOut(DeviceId deviceId,PortNumber inPort, PortNumber outPort, Ethernet eth, long xid) {
         OXPDomain domain = superController.getOxpDomain(deviceId);
         if (domain.isCompressedMode()) {
@@ -203,11 +344,21 @@ public class OxpSuperRouting {
                     .setFlags(sbpFlagses)
                     .setSbpData(OXPSbpData.read(buffer, buffer.readableBytes(), domain.getOxpVersion()))
                     .build();
-            superController.sendMsg(deviceId, oxpSbp);
+            superController.sendBatchedMsg(deviceId, oxpSbp, null);
         }
 
     }
 
+    /**
+     * Floods a packet for a target not in the host directory, unless the
+     * target was flooded recently or the flood rate is exceeded.
+     */
+    private void floodUnknown(IpAddress target, Ethernet eth, long xid) {
+        if (floodLimiter.tryFlood(target.getIp4Address().toInt())) {
+            flood(eth, xid);
+        }
+    }
+
     private void flood(Ethernet eth, long xid) {
         for (OXPDomain domain : superController.getOxpDomains()) {
             packetOut(domain.getDeviceId(), PortNumber.portNumber(OXPVport.LOCAL.getPortNumber()),
@@ -217,7 +368,7 @@ public class OxpSuperRouting {
 
     private void installFlow(DeviceId deviceId, IpAddress srcIp, IpAddress dstIp,
                              PortNumber srcPort, PortNumber dstPort,
-                             IpAddress mask, short ethType, byte qos,
+                             IpAddress srcMask, IpAddress mask, short ethType, byte qos,
                              long xid, long cookie) {
         OXPDomain domain = superController.getOxpDomain(deviceId);
         if (domain.isCompressedMode()) {
@@ -226,12 +377,12 @@ public class OxpSuperRouting {
                     ethType, qos);
         } else {
             OFFlowMod fm = buildFlowMod(domain, srcPort, dstPort,
-                    srcIp, dstIp, xid, cookie);
-            installFlow(deviceId, fm);
+                    srcIp, dstIp, srcMask, mask, xid, cookie);
+            installFlow(deviceId, fm, Arrays.asList(OFType.FLOW_MOD, srcIp, dstIp, srcPort));
         }
     }
 
-    private void installFlow(DeviceId deviceId, OFFlowMod flowMod) {
+    private void installFlow(DeviceId deviceId, OFFlowMod flowMod, Object pendingKey) {
         OXPDomain domain = superController.getOxpDomain(deviceId);
         ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
         flowMod.writeTo(buffer);
@@ -242,11 +393,11 @@ public class OxpSuperRouting {
                 .setFlags(sbpFlagses)
                 .setSbpData(OXPSbpData.read(buffer, buffer.readableBytes(), domain.getOxpVersion()))
                 .build();
-        superController.sendMsg(deviceId, oxpSbp);
+        superController.sendBatchedMsg(deviceId, oxpSbp, pendingKey);
     }
 
     private OFFlowMod buildFlowMod(OXPDomain srcDomain, PortNumber inPort, PortNumber outPort,
-                              IpAddress srcIp, IpAddress dstIP,
+                              IpAddress srcIp, IpAddress dstIP, IpAddress srcMask, IpAddress mask,
                               long xid, long cookie) {
         // 安装流表 inport: inport, outPort:local
         OFActionOutput.Builder action = srcDomain.ofFactory().actions().buildOutput()
@@ -256,10 +407,23 @@ public class OxpSuperRouting {
         Match.Builder mBuilder = srcDomain.ofFactory().buildMatch();
         mBuilder.setExact(MatchField.IN_PORT,
                 OFPort.of((int) inPort.toLong()));
-        mBuilder.setExact(MatchField.IPV4_SRC,
-                IPv4Address.of(srcIp.getIp4Address().toInt()));
-        mBuilder.setExact(MatchField.IPV4_DST,
-                IPv4Address.of(dstIP.getIp4Address().toInt()));
+        if (srcMask.equals(EXACT_MASK)) {
+            mBuilder.setExact(MatchField.IPV4_SRC,
+                    IPv4Address.of(srcIp.getIp4Address().toInt()));
+        } else {
+            // 聚合规则: 按源前缀匹配, 值仍为源主机地址, 供域控制器释放等待的请求
+            mBuilder.setMasked(MatchField.IPV4_SRC,
+                    IPv4Address.of(srcIp.getIp4Address().toInt()),
+                    IPv4Address.of(srcMask.getIp4Address().toInt()));
+        }
+        if (mask.equals(EXACT_MASK)) {
+            mBuilder.setExact(MatchField.IPV4_DST,
+                    IPv4Address.of(dstIP.getIp4Address().toInt()));
+        } else {
+            mBuilder.setMasked(MatchField.IPV4_DST,
+                    IPv4Address.of(dstIP.getIp4Address().toInt()),
+                    IPv4Address.of(mask.getIp4Address().toInt()));
+        }
         mBuilder.setExact(MatchField.ETH_TYPE, EthType.IPv4);
         Match match = mBuilder.build();
         OFFlowAdd fm = srcDomain.ofFactory().buildFlowAdd()
@@ -277,41 +441,26 @@ public class OxpSuperRouting {
     class InternalDomainMsgListener implements OxpDomainMessageListener {
         @Override
         public void handleIncomingMessage(DeviceId deviceId, OXPMessage msg) {
-            if (msg.getType() == OXPType.OXPT_SBP) {
-                OXPSbp sbp = (OXPSbp) msg;
-                long xid = 0;
-                long cookie = U64.ZERO.getValue();
-                PortNumber inPort = null;
-                Ethernet eth = null;
-                if (sbp.getSbpCmpType().equals(OXPSbpCmpType.NORMAL)) {
-                    OFMessage ofMsg = superController.parseOfMessage(sbp);
-                    //只处理packet-in消息
-                    if (null == ofMsg || ofMsg.getType() != OFType.PACKET_IN) {
-                        return;
-                    }
-                    OFPacketIn packetIn = (OFPacketIn) ofMsg;
-                    xid = packetIn.getXid();
-                    inPort = PortNumber.portNumber(packetIn.getMatch().get(MatchField.IN_PORT).getPortNumber());
-                    eth = superController.parseEthernet(packetIn.getData());
-                    cookie = packetIn.getCookie().getValue();
-                } else if (sbp.getSbpCmpType().equals(OXPSbpCmpType.FORWARDING_REQUEST)) {
-                    OXPForwardingRequest sbpCmpFwdReq = (OXPForwardingRequest)sbp.getSbpCmpData();
-                    inPort = PortNumber.portNumber(sbpCmpFwdReq.getInport());
-                    eth = superController.parseEthernet(sbpCmpFwdReq.getData());
-                }
 
-                if (null == eth) {
-                    return;
-                }
-                if (eth.getEtherType() == TYPE_ARP) {
-                    processArp(deviceId, eth, inPort, xid);
-                    return;
-                }
-                if (eth.getEtherType() == TYPE_IPV4) {
-                    processIpv4(deviceId, eth, inPort, xid, cookie);
-                    return;
-                }
+        }
 
+        @Override
+        public void handlePacketIn(DeviceId deviceId, SbpPacketInContext context) {
+            short etherType = context.etherType();
+            //只处理ARP和IPv4
+            if (etherType != TYPE_ARP && etherType != TYPE_IPV4) {
+                return;
+            }
+            Ethernet eth = context.ethernet();
+            if (null == eth) {
+                return;
+            }
+            if (eth.getEtherType() == TYPE_ARP) {
+                processArp(deviceId, eth, context.inPort(), context.xid());
+                return;
+            }
+            if (eth.getEtherType() == TYPE_IPV4) {
+                processIpv4(deviceId, eth, context.inPort(), context.xid(), context.cookie());
                 return;
             }
         }
@@ -0,0 +1,123 @@
+package org.onosproject.oxp.impl.oxpsuper;
+
+import com.google.common.collect.ImmutableList;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.topology.DefaultGraphDescription;
+import org.onosproject.net.topology.GraphDescription;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Mutable model of the super topology: one vertex per domain and one edge
+ * per inter-domain link.
+ *
+ * Deltas are applied in place and report whether they changed anything;
+ * a version number is bumped on every effective change so that callers can
+ * publish a new immutable topology only when the graph really moved.
+ */
+class OxpSuperTopoGraph {
+
+    private final Map<DeviceId, Device> devices = new ConcurrentHashMap<>();
+    private final Set<Link> links = ConcurrentHashMap.newKeySet();
+
+    private long version = 0;
+    private long publishedVersion = 0;
+
+    synchronized boolean addDevice(Device device) {
+        Device old = devices.put(device.id(), device);
+        if (old == null) {
+            version++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes a domain along with every inter-link attached to it.
+     *
+     * @param deviceId domain device
+     * @return true if the graph changed
+     */
+    synchronized boolean removeDevice(DeviceId deviceId) {
+        boolean changed = devices.remove(deviceId) != null;
+        changed |= links.removeIf(link -> link.src().deviceId().equals(deviceId)
+                || link.dst().deviceId().equals(deviceId));
+        if (changed) {
+            version++;
+        }
+        return changed;
+    }
+
+    synchronized boolean addLink(Link link) {
+        if (links.add(link)) {
+            version++;
+            return true;
+        }
+        return false;
+    }
+
+    synchronized boolean removeLink(Link link) {
+        if (links.remove(link)) {
+            version++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes every inter-link with an end on the given vport.
+     *
+     * @param vport vport location
+     * @return true if the graph changed
+     */
+    synchronized boolean removeLinks(ConnectPoint vport) {
+        if (links.removeIf(link -> link.src().equals(vport) || link.dst().equals(vport))) {
+            version++;
+            return true;
+        }
+        return false;
+    }
+
+    boolean containsLink(Link link) {
+        return links.contains(link);
+    }
+
+    List<Link> getLinks() {
+        return ImmutableList.copyOf(links);
+    }
+
+    int getLinkCount() {
+        return links.size();
+    }
+
+    synchronized long version() {
+        return version;
+    }
+
+    /**
+     * Returns a description of the graph if it changed since the last call,
+     * null otherwise; the returned description is marked as published.
+     *
+     * @return graph description or null
+     */
+    synchronized GraphDescription takeSnapshotIfChanged() {
+        if (version == publishedVersion) {
+            return null;
+        }
+        publishedVersion = version;
+        return new DefaultGraphDescription(System.nanoTime(), System.currentTimeMillis(),
+                ImmutableList.copyOf(devices.values()), ImmutableList.copyOf(links));
+    }
+
+    synchronized void clear() {
+        devices.clear();
+        links.clear();
+        version++;
+    }
+}
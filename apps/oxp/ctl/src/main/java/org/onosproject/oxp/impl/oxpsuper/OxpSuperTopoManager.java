@@ -7,10 +7,15 @@ import com.google.common.collect.Maps;
 import org.apache.felix.scr.annotations.*;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
+import org.onlab.graph.KShortestPathsSearch;
+import org.onlab.util.KryoNamespace;
 import org.onlab.packet.Ethernet;
 import org.onlab.packet.IpAddress;
-import org.onlab.packet.MacAddress;
+import org.onlab.packet.IpPrefix;
+import org.onlab.packet.ONOSLLDP;
 import org.onlab.packet.OXPLLDP;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.common.DefaultTopology;
 import org.onosproject.incubator.net.PortStatisticsService;
 import org.onosproject.net.*;
@@ -24,20 +29,38 @@ import org.onosproject.oxp.impl.domain.OxpDomainTopoManager;
 import org.onosproject.oxp.oxpsuper.OxpDomainListener;
 import org.onosproject.oxp.oxpsuper.OxpSuperController;
 import org.onosproject.oxp.oxpsuper.OxpSuperTopoService;
+import org.onosproject.oxp.oxpsuper.SbpPacketInContext;
 import org.onosproject.oxp.protocol.*;
 import org.onosproject.oxp.types.*;
+import org.onosproject.store.serializers.KryoNamespaces;
+import org.onosproject.store.service.EventuallyConsistentMap;
+import org.onosproject.store.service.EventuallyConsistentMapEvent;
+import org.onosproject.store.service.EventuallyConsistentMapListener;
+import org.onosproject.store.service.StorageService;
+import org.onosproject.store.service.WallClockTimestamp;
+import org.osgi.service.component.ComponentContext;
 import org.projectfloodlight.openflow.protocol.OFMessage;
 import org.projectfloodlight.openflow.protocol.OFPacketIn;
+import org.projectfloodlight.openflow.protocol.OFPacketOut;
 import org.projectfloodlight.openflow.protocol.OFType;
+import org.projectfloodlight.openflow.protocol.action.OFActionOutput;
 import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.OFBufferId;
+import org.projectfloodlight.openflow.types.OFPort;
 import org.slf4j.Logger;
 
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.onlab.packet.Ethernet.TYPE_LLDP;
 import static org.onlab.util.Tools.groupedThreads;
@@ -60,26 +83,55 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
     private PathService pathService;
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected TopologyService topologyService;
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected ComponentConfigService cfgService;
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected StorageService storageService;
+
+    private static final int DEFAULT_PATH_CACHE_LOAD_THRESHOLD = 10;
+    private static final String SHORTEST_PATH_MODE = "SHORTEST";
+    private static final String SHORTEST_DELAY_PATH_MODE = "SHORTEST_DELAY";
+    // 未设置路径计算参数时负载均衡路径的缓存键
+    private static final String LOAD_BALANCE_PATH_MODE = "LOAD_BALANCE";
+
+    @Property(name = "pathCacheEnabled", boolValue = true,
+            label = "Cache selected inter-domain paths per domain pair")
+    private boolean pathCacheEnabled = true;
+
+    @Property(name = "pathCacheLoadThreshold", intValue = DEFAULT_PATH_CACHE_LOAD_THRESHOLD,
+            label = "Vport load change, in percent of its capability, that evicts cached paths")
+    private int pathCacheLoadThreshold = DEFAULT_PATH_CACHE_LOAD_THRESHOLD;
+
+    private static final int DEFAULT_LATENCY_PROBE_INTERVAL = 5000;
+
+    @Property(name = "latencyProbeInterval", intValue = DEFAULT_LATENCY_PROBE_INTERVAL,
+            label = "Interval in ms of echo and LLDP latency probes when paths are computed by delay; 0 disables")
+    private int latencyProbeInterval = DEFAULT_LATENCY_PROBE_INTERVAL;
 
     // 监听Domain SBP消息，完成vport,topo收集和邻间链路发现
     private OxpDomainMessageListener domainMessageListener = new InternalDomainMessageListener();
     private OxpDomainListener domainListener = new InternalDomainListener();
 
     // 记录Vport
-    private Map<DeviceId, Set<PortNumber>> vportMap;
-    private Map<ConnectPoint, OXPVportDesc> vportDescMap;
-    private Map<ConnectPoint, Long> vportMaxCapabilityMap;
-    private Map<ConnectPoint, Long> vportLoadCapabilityMap;
+    private final OxpSuperDomainStore domainStore = new OxpSuperDomainStore();
     // 记录internalLinks
-    private Map<DeviceId, Set<Link>> internalLinksMap;
-    private Map<Link, OXPInternalLink> internalLinkDescMap;
     private ProviderId internalLinksProviderId = ProviderId.NONE;//new ProviderId("oxp","internalLinks");
-    // 记录interLinks
-    private Set<Link> interLinkSet;
+    // 记录interLinks, 超级拓扑增量维护
+    private final OxpSuperTopoGraph topoGraph = new OxpSuperTopoGraph();
     private Map<Link, Long> interLinkTimes;
     private ProviderId interLinksProviderId = ProviderId.NONE;//new ProviderId("'oxp", "interlinks");
-    // 记录HostLocation
-    private Map<DeviceId, Map<HostId, OXPHost>> hostMap;
+    // 记录HostLocation, 按IP/HostId/域索引
+    private final OxpSuperHostDirectory hostDirectory = new OxpSuperHostDirectory();
+    // 记录域通道RTT和邻间链路时延
+    private final OxpSuperLatencyTracker latencyTracker = new OxpSuperLatencyTracker();
+    // 链路两端Domain都连到同一节点时才能测量时延, 测得的时延经此共享给其他节点
+    private EventuallyConsistentMap<LinkKey, Long> sharedLinkDelays;
+    private final EventuallyConsistentMapListener<LinkKey, Long> linkDelayListener =
+            new InternalLinkDelayListener();
+    private ScheduledFuture<?> latencyProbeFuture;
+    // 时延探测LLDP的源MAC
+    private static final String PROBE_SRC_MAC = "02:eb:00:00:00:01";
+    private static final double UNKNOWN_DELAY_WEIGHT = 10000; // us
 
     private volatile DefaultTopology currentTopo =
             new DefaultTopology(ProviderId.NONE,
@@ -90,65 +142,113 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
     private ScheduledExecutorService executor;
     protected ExecutorService eventExecutor;
     private final static long TOPO_PRUNER_DELAY = 3;
+    // 拓扑变化合并发布的延迟(ms)
+    private final static long TOPO_PUBLISH_DELAY = 50;
     private long staleTopoAge = 10000;
+    private final AtomicBoolean publishScheduled = new AtomicBoolean(false);
+    private final OxpSuperPathCache pathCache = new OxpSuperPathCache();
 
     @Activate
-    private void activate() {
-        vportMap = new HashMap<>();
-        vportDescMap = new HashMap<>();
-        vportMaxCapabilityMap = new HashMap<>();
-        vportLoadCapabilityMap = new HashMap<>();
-        internalLinksMap = new HashMap<>();
-        internalLinkDescMap = new HashMap<>();
-        interLinkSet = new HashSet<>();
-        hostMap = new HashMap<>();
-        interLinkTimes = new HashMap<>();
+    private void activate(ComponentContext context) {
+        cfgService.registerProperties(getClass());
+        readComponentConfiguration(context);
+        interLinkTimes = new ConcurrentHashMap<>();
+        sharedLinkDelays = storageService.<LinkKey, Long>eventuallyConsistentMapBuilder()
+                .withName("oxp-super-link-delays")
+                .withSerializer(KryoNamespace.newBuilder().register(KryoNamespaces.API))
+                .withTimestampProvider((k, v) -> new WallClockTimestamp())
+                .build();
+        sharedLinkDelays.addListener(linkDelayListener);
+        sharedLinkDelays.entrySet().forEach(e -> latencyTracker.putLinkDelay(e.getKey(), e.getValue()));
+        executor = newSingleThreadScheduledExecutor(groupedThreads("oxp/supertopoupdate", "oxp-supertopoupdate-%d", log));
+        for (Device device : superController.getDevices()) {
+            topoGraph.addDevice(device);
+        }
+        for (OXPDomain domain : superController.getOxpDomains()) {
+            domainStore.addDomain(domain.getDeviceId());
+            hostDirectory.addDomain(domain.getDeviceId());
+        }
         superController.addMessageListener(domainMessageListener);
         superController.addOxpDomainListener(domainListener);
-        executor = newSingleThreadScheduledExecutor(groupedThreads("oxp/supertopoupdate", "oxp-supertopoupdate-%d", log));
+        topologyChanged();
         executor.scheduleAtFixedRate(new TopoPrunerTask(),
                 TOPO_PRUNER_DELAY, TOPO_PRUNER_DELAY, SECONDS);
+        scheduleLatencyProbes();
     }
 
     @Deactivate
     private void deactivate() {
+        cfgService.unregisterProperties(getClass(), false);
         if (executor != null) {
             executor.shutdownNow();
         }
         superController.removeMessageListener(domainMessageListener);
         superController.removeOxpDomainListener(domainListener);
-        vportMap.clear();
-        vportDescMap.clear();
-        vportMaxCapabilityMap.clear();
-        vportLoadCapabilityMap.clear();
-        internalLinksMap.clear();
-        internalLinkDescMap.clear();
-        interLinkSet.clear();
-        hostMap.clear();
+        sharedLinkDelays.removeListener(linkDelayListener);
+        sharedLinkDelays.destroy();
+        domainStore.clear();
+        topoGraph.clear();
+        pathCache.clear();
+        hostDirectory.clear();
+        latencyTracker.clear();
         interLinkTimes.clear();
     }
 
+    @Modified
+    private void modified(ComponentContext context) {
+        readComponentConfiguration(context);
+        if (!pathCacheEnabled) {
+            pathCache.clear();
+        }
+        scheduleLatencyProbes();
+    }
+
+    private void readComponentConfiguration(ComponentContext context) {
+        Dictionary<?, ?> properties = context.getProperties();
+        Boolean cacheEnabled = Tools.isPropertyEnabled(properties, "pathCacheEnabled");
+        if (cacheEnabled != null) {
+            pathCacheEnabled = cacheEnabled;
+        }
+        pathCacheLoadThreshold = Tools.getIntegerProperty(properties, "pathCacheLoadThreshold",
+                DEFAULT_PATH_CACHE_LOAD_THRESHOLD);
+        latencyProbeInterval = Tools.getIntegerProperty(properties, "latencyProbeInterval",
+                DEFAULT_LATENCY_PROBE_INTERVAL);
+        log.info("Configured. Path cache is {}, load threshold {}%, latency probe interval {} ms",
+                pathCacheEnabled ? "enabled" : "disabled", pathCacheLoadThreshold, latencyProbeInterval);
+    }
+
+    private synchronized void scheduleLatencyProbes() {
+        if (null == executor) {
+            return;
+        }
+        if (null != latencyProbeFuture) {
+            latencyProbeFuture.cancel(false);
+            latencyProbeFuture = null;
+        }
+        if (latencyProbeInterval > 0) {
+            latencyProbeFuture = executor.scheduleAtFixedRate(new LatencyProbeTask(),
+                    latencyProbeInterval, latencyProbeInterval, MILLISECONDS);
+        }
+    }
+
     @Override
     public List<PortNumber> getVports(DeviceId deviceId) {
-        if (!vportMap.containsKey(deviceId)) return Collections.emptyList();
-        return ImmutableList.copyOf(vportMap.get(deviceId));
+        return domainStore.getVports(deviceId);
     }
 
     @Override
     public OXPVportDesc getVportDesc(DeviceId deviceId, PortNumber portNumber) {
-        return null;
+        return domainStore.getVportDesc(new ConnectPoint(deviceId, portNumber));
     }
 
     @Override
     public long getVportMaxCapability(ConnectPoint portLocation) {
-        if (!vportMaxCapabilityMap.containsKey(portLocation)) return  0;
-        return vportMaxCapabilityMap.get(portLocation);
+        return domainStore.getVportMaxCapability(portLocation);
     }
 
     @Override
     public long getVportLoadCapability(ConnectPoint portLocation) {
-        if (!vportLoadCapabilityMap.containsKey(portLocation)) return  0;
-        return vportLoadCapabilityMap.get(portLocation);
+        return domainStore.getVportLoadCapability(portLocation);
     }
 
     @Override
@@ -161,7 +261,7 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
     }
     @Override
     public List<Link> getInterlinks() {
-        return ImmutableList.copyOf(interLinkSet);
+        return topoGraph.getLinks();
     }
 
     @Override
@@ -182,12 +282,12 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
 
     @Override
     public OXPInternalLink getIntraLinkDesc(Link link) {
-        return internalLinkDescMap.get(link);
+        return domainStore.getIntraLinkDesc(link);
     }
 
     @Override
     public List<Link> getIntraLinks(DeviceId deviceId) {
-        return ImmutableList.copyOf(internalLinksMap.get(deviceId));
+        return domainStore.getIntraLinks(deviceId);
     }
 
     public long getIntraLinkCapability(Link link) {
@@ -199,51 +299,32 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
 
     @Override
     public long getInterLinkCount() {
-        return getInterlinks().size();
+        return topoGraph.getLinkCount();
     }
 
     @Override
     public long getHostCount() {
-        long count = 0L;
-        for (OXPDomain domain : superController.getOxpDomains()) {
-            count += hostMap.get(domain.getDeviceId()) == null ? 0 : hostMap.get(domain.getDeviceId()).size();
-        }
-        return count;
+        return hostDirectory.size();
     }
 
     @Override
     public Set<OXPHost> getHostsByIp(IpAddress ipAddress) {
-        IPv4Address iPv4Address = IPv4Address.of(ipAddress.toOctets());
-        Set<OXPHost> result = new HashSet<>();
-        for (Map<HostId, OXPHost> hosts : hostMap.values()) {
-            for (OXPHost host : hosts.values()) {
-                if (host.getIpAddress().equals(iPv4Address)) {
-                    result.add(host);
-                }
-            }
-        }
-        return result;
+        return hostDirectory.getHostsByIp(ipAddress);
     }
 
     @Override
     public Set<OXPHost> getHostsByDevice(DeviceId deviceId) {
-        Map<HostId, OXPHost> hostsMap = hostMap.get(deviceId);
-        if (null != hostsMap) {
-            return ImmutableSet.copyOf(hostsMap.values());
-        }
-        return Collections.emptySet();
+        return hostDirectory.getHostsByDomain(deviceId);
     }
 
     @Override
     public DeviceId getHostLocation(HostId hostId) {
-        for (DeviceId deviceId : hostMap.keySet()) {
-            Map<HostId, OXPHost> hosts = hostMap.get(deviceId);
-            if (hosts.get(hostId) != null) {
-                return deviceId;
-            }
-        }
-        return null;
+        return hostDirectory.getLocation(hostId);
+    }
 
+    @Override
+    public DeviceId getPrefixLocation(IpPrefix prefix) {
+        return hostDirectory.getPrefixLocation(prefix);
     }
 
     @Override
@@ -262,6 +343,53 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
         return paths;
     }
 
+    @Override
+    public Path getInterDomainPath(DeviceId src, DeviceId dst) {
+        checkNotNull(src);
+        checkNotNull(dst);
+        boolean loadBalance = superController.isLoadBalance();
+        boolean delayMode = isDelayMode();
+        OXPConfigFlags pathComputeParam = superController.getPathComputeParam();
+        String mode = loadBalance ? (null == pathComputeParam ? LOAD_BALANCE_PATH_MODE : pathComputeParam.name())
+                : delayMode ? SHORTEST_DELAY_PATH_MODE : SHORTEST_PATH_MODE;
+        if (pathCacheEnabled) {
+            Path cached = pathCache.get(src, dst, mode);
+            if (null != cached) {
+                return cached;
+            }
+        }
+        long epoch = pathCache.epoch();
+        Topology topology = currentTopo;
+        Path path = null;
+        if (loadBalance) {
+            Set<Path> paths = getLoadBalancePaths(topology, src, dst);
+            if (!paths.isEmpty()) {
+                path = paths.iterator().next();
+            }
+        } else {
+            Set<DisjointPath> dPaths = delayMode ?
+                    topologyService.getDisjointPaths(topology, src, dst, new DelayLinkWeight()) :
+                    topologyService.getDisjointPaths(topology, src, dst);
+            if (!dPaths.isEmpty()) {
+                path = dPaths.iterator().next().primary();
+            }
+        }
+        if (null != path && pathCacheEnabled && topology == currentTopo) {
+            pathCache.put(src, dst, mode, path, epoch);
+        }
+        return path;
+    }
+
+    @Override
+    public Map<String, Long> getPathCacheStatis() {
+        return pathCache.getStatis();
+    }
+
+    @Override
+    public Map<String, Long> getLatencyStatis() {
+        return latencyTracker.getStatis();
+    }
+
     @Override
     public Set<DisjointPath> getDisjointPaths(DeviceId src, DeviceId dst) {
         return getDisjointPaths(src, dst, (LinkWeight) null);
@@ -286,7 +414,16 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
     private HostService hostService;
 
     ProviderId routeProviderId = new ProviderId("BUPT-FNLab", "OXP");
-    private LinkWeight linkWeightTool = null;
+
+    // 候选路由计算: K最短路(按跳数, 时延模式下按时延), 在候选中按负载选择
+    private static final int DEFAULT_MAX_CANDIDATE_ROUTES = 8;
+    private static final KShortestPathsSearch<TopologyVertex, TopologyEdge> K_PATHS =
+            new KShortestPathsSearch<>();
+    private static final LinkWeight HOP_WEIGHT = new HopLinkWeight();
+    private volatile int maxCandidateRoutes = DEFAULT_MAX_CANDIDATE_ROUTES;
+    private volatile boolean routeCacheEnabled = true;
+    private final Map<RouteKey, Set<List<TopologyEdge>>> routeCache = new ConcurrentHashMap<>();
+    private volatile Topology routeCacheTopo;
 
 
     public Set<Path> getLoadBalancePaths(ElementId src, ElementId dst) {
@@ -319,7 +456,10 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
      */
     public Set<Path> getLoadBalancePaths(Topology topo, ElementId src, ElementId dst, LinkWeight linkWeight) {
 
-        linkWeightTool = linkWeight == null ? new BandwidthLinkWeight() : linkWeight;
+        LinkWeight linkWeightTool = linkWeight;
+        if (null == linkWeightTool) {
+            linkWeightTool = isDelayMode() ? new DelayLinkWeight() : new BandwidthLinkWeight();
+        }
 
         if (src instanceof DeviceId && dst instanceof DeviceId) {
 
@@ -328,7 +468,7 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
 
             Set<List<TopologyEdge>> allRoutes = findAllRoutes(topo, (DeviceId) src, (DeviceId) dst);
 
-            Set<Path> allPaths = calculateRoutesCost(allRoutes);
+            Set<Path> allPaths = calculateRoutesCost(allRoutes, linkWeightTool);
 
             Path linkPath = selectRoute(allPaths);
 
@@ -353,7 +493,7 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
 
             Set<List<TopologyEdge>> allRoutes = findAllRoutes(topo, srcLink.dst().deviceId(), dstLink.src().deviceId());
 
-            Set<Path> allPaths = calculateRoutesCost(allRoutes);
+            Set<Path> allPaths = calculateRoutesCost(allRoutes, linkWeightTool);
 
             Path linkPath = selectRoute(allPaths);
 
@@ -384,8 +524,11 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
     //=================== Step One: Find routes =====================
 
     /**
-     * Entry for find all Paths between Src and Dst.
-     * By Mao.
+     * Finds at most maxCandidateRoutes loop-free routes between Src and Dst,
+     * in ascending hop count, or ascending delay when paths are computed by
+     * delay, using the K shortest paths search.
+     * Candidates of the published topology are cached until it is replaced;
+     * candidates by delay also until a delay estimate moves.
      *
      * @param src  Src of Path.
      * @param dst  Dst of Path.
@@ -396,80 +539,74 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
             log.error("topology is not the object of DefaultTopology.");
             return ImmutableSet.of();
         }
+        if (src.equals(dst)) {
+            return ImmutableSet.of();
+        }
+
+        boolean cacheable = routeCacheEnabled && topo == currentTopo;
+        boolean byDelay = isDelayMode();
+        RouteKey key = new RouteKey(src, dst, byDelay);
+        if (cacheable) {
+            if (routeCacheTopo != topo) {
+                routeCache.clear();
+                routeCacheTopo = topo;
+            }
+            Set<List<TopologyEdge>> cached = routeCache.get(key);
+            if (null != cached) {
+                return cached;
+            }
+        }
+
+        TopologyGraph graph = ((DefaultTopology) topo).getGraph();
+        TopologyVertex srcVertex = new DefaultTopologyVertex(src);
+        TopologyVertex dstVertex = new DefaultTopologyVertex(dst);
+        if (!graph.getVertexes().contains(srcVertex) || !graph.getVertexes().contains(dstVertex)) {
+            return ImmutableSet.of();
+        }
 
-        Set<List<TopologyEdge>> graghResult = new HashSet<>();
-        dfsFindAllRoutes(new DefaultTopologyVertex(src), new DefaultTopologyVertex(dst),
-                new ArrayList<>(), new ArrayList<>(),
-                ((DefaultTopology) topo).getGraph(), graghResult);
+        LinkWeight searchWeight = byDelay ? new DelayLinkWeight() : HOP_WEIGHT;
+        Set<List<TopologyEdge>> graghResult = new LinkedHashSet<>();
+        for (org.onlab.graph.Path<TopologyVertex, TopologyEdge> path :
+                K_PATHS.search(graph, srcVertex, dstVertex, searchWeight, maxCandidateRoutes).paths()) {
+            graghResult.add(ImmutableList.copyOf(path.edges()));
+        }
+        graghResult = Collections.unmodifiableSet(graghResult);
 
+        if (cacheable && routeCacheTopo == topo) {
+            routeCache.put(key, graghResult);
+        }
         return graghResult;
     }
 
     /**
-     * Get all possible path between Src and Dst using DFS, by Mao.
-     * DFS Core, Recursion Part.
+     * Sets the upper bound of candidate routes evaluated per request.
      *
-     * @param src          Source point per Recursion
-     * @param dst          Final Objective
-     * @param passedLink   dynamic, record passed links in real time
-     * @param passedDevice dynamic, record entered devices in real time, to avoid loop
-     * @param topoGraph    represent the whole world
-     * @param result       Set of all Paths.
-     * @return no use.
+     * @param maxCandidateRoutes route budget, at least 1
      */
-    private void dfsFindAllRoutes(TopologyVertex src,
-                                  TopologyVertex dst,
-                                  List<TopologyEdge> passedLink,
-                                  List<TopologyVertex> passedDevice,
-                                  TopologyGraph topoGraph,
-                                  Set<List<TopologyEdge>> result) {
-        if (src.equals(dst))
-            return;
-
-        passedDevice.add(src);
-
-        Set<TopologyEdge> egressSrc = topoGraph.getEdgesFrom(src);
-        egressSrc.forEach(egress -> {
-            TopologyVertex vertexDst = egress.dst();
-            if (vertexDst.equals(dst)) {
-                //Gain a Path
-                passedLink.add(egress);
-                result.add(ImmutableList.copyOf(passedLink.iterator()));
-                passedLink.remove(egress);
-
-            } else if (!passedDevice.contains(vertexDst)) {
-                //DFS into
-                passedLink.add(egress);
-                dfsFindAllRoutes(vertexDst, dst, passedLink, passedDevice, topoGraph, result);
-                passedLink.remove(egress);
-
-            } else {
-                //means - passedDevice.contains(vertexDst)
-                //We hit a loop, NOT go into
-            }
-        });
-
-        passedDevice.remove(src);
+    public void setMaxCandidateRoutes(int maxCandidateRoutes) {
+        this.maxCandidateRoutes = Math.max(1, maxCandidateRoutes);
+        routeCache.clear();
     }
 
     /**
-     * Parse several TopologyEdge(s) to one Path.
-     * Tool for findAllPaths.
+     * Enables or disables caching of candidate routes per topology.
+     *
+     * @param enabled true to cache candidate routes
      */
-    private List<Link> parseEdgeToLink(List<TopologyEdge> edges) {
-        List<Link> links = new ArrayList<>();
-        edges.forEach(edge -> links.add(edge.link()));
-        return links;
+    public void setRouteCacheEnabled(boolean enabled) {
+        this.routeCacheEnabled = enabled;
+        routeCache.clear();
     }
 
     //=================== Step Two: Calculate Cost =====================
 
-    private Set<Path> calculateRoutesCost(Set<List<TopologyEdge>> routes) {
+    private Set<Path> calculateRoutesCost(Set<List<TopologyEdge>> routes, LinkWeight linkWeightTool) {
 
         Set<Path> paths = new HashSet<>();
 
+        boolean additive = isDelayMode();
         routes.forEach(route -> {
-            double cost = maxLinkWeight(route);
+            double cost = additive ? sumLinkWeight(route, linkWeightTool) : maxLinkWeight(route, linkWeightTool);
             paths.add(parseEdgeToPath(route, cost));
         });
 
@@ -479,7 +616,7 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
     /**
      * A strategy to calculate the weight of one path.
      */
-    private double maxLinkWeight(List<TopologyEdge> edges) {
+    private double maxLinkWeight(List<TopologyEdge> edges, LinkWeight linkWeightTool) {
 
         double weight = 0;
         for (TopologyEdge edge : edges) {
@@ -489,6 +626,21 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
         return weight;
     }
 
+    /**
+     * A strategy to calculate the weight of one path: delays add up along it.
+     */
+    private double sumLinkWeight(List<TopologyEdge> edges, LinkWeight linkWeightTool) {
+        double weight = 0;
+        for (TopologyEdge edge : edges) {
+            weight += linkWeightTool.weight(edge);
+        }
+        return weight;
+    }
+
+    private boolean isDelayMode() {
+        return OXPConfigFlags.CAP_DELAY.equals(superController.getPathComputeParam());
+    }
+
     /**
      * Parse several TopologyEdge(s) to one Path.
      * Tool for calculateRoutesWeight().
@@ -548,14 +700,14 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
      */
     private Path getMinCostMinHopPath(List<Path> paths) {
         Path result = null;
-        List<Path> newPaths = ImmutableList.of();
+        List<Path> newPaths = new ArrayList<>();
         // Add intra capability
-        if (superController.getPathComputeParam().equals(OXPConfigFlags.CAP_HOP)) {
+        if (OXPConfigFlags.CAP_HOP.equals(superController.getPathComputeParam()) || isDelayMode()) {
             for (Path path : paths) {
                 double cost = path.cost();
                 Link formerLink = null;
                 for (Link link : path.links()) {
-                    if (!path.src().equals(link)) {
+                    if (null != formerLink) {
                         Link intraLink = DefaultLink.builder()
                                 .src(formerLink.dst())
                                 .dst(link.src())
@@ -563,8 +715,7 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
                                 .state(Link.State.ACTIVE)
                                 .providerId(internalLinksProviderId)
                                 .build();
-                        OXPInternalLink intraLinkDesc = getIntraLinkDesc(intraLink);
-                        long intraHop = intraLinkDesc.getCapability();
+                        long intraHop = getIntraLinkCapability(intraLink);
                         if (intraHop == Long.MAX_VALUE) {
                             cost = Double.MAX_VALUE;
                             break;
@@ -581,8 +732,6 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
             //Sort by Cost in order
             newPaths.sort((p1, p2) -> p1.cost() > p2.cost() ? 1 : (p1.cost() < p2.cost() ? -1 : 0));
             return newPaths.isEmpty() ? null : newPaths.get(0);
-        } else if (superController.getPathComputeParam().equals(OXPConfigFlags.CAP_DELAY)) {
-            return null;
         } else {
             final double MEASURE_TOLERANCE = 0.05; // 0.05% represent 5M(10G), 12.5M(25G), 50M(100G)
 
@@ -669,10 +818,8 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
                 return LINK_WEIGHT_DOWN;
             }
 
-            if (superController.getPathComputeParam().equals(OXPConfigFlags.CAP_HOP)) {
+            if (OXPConfigFlags.CAP_HOP.equals(superController.getPathComputeParam())) {
                 return 1;
-            } else if (superController.getPathComputeParam().equals(OXPConfigFlags.CAP_DELAY)) {
-                return getInterLinkCapability(edge.link());
             } else {
                 long linkLineSpeed = getLinkLineSpeed(edge.link());
 
@@ -745,48 +892,32 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
 
 
     private void addOrUpdateVport(DeviceId deviceId, OXPVportDesc vportDesc) {
-        Set<PortNumber> vportSet = vportMap.get(deviceId);
-        if (null == vportSet) {
-            vportSet = new HashSet<>();
-            vportMap.put(deviceId, vportSet);
-        }
         PortNumber vportNum = PortNumber.portNumber(vportDesc.getPortNo().getPortNumber());
         if (vportDesc.getState().equals(OXPVportState.BLOCKED) || vportDesc.getState().equals(OXPVportState.LINK_DOWN)) {
-            vportSet.remove(vportNum);
-            ConnectPoint connectPoint = new ConnectPoint(deviceId, vportNum);
-            vportDescMap.remove(connectPoint);
+            domainStore.update(deviceId, state -> state.removeVportDesc(vportNum));
         } else {
-            vportSet.add(vportNum);
-
-            ConnectPoint connectPoint = new ConnectPoint(deviceId, vportNum);
-            vportDescMap.put(connectPoint, vportDesc);
+            domainStore.update(deviceId, state -> state.putVport(vportNum, vportDesc));
         }
 
     }
 
     private void removeInterLink(Link link) {
-        interLinkSet.remove(link);
+        interLinkTimes.remove(link);
+        LinkKey key = LinkKey.linkKey(link);
+        latencyTracker.removeLink(key);
+        sharedLinkDelays.remove(key);
+        if (topoGraph.removeLink(link)) {
+            topologyChanged();
+        }
     }
 
     private void removeVport(DeviceId deviceId, PortNumber vportNum) {
-        Set<PortNumber> vportSet = vportMap.get(deviceId);
-        if (null != vportSet) {
-            vportSet.remove(vportNum);
-        }
-        vportDescMap.remove(new ConnectPoint(deviceId, vportNum));
-        Set<Link> toRemovedLinks = new HashSet<>();
-        for (Link link : interLinkSet) {
-            if (link.src().deviceId().equals(deviceId) && link.src().port().equals(vportNum)) {
-                toRemovedLinks.add(link);
-            }
-            if (link.dst().deviceId().equals(deviceId) && link.dst().port().equals(vportNum)) {
-                toRemovedLinks.add(link);
-            }
-        }
-        for (Link link : toRemovedLinks) {
-            removeInterLink(link);
+        ConnectPoint vportLocation = new ConnectPoint(deviceId, vportNum);
+        domainStore.update(deviceId, state -> state.removeVport(vportNum));
+        pathCache.invalidateVport(vportLocation);
+        if (topoGraph.removeLinks(vportLocation)) {
+            topologyChanged();
         }
-        if (!toRemovedLinks.isEmpty()) updateTopology();
     }
 
     private void processVportStatusMsg(DeviceId deviceId, OXPVportStatus vportStatus) {
@@ -801,34 +932,86 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
         }
     }
 
+    /**
+     * Merges a topology reply into the known internal links of a domain.
+     * Replies may carry only changed entries; entries with an unreachable
+     * capability withdraw what was reported before.
+     */
     private void processTopoReplyMsg(DeviceId deviceId, OXPTopologyReply topologyReply) {
         List<OXPInternalLink> internalLinks = topologyReply.getInternalLinks();
-        Set<Link> links = new HashSet<>();
-        for (OXPInternalLink internalLink : internalLinks) {
-            PortNumber srcPortNum = PortNumber.portNumber(internalLink.getSrcVport().getPortNumber());
-            PortNumber dstPortNum = PortNumber.portNumber(internalLink.getDstVport().getPortNumber());
-            ConnectPoint srcConnectPoint = new ConnectPoint(deviceId, srcPortNum);
-            ConnectPoint dstConnectPoint = new ConnectPoint(deviceId, dstPortNum);
-            if (srcPortNum.equals(dstPortNum)) {
-                vportMaxCapabilityMap.put(srcConnectPoint, internalLink.getCapability());
-                continue;
-            }
-            if (internalLink.getDstVport().equals(OXPVport.LOCAL)) {
-                vportLoadCapabilityMap.put(srcConnectPoint, internalLink.getCapability());
-                continue;
-            }
-            Link link = DefaultLink.builder()
-                    .src(srcConnectPoint)
-                    .dst(dstConnectPoint)
-                    .type(Link.Type.DIRECT)
-                    .state(Link.State.ACTIVE)
-                    .providerId(internalLinksProviderId)
-                    .build();
-            links.add(link);
-            internalLinkDescMap.put(link, internalLink);
-
-        }
-        internalLinksMap.put(deviceId, links);
+        domainStore.update(deviceId, state -> {
+            for (OXPInternalLink internalLink : internalLinks) {
+                mergeInternalLink(state, internalLink);
+            }
+        });
+    }
+
+    private void mergeInternalLink(OxpSuperDomainStore.DomainState state, OXPInternalLink internalLink) {
+        DeviceId deviceId = state.deviceId();
+        PortNumber srcPortNum = PortNumber.portNumber(internalLink.getSrcVport().getPortNumber());
+        PortNumber dstPortNum = PortNumber.portNumber(internalLink.getDstVport().getPortNumber());
+        ConnectPoint srcConnectPoint = new ConnectPoint(deviceId, srcPortNum);
+        ConnectPoint dstConnectPoint = new ConnectPoint(deviceId, dstPortNum);
+        if (srcPortNum.equals(dstPortNum)) {
+            if (internalLink.isUnreachable()) {
+                state.removeMaxCapability(srcPortNum);
+                pathCache.invalidateVport(srcConnectPoint);
+                return;
+            }
+            Long oldMax = state.putMaxCapability(srcPortNum, internalLink.getCapability());
+            if (null != oldMax && oldMax != internalLink.getCapability()) {
+                pathCache.invalidateVport(srcConnectPoint);
+            }
+            return;
+        }
+        if (internalLink.getDstVport().equals(OXPVport.LOCAL)) {
+            if (internalLink.isUnreachable()) {
+                state.removeLoadCapability(srcPortNum);
+                pathCache.invalidateVport(srcConnectPoint);
+                return;
+            }
+            Long oldLoad = state.putLoadCapability(srcPortNum, internalLink.getCapability());
+            if (isLoadChangeSignificant(srcConnectPoint, oldLoad, internalLink.getCapability())) {
+                pathCache.invalidateVport(srcConnectPoint);
+            }
+            return;
+        }
+        Link link = DefaultLink.builder()
+                .src(srcConnectPoint)
+                .dst(dstConnectPoint)
+                .type(Link.Type.DIRECT)
+                .state(Link.State.ACTIVE)
+                .providerId(internalLinksProviderId)
+                .build();
+        if (internalLink.isUnreachable()) {
+            if (state.removeIntraLink(link)) {
+                pathCache.invalidateVport(srcConnectPoint);
+            }
+            return;
+        }
+        OXPInternalLink oldLink = state.putIntraLink(link, internalLink);
+        if (null == oldLink) {
+            // 新的域内链路可能使经过该域的其他路径更优
+            pathCache.invalidateDevice(deviceId);
+        } else if (oldLink.getCapability() != internalLink.getCapability()) {
+            pathCache.invalidateVport(srcConnectPoint);
+        }
+    }
+
+    /**
+     * Checks whether a vport load change moves by more than the configured
+     * share of the vport capability.
+     */
+    private boolean isLoadChangeSignificant(ConnectPoint vport, Long oldLoad, long newLoad) {
+        if (null == oldLoad) {
+            return true;
+        }
+        long delta = Math.abs(newLoad - oldLoad);
+        long base = getVportMaxCapability(vport);
+        if (base <= 0) {
+            base = Math.max(Math.abs(oldLoad), 1);
+        }
+        return delta * 100 >= base * pathCacheLoadThreshold;
     }
 
     /**
@@ -855,45 +1038,170 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
                 .type(Link.Type.DIRECT)
                 .providerId(interLinksProviderId)
                 .build();
-        if (interLinkSet.contains(link)) {
-            touchInterLink(link);
+        touchInterLink(link);
+        Long timestamp = oxplldp.getTimestamp();
+        // 探测由源Domain所在节点发出, 两端都在本节点时时间戳才可比较
+        if (null != timestamp && superController.isLocalDomain(srcDeviceId)
+                && superController.isLocalDomain(dstDeviceId)) {
+            recordLinkDelay(link, OxpSuperMessageDispatcher.receiveTime() - timestamp);
+        }
+        // 已知链路的LLDP刷新只更新时间戳, 不触发拓扑发布
+        if (topoGraph.addLink(link)) {
+            topologyChanged();
+        }
+    }
+
+    /**
+     * Updates the delay estimate of an inter-link from a probe and shares it
+     * with the other nodes.
+     */
+    private void recordLinkDelay(Link link, long probeRttNanos) {
+        long oldDelay = latencyTracker.getLinkDelay(link);
+        long newDelay = latencyTracker.recordProbe(link, probeRttNanos);
+        if (newDelay == OxpSuperLatencyTracker.UNKNOWN) {
             return;
         }
-        interLinkSet.add(link);
-        touchInterLink(link);
-        updateTopology();
+        LinkKey key = LinkKey.linkKey(link);
+        linkDelayChanged(key, oldDelay, newDelay);
+        sharedLinkDelays.put(key, newDelay);
     }
 
-    private void processHostUpdate(DeviceId deviceId, List<OXPHost> hosts) {
-        Map<HostId, OXPHost> map = hostMap.get(deviceId);
-        if (null == map) {
-            map = new HashMap<>();
-            hostMap.put(deviceId, map);
+    /**
+     * Evicts the cached paths over an inter-link and the candidate routes by
+     * delay when its delay estimate moves by more than the path cache
+     * threshold.
+     */
+    private void linkDelayChanged(LinkKey key, long oldDelay, long newDelay) {
+        if (oldDelay == OxpSuperLatencyTracker.UNKNOWN
+                || Math.abs(newDelay - oldDelay) * 100 >= Math.max(oldDelay, 1) * pathCacheLoadThreshold) {
+            pathCache.invalidateLink(key);
+            routeCache.keySet().removeIf(routeKey -> routeKey.byDelay);
+        }
+    }
+
+    private void processEchoReply(DeviceId deviceId, OXPEchoReply echoReply) {
+        byte[] data = echoReply.getData();
+        // 只处理Super发出的时延探测, 数据为8字节发送时间
+        if (null == data || data.length != Long.BYTES) {
+            return;
+        }
+        long sent = ByteBuffer.wrap(data).getLong();
+        latencyTracker.recordEcho(deviceId, OxpSuperMessageDispatcher.receiveTime() - sent);
+    }
+
+    private void sendEchoProbe(OXPDomain domain) {
+        byte[] data = ByteBuffer.allocate(Long.BYTES).putLong(System.nanoTime()).array();
+        domain.sendMsg(domain.factory().buildEchoRequest()
+                .setData(data)
+                .build());
+    }
+
+    /**
+     * Sends a timestamped LLDP out of the source vport of an inter-link; the
+     * peer domain reports it back like a discovery LLDP.
+     */
+    private void sendLinkProbe(Link link) {
+        OXPDomain domain = superController.getOxpDomain(link.src().deviceId());
+        if (null == domain || !domain.isConnected()) {
+            return;
+        }
+        long domainId = domain.getDomainId().getLong();
+        int vport = (int) link.src().port().toLong();
+        OXPLLDP probe = OXPLLDP.oxpLLDP(domainId, vport, domainId, vport);
+        probe.setTimestamp(System.nanoTime());
+        Ethernet ethPacket = new Ethernet();
+        ethPacket.setEtherType(Ethernet.TYPE_LLDP);
+        ethPacket.setDestinationMACAddress(ONOSLLDP.LLDP_NICIRA);
+        ethPacket.setPad(true);
+        ethPacket.setSourceMACAddress(PROBE_SRC_MAC).setPayload(probe);
+        if (domain.isCompressedMode()) {
+            superController.sendSbpPacketOut(domain.getDeviceId(), link.src().port(), ethPacket.serialize());
+            return;
         }
+        OFActionOutput act = domain.ofFactory().actions()
+                .buildOutput()
+                .setPort(OFPort.of(vport))
+                .build();
+        OFPacketOut pktout = domain.ofFactory().buildPacketOut()
+                .setBufferId(OFBufferId.NO_BUFFER)
+                .setInPort(OFPort.of((int) OXPVport.LOCAL.getPortNumber()))
+                .setActions(Collections.singletonList(act))
+                .setData(ethPacket.serialize())
+                .build();
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+        pktout.writeTo(buffer);
+        Set<OXPSbpFlags> sbpFlagses = new HashSet<>();
+        sbpFlagses.add(OXPSbpFlags.DATA_EXIST);
+        OXPSbp oxpSbp = domain.factory().buildSbp()
+                .setSbpCmpType(OXPSbpCmpType.NORMAL)
+                .setFlags(sbpFlagses)
+                .setSbpData(OXPSbpData.read(buffer, buffer.readableBytes(), domain.getOxpVersion()))
+                .build();
+        superController.sendMsg(domain.getDeviceId(), oxpSbp);
+    }
+
+    private void processHostUpdate(DeviceId deviceId, List<OXPHost> hosts) {
         for (OXPHost host : hosts) {
-            HostId hostId = HostId.hostId(MacAddress.valueOf(host.getMacAddress().getLong()));
-            if (host.getState().equals(OXPHostState.ACTIVE)) {
-                map.put(hostId, host);
-            } else {
-                map.remove(hostId);
+            hostDirectory.update(deviceId, host);
+        }
+    }
+
+    /**
+     * Returns the version of the super topology graph; it changes whenever
+     * a domain or an inter-link is added or removed.
+     *
+     * @return topology version
+     */
+    public long getTopologyVersion() {
+        return topoGraph.version();
+    }
+
+    /**
+     * Schedules publication of a new topology snapshot. Bursts of changes
+     * within TOPO_PUBLISH_DELAY are coalesced into a single rebuild.
+     */
+    private void topologyChanged() {
+        if (publishScheduled.compareAndSet(false, true)) {
+            try {
+                executor.schedule(this::publishTopology, TOPO_PUBLISH_DELAY, MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                publishScheduled.set(false);
             }
+        }
+    }
 
+    private void publishTopology() {
+        publishScheduled.set(false);
+        GraphDescription graphDescription = topoGraph.takeSnapshotIfChanged();
+        if (null == graphDescription) {
+            return;
         }
+        DefaultTopology oldTopo = currentTopo;
+        DefaultTopology newTopo = new DefaultTopology(ProviderId.NONE, graphDescription);
+        currentTopo = newTopo;
+        invalidatePaths(oldTopo.getGraph(), newTopo.getGraph());
     }
 
-    synchronized private void updateTopology() {
-        Set<OXPDomain> domainSet = superController.getOxpDomains();
-        Set<DeviceId> devices = new HashSet<>();
-        for (OXPDomain domain : domainSet) {
-            devices.add(domain.getDeviceId());
+    /**
+     * Evicts cached paths going through removed links or domains. Any new
+     * link or domain may offer a better path, so it flushes the cache.
+     */
+    private void invalidatePaths(TopologyGraph oldGraph, TopologyGraph newGraph) {
+        if (!oldGraph.getVertexes().containsAll(newGraph.getVertexes())
+                || !oldGraph.getEdges().containsAll(newGraph.getEdges())) {
+            pathCache.clear();
+            return;
+        }
+        for (TopologyVertex vertex : oldGraph.getVertexes()) {
+            if (!newGraph.getVertexes().contains(vertex)) {
+                pathCache.invalidateDevice(vertex.deviceId());
+            }
+        }
+        for (TopologyEdge edge : oldGraph.getEdges()) {
+            if (!newGraph.getEdges().contains(edge)) {
+                pathCache.invalidateLink(edge.link());
+            }
         }
-        GraphDescription graphDescription = new DefaultGraphDescription(System.nanoTime(),
-                System.currentTimeMillis(),
-                superController.getDevices(),
-                getInterlinks()
-                );
-        DefaultTopology newTopology = new DefaultTopology(ProviderId.NONE, graphDescription);
-        currentTopo = newTopology;
     }
 
 
@@ -923,36 +1231,23 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
                 processHostUpdate(deviceId, hostReply.getHosts());
                 return;
             }
-            if (msg.getType() == OXPType.OXPT_SBP) {
-                OXPSbp sbp = (OXPSbp) msg;
-                Ethernet eth = null;
-                PortNumber inPort = null;
-                if (sbp.getSbpCmpType().equals(OXPSbpCmpType.NORMAL)) {
-                    ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
-                    sbp.getSbpData().writeTo(buffer);
-                    OFMessage ofMsg = superController.parseOfMessage(sbp);
-                    //只处理packet-in消息
-                    if (null == ofMsg || ofMsg.getType() != OFType.PACKET_IN) {
-                        return;
-                    }
-                    OFPacketIn packetIn = (OFPacketIn) ofMsg;
-                    inPort = PortNumber.portNumber(packetIn.getMatch().get(MatchField.IN_PORT).getPortNumber());
-                    eth = superController.parseEthernet(packetIn.getData());
-                } else if (sbp.getSbpCmpType().equals(OXPSbpCmpType.FORWARDING_REQUEST)){
-                    OXPForwardingRequest sbpCmpFwdReq = (OXPForwardingRequest)sbp.getSbpCmpData();
-                    inPort = PortNumber.portNumber(sbpCmpFwdReq.getInport());
-                    eth = superController.parseEthernet(sbpCmpFwdReq.getData());
-                }
-                if (null == eth) {
-                    return;
-                }
-                if (eth.getEtherType() == TYPE_LLDP) {
-                    processOxpLldp(deviceId, eth, inPort);
-                    return;
-                }
+            if (msg.getType() == OXPType.OXPT_ECHO_REPLY) {
+                processEchoReply(deviceId, (OXPEchoReply) msg);
                 return;
             }
+        }
 
+        @Override
+        public void handlePacketIn(DeviceId deviceId, SbpPacketInContext context) {
+            // peek at the ether type so that non-LLDP packets are never decoded here
+            if (context.etherType() != TYPE_LLDP) {
+                return;
+            }
+            Ethernet eth = context.ethernet();
+            if (null == eth) {
+                return;
+            }
+            processOxpLldp(deviceId, eth, context.inPort());
         }
 
         @Override
@@ -964,38 +1259,150 @@ public class OxpSuperTopoManager implements OxpSuperTopoService {
     class InternalDomainListener implements OxpDomainListener {
         @Override
         public void domainConnected(OXPDomain domain) {
-
+            domainStore.addDomain(domain.getDeviceId());
+            hostDirectory.addDomain(domain.getDeviceId());
+            Device device = superController.getDevice(domain.getDeviceId());
+            if (null != device && topoGraph.addDevice(device)) {
+                topologyChanged();
+            }
         }
 
         @Override
         public void domainDisconnected(OXPDomain domain) {
-            for (PortNumber vport : vportMap.get(domain.getDeviceId())) {
-                ConnectPoint vportLocation = new ConnectPoint(domain.getDeviceId(), vport);
-                vportDescMap.remove(vportLocation);
-                vportMaxCapabilityMap.remove(vportLocation);
-                vportLoadCapabilityMap.remove(vportLocation);
+            domainStore.removeDomain(domain.getDeviceId());
+            hostDirectory.removeDomain(domain.getDeviceId());
+            latencyTracker.removeDomain(domain.getDeviceId());
+            sharedLinkDelays.keySet().stream()
+                    .filter(key -> key.src().deviceId().equals(domain.getDeviceId())
+                            || key.dst().deviceId().equals(domain.getDeviceId()))
+                    .forEach(sharedLinkDelays::remove);
+            if (topoGraph.removeDevice(domain.getDeviceId())) {
+                topologyChanged();
+            }
+        }
+    }
+
+    /**
+     * Applies the inter-link delays measured by other nodes.
+     */
+    private class InternalLinkDelayListener implements EventuallyConsistentMapListener<LinkKey, Long> {
+        @Override
+        public void event(EventuallyConsistentMapEvent<LinkKey, Long> event) {
+            LinkKey key = event.key();
+            switch (event.type()) {
+                case PUT:
+                    // 本节点测得的时延在测量时已生效
+                    if (superController.isLocalDomain(key.src().deviceId())
+                            && superController.isLocalDomain(key.dst().deviceId())) {
+                        return;
+                    }
+                    long oldDelay = latencyTracker.putLinkDelay(key, event.value());
+                    if (oldDelay != event.value()) {
+                        linkDelayChanged(key, oldDelay, event.value());
+                    }
+                    break;
+                case REMOVE:
+                    latencyTracker.removeLink(key);
+                    break;
+                default:
+            }
+        }
+    }
+
+    /**
+     * Weighs inter-links by their measured delay, in us. Links not measured
+     * yet weigh UNKNOWN_DELAY_WEIGHT.
+     */
+    private class DelayLinkWeight implements LinkWeight {
+        @Override
+        public double weight(TopologyEdge edge) {
+            if (edge.link().state() == Link.State.INACTIVE) {
+                return Double.MAX_VALUE;
+            }
+            long delay = latencyTracker.getLinkDelay(edge.link());
+            if (delay == OxpSuperLatencyTracker.UNKNOWN) {
+                return UNKNOWN_DELAY_WEIGHT;
             }
-            vportMap.remove(domain.getDeviceId());
+            return delay / 1000.0;
         }
     }
 
-    private class HopLinkWeight implements LinkWeight {
+    private static class HopLinkWeight implements LinkWeight {
         @Override
         public double weight(TopologyEdge edge) {
 
-            return 0;
+            return 1;
+        }
+    }
+
+    private static final class RouteKey {
+        private final DeviceId src;
+        private final DeviceId dst;
+        private final boolean byDelay;
+
+        private RouteKey(DeviceId src, DeviceId dst, boolean byDelay) {
+            this.src = src;
+            this.dst = dst;
+            this.byDelay = byDelay;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(src, dst, byDelay);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof RouteKey)) {
+                return false;
+            }
+            RouteKey that = (RouteKey) obj;
+            return src.equals(that.src) && dst.equals(that.dst) && byDelay == that.byDelay;
         }
     }
+    /**
+     * Sends echo requests to the domains and LLDP probes over the
+     * inter-links, while paths are computed by delay.
+     */
+    class LatencyProbeTask implements Runnable {
+        @Override
+        public void run() {
+            if (!isDelayMode()) {
+                return;
+            }
+            try {
+                // 各节点只探测连接到本节点的Domain, 时间戳不跨节点比较
+                for (OXPDomain domain : superController.getOxpDomains()) {
+                    if (domain.isConnected() && superController.isLocalDomain(domain.getDeviceId())) {
+                        sendEchoProbe(domain);
+                    }
+                }
+                for (Link link : topoGraph.getLinks()) {
+                    if (superController.isLocalDomain(link.src().deviceId())) {
+                        sendLinkProbe(link);
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("Failed to send latency probes", e);
+            }
+        }
+    }
+
     class TopoPrunerTask implements Runnable {
         @Override
         public void run() {
-            for (Link link : interLinkSet) {
-                if (isStale(interLinkTimes.get(link))) {
+            for (Link link : topoGraph.getLinks()) {
+                Long lastSeen = interLinkTimes.get(link);
+                if (null == lastSeen || isStale(lastSeen)) {
                     removeInterLink(link);
                     log.debug("InterLink : {}--->{} is stale, remove it.", link.src().deviceId(), link.dst().deviceId());
+                    continue;
                 }
                 log.debug("InterLink : {}--->{} is in date, keep it. Live time: {}", link.src().deviceId(), link.dst().deviceId(),
-                        System.currentTimeMillis() - interLinkTimes.get(link));
+                        System.currentTimeMillis() - lastSeen);
             }
 
         }
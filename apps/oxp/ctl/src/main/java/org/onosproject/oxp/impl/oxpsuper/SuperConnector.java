@@ -1,6 +1,7 @@
 package org.onosproject.oxp.impl.oxpsuper;
 
 import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.AdaptiveReceiveBufferSizePredictorFactory;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
@@ -22,11 +23,21 @@ public class SuperConnector {
 
     private OxpSuperController superController;
 
+    // TODO move to Netty 4 (epoll when available, pooled ByteBuf, length-field framing,
+    // flush consolidation) together with DomainConnector; the protocol module and the
+    // OxpSuper/OXPDomain channel API are still Netty 3 ChannelBuffer/Channel based
     private NioServerSocketChannelFactory execFactory;
     protected static final int SEND_BUFFER_SIZE = 4 * 1024 * 1024;
+    protected static final int RECEIVE_BUFFER_SIZE = 4 * 1024 * 1024;
+    // 读缓冲按实际读到的数据量自适应, 突发的packet-in少读几次
+    protected static final int MIN_READ_SIZE = 1024;
+    protected static final int INITIAL_READ_SIZE = 16 * 1024;
+    protected static final int MAX_READ_SIZE = 256 * 1024;
+    protected static final int BACKLOG = 1024;
     protected long systemStartTime;
     private ChannelGroup cg;
-    protected int workerThreads = 16;
+    // 0: Netty默认, 即2倍CPU核数
+    protected int workerThreads = 0;
 
 
     public SuperConnector(OxpSuperController superController) {
@@ -34,6 +45,16 @@ public class SuperConnector {
     }
 
 
+    /**
+     * Sets the number of I/O worker threads; 0 uses twice the number of
+     * cores. Applied on the next start.
+     *
+     * @param workerThreads number of worker threads
+     */
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = Math.max(0, workerThreads);
+    }
+
     public void init() {
         this.systemStartTime = System.currentTimeMillis();
     }
@@ -43,9 +64,13 @@ public class SuperConnector {
             final ServerBootstrap bootstrap = createServerBootStrap();
 
             bootstrap.setOption("reuseAddr", true);
+            bootstrap.setOption("backlog", BACKLOG);
             bootstrap.setOption("child.keepAlive", true);
             bootstrap.setOption("child.tcpNoDelay", true);
             bootstrap.setOption("child.sendBufferSize", SEND_BUFFER_SIZE);
+            bootstrap.setOption("child.receiveBufferSize", RECEIVE_BUFFER_SIZE);
+            bootstrap.setOption("child.receiveBufferSizePredictorFactory",
+                    new AdaptiveReceiveBufferSizePredictorFactory(MIN_READ_SIZE, INITIAL_READ_SIZE, MAX_READ_SIZE));
 
             ChannelPipelineFactory pfact =
                     new OxpSuperPiplineFactory(this.superController);
@@ -53,7 +78,8 @@ public class SuperConnector {
             cg = new DefaultChannelGroup();
             InetSocketAddress sa = new InetSocketAddress(superController.getOxpSuperPort());
             cg.add(bootstrap.bind(sa));
-            log.info("Listening for domain connections on {}", sa);
+            log.info("Listening for domain connections on {} with {} worker threads", sa,
+                    workerThreads == 0 ? "default" : workerThreads);
 
         } catch (Exception e) {
             throw new RuntimeException(e);
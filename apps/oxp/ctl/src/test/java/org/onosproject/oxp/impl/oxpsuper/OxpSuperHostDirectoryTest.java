@@ -0,0 +1,140 @@
+package org.onosproject.oxp.impl.oxpsuper;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.oxp.protocol.OXPHostState;
+import org.onosproject.oxp.types.OXPHost;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.MacAddress;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the IPv4 index of the super host directory.
+ */
+public class OxpSuperHostDirectoryTest {
+
+    private static final int LAST_SLOT = OxpSuperHostDirectory.Ip4Index.INITIAL_CAPACITY - 1;
+
+    private OxpSuperHostDirectory.Ip4Index index;
+
+    @Before
+    public void setUp() {
+        index = new OxpSuperHostDirectory.Ip4Index();
+    }
+
+    private static OXPHost host(int ip, long mac) {
+        return OXPHost.of(IPv4Address.of(ip), MacAddress.of(mac),
+                IPv4Address.of("255.255.255.255"), OXPHostState.ACTIVE);
+    }
+
+    /**
+     * Returns keys whose home slot in the initial table is the given one.
+     */
+    private static List<Integer> keysAt(int slot, int count) {
+        List<Integer> keys = new ArrayList<>();
+        for (int key = 1; keys.size() < count; key++) {
+            if ((OxpSuperHostDirectory.Ip4Index.hash(key) & LAST_SLOT) == slot) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    @Test
+    public void testAddGet() {
+        OXPHost host1 = host(1, 1);
+        OXPHost host2 = host(1, 2);
+        index.add(1, host1);
+        index.add(1, host2);
+        index.add(1, host1);
+
+        assertEquals(ImmutableSet.of(host1, host2), index.get(1));
+        assertTrue(index.get(2).isEmpty());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testRemoveHost() {
+        OXPHost host1 = host(1, 1);
+        OXPHost host2 = host(1, 2);
+        index.add(1, host1);
+        index.add(1, host2);
+
+        index.remove(1, host(1, 3));
+        index.remove(2, host1);
+        assertEquals(ImmutableSet.of(host1, host2), index.get(1));
+
+        index.remove(1, host1);
+        assertEquals(ImmutableSet.of(host2), index.get(1));
+        index.remove(1, host2);
+        assertTrue(index.get(1).isEmpty());
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testDeleteWrapAroundCollisions() {
+        // three keys homed at the last slot take it and the first two slots,
+        // a key homed at the first slot lands after them
+        List<Integer> lastSlotKeys = keysAt(LAST_SLOT, 3);
+        int firstSlotKey = keysAt(0, 1).get(0);
+        List<Integer> keys = new ArrayList<>(lastSlotKeys);
+        keys.add(firstSlotKey);
+        for (int key : keys) {
+            index.add(key, host(key, key));
+        }
+
+        // deleting the head of the run shifts the entries back across the end
+        index.remove(lastSlotKeys.get(0), host(lastSlotKeys.get(0), lastSlotKeys.get(0)));
+        assertTrue(index.get(lastSlotKeys.get(0)).isEmpty());
+        for (int key : keys.subList(1, keys.size())) {
+            assertEquals(ImmutableSet.of(host(key, key)), index.get(key));
+        }
+
+        // a key is never shifted before its home slot
+        index.remove(lastSlotKeys.get(1), host(lastSlotKeys.get(1), lastSlotKeys.get(1)));
+        assertEquals(ImmutableSet.of(host(lastSlotKeys.get(2), lastSlotKeys.get(2))),
+                index.get(lastSlotKeys.get(2)));
+        assertEquals(ImmutableSet.of(host(firstSlotKey, firstSlotKey)), index.get(firstSlotKey));
+
+        index.remove(firstSlotKey, host(firstSlotKey, firstSlotKey));
+        assertEquals(ImmutableSet.of(host(lastSlotKeys.get(2), lastSlotKeys.get(2))),
+                index.get(lastSlotKeys.get(2)));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testResize() {
+        int count = OxpSuperHostDirectory.Ip4Index.INITIAL_CAPACITY;
+        for (int key = 1; key <= count; key++) {
+            index.add(key, host(key, key));
+        }
+        assertEquals(count, index.size());
+        assertTrue("expecting the table to grow", index.capacity() >= 2 * count);
+        for (int key = 1; key <= count; key++) {
+            assertEquals(ImmutableSet.of(host(key, key)), index.get(key));
+        }
+
+        for (int key = 1; key <= count; key += 2) {
+            index.remove(key, host(key, key));
+        }
+        assertEquals(count / 2, index.size());
+        for (int key = 1; key <= count; key++) {
+            assertEquals(key % 2 == 0, !index.get(key).isEmpty());
+        }
+    }
+
+    @Test
+    public void testClear() {
+        index.add(1, host(1, 1));
+        index.clear();
+        assertTrue(index.get(1).isEmpty());
+        assertEquals(0, index.size());
+        assertEquals(OxpSuperHostDirectory.Ip4Index.INITIAL_CAPACITY, index.capacity());
+    }
+}
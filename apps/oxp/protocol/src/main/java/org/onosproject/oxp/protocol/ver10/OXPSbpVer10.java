@@ -158,7 +158,7 @@ public class OXPSbpVer10 implements OXPSbp {
             // sbpData
             switch (message.sbpCmpType) {
                 case NORMAL:
-                    bb.writeBytes(message.sbpData.getData());
+                    message.sbpData.writeTo(bb);
                     break;
                 case FORWARDING_REQUEST:
                     message.sbpCmpData.writeTo(bb);
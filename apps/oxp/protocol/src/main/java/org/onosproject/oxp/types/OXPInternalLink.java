@@ -15,6 +15,12 @@ public class OXPInternalLink implements Writeable, PrimitiveSinkable {
 
     public static final int SINGLE_LENGTH = 12;
 
+    /**
+     * Capability of an intra link that no longer exists. Incremental
+     * topology replies use it to withdraw a previously reported link.
+     */
+    public static final long CAPABILITY_UNREACHABLE = Long.MAX_VALUE;
+
     private final OXPVport srcVport;
     private final OXPVport dstVport;
     private final long capability;
@@ -39,6 +45,16 @@ public class OXPInternalLink implements Writeable, PrimitiveSinkable {
         return capability;
     }
 
+    /**
+     * Returns whether the link reports no connectivity between its vports,
+     * i.e. carries the unreachable capability of hop or bandwidth mode.
+     *
+     * @return true if the link is withdrawn
+     */
+    public boolean isUnreachable() {
+        return capability == CAPABILITY_UNREACHABLE || capability == Long.MIN_VALUE;
+    }
+
     public static OXPInternalLink of(OXPVport srcVport, OXPVport dstVport, long capability,OXPVersion version) {
         return new OXPInternalLink(srcVport, dstVport, capability, version);
     }
@@ -6,11 +6,10 @@ import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.onosproject.oxp.exceptions.OXPParseError;
 import org.onosproject.oxp.protocol.*;
-import org.onosproject.oxp.util.ChannelUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Arrays;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * Created by cr on 16-7-22.
@@ -18,28 +17,71 @@ import java.util.Arrays;
 public class OXPSbpData implements Writeable, PrimitiveSinkable{
     private final static Logger logger = LoggerFactory.getLogger(OXPErrorCauseData.class);
 
-    public final static OXPSbpData NONE = new OXPSbpData(new byte[0], OXPVersion.OXP_10);
+    public final static OXPSbpData NONE = new OXPSbpData(ChannelBuffers.EMPTY_BUFFER, OXPVersion.OXP_10);
 
-    private final byte[] data;
+    // read-only view on the payload, may share memory with the inbound frame
+    private volatile ChannelBuffer data;
+    private volatile boolean released = false;
     private final OXPVersion version;
 
-    private OXPSbpData(byte[] data, OXPVersion version) {
+    private OXPSbpData(ChannelBuffer data, OXPVersion version) {
         this.data = data;
         this.version = version;
     }
 
+    /**
+     * Returns a copy of the payload.
+     * Prefer {@link #getBuffer()} on the hot path.
+     *
+     * @return payload bytes
+     */
     public byte[] getData() {
-        return Arrays.copyOf(data, data.length);
+        ChannelBuffer buffer = payload();
+        byte[] bytes = new byte[buffer.readableBytes()];
+        buffer.getBytes(buffer.readerIndex(), bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns a read-only view on the payload without copying it.
+     * Each call returns an independent reader index.
+     *
+     * @return payload buffer
+     */
+    public ChannelBuffer getBuffer() {
+        return payload().duplicate();
     }
 
     public int getLength() {
-        return data == null ? 0 : data.length;
+        return payload().readableBytes();
+    }
+
+    /**
+     * Drops the reference to the payload, so the inbound frame it slices
+     * can be reclaimed. Any later use of the data, including equals and
+     * hashCode, throws IllegalStateException; holders that need the payload
+     * beyond message handling must copy it first.
+     */
+    public void release() {
+        if (this != NONE) {
+            released = true;
+            data = ChannelBuffers.EMPTY_BUFFER;
+        }
+    }
+
+    public boolean isReleased() {
+        return released;
+    }
+
+    private ChannelBuffer payload() {
+        checkState(!released, "SBP data used after release");
+        return data;
     }
 
     public Optional<OXPMessage> getParsedMessage() {
         OXPFactory factory = OXPFactories.getFactory(version);
         try {
-            OXPMessage msg = factory.getReader().readFrom(ChannelBuffers.wrappedBuffer(data));
+            OXPMessage msg = factory.getReader().readFrom(getBuffer());
             if(msg != null)
                 return Optional.of(msg);
             else
@@ -51,22 +93,47 @@ public class OXPSbpData implements Writeable, PrimitiveSinkable{
     }
 
     public static OXPSbpData of(byte[] data, OXPVersion version) {
-        return new OXPSbpData(data, version);
+        return new OXPSbpData(ChannelBuffers.unmodifiableBuffer(ChannelBuffers.wrappedBuffer(data)), version);
     }
 
+    /**
+     * Wraps a buffer without copying it; the buffer content must not be
+     * modified afterwards.
+     *
+     * @param buffer  payload, from its reader index to its writer index
+     * @param version OXP version
+     * @return sbp data
+     */
+    public static OXPSbpData wrap(ChannelBuffer buffer, OXPVersion version) {
+        return new OXPSbpData(ChannelBuffers.unmodifiableBuffer(buffer), version);
+    }
+
+    /**
+     * Reads the payload as a slice of the given buffer, no bytes are copied.
+     *
+     * @param bb      buffer to read from
+     * @param length  payload length
+     * @param version OXP version
+     * @return sbp data
+     */
     public static OXPSbpData read(ChannelBuffer bb, int length, OXPVersion version) {
-        byte[] bytes = ChannelUtils.readBytes(bb, length);
-        return of(bytes, version);
+        return wrap(bb.readSlice(length), version);
     }
 
     @Override
     public void putTo(PrimitiveSink sink) {
-        sink.putBytes(data);
+        ChannelBuffer buffer = payload();
+        if (buffer.hasArray()) {
+            sink.putBytes(buffer.array(), buffer.arrayOffset() + buffer.readerIndex(), buffer.readableBytes());
+        } else {
+            sink.putBytes(getData());
+        }
     }
 
     @Override
     public void writeTo(ChannelBuffer bb) {
-        bb.writeBytes(data);
+        ChannelBuffer buffer = payload();
+        bb.writeBytes(buffer, buffer.readerIndex(), buffer.readableBytes());
     }
 
     @Override
@@ -78,10 +145,20 @@ public class OXPSbpData implements Writeable, PrimitiveSinkable{
         if (getClass() != obj.getClass())
             return false;
         OXPSbpData other = (OXPSbpData) obj;
-        if (!Arrays.equals(data, other.data))
+        if (!ChannelBuffers.equals(payload(), other.payload()))
             return false;
         if (version != other.version)
             return false;
         return true;
     }
+
+    @Override
+    public int hashCode() {
+        return 31 * ChannelBuffers.hashCode(payload()) + (version == null ? 0 : version.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        return released ? "OXPSbpData(released)" : "OXPSbpData(length=" + data.readableBytes() + ")";
+    }
 }
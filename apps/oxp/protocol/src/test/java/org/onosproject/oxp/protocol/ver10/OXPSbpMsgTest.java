@@ -66,6 +66,32 @@ public class OXPSbpMsgTest extends TestBaseVer10 {
         assertThat(echoRequest, is(sbpDataParsed));
     }
 
+    @Test
+    public void OXPSbpDataSliceTest() throws Exception {
+        byte[] data = new byte[] {1, 2, 3, 4, 5};
+        ChannelBuffer frame = ChannelBuffers.wrappedBuffer(new byte[] {9, 9}, data, new byte[] {9});
+        frame.skipBytes(2);
+        OXPSbpData slice = OXPSbpData.read(frame, data.length, OXPVersion.OXP_10);
+        assertThat(frame.readableBytes(), is(1));
+        assertThat(slice.getLength(), is(data.length));
+        assertThat(slice, is(OXPSbpData.of(data, OXPVersion.OXP_10)));
+
+        ChannelBuffer out = ChannelBuffers.dynamicBuffer();
+        slice.writeTo(out);
+        slice.writeTo(out);
+        assertThat(out.readableBytes(), is(2 * data.length));
+
+        slice.release();
+        assertThat(slice.isReleased(), is(true));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void OXPSbpDataUseAfterReleaseTest() throws Exception {
+        OXPSbpData data = OXPSbpData.of(new byte[] {1, 2, 3}, OXPVersion.OXP_10);
+        data.release();
+        data.hashCode();
+    }
+
     @Test
     public void OXPSbpFwdReqMsgTest() throws Exception{
 
@@ -4,10 +4,13 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.onlab.packet.Ip4Address;
 import org.onlab.packet.IpAddress;
+import org.onlab.osgi.ServiceNotFoundException;
 import org.onlab.packet.MacAddress;
 import org.onosproject.net.*;
 import org.onosproject.oxp.OXPDomain;
+import org.onosproject.oxp.domain.OxpDomainRoutingService;
 import org.onosproject.oxp.oxpsuper.OxpSuperController;
+import org.onosproject.oxp.oxpsuper.OxpSuperRoutingService;
 import org.onosproject.oxp.oxpsuper.OxpSuperTopoService;
 import org.onosproject.oxp.protocol.OXPConfigFlags;
 import org.onosproject.oxp.protocol.OXPType;
@@ -18,9 +21,11 @@ import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.core.Response;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.onosproject.net.DeviceId.deviceId;
@@ -169,6 +174,61 @@ public class OxpRestResource extends AbstractWebResource {
         return ok(root).build();
     }
 
+    /**
+     * Returns the counters of every OXP component.
+     *
+     * @return counters by component
+     */
+    @GET
+    @Path("/statis")
+    public Response statis() {
+        ObjectNode root = mapper().createObjectNode();
+        statisSources().forEach((name, source) -> putStatis(root, name, source));
+        return ok(root).build();
+    }
+
+    /**
+     * Returns the counters of one OXP component: dispatch, pathCache, batch,
+     * pending, flood or latency.
+     *
+     * @param name component name
+     * @return counters of the component
+     */
+    @GET
+    @Path("/statis/{name}")
+    public Response statis(@PathParam("name") String name) {
+        Supplier<Map<String, Long>> source = statisSources().get(name);
+        if (null == source) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        ObjectNode root = mapper().createObjectNode();
+        putStatis(root, name, source);
+        return ok(root).build();
+    }
+
+    private Map<String, Supplier<Map<String, Long>>> statisSources() {
+        Map<String, Supplier<Map<String, Long>>> sources = new LinkedHashMap<>();
+        sources.put("dispatch", () -> get(OxpSuperController.class).getDispatchStatis());
+        sources.put("pathCache", () -> get(OxpSuperTopoService.class).getPathCacheStatis());
+        sources.put("batch", () -> get(OxpSuperController.class).getBatchStatis());
+        sources.put("pending", () -> get(OxpDomainRoutingService.class).getPendingStatis());
+        sources.put("flood", () -> get(OxpSuperRoutingService.class).getFloodStatis());
+        sources.put("latency", () -> get(OxpSuperTopoService.class).getLatencyStatis());
+        return sources;
+    }
+
+    private void putStatis(ObjectNode root, String name, Supplier<Map<String, Long>> source) {
+        Map<String, Long> statis;
+        try {
+            statis = source.get();
+        } catch (ServiceNotFoundException e) {
+            // 组件未运行时不输出其计数
+            return;
+        }
+        ObjectNode statisNode = root.putObject(name);
+        statis.forEach(statisNode::put);
+    }
+
     @GET
     @Path("/getPath/{src}/{dst}")
     public Response getPath(@PathParam("src") String src, @PathParam("dst") String dst) {
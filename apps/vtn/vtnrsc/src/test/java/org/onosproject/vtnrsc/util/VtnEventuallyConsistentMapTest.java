@@ -234,6 +234,16 @@ public final class VtnEventuallyConsistentMapTest<K, V> extends VtnEventuallyCon
             return this;
         }
 
+        @Override
+        public EventuallyConsistentMapBuilder<K, V> withMerkleTreeAntiEntropy() {
+            return this;
+        }
+
+        @Override
+        public EventuallyConsistentMapBuilder<K, V> withOffHeapStorage(int cacheSize) {
+            return this;
+        }
+
         @Override
         public EventuallyConsistentMap<K, V> build() {
             if (name == null) {
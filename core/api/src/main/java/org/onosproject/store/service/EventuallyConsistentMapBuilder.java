@@ -190,6 +190,37 @@ public interface EventuallyConsistentMapBuilder<K, V> {
      */
     EventuallyConsistentMapBuilder<K, V> withPersistence();
 
+    /**
+     * Configures anti-entropy to exchange a hash tree of the map, bucketed by
+     * key hash, instead of the digest of every entry. Peers only descend into
+     * the subtrees whose hashes differ, and exchange entry digests for the
+     * differing buckets only. Suited to large maps whose replicas are
+     * identical most of the time.
+     * <p>
+     * The default behavior is to advertise the digest of every entry.
+     * </p>
+     *
+     * @return this EventuallyConsistentMapBuilder
+     */
+    EventuallyConsistentMapBuilder<K, V> withMerkleTreeAntiEntropy();
+
+    /**
+     * Configures the map to keep its entries serialized in direct memory,
+     * outside of the Java heap, instead of as objects. Entries are decoded on
+     * every read, except for the most recently read ones which are kept
+     * decoded on heap. Suited to large maps with bulky values that are
+     * mostly read one key at a time.
+     * <p>
+     * The default behavior is to keep entries on heap. Cannot be combined
+     * with persistence.
+     * </p>
+     *
+     * @param cacheSize maximum number of decoded values kept on heap;
+     *                  0 to decode every read
+     * @return this EventuallyConsistentMapBuilder
+     */
+    EventuallyConsistentMapBuilder<K, V> withOffHeapStorage(int cacheSize);
+
     /**
      * Builds an eventually consistent map based on the configuration options
      * supplied to this builder.
@@ -231,6 +231,16 @@ public final class TestEventuallyConsistentMap<K, V> extends EventuallyConsisten
             return this;
         }
 
+        @Override
+        public EventuallyConsistentMapBuilder<K, V> withMerkleTreeAntiEntropy() {
+            return this;
+        }
+
+        @Override
+        public EventuallyConsistentMapBuilder<K, V> withOffHeapStorage(int cacheSize) {
+            return this;
+        }
+
         @Override
         public EventuallyConsistentMap<K, V> build() {
             if (name == null) {
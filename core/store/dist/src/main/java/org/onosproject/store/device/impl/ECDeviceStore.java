@@ -23,18 +23,25 @@ import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.apache.felix.scr.annotations.Service;
 import org.onlab.packet.ChassisId;
 import org.onlab.util.KryoNamespace;
 import org.onlab.util.SharedExecutors;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.cluster.ClusterService;
 import org.onosproject.cluster.NodeId;
+import org.onosproject.mastership.MastershipEvent;
+import org.onosproject.mastership.MastershipListener;
 import org.onosproject.mastership.MastershipService;
 import org.onosproject.mastership.MastershipTermService;
 import org.onosproject.net.Annotations;
 import org.onosproject.net.AnnotationsUtil;
+import org.onosproject.net.ConnectPoint;
 import org.onosproject.net.DefaultAnnotations;
 import org.onosproject.net.DefaultDevice;
 import org.onosproject.net.DefaultPort;
@@ -61,6 +68,7 @@ import org.onosproject.net.device.PortStatistics;
 import org.onosproject.net.provider.ProviderId;
 import org.onosproject.store.AbstractStore;
 import org.onosproject.store.cluster.messaging.ClusterCommunicationService;
+import org.onosproject.store.cluster.messaging.MessageSubject;
 import org.onosproject.store.impl.MastershipBasedTimestamp;
 import org.onosproject.store.serializers.KryoNamespaces;
 import org.onosproject.store.serializers.StoreSerializer;
@@ -74,22 +82,30 @@ import org.onosproject.store.service.SetEvent;
 import org.onosproject.store.service.SetEventListener;
 import org.onosproject.store.service.StorageService;
 import org.onosproject.store.service.WallClockTimestamp;
+import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Dictionary;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Strings.isNullOrEmpty;
 import static com.google.common.base.Verify.verify;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static org.onlab.util.Tools.get;
+import static org.onlab.util.Tools.groupedThreads;
 import static org.onosproject.net.DefaultAnnotations.merge;
 import static org.onosproject.net.device.DeviceEvent.Type.DEVICE_ADDED;
 import static org.onosproject.net.device.DeviceEvent.Type.DEVICE_AVAILABILITY_CHANGED;
@@ -100,7 +116,9 @@ import static org.onosproject.net.device.DeviceEvent.Type.PORT_STATS_UPDATED;
 import static org.onosproject.net.device.DeviceEvent.Type.PORT_UPDATED;
 import static org.onosproject.store.device.impl.GossipDeviceStoreMessageSubjects.DEVICE_INJECTED;
 import static org.onosproject.store.device.impl.GossipDeviceStoreMessageSubjects.DEVICE_REMOVE_REQ;
+import static org.onosproject.store.device.impl.GossipDeviceStoreMessageSubjects.PORT_DELTA_STATS_REQ;
 import static org.onosproject.store.device.impl.GossipDeviceStoreMessageSubjects.PORT_INJECTED;
+import static org.onosproject.store.device.impl.GossipDeviceStoreMessageSubjects.PORT_STATS_REQ;
 import static org.onosproject.store.service.EventuallyConsistentMapEvent.Type.PUT;
 import static org.onosproject.store.service.EventuallyConsistentMapEvent.Type.REMOVE;
 import static org.slf4j.LoggerFactory.getLogger;
@@ -117,6 +135,13 @@ public class ECDeviceStore
     private final Logger log = getLogger(getClass());
 
     private static final String DEVICE_NOT_FOUND = "Device with ID %s not found";
+    private static final int DEFAULT_PORT_STATS_REPLICATION_PERIOD_SEC = 0;
+    private static final long PORT_STATS_REQUEST_TIMEOUT_MILLIS = 2000;
+
+    @Property(name = "portStatsReplicationPeriod", intValue = DEFAULT_PORT_STATS_REPLICATION_PERIOD_SEC,
+            label = "Period in seconds at which summarized port statistics deltas are replicated " +
+                    "to the other nodes; 0 to keep port statistics on the master only")
+    private int portStatsReplicationPeriod = DEFAULT_PORT_STATS_REPLICATION_PERIOD_SEC;
 
     private final Map<DeviceId, Device> devices = Maps.newConcurrentMap();
     private final Map<DeviceId, Map<PortNumber, Port>> devicePorts = Maps.newConcurrentMap();
@@ -124,8 +149,19 @@ public class ECDeviceStore
 
     private EventuallyConsistentMap<DeviceKey, DeviceDescription> deviceDescriptions;
     private EventuallyConsistentMap<PortKey, PortDescription> portDescriptions;
-    private EventuallyConsistentMap<DeviceId, Map<PortNumber, PortStatistics>> devicePortStats;
-    private EventuallyConsistentMap<DeviceId, Map<PortNumber, PortStatistics>> devicePortDeltaStats;
+
+    // statistics of the ports of the devices this node is master of
+    private final Map<DeviceId, Map<PortNumber, PortStatistics>> devicePortStats = Maps.newConcurrentMap();
+    private final Map<DeviceId, Map<PortNumber, PortStatistics>> devicePortDeltaStats = Maps.newConcurrentMap();
+    // statistics as of their last replication, deltas are summarized from them
+    private final Map<DeviceId, Map<PortNumber, PortStatistics>> replicatedPortStats = Maps.newConcurrentMap();
+    // summarized deltas replicated by the masters, and their index by device
+    private EventuallyConsistentMap<ConnectPoint, PortStatistics> portDeltaStatsSummaries;
+    private final Map<DeviceId, Map<PortNumber, PortStatistics>> summarizedPortDeltaStats =
+            Maps.newConcurrentMap();
+
+    private ScheduledExecutorService portStatsExecutor;
+    private ScheduledFuture<?> portStatsReplicationTask;
 
     private DistributedSet<DeviceId> availableDevices;
 
@@ -147,15 +183,19 @@ public class ECDeviceStore
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected ClusterService clusterService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected ComponentConfigService configService;
+
     private NodeId localNodeId;
     private EventuallyConsistentMapListener<DeviceKey, DeviceDescription> deviceUpdateListener =
             new InternalDeviceChangeEventListener();
     private EventuallyConsistentMapListener<PortKey, PortDescription> portUpdateListener =
             new InternalPortChangeEventListener();
-    private final EventuallyConsistentMapListener<DeviceId, Map<PortNumber, PortStatistics>> portStatsListener =
+    private final EventuallyConsistentMapListener<ConnectPoint, PortStatistics> portStatsListener =
             new InternalPortStatsListener();
     private final SetEventListener<DeviceId> deviceStatusTracker =
             new InternalDeviceStatusTracker();
+    private final MastershipListener mastershipListener = new InternalMastershipListener();
 
     protected static final StoreSerializer SERIALIZER = StoreSerializer.using(
                   KryoNamespace.newBuilder()
@@ -174,7 +214,8 @@ public class ECDeviceStore
             .register(MastershipBasedTimestamp.class);
 
     @Activate
-    public void activate() {
+    public void activate(ComponentContext context) {
+        configService.registerProperties(getClass());
         localNodeId = clusterService.getLocalNode().id();
 
         deviceDescriptions = storageService.<DeviceKey, DeviceDescription>eventuallyConsistentMapBuilder()
@@ -199,19 +240,11 @@ public class ECDeviceStore
                     }
                 }).build();
 
-        devicePortStats = storageService.<DeviceId, Map<PortNumber, PortStatistics>>eventuallyConsistentMapBuilder()
-                .withName("onos-port-stats")
-                .withSerializer(SERIALIZER_BUILDER)
-                .withAntiEntropyPeriod(5, TimeUnit.SECONDS)
-                .withTimestampProvider((k, v) -> new WallClockTimestamp())
-                .withTombstonesDisabled()
-                .build();
-
-        devicePortDeltaStats = storageService.<DeviceId, Map<PortNumber, PortStatistics>>
-                eventuallyConsistentMapBuilder()
-                .withName("onos-port-stats-delta")
+        // reads are served by the index by device, entries are only kept for replication
+        portDeltaStatsSummaries = storageService.<ConnectPoint, PortStatistics>eventuallyConsistentMapBuilder()
+                .withName("onos-port-stats-delta-summaries")
                 .withSerializer(SERIALIZER_BUILDER)
-                .withAntiEntropyPeriod(5, TimeUnit.SECONDS)
+                .withOffHeapStorage(0)
                 .withTimestampProvider((k, v) -> new WallClockTimestamp())
                 .withTombstonesDisabled()
                 .build();
@@ -228,6 +261,18 @@ public class ECDeviceStore
                 SERIALIZER::encode,
                 SharedExecutors.getPoolThreadExecutor());
 
+        clusterCommunicator.addSubscriber(PORT_STATS_REQ,
+                SERIALIZER::decode,
+                this::getLocalPortStatistics,
+                SERIALIZER::encode,
+                SharedExecutors.getPoolThreadExecutor());
+
+        clusterCommunicator.addSubscriber(PORT_DELTA_STATS_REQ,
+                SERIALIZER::decode,
+                this::getLocalPortDeltaStatistics,
+                SERIALIZER::encode,
+                SharedExecutors.getPoolThreadExecutor());
+
         availableDevices = storageService.<DeviceId>setBuilder()
                 .withName("onos-online-devices")
                 .withSerializer(Serializer.using(KryoNamespaces.API))
@@ -238,28 +283,79 @@ public class ECDeviceStore
 
         deviceDescriptions.addListener(deviceUpdateListener);
         portDescriptions.addListener(portUpdateListener);
-        devicePortStats.addListener(portStatsListener);
+        portDeltaStatsSummaries.addListener(portStatsListener);
         availableDevices.addListener(deviceStatusTracker);
+        mastershipService.addListener(mastershipListener);
+
+        portStatsExecutor = newSingleThreadScheduledExecutor(
+                groupedThreads("onos/store/device", "port-stats-replicator", log));
+        modified(context);
         log.info("Started");
     }
 
     @Deactivate
     public void deactivate() {
-        devicePortStats.removeListener(portStatsListener);
+        configService.unregisterProperties(getClass(), false);
+        portStatsExecutor.shutdownNow();
+        mastershipService.removeListener(mastershipListener);
+        portDeltaStatsSummaries.removeListener(portStatsListener);
         deviceDescriptions.removeListener(deviceUpdateListener);
         portDescriptions.removeListener(portUpdateListener);
         availableDevices.removeListener(deviceStatusTracker);
-        devicePortStats.destroy();
-        devicePortDeltaStats.destroy();
+        portDeltaStatsSummaries.destroy();
         deviceDescriptions.destroy();
         portDescriptions.destroy();
         devices.clear();
         devicePorts.clear();
+        devicePortStats.clear();
+        devicePortDeltaStats.clear();
+        replicatedPortStats.clear();
+        summarizedPortDeltaStats.clear();
         clusterCommunicator.removeSubscriber(DEVICE_INJECTED);
         clusterCommunicator.removeSubscriber(PORT_INJECTED);
+        clusterCommunicator.removeSubscriber(PORT_STATS_REQ);
+        clusterCommunicator.removeSubscriber(PORT_DELTA_STATS_REQ);
         log.info("Stopped");
     }
 
+    @SuppressWarnings("rawtypes")
+    @Modified
+    public void modified(ComponentContext context) {
+        if (context == null) {
+            return;
+        }
+
+        Dictionary properties = context.getProperties();
+        int newPortStatsReplicationPeriod;
+        try {
+            String s = get(properties, "portStatsReplicationPeriod");
+            newPortStatsReplicationPeriod = isNullOrEmpty(s)
+                    ? portStatsReplicationPeriod : Integer.parseInt(s.trim());
+        } catch (NumberFormatException | ClassCastException e) {
+            newPortStatsReplicationPeriod = DEFAULT_PORT_STATS_REPLICATION_PERIOD_SEC;
+        }
+
+        if (newPortStatsReplicationPeriod != portStatsReplicationPeriod) {
+            portStatsReplicationPeriod = newPortStatsReplicationPeriod;
+            if (portStatsReplicationTask != null) {
+                portStatsReplicationTask.cancel(false);
+                portStatsReplicationTask = null;
+            }
+            replicatedPortStats.clear();
+            if (portStatsReplicationPeriod > 0) {
+                schedulePortStatsReplication();
+            }
+        }
+        log.info("Settings: portStatsReplicationPeriod={}", portStatsReplicationPeriod);
+    }
+
+    private void schedulePortStatsReplication() {
+        portStatsReplicationTask = portStatsExecutor.scheduleWithFixedDelay(this::replicatePortStatistics,
+                                                                            portStatsReplicationPeriod,
+                                                                            portStatsReplicationPeriod,
+                                                                            TimeUnit.SECONDS);
+    }
+
     @Override
     public Iterable<Device> getDevices() {
         return devices.values();
@@ -584,32 +680,25 @@ public class ECDeviceStore
             DeviceId deviceId,
             Collection<PortStatistics> newStatsCollection) {
 
-        Map<PortNumber, PortStatistics> prvStatsMap = devicePortStats.get(deviceId);
-        Map<PortNumber, PortStatistics> newStatsMap = Maps.newHashMap();
-        Map<PortNumber, PortStatistics> deltaStatsMap = Maps.newHashMap();
-
-        if (prvStatsMap != null) {
-            for (PortStatistics newStats : newStatsCollection) {
-                PortNumber port = PortNumber.portNumber(newStats.port());
-                PortStatistics prvStats = prvStatsMap.get(port);
-                DefaultPortStatistics.Builder builder = DefaultPortStatistics.builder();
-                PortStatistics deltaStats = builder.build();
-                if (prvStats != null) {
-                    deltaStats = calcDeltaStats(deviceId, prvStats, newStats);
-                }
-                deltaStatsMap.put(port, deltaStats);
-                newStatsMap.put(port, newStats);
-            }
-        } else {
-            for (PortStatistics newStats : newStatsCollection) {
-                PortNumber port = PortNumber.portNumber(newStats.port());
-                newStatsMap.put(port, newStats);
+        Map<PortNumber, PortStatistics> portStats =
+                devicePortStats.computeIfAbsent(deviceId, k -> Maps.newConcurrentMap());
+        Map<PortNumber, PortStatistics> portDeltaStats =
+                devicePortDeltaStats.computeIfAbsent(deviceId, k -> Maps.newConcurrentMap());
+        // no delta on the first poll of a device
+        boolean firstPoll = portStats.isEmpty();
+
+        for (PortStatistics newStats : newStatsCollection) {
+            PortNumber port = PortNumber.portNumber(newStats.port());
+            PortStatistics prvStats = portStats.put(port, newStats);
+            if (prvStats != null) {
+                portDeltaStats.put(port, calcDeltaStats(deviceId, prvStats, newStats));
+            } else if (!firstPoll) {
+                portDeltaStats.put(port, DefaultPortStatistics.builder().build());
             }
         }
-        devicePortDeltaStats.put(deviceId, deltaStatsMap);
-        devicePortStats.put(deviceId, newStatsMap);
-        // DeviceEvent returns null because of InternalPortStatsListener usage
-        return null;
+
+        Device device = devices.get(deviceId);
+        return device == null ? null : new DeviceEvent(PORT_STATS_UPDATED, device);
     }
 
     /**
@@ -649,20 +738,89 @@ public class ECDeviceStore
 
     @Override
     public List<PortStatistics> getPortStatistics(DeviceId deviceId) {
-        Map<PortNumber, PortStatistics> portStats = devicePortStats.get(deviceId);
-        if (portStats == null) {
-            return Collections.emptyList();
-        }
-        return ImmutableList.copyOf(portStats.values());
+        return getPortStatistics(deviceId, devicePortStats, PORT_STATS_REQ);
     }
 
     @Override
     public List<PortStatistics> getPortDeltaStatistics(DeviceId deviceId) {
-        Map<PortNumber, PortStatistics> portStats = devicePortDeltaStats.get(deviceId);
-        if (portStats == null) {
-            return Collections.emptyList();
+        if (portStatsReplicationPeriod > 0 && !localNodeId.equals(mastershipService.getMasterFor(deviceId))) {
+            return portStatistics(summarizedPortDeltaStats.get(deviceId));
+        }
+        return getPortStatistics(deviceId, devicePortDeltaStats, PORT_DELTA_STATS_REQ);
+    }
+
+    /**
+     * Returns port statistics of a device, fetching them from the master of
+     * the device if it is not the local node.
+     */
+    private List<PortStatistics> getPortStatistics(DeviceId deviceId,
+                                                   Map<DeviceId, Map<PortNumber, PortStatistics>> stats,
+                                                   MessageSubject subject) {
+        NodeId master = mastershipService.getMasterFor(deviceId);
+        if (master == null || localNodeId.equals(master)) {
+            return portStatistics(stats.get(deviceId));
+        }
+        return Tools.futureGetOrElse(clusterCommunicator.sendAndReceive(deviceId,
+                                                                        subject,
+                                                                        SERIALIZER::encode,
+                                                                        SERIALIZER::decode,
+                                                                        master),
+                                     PORT_STATS_REQUEST_TIMEOUT_MILLIS,
+                                     TimeUnit.MILLISECONDS,
+                                     Collections.emptyList());
+    }
+
+    private List<PortStatistics> getLocalPortStatistics(DeviceId deviceId) {
+        return portStatistics(devicePortStats.get(deviceId));
+    }
+
+    private List<PortStatistics> getLocalPortDeltaStatistics(DeviceId deviceId) {
+        return portStatistics(devicePortDeltaStats.get(deviceId));
+    }
+
+    private static List<PortStatistics> portStatistics(Map<PortNumber, PortStatistics> portStats) {
+        return portStats == null ? Collections.emptyList() : ImmutableList.copyOf(portStats.values());
+    }
+
+    /**
+     * Replicates, for the ports polled since the previous replication of the
+     * devices this node is master of, the delta accumulated since then.
+     */
+    private void replicatePortStatistics() {
+        try {
+            devicePortStats.forEach((deviceId, portStats) -> {
+                if (!localNodeId.equals(mastershipService.getMasterFor(deviceId))) {
+                    return;
+                }
+                Map<PortNumber, PortStatistics> replicated =
+                        replicatedPortStats.computeIfAbsent(deviceId, k -> Maps.newConcurrentMap());
+                portStats.forEach((port, stats) -> {
+                    PortStatistics previous = replicated.put(port, stats);
+                    if (previous != null && previous != stats) {
+                        portDeltaStatsSummaries.put(new ConnectPoint(deviceId, port),
+                                                    calcDeltaStats(deviceId, previous, stats));
+                    }
+                });
+            });
+        } catch (Exception e) {
+            // Catch all exceptions to avoid scheduled task being suppressed.
+            log.error("Exception thrown while replicating port statistics", e);
+        }
+    }
+
+    /**
+     * Discards the port statistics of a device.
+     *
+     * @param deviceId  device identifier
+     * @param summaries true to also remove the replicated summaries
+     */
+    private void purgePortStatistics(DeviceId deviceId, boolean summaries) {
+        devicePortStats.remove(deviceId);
+        devicePortDeltaStats.remove(deviceId);
+        Map<PortNumber, PortStatistics> replicated = replicatedPortStats.remove(deviceId);
+        if (summaries && replicated != null) {
+            replicated.keySet().forEach(port -> portDeltaStatsSummaries.remove(new ConnectPoint(deviceId, port)));
         }
-        return ImmutableList.copyOf(portStats.values());
     }
 
     @Override
@@ -714,6 +872,7 @@ public class ECDeviceStore
         if (removedDeviceDescription != null) {
             event = purgeDeviceCache(deviceId);
         }
+        purgePortStatistics(deviceId, true);
 
         if (relinquishAtEnd) {
             log.debug("Relinquishing temporary role acquired for {}", deviceId);
@@ -796,14 +955,35 @@ public class ECDeviceStore
     }
 
     private class InternalPortStatsListener
-        implements EventuallyConsistentMapListener<DeviceId, Map<PortNumber, PortStatistics>> {
+        implements EventuallyConsistentMapListener<ConnectPoint, PortStatistics> {
         @Override
-        public void event(EventuallyConsistentMapEvent<DeviceId, Map<PortNumber, PortStatistics>> event) {
+        public void event(EventuallyConsistentMapEvent<ConnectPoint, PortStatistics> event) {
+            DeviceId deviceId = event.key().deviceId();
+            PortNumber port = event.key().port();
             if (event.type() == PUT) {
-                Device device = devices.get(event.key());
-                if (device != null) {
-                    delegate.notify(new DeviceEvent(PORT_STATS_UPDATED, device));
+                summarizedPortDeltaStats.computeIfAbsent(deviceId, k -> Maps.newConcurrentMap())
+                        .put(port, event.value());
+                Device device = devices.get(deviceId);
+                // the master raised its own event when the statistics were polled
+                if (device != null && !localNodeId.equals(mastershipService.getMasterFor(deviceId))) {
+                    notifyDelegate(new DeviceEvent(PORT_STATS_UPDATED, device));
                 }
+            } else if (event.type() == REMOVE) {
+                summarizedPortDeltaStats.computeIfPresent(deviceId, (k, ports) -> {
+                    ports.remove(port);
+                    return ports.isEmpty() ? null : ports;
+                });
+            }
+        }
+    }
+
+    private class InternalMastershipListener implements MastershipListener {
+        @Override
+        public void event(MastershipEvent event) {
+            if (event.type() == MastershipEvent.Type.MASTER_CHANGED
+                    && !localNodeId.equals(event.roleInfo().master())) {
+                // the new master starts over, and replaces the summaries
+                purgePortStatistics(event.subject(), false);
             }
         }
     }
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2016-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.flow.impl;
+
+import com.google.common.collect.Maps;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.StoredFlowEntry;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * Flow entries of a device, hashed by flow id.
+ * <p>
+ * Entries sharing a flow id are chained in the same bucket. Chains are
+ * immutable and replaced as a whole by writers, which lock one of a fixed
+ * number of segments; readers take no lock. Iteration walks the live buckets
+ * without copying and is weakly consistent: it never fails with a concurrent
+ * modification, and sees every chain as it was at some point in time.
+ */
+final class DeviceFlowTable extends AbstractCollection<StoredFlowEntry> {
+
+    private static final int SEGMENT_COUNT = 16;
+    private static final int SEGMENT_SHIFT = 4;
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+    // flow entries written through to disk, null if not persisted
+    private final Map<FlowId, Map<StoredFlowEntry, StoredFlowEntry>> persistentEntries;
+
+    /**
+     * Creates an empty in-memory flow table.
+     */
+    DeviceFlowTable() {
+        this(null);
+    }
+
+    /**
+     * Creates a flow table loaded from and written through to the given map.
+     *
+     * @param persistentEntries flow entries by flow id, null for none
+     */
+    DeviceFlowTable(Map<FlowId, Map<StoredFlowEntry, StoredFlowEntry>> persistentEntries) {
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment();
+        }
+        if (persistentEntries != null) {
+            persistentEntries.values().forEach(entries -> entries.values().forEach(entry -> {
+                long flowId = entry.id().value();
+                segmentFor(hash(flowId)).put(flowId, entry, false);
+            }));
+        }
+        this.persistentEntries = persistentEntries;
+    }
+
+    /**
+     * Returns the stored flow entry equal to the given rule.
+     *
+     * @param rule flow rule
+     * @return stored flow entry, null if there is none
+     */
+    StoredFlowEntry get(FlowRule rule) {
+        long flowId = rule.id().value();
+        int hash = hash(flowId);
+        AtomicReferenceArray<Node> buckets = segmentFor(hash).buckets;
+        for (Node node = buckets.get(bucket(hash, buckets)); node != null; node = node.next) {
+            if (node.flowId == flowId && node.entry.equals(rule)) {
+                return node.entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores a flow entry, replacing the entry equal to it.
+     *
+     * @param entry flow entry
+     * @return replaced flow entry, null if there was none
+     */
+    StoredFlowEntry put(StoredFlowEntry entry) {
+        long flowId = entry.id().value();
+        return segmentFor(hash(flowId)).put(flowId, entry, true);
+    }
+
+    /**
+     * Removes the stored flow entry equal to the given rule.
+     *
+     * @param rule flow rule
+     * @return removed flow entry, null if there was none
+     */
+    StoredFlowEntry remove(FlowRule rule) {
+        return remove(rule, stored -> true);
+    }
+
+    /**
+     * Removes the stored flow entry equal to the given rule if it satisfies
+     * the given condition.
+     *
+     * @param rule      flow rule
+     * @param condition condition on the stored flow entry
+     * @return removed flow entry, null if none was removed
+     */
+    StoredFlowEntry remove(FlowRule rule, Predicate<StoredFlowEntry> condition) {
+        long flowId = rule.id().value();
+        return segmentFor(hash(flowId)).remove(flowId, rule, condition);
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+        if (persistentEntries != null) {
+            persistentEntries.clear();
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.count;
+        }
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof FlowRule && get((FlowRule) o) != null;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return o instanceof FlowRule && remove((FlowRule) o) != null;
+    }
+
+    @Override
+    public Iterator<StoredFlowEntry> iterator() {
+        return new EntryIterator();
+    }
+
+    private static int hash(long flowId) {
+        int h = (int) (flowId ^ (flowId >>> 32));
+        return h ^ (h >>> 16);
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[hash & (SEGMENT_COUNT - 1)];
+    }
+
+    private static int bucket(int hash, AtomicReferenceArray<Node> buckets) {
+        return (hash >>> SEGMENT_SHIFT) & (buckets.length() - 1);
+    }
+
+    /**
+     * Returns a copy of the given chain without the given node; the nodes
+     * following it are shared.
+     */
+    private static Node unlink(Node head, Node removed) {
+        Node chain = removed.next;
+        for (Node node = head; node != removed; node = node.next) {
+            chain = new Node(node.flowId, node.entry, chain);
+        }
+        return chain;
+    }
+
+    private static final class Node {
+        private final long flowId;
+        private final StoredFlowEntry entry;
+        private final Node next;
+
+        private Node(long flowId, StoredFlowEntry entry, Node next) {
+            this.flowId = flowId;
+            this.entry = entry;
+            this.next = next;
+        }
+    }
+
+    private final class Segment {
+        // replaced as a whole on resize
+        private volatile AtomicReferenceArray<Node> buckets =
+                new AtomicReferenceArray<>(INITIAL_SEGMENT_CAPACITY);
+        // written under the segment lock only
+        private volatile int count;
+
+        private synchronized StoredFlowEntry put(long flowId, StoredFlowEntry entry, boolean persist) {
+            int hash = hash(flowId);
+            AtomicReferenceArray<Node> table = buckets;
+            int index = bucket(hash, table);
+            Node head = table.get(index);
+            Node chain = head;
+            StoredFlowEntry replaced = null;
+            for (Node node = head; node != null; node = node.next) {
+                if (node.flowId == flowId && node.entry.equals(entry)) {
+                    replaced = node.entry;
+                    chain = unlink(head, node);
+                    break;
+                }
+            }
+            table.set(index, new Node(flowId, entry, chain));
+            if (replaced == null) {
+                count++;
+                if (count > table.length()) {
+                    resize(table);
+                }
+            }
+            if (persist) {
+                persist(flowId);
+            }
+            return replaced;
+        }
+
+        private synchronized StoredFlowEntry remove(long flowId, FlowRule rule,
+                                                    Predicate<StoredFlowEntry> condition) {
+            AtomicReferenceArray<Node> table = buckets;
+            int index = bucket(hash(flowId), table);
+            Node head = table.get(index);
+            for (Node node = head; node != null; node = node.next) {
+                if (node.flowId == flowId && node.entry.equals(rule)) {
+                    if (!condition.test(node.entry)) {
+                        return null;
+                    }
+                    table.set(index, unlink(head, node));
+                    count--;
+                    persist(flowId);
+                    return node.entry;
+                }
+            }
+            return null;
+        }
+
+        private synchronized void clear() {
+            buckets = new AtomicReferenceArray<>(INITIAL_SEGMENT_CAPACITY);
+            count = 0;
+        }
+
+        private void resize(AtomicReferenceArray<Node> table) {
+            AtomicReferenceArray<Node> resized = new AtomicReferenceArray<>(table.length() << 1);
+            for (int i = 0; i < table.length(); i++) {
+                // nodes are rebuilt, readers keep walking the old chains
+                for (Node node = table.get(i); node != null; node = node.next) {
+                    int index = bucket(hash(node.flowId), resized);
+                    resized.set(index, new Node(node.flowId, node.entry, resized.get(index)));
+                }
+            }
+            buckets = resized;
+        }
+
+        private void persist(long flowId) {
+            if (persistentEntries == null) {
+                return;
+            }
+            AtomicReferenceArray<Node> table = buckets;
+            Map<StoredFlowEntry, StoredFlowEntry> entries = Maps.newConcurrentMap();
+            for (Node node = table.get(bucket(hash(flowId), table)); node != null; node = node.next) {
+                if (node.flowId == flowId) {
+                    entries.put(node.entry, node.entry);
+                }
+            }
+            if (entries.isEmpty()) {
+                persistentEntries.remove(FlowId.valueOf(flowId));
+            } else {
+                persistentEntries.put(FlowId.valueOf(flowId), entries);
+            }
+        }
+    }
+
+    private final class EntryIterator implements Iterator<StoredFlowEntry> {
+        private int segmentIndex = -1;
+        private AtomicReferenceArray<Node> table;
+        private int bucketIndex;
+        private Node next;
+
+        private EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            if (next != null) {
+                next = next.next;
+            }
+            while (next == null) {
+                if (table == null || bucketIndex >= table.length()) {
+                    if (++segmentIndex >= SEGMENT_COUNT) {
+                        return;
+                    }
+                    table = segments[segmentIndex].buckets;
+                    bucketIndex = 0;
+                } else {
+                    next = table.get(bucketIndex++);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public StoredFlowEntry next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            StoredFlowEntry entry = next.entry;
+            advance();
+            return entry;
+        }
+    }
+}
@@ -16,8 +16,8 @@
 package org.onosproject.store.flow.impl;
 
  import com.google.common.collect.ImmutableList;
- import com.google.common.collect.ImmutableMap;
  import com.google.common.collect.Iterables;
+ import com.google.common.collect.Lists;
  import com.google.common.collect.Maps;
  import com.google.common.collect.Sets;
  import com.google.common.util.concurrent.Futures;
@@ -78,6 +78,7 @@ package org.onosproject.store.flow.impl;
  import org.osgi.service.component.ComponentContext;
  import org.slf4j.Logger;
 
+ import java.util.Collection;
  import java.util.Collections;
  import java.util.Dictionary;
  import java.util.HashSet;
@@ -91,7 +92,6 @@ package org.onosproject.store.flow.impl;
  import java.util.concurrent.ScheduledFuture;
  import java.util.concurrent.TimeUnit;
  import java.util.concurrent.atomic.AtomicInteger;
- import java.util.concurrent.atomic.AtomicReference;
  import java.util.stream.Collectors;
 
  import static com.google.common.base.Strings.isNullOrEmpty;
@@ -116,6 +116,7 @@ public class DistributedFlowRuleStore
     private static final boolean DEFAULT_BACKUP_ENABLED = true;
     private static final boolean DEFAULT_PERSISTENCE_ENABLED = false;
     private static final int DEFAULT_BACKUP_PERIOD_MILLIS = 2000;
+    private static final int DEFAULT_FULL_BACKUP_PERIOD_MILLIS = 60000;
     private static final long FLOW_RULE_STORE_TIMEOUT_MILLIS = 5000;
     // number of devices whose flow entries will be backed up in one communication round
     private static final int FLOW_TABLE_BACKUP_BATCH_SIZE = 1;
@@ -131,6 +132,11 @@ public class DistributedFlowRuleStore
     @Property(name = "backupPeriod", intValue = DEFAULT_BACKUP_PERIOD_MILLIS,
             label = "Delay in ms between successive backup runs")
     private int backupPeriod = DEFAULT_BACKUP_PERIOD_MILLIS;
+
+    @Property(name = "fullBackupPeriod", intValue = DEFAULT_FULL_BACKUP_PERIOD_MILLIS,
+            label = "Delay in ms between full flow table backups of a device; only changes are sent in between")
+    private int fullBackupPeriod = DEFAULT_FULL_BACKUP_PERIOD_MILLIS;
+
     @Property(name = "persistenceEnabled", boolValue = false,
             label = "Indicates whether or not changes in the flow table should be persisted to disk.")
     private boolean persistenceEnabled = DEFAULT_PERSISTENCE_ENABLED;
@@ -180,6 +186,7 @@ public class DistributedFlowRuleStore
             KryoNamespace.newBuilder()
                     .register(DistributedStoreSerializers.STORE_COMMON)
                     .nextId(DistributedStoreSerializers.STORE_CUSTOM_BEGIN)
+                    .register(FlowTableBackup.class)
                     .build("FlowRuleStore"));
 
     protected static final KryoNamespace.Builder SERIALIZER_BUILDER = KryoNamespace.newBuilder()
@@ -255,6 +262,7 @@ public class DistributedFlowRuleStore
         int newPoolSize;
         boolean newBackupEnabled;
         int newBackupPeriod;
+        int newFullBackupPeriod;
         try {
             String s = get(properties, "msgHandlerPoolSize");
             newPoolSize = isNullOrEmpty(s) ? msgHandlerPoolSize : Integer.parseInt(s.trim());
@@ -265,11 +273,16 @@ public class DistributedFlowRuleStore
             s = get(properties, "backupPeriod");
             newBackupPeriod = isNullOrEmpty(s) ? backupPeriod : Integer.parseInt(s.trim());
 
+            s = get(properties, "fullBackupPeriod");
+            newFullBackupPeriod = isNullOrEmpty(s) ? fullBackupPeriod : Integer.parseInt(s.trim());
+
         } catch (NumberFormatException | ClassCastException e) {
             newPoolSize = MESSAGE_HANDLER_THREAD_POOL_SIZE;
             newBackupEnabled = DEFAULT_BACKUP_ENABLED;
             newBackupPeriod = DEFAULT_BACKUP_PERIOD_MILLIS;
+            newFullBackupPeriod = DEFAULT_FULL_BACKUP_PERIOD_MILLIS;
         }
+        fullBackupPeriod = newFullBackupPeriod;
 
         boolean restartBackupTask = false;
         if (newBackupEnabled != backupEnabled) {
@@ -321,7 +334,7 @@ public class DistributedFlowRuleStore
         clusterCommunicator.addSubscriber(
                 GET_FLOW_ENTRY, SERIALIZER::decode, flowTable::getFlowEntry, SERIALIZER::encode, executor);
         clusterCommunicator.addSubscriber(
-                GET_DEVICE_FLOW_ENTRIES, SERIALIZER::decode, flowTable::getFlowEntries, SERIALIZER::encode, executor);
+                GET_DEVICE_FLOW_ENTRIES, SERIALIZER::decode, flowTable::copyFlowEntries, SERIALIZER::encode, executor);
         clusterCommunicator.addSubscriber(
                 REMOVE_FLOW_ENTRY, SERIALIZER::decode, this::removeFlowRuleInternal, SERIALIZER::encode, executor);
         clusterCommunicator.addSubscriber(
@@ -340,8 +353,8 @@ public class DistributedFlowRuleStore
     }
 
     private void logConfig(String prefix) {
-        log.info("{} with msgHandlerPoolSize = {}; backupEnabled = {}, backupPeriod = {}",
-                 prefix, msgHandlerPoolSize, backupEnabled, backupPeriod);
+        log.info("{} with msgHandlerPoolSize = {}; backupEnabled = {}, backupPeriod = {}, fullBackupPeriod = {}",
+                 prefix, msgHandlerPoolSize, backupEnabled, backupPeriod, fullBackupPeriod);
     }
 
     // This is not a efficient operation on a distributed sharded
@@ -499,6 +512,7 @@ public class DistributedFlowRuleStore
                             if (entry != null) {
                                 //FIXME modification of "stored" flow entry outside of flow table
                                 entry.setState(FlowEntryState.PENDING_REMOVE);
+                                flowTable.updated(entry);
                                 log.debug("Setting state of rule to pending remove: {}", entry);
                                 return op;
                             }
@@ -531,6 +545,7 @@ public class DistributedFlowRuleStore
             if (stored != null &&
                     stored.state() != FlowEntryState.PENDING_ADD) {
                 stored.setState(FlowEntryState.PENDING_ADD);
+                flowTable.updated(stored);
                 return new FlowRuleEvent(Type.RULE_UPDATED, rule);
             }
         }
@@ -558,8 +573,10 @@ public class DistributedFlowRuleStore
             stored.setLife(rule.life());
             stored.setPackets(rule.packets());
             stored.setLastSeen();
+            // counters alone are not logged for backup, full snapshots carry them
             if (stored.state() == FlowEntryState.PENDING_ADD) {
                 stored.setState(FlowEntryState.ADDED);
+                flowTable.updated(stored);
                 return new FlowRuleEvent(Type.RULE_ADDED, rule);
             }
             return new FlowRuleEvent(Type.RULE_UPDATED, rule);
@@ -657,13 +674,18 @@ public class DistributedFlowRuleStore
 
     private class InternalFlowTable implements ReplicaInfoEventListener {
 
-        //TODO replace the Map<V,V> with ExtendedSet
-        private final Map<DeviceId, Map<FlowId, Map<StoredFlowEntry, StoredFlowEntry>>>
-                flowEntries = Maps.newConcurrentMap();
+        private final Map<DeviceId, DeviceFlowTable> flowEntries = Maps.newConcurrentMap();
 
-        private final Map<DeviceId, Long> lastBackupTimes = Maps.newConcurrentMap();
-        private final Map<DeviceId, Long> lastUpdateTimes = Maps.newConcurrentMap();
+        // state of the devices this node is master of
+        private final Map<DeviceId, FlowChangeLog> changeLogs = Maps.newConcurrentMap();
         private final Map<DeviceId, NodeId> lastBackupNodes = Maps.newConcurrentMap();
+        private final Map<DeviceId, Long> ackedVersions = Maps.newConcurrentMap();
+        private final Map<DeviceId, Long> lastFullBackupTimes = Maps.newConcurrentMap();
+        private final Set<DeviceId> backupsInFlight = Sets.newConcurrentHashSet();
+
+        // state of the devices this node is backup of: change log and version held
+        private final Map<DeviceId, Long> backupLogIds = Maps.newConcurrentMap();
+        private final Map<DeviceId, Long> backupVersions = Maps.newConcurrentMap();
 
         @Override
         public void event(ReplicaInfoEvent event) {
@@ -694,15 +716,14 @@ public class DistributedFlowRuleStore
                     // is chosen.
                     log.warn("Lost backup location {} for deviceId {} and no alternate backup node exists. "
                             + "Flows can be lost if the master goes down", currentBackupNode, deviceId);
-                    lastBackupNodes.remove(deviceId);
-                    lastBackupTimes.remove(deviceId);
+                    resetBackupState(deviceId);
                     return;
                     // TODO: Pick any available node as backup and ensure hand-off occurs when
                     // a new master is elected.
                 }
                 log.debug("Backup location for {} has changed from {} to {}.",
                         deviceId, currentBackupNode, newBackupNode);
-                backupSenderExecutor.schedule(() -> backupFlowEntries(newBackupNode, Sets.newHashSet(deviceId)),
+                backupSenderExecutor.schedule(() -> sendBackups(newBackupNode, Sets.newHashSet(deviceId)),
                         0,
                         TimeUnit.SECONDS);
             }
@@ -715,47 +736,93 @@ public class DistributedFlowRuleStore
         }
 
         private void backupFlowEntries(NodeId nodeId, Set<DeviceId> deviceIds) {
+            // a device is backed up again only once the previous backup has been answered
+            deviceIds.removeIf(id -> !backupsInFlight.add(id));
             if (deviceIds.isEmpty()) {
                 return;
             }
             log.debug("Sending flowEntries for devices {} to {} as backup.", deviceIds, nodeId);
-            Map<DeviceId, Map<FlowId, Map<StoredFlowEntry, StoredFlowEntry>>>
-                    deviceFlowEntries = Maps.newConcurrentMap();
-            deviceIds.forEach(id -> deviceFlowEntries.put(id, ImmutableMap.copyOf(getFlowTable(id))));
-            clusterCommunicator.<Map<DeviceId,
-                                 Map<FlowId, Map<StoredFlowEntry, StoredFlowEntry>>>,
-                                 Set<DeviceId>>
-                    sendAndReceive(deviceFlowEntries,
+            Map<DeviceId, FlowChangeLog> logs = Maps.newHashMap();
+            List<FlowTableBackup> backups = Lists.newArrayList();
+            deviceIds.forEach(id -> {
+                FlowChangeLog changeLog = changeLogs.computeIfAbsent(id, FlowChangeLog::new);
+                logs.put(id, changeLog);
+                backups.add(createBackup(id, nodeId, changeLog));
+            });
+            long sentTime = System.currentTimeMillis();
+            clusterCommunicator.<List<FlowTableBackup>, Set<DeviceId>>
+                    sendAndReceive(backups,
                                    FLOW_TABLE_BACKUP,
                                    SERIALIZER::encode,
                                    SERIALIZER::decode,
                                    nodeId)
                     .whenComplete((backedupDevices, error) -> {
-                        Set<DeviceId> devicesNotBackedup = error != null ?
-                            deviceFlowEntries.keySet() :
-                            Sets.difference(deviceFlowEntries.keySet(), backedupDevices);
+                        Set<DeviceId> devicesNotBackedup = error != null || backedupDevices == null ?
+                            deviceIds :
+                            Sets.difference(deviceIds, backedupDevices);
                         if (devicesNotBackedup.size() > 0) {
                             log.warn("Failed to backup devices: {}. Reason: {}",
-                                     devicesNotBackedup, error.getMessage());
-                        }
-                        if (backedupDevices != null) {
-                            backedupDevices.forEach(id -> {
-                                lastBackupTimes.put(id, System.currentTimeMillis());
-                                lastBackupNodes.put(id, nodeId);
-                            });
+                                     devicesNotBackedup, error != null ? error.getMessage() : "rejected");
                         }
+                        backups.forEach(backup -> {
+                            DeviceId id = backup.deviceId();
+                            FlowChangeLog changeLog = logs.get(id);
+                            // ignore answers about a log that has been reset meanwhile
+                            if (changeLogs.get(id) == changeLog) {
+                                if (devicesNotBackedup.contains(id)) {
+                                    // next backup will be a full snapshot
+                                    ackedVersions.remove(id);
+                                } else {
+                                    lastBackupNodes.put(id, nodeId);
+                                    ackedVersions.put(id, backup.version());
+                                    if (backup.isFull()) {
+                                        lastFullBackupTimes.put(id, sentTime);
+                                    }
+                                    changeLog.acknowledged(backup.version());
+                                }
+                            }
+                            backupsInFlight.remove(id);
+                        });
                     });
         }
 
+        /**
+         * Creates the backup of a device flow table for a backup node: the
+         * changes since the version the node acknowledged, or a full snapshot
+         * if the node holds no version of the change log, if the changes
+         * outnumber the flow entries or if the last snapshot is too old.
+         */
+        private FlowTableBackup createBackup(DeviceId deviceId, NodeId nodeId, FlowChangeLog changeLog) {
+            Long ackedVersion = Objects.equals(lastBackupNodes.get(deviceId), nodeId) ?
+                    ackedVersions.get(deviceId) : null;
+            Long lastFullBackupTime = lastFullBackupTimes.get(deviceId);
+            boolean snapshotDue = lastFullBackupTime == null
+                    || System.currentTimeMillis() - lastFullBackupTime >= fullBackupPeriod;
+            FlowTableBackup backup = changeLog.backup(ackedVersion, snapshotDue, getFlowTable(deviceId));
+            if (backup.isFull()) {
+                // this node now owns the device flow table, drop what was received as backup
+                backupLogIds.remove(deviceId);
+                backupVersions.remove(deviceId);
+            }
+            return backup;
+        }
+
+        private void resetBackupState(DeviceId deviceId) {
+            changeLogs.remove(deviceId);
+            lastBackupNodes.remove(deviceId);
+            ackedVersions.remove(deviceId);
+            lastFullBackupTimes.remove(deviceId);
+        }
+
         /**
          * Returns the flow table for specified device.
          *
          * @param deviceId identifier of the device
-         * @return Map representing Flow Table of given device.
+         * @return Flow Table of given device.
          */
-        private Map<FlowId, Map<StoredFlowEntry, StoredFlowEntry>> getFlowTable(DeviceId deviceId) {
+        private DeviceFlowTable getFlowTable(DeviceId deviceId) {
             if (persistenceEnabled) {
-                return flowEntries.computeIfAbsent(deviceId, id -> persistenceService
+                return flowEntries.computeIfAbsent(deviceId, id -> new DeviceFlowTable(persistenceService
                         .<FlowId, Map<StoredFlowEntry, StoredFlowEntry>>persistentMapBuilder()
                         .withName("FlowTable:" + deviceId.toString())
                         .withSerializer(new Serializer() {
@@ -769,74 +836,79 @@ public class DistributedFlowRuleStore
                                 return SERIALIZER.decode(bytes);
                             }
                         })
-                        .build());
+                        .build()));
             } else {
-                return flowEntries.computeIfAbsent(deviceId, id -> Maps.newConcurrentMap());
+                return flowEntries.computeIfAbsent(deviceId, id -> new DeviceFlowTable());
             }
         }
 
-        private Map<StoredFlowEntry, StoredFlowEntry> getFlowEntriesInternal(DeviceId deviceId, FlowId flowId) {
-            return getFlowTable(deviceId).computeIfAbsent(flowId, id -> Maps.newConcurrentMap());
-        }
-
-        private StoredFlowEntry getFlowEntryInternal(FlowRule rule) {
-            return getFlowEntriesInternal(rule.deviceId(), rule.id()).get(rule);
+        public StoredFlowEntry getFlowEntry(FlowRule rule) {
+            return getFlowTable(rule.deviceId()).get(rule);
         }
 
-        private Set<FlowEntry> getFlowEntriesInternal(DeviceId deviceId) {
-            return getFlowTable(deviceId).values().stream()
-                        .flatMap(m -> m.values().stream())
-                        .collect(Collectors.toSet());
+        /**
+         * Returns a live, unmodifiable view of the flow entries of a device.
+         *
+         * @param deviceId identifier of the device
+         * @return flow entries
+         */
+        public Collection<FlowEntry> getFlowEntries(DeviceId deviceId) {
+            return Collections.unmodifiableCollection(getFlowTable(deviceId));
         }
 
-        public StoredFlowEntry getFlowEntry(FlowRule rule) {
-            return getFlowEntryInternal(rule);
+        private Set<FlowEntry> copyFlowEntries(DeviceId deviceId) {
+            return Sets.newHashSet(getFlowTable(deviceId));
         }
 
-        public Set<FlowEntry> getFlowEntries(DeviceId deviceId) {
-            return getFlowEntriesInternal(deviceId);
+        public void add(FlowEntry rule) {
+            //TODO compare stored and rule timestamps
+            getFlowTable(rule.deviceId()).put((StoredFlowEntry) rule);
+            updated((StoredFlowEntry) rule);
         }
 
-        public void add(FlowEntry rule) {
-            getFlowEntriesInternal(rule.deviceId(), rule.id())
-                    .compute((StoredFlowEntry) rule, (k, stored) -> {
-                        //TODO compare stored and rule timestamps
-                        //TODO the key is not updated
-                        return (StoredFlowEntry) rule;
-                    });
-            lastUpdateTimes.put(rule.deviceId(), System.currentTimeMillis());
+        /**
+         * Records a change of a stored flow entry made outside of the flow
+         * table, so that it is part of the next backup.
+         *
+         * @param entry flow entry
+         */
+        public void updated(StoredFlowEntry entry) {
+            FlowChangeLog changeLog = changeLogs.get(entry.deviceId());
+            if (changeLog != null) {
+                changeLog.updated(entry);
+            }
         }
 
         public FlowEntry remove(DeviceId deviceId, FlowEntry rule) {
-            final AtomicReference<FlowEntry> removedRule = new AtomicReference<>();
-            getFlowEntriesInternal(rule.deviceId(), rule.id())
-                .computeIfPresent((StoredFlowEntry) rule, (k, stored) -> {
-                    if (rule instanceof DefaultFlowEntry) {
-                        DefaultFlowEntry toRemove = (DefaultFlowEntry) rule;
-                        if (stored instanceof DefaultFlowEntry) {
-                            DefaultFlowEntry storedEntry = (DefaultFlowEntry) stored;
-                            if (toRemove.created() < storedEntry.created()) {
-                                log.debug("Trying to remove more recent flow entry {} (stored: {})",
-                                          toRemove, stored);
-                                // the key is not updated, removedRule remains null
-                                return stored;
-                            }
+            StoredFlowEntry removed = getFlowTable(deviceId).remove(rule, stored -> {
+                if (rule instanceof DefaultFlowEntry) {
+                    DefaultFlowEntry toRemove = (DefaultFlowEntry) rule;
+                    if (stored instanceof DefaultFlowEntry) {
+                        DefaultFlowEntry storedEntry = (DefaultFlowEntry) stored;
+                        if (toRemove.created() < storedEntry.created()) {
+                            log.debug("Trying to remove more recent flow entry {} (stored: {})",
+                                      toRemove, stored);
+                            return false;
                         }
                     }
-                    removedRule.set(stored);
-                    return null;
-                });
+                }
+                return true;
+            });
 
-            if (removedRule.get() != null) {
-                lastUpdateTimes.put(deviceId, System.currentTimeMillis());
-                return removedRule.get();
-            } else {
-                return null;
+            if (removed != null) {
+                FlowChangeLog changeLog = changeLogs.get(deviceId);
+                if (changeLog != null) {
+                    changeLog.removed(removed);
+                }
             }
+            return removed;
         }
 
         public void purgeFlowRule(DeviceId deviceId) {
             flowEntries.remove(deviceId);
+            resetBackupState(deviceId);
+            backupLogIds.remove(deviceId);
+            backupVersions.remove(deviceId);
         }
 
         private NodeId getBackupNode(DeviceId deviceId) {
@@ -850,18 +922,30 @@ public class DistributedFlowRuleStore
                 return;
             }
             try {
+                // stop tracking changes of devices this node is no longer master of
+                changeLogs.keySet().stream()
+                            .filter(deviceId -> !mastershipService.isLocalMaster(deviceId))
+                            .collect(Collectors.toList())
+                            .forEach(this::resetBackupState);
+
                 // determine the set of devices that we need to backup during this run.
+                long now = System.currentTimeMillis();
                 Set<DeviceId> devicesToBackup = flowEntries.keySet()
                             .stream()
                             .filter(mastershipService::isLocalMaster)
+                            .filter(deviceId -> !backupsInFlight.contains(deviceId))
                             .filter(deviceId -> {
-                                Long lastBackupTime = lastBackupTimes.get(deviceId);
-                                Long lastUpdateTime = lastUpdateTimes.get(deviceId);
+                                Long ackedVersion = ackedVersions.get(deviceId);
+                                Long lastFullBackupTime = lastFullBackupTimes.get(deviceId);
+                                FlowChangeLog changeLog = changeLogs.get(deviceId);
                                 NodeId lastBackupNode = lastBackupNodes.get(deviceId);
                                 NodeId newBackupNode = getBackupNode(deviceId);
-                                return lastBackupTime == null
-                                        ||  !Objects.equals(lastBackupNode, newBackupNode)
-                                        || (lastUpdateTime != null && lastUpdateTime > lastBackupTime);
+                                return ackedVersion == null
+                                        || changeLog == null
+                                        || lastFullBackupTime == null
+                                        || !Objects.equals(lastBackupNode, newBackupNode)
+                                        || changeLog.version() > ackedVersion
+                                        || now - lastFullBackupTime >= fullBackupPeriod;
                             })
                             .collect(Collectors.toSet());
 
@@ -881,19 +965,19 @@ public class DistributedFlowRuleStore
             }
         }
 
-        private Set<DeviceId> onBackupReceipt(Map<DeviceId,
-                Map<FlowId, Map<StoredFlowEntry, StoredFlowEntry>>> flowTables) {
-            log.debug("Received flowEntries for {} to backup", flowTables.keySet());
+        private Set<DeviceId> onBackupReceipt(List<FlowTableBackup> backups) {
+            log.debug("Received flowEntries for {} to backup", backups);
             Set<DeviceId> backedupDevices = Sets.newHashSet();
             try {
-                flowTables.forEach((deviceId, deviceFlowTable) -> {
+                backups.forEach(backup -> {
+                    DeviceId deviceId = backup.deviceId();
                     // Only process those devices are that not managed by the local node.
                     if (!Objects.equals(local, mastershipService.getMasterFor(deviceId))) {
-                        Map<FlowId, Map<StoredFlowEntry, StoredFlowEntry>> backupFlowTable =
-                                getFlowTable(deviceId);
-                        backupFlowTable.clear();
-                        backupFlowTable.putAll(deviceFlowTable);
-                        backedupDevices.add(deviceId);
+                        // the master's flow table replaces what this node tracked as master
+                        resetBackupState(deviceId);
+                        if (applyBackup(backup)) {
+                            backedupDevices.add(deviceId);
+                        }
                     }
                 });
             } catch (Exception e) {
@@ -901,6 +985,22 @@ public class DistributedFlowRuleStore
             }
             return backedupDevices;
         }
+
+        private boolean applyBackup(FlowTableBackup backup) {
+            DeviceId deviceId = backup.deviceId();
+            DeviceFlowTable backupFlowTable = getFlowTable(deviceId);
+            synchronized (backupFlowTable) {
+                if (!backup.applyTo(backupFlowTable, backupLogIds.get(deviceId), backupVersions.get(deviceId))) {
+                    // missed a backup of the change log, the master falls back to a full snapshot
+                    log.debug("Rejecting flow backup {}, holding version {}",
+                              backup, backupVersions.get(deviceId));
+                    return false;
+                }
+                backupLogIds.put(deviceId, backup.logId());
+                backupVersions.put(deviceId, backup.version());
+            }
+            return true;
+        }
     }
 
     @Override
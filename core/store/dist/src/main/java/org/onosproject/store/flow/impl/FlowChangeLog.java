@@ -0,0 +1,208 @@
+/*
+ * Copyright 2016-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.flow.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.StoredFlowEntry;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Changes made to the flow table of a device since the version last
+ * acknowledged by its backup node. Every change bumps the version; only the
+ * latest change of each flow entry is kept, so the log never holds more
+ * entries than were touched between two backups.
+ * <p>
+ * Changes are only recorded once tracking was started by a full snapshot,
+ * since anything older than the first snapshot is covered by it.
+ * <p>
+ * Removed entries are kept until acknowledged. If more of them pile up than
+ * the log is allowed to keep, e.g. because the backup node does not answer,
+ * the log is dropped and tracking stops until the next full snapshot.
+ */
+final class FlowChangeLog {
+
+    static final int DEFAULT_MAX_REMOVED = 10000;
+
+    private final DeviceId deviceId;
+    private final int maxRemoved;
+    // distinguishes logs, so that a delta is never applied on top of a
+    // backup built from another log of the same device
+    private final long id = ThreadLocalRandom.current().nextLong();
+    private final Map<StoredFlowEntry, Change> changes = Maps.newHashMap();
+    private long version;
+    private boolean tracking;
+    private boolean snapshotRequired;
+    private int removedCount;
+
+    FlowChangeLog(DeviceId deviceId) {
+        this(deviceId, DEFAULT_MAX_REMOVED);
+    }
+
+    /**
+     * Creates a change log keeping at most the given number of removed
+     * entries.
+     *
+     * @param deviceId   device of the flow table
+     * @param maxRemoved maximum number of removed entries kept
+     */
+    FlowChangeLog(DeviceId deviceId, int maxRemoved) {
+        this.deviceId = deviceId;
+        this.maxRemoved = maxRemoved;
+    }
+
+    long id() {
+        return id;
+    }
+
+    synchronized long version() {
+        return version;
+    }
+
+    synchronized int size() {
+        return changes.size();
+    }
+
+    synchronized boolean snapshotRequired() {
+        return snapshotRequired;
+    }
+
+    /**
+     * Records an added or modified flow entry. Must be called after the
+     * flow table has been updated.
+     *
+     * @param entry flow entry
+     */
+    synchronized void updated(StoredFlowEntry entry) {
+        record(entry, false);
+    }
+
+    /**
+     * Records a removed flow entry. Must be called after the flow table has
+     * been updated.
+     *
+     * @param entry flow entry
+     */
+    synchronized void removed(StoredFlowEntry entry) {
+        record(entry, true);
+    }
+
+    private void record(StoredFlowEntry entry, boolean removed) {
+        if (!tracking) {
+            return;
+        }
+        version++;
+        // the key is not replaced by put, drop the previous change first
+        Change previous = changes.remove(entry);
+        if (previous != null && previous.removed) {
+            removedCount--;
+        }
+        if (removed && ++removedCount > maxRemoved) {
+            // the version is still bumped so that a backup is triggered
+            changes.clear();
+            removedCount = 0;
+            tracking = false;
+            snapshotRequired = true;
+            return;
+        }
+        changes.put(entry, new Change(entry, removed, version));
+    }
+
+    /**
+     * Starts recording changes and returns the version a full snapshot taken
+     * from now on includes.
+     *
+     * @return current version
+     */
+    synchronized long startTracking() {
+        tracking = true;
+        snapshotRequired = false;
+        return version;
+    }
+
+    /**
+     * Returns the changes made after the given version, up to the current
+     * version.
+     *
+     * @param baseVersion version held by the backup node
+     * @return backup delta
+     */
+    synchronized FlowTableBackup deltaSince(long baseVersion) {
+        List<StoredFlowEntry> updated = Lists.newArrayList();
+        List<StoredFlowEntry> removed = Lists.newArrayList();
+        changes.values().stream()
+                .filter(change -> change.version > baseVersion)
+                .forEach(change -> (change.removed ? removed : updated).add(change.entry));
+        return FlowTableBackup.delta(deviceId, id, baseVersion, version, updated, removed);
+    }
+
+    /**
+     * Creates the backup of the device flow table for a backup node: the
+     * changes since the version the node holds, or a full snapshot if the
+     * node holds no version of this log, if a snapshot is due, if the
+     * changes outnumber the flow entries or if the log has been dropped.
+     *
+     * @param ackedVersion version held by the backup node, null if none
+     * @param snapshotDue  whether a full snapshot is to be sent anyway
+     * @param table        flow entries of the device
+     * @return backup
+     */
+    FlowTableBackup backup(Long ackedVersion, boolean snapshotDue, Collection<StoredFlowEntry> table) {
+        synchronized (this) {
+            if (ackedVersion != null && !snapshotDue && !snapshotRequired
+                    && changes.size() <= table.size()) {
+                return deltaSince(ackedVersion);
+            }
+        }
+        // changes recorded from here on are sent again by the next delta
+        long snapshotVersion = startTracking();
+        return FlowTableBackup.snapshot(deviceId, id, snapshotVersion, Lists.newArrayList(table));
+    }
+
+    /**
+     * Discards the changes the backup node has acknowledged.
+     *
+     * @param ackedVersion version held by the backup node
+     */
+    synchronized void acknowledged(long ackedVersion) {
+        changes.values().removeIf(change -> {
+            if (change.version > ackedVersion) {
+                return false;
+            }
+            if (change.removed) {
+                removedCount--;
+            }
+            return true;
+        });
+    }
+
+    private static final class Change {
+        private final StoredFlowEntry entry;
+        private final boolean removed;
+        private final long version;
+
+        private Change(StoredFlowEntry entry, boolean removed, long version) {
+            this.entry = entry;
+            this.removed = removed;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.flow.impl;
+
+import com.google.common.base.MoreObjects;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.StoredFlowEntry;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Backup of the flow table of a device, sent by the master to the backup
+ * node. Either a full snapshot, which replaces the backup table, or the
+ * entries added, modified and removed since a version of the master's
+ * change log the backup node already holds.
+ */
+final class FlowTableBackup {
+
+    private final DeviceId deviceId;
+    private final long logId;
+    private final long baseVersion;
+    private final long version;
+    private final boolean full;
+    private final List<StoredFlowEntry> updated;
+    private final List<StoredFlowEntry> removed;
+
+    private FlowTableBackup(DeviceId deviceId, long logId, long baseVersion, long version,
+                            boolean full, List<StoredFlowEntry> updated, List<StoredFlowEntry> removed) {
+        this.deviceId = deviceId;
+        this.logId = logId;
+        this.baseVersion = baseVersion;
+        this.version = version;
+        this.full = full;
+        this.updated = updated;
+        this.removed = removed;
+    }
+
+    /**
+     * Creates a full snapshot of a device flow table.
+     *
+     * @param deviceId device identifier
+     * @param logId    identifier of the master's change log
+     * @param version  change log version the snapshot includes
+     * @param entries  all flow entries of the device
+     * @return backup
+     */
+    static FlowTableBackup snapshot(DeviceId deviceId, long logId, long version,
+                                    List<StoredFlowEntry> entries) {
+        return new FlowTableBackup(deviceId, logId, -1, version, true, entries, null);
+    }
+
+    /**
+     * Creates a delta of a device flow table.
+     *
+     * @param deviceId    device identifier
+     * @param logId       identifier of the master's change log
+     * @param baseVersion version the delta applies to
+     * @param version     version the backup reaches once the delta is applied
+     * @param updated     added or modified flow entries
+     * @param removed     removed flow entries
+     * @return backup
+     */
+    static FlowTableBackup delta(DeviceId deviceId, long logId, long baseVersion, long version,
+                                 List<StoredFlowEntry> updated, List<StoredFlowEntry> removed) {
+        return new FlowTableBackup(deviceId, logId, baseVersion, version, false, updated, removed);
+    }
+
+    DeviceId deviceId() {
+        return deviceId;
+    }
+
+    long logId() {
+        return logId;
+    }
+
+    long baseVersion() {
+        return baseVersion;
+    }
+
+    long version() {
+        return version;
+    }
+
+    boolean isFull() {
+        return full;
+    }
+
+    List<StoredFlowEntry> updated() {
+        return updated;
+    }
+
+    List<StoredFlowEntry> removed() {
+        return removed;
+    }
+
+    /**
+     * Applies the backup to the backup copy of the device flow table. A
+     * delta only applies to the version of the change log it was computed
+     * from.
+     *
+     * @param table       backup copy of the flow table
+     * @param heldLogId   change log the copy was built from, null if none
+     * @param heldVersion change log version the copy holds, null if none
+     * @return false if the backup is a delta that does not apply to the copy
+     */
+    boolean applyTo(DeviceFlowTable table, Long heldLogId, Long heldVersion) {
+        if (full) {
+            table.clear();
+        } else if (!Objects.equals(heldLogId, logId) || !Objects.equals(heldVersion, baseVersion)) {
+            return false;
+        }
+        if (removed != null) {
+            removed.forEach(table::remove);
+        }
+        updated.forEach(table::put);
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(getClass())
+                .add("deviceId", deviceId)
+                .add("logId", logId)
+                .add("baseVersion", baseVersion)
+                .add("version", version)
+                .add("full", full)
+                .add("updated", updated == null ? 0 : updated.size())
+                .add("removed", removed == null ? 0 : removed.size())
+                .toString();
+    }
+
+    // for serializer
+    private FlowTableBackup() {
+        this(null, 0, 0, 0, false, null, null);
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2016-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.device.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.ChassisId;
+import org.onlab.packet.IpAddress;
+import org.onosproject.cfg.ComponentConfigAdapter;
+import org.onosproject.cluster.ControllerNode;
+import org.onosproject.cluster.DefaultControllerNode;
+import org.onosproject.cluster.NodeId;
+import org.onosproject.cluster.RoleInfo;
+import org.onosproject.mastership.MastershipEvent;
+import org.onosproject.mastership.MastershipListener;
+import org.onosproject.mastership.MastershipServiceAdapter;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.device.DefaultDeviceDescription;
+import org.onosproject.net.device.DefaultPortStatistics;
+import org.onosproject.net.device.DeviceClockServiceAdapter;
+import org.onosproject.net.device.DeviceEvent;
+import org.onosproject.net.device.PortStatistics;
+import org.onosproject.net.provider.ProviderId;
+import org.onosproject.store.cluster.StaticClusterService;
+import org.onosproject.store.cluster.messaging.ClusterCommunicationService;
+import org.onosproject.store.cluster.messaging.MessageSubject;
+import org.onosproject.store.service.TestStorageService;
+import org.osgi.service.component.ComponentContext;
+
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.reset;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.onosproject.cluster.ControllerNode.State.ACTIVE;
+import static org.onosproject.net.Device.Type.SWITCH;
+import static org.onosproject.net.DeviceId.deviceId;
+import static org.onosproject.net.device.DeviceEvent.Type.PORT_STATS_UPDATED;
+import static org.onosproject.store.device.impl.GossipDeviceStoreMessageSubjects.PORT_DELTA_STATS_REQ;
+import static org.onosproject.store.device.impl.GossipDeviceStoreMessageSubjects.PORT_STATS_REQ;
+
+/**
+ * Test of the port statistics handling of the EC based device store.
+ */
+public class ECDeviceStoreTest {
+
+    private static final ProviderId PID = new ProviderId("of", "foo");
+    private static final DeviceId DID1 = deviceId("of:foo");
+
+    // local node
+    private static final NodeId NID1 = new NodeId("local");
+    private static final ControllerNode ONOS1 =
+            new DefaultControllerNode(NID1, IpAddress.valueOf("127.0.0.1"));
+
+    // remote node
+    private static final NodeId NID2 = new NodeId("remote");
+    private static final ControllerNode ONOS2 =
+            new DefaultControllerNode(NID2, IpAddress.valueOf("127.0.0.2"));
+
+    private ECDeviceStore store;
+    private TestMastershipService mastershipService;
+    private ClusterCommunicationService clusterCommunicator;
+
+    @Before
+    public void setUp() throws Exception {
+        clusterCommunicator = createNiceMock(ClusterCommunicationService.class);
+        replay(clusterCommunicator);
+        mastershipService = new TestMastershipService();
+
+        store = new ECDeviceStore();
+        store.storageService = new TestStorageService();
+        store.mastershipService = mastershipService;
+        store.deviceClockService = new DeviceClockServiceAdapter();
+        store.clusterCommunicator = clusterCommunicator;
+        store.clusterService = new TestClusterService();
+        store.configService = new ComponentConfigAdapter();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.deactivate();
+    }
+
+    private void activate(int portStatsReplicationPeriod) {
+        Dictionary<String, Object> properties = new Hashtable<>();
+        properties.put("portStatsReplicationPeriod", String.valueOf(portStatsReplicationPeriod));
+        ComponentContext context = createMock(ComponentContext.class);
+        expect(context.getProperties()).andReturn(properties).anyTimes();
+        replay(context);
+        store.activate(context);
+    }
+
+    private void putDevice(DeviceId deviceId) {
+        store.createOrUpdateDevice(PID, deviceId,
+                new DefaultDeviceDescription(deviceId.uri(), SWITCH, "whitebox", "1.1.x",
+                                             "3.8.1", "43311-12345", new ChassisId()));
+    }
+
+    private static PortStatistics stats(DeviceId deviceId, int port, long packets, long sec) {
+        return DefaultPortStatistics.builder()
+                .setDeviceId(deviceId)
+                .setPort(port)
+                .setPacketsReceived(packets)
+                .setPacketsSent(packets)
+                .setDurationSec(sec)
+                .build();
+    }
+
+    private static Map<Integer, PortStatistics> byPort(List<PortStatistics> stats) {
+        Map<Integer, PortStatistics> ports = Maps.newHashMap();
+        stats.forEach(s -> ports.put(s.port(), s));
+        return ports;
+    }
+
+    private void expectRequest(DeviceId deviceId, MessageSubject subject,
+                               CompletableFuture<List<PortStatistics>> reply) {
+        reset(clusterCommunicator);
+        expect(clusterCommunicator.<DeviceId, List<PortStatistics>>sendAndReceive(
+                eq(deviceId), eq(subject), anyObject(), anyObject(), eq(NID2)))
+                .andReturn(reply);
+        replay(clusterCommunicator);
+    }
+
+    @Test
+    public final void testUpdatePortStatisticsOnMaster() {
+        activate(0);
+        mastershipService.setMaster(DID1, NID1);
+        putDevice(DID1);
+
+        DeviceEvent event = store.updatePortStatistics(PID, DID1,
+                ImmutableList.of(stats(DID1, 1, 10, 1), stats(DID1, 2, 20, 1)));
+        assertNotNull("expecting an event", event);
+        assertEquals(PORT_STATS_UPDATED, event.type());
+        assertEquals(DID1, event.subject().id());
+        assertEquals("no delta on the first poll", 0, store.getPortDeltaStatistics(DID1).size());
+
+        // a poll only replaces the ports it reports
+        store.updatePortStatistics(PID, DID1, ImmutableList.of(stats(DID1, 1, 15, 2)));
+        Map<Integer, PortStatistics> ports = byPort(store.getPortStatistics(DID1));
+        assertEquals(2, ports.size());
+        assertEquals(15, ports.get(1).packetsReceived());
+        assertEquals(20, ports.get(2).packetsReceived());
+
+        Map<Integer, PortStatistics> deltas = byPort(store.getPortDeltaStatistics(DID1));
+        assertEquals(1, deltas.size());
+        assertEquals(5, deltas.get(1).packetsReceived());
+        assertEquals(1, deltas.get(1).durationSec());
+    }
+
+    @Test
+    public final void testUpdatePortStatisticsUnknownDevice() {
+        activate(0);
+        mastershipService.setMaster(DID1, NID1);
+
+        assertNull(store.updatePortStatistics(PID, DID1, ImmutableList.of(stats(DID1, 1, 10, 1))));
+        assertEquals(1, store.getPortStatistics(DID1).size());
+    }
+
+    @Test
+    public final void testGetPortStatisticsFromMaster() {
+        activate(0);
+        mastershipService.setMaster(DID1, NID2);
+        List<PortStatistics> remote = ImmutableList.of(stats(DID1, 1, 10, 1));
+
+        expectRequest(DID1, PORT_STATS_REQ, CompletableFuture.completedFuture(remote));
+        assertEquals(remote, store.getPortStatistics(DID1));
+        verify(clusterCommunicator);
+
+        expectRequest(DID1, PORT_DELTA_STATS_REQ, CompletableFuture.completedFuture(remote));
+        assertEquals(remote, store.getPortDeltaStatistics(DID1));
+        verify(clusterCommunicator);
+    }
+
+    @Test
+    public final void testGetPortStatisticsMasterTimeout() {
+        activate(0);
+        mastershipService.setMaster(DID1, NID2);
+
+        expectRequest(DID1, PORT_STATS_REQ, new CompletableFuture<>());
+        long start = System.nanoTime();
+        assertEquals(Collections.emptyList(), store.getPortStatistics(DID1));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("expecting to wait for the master", elapsed >= 2000);
+        verify(clusterCommunicator);
+    }
+
+    @Test
+    public final void testPurgeOnMasterChange() {
+        activate(0);
+        mastershipService.setMaster(DID1, NID1);
+        putDevice(DID1);
+        store.updatePortStatistics(PID, DID1, ImmutableList.of(stats(DID1, 1, 10, 1)));
+        store.updatePortStatistics(PID, DID1, ImmutableList.of(stats(DID1, 1, 15, 2)));
+
+        mastershipService.setMaster(DID1, NID2);
+        mastershipService.post(new MastershipEvent(MastershipEvent.Type.MASTER_CHANGED, DID1,
+                                                   new RoleInfo(NID2, ImmutableList.of(NID1))));
+
+        // regaining mastership starts over from the next poll
+        mastershipService.setMaster(DID1, NID1);
+        assertEquals(0, store.getPortStatistics(DID1).size());
+        assertEquals(0, store.getPortDeltaStatistics(DID1).size());
+    }
+
+    @Test
+    public final void testReplicatedDeltaStatistics() throws InterruptedException {
+        // replicates every second from activation
+        activate(1);
+        mastershipService.setMaster(DID1, NID1);
+        putDevice(DID1);
+        store.updatePortStatistics(PID, DID1, ImmutableList.of(stats(DID1, 1, 10, 1)));
+
+        // the first replication records the statistics, the second one the delta since
+        Thread.sleep(1500);
+        store.updatePortStatistics(PID, DID1, ImmutableList.of(stats(DID1, 1, 25, 4)));
+        Thread.sleep(1000);
+
+        // served from the replicated summaries, without asking the master
+        mastershipService.setMaster(DID1, NID2);
+        Map<Integer, PortStatistics> deltas = byPort(store.getPortDeltaStatistics(DID1));
+        assertEquals(1, deltas.size());
+        assertEquals(15, deltas.get(1).packetsReceived());
+        assertEquals(3, deltas.get(1).durationSec());
+    }
+
+    private static final class TestClusterService extends StaticClusterService {
+
+        public TestClusterService() {
+            localNode = ONOS1;
+            nodes.put(NID1, ONOS1);
+            nodeStates.put(NID1, ACTIVE);
+
+            nodes.put(NID2, ONOS2);
+            nodeStates.put(NID2, ACTIVE);
+        }
+    }
+
+    private static final class TestMastershipService extends MastershipServiceAdapter {
+
+        private final Map<DeviceId, NodeId> masters = Maps.newConcurrentMap();
+        private MastershipListener listener;
+
+        void setMaster(DeviceId deviceId, NodeId nodeId) {
+            masters.put(deviceId, nodeId);
+        }
+
+        void post(MastershipEvent event) {
+            listener.event(event);
+        }
+
+        @Override
+        public NodeId getMasterFor(DeviceId deviceId) {
+            return masters.get(deviceId);
+        }
+
+        @Override
+        public void addListener(MastershipListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void removeListener(MastershipListener listener) {
+            this.listener = null;
+        }
+    }
+}
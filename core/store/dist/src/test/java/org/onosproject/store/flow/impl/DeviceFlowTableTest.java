@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.flow.impl;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.StoredFlowEntry;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.onosproject.store.flow.impl.FlowTestTools.entry;
+import static org.onosproject.store.flow.impl.FlowTestTools.rule;
+
+/**
+ * Unit tests for the device flow table.
+ */
+public class DeviceFlowTableTest {
+
+    @Test
+    public void putGetRemove() {
+        DeviceFlowTable table = new DeviceFlowTable();
+        StoredFlowEntry entry = entry(1, 1);
+
+        assertNull(table.put(entry));
+        assertSame(entry, table.get(rule(1, 1)));
+        assertEquals(1, table.size());
+
+        StoredFlowEntry replacement = entry(1, 1);
+        assertSame(entry, table.put(replacement));
+        assertSame(replacement, table.get(rule(1, 1)));
+        assertEquals(1, table.size());
+
+        assertNull(table.remove(rule(1, 2)));
+        assertSame(replacement, table.remove(rule(1, 1)));
+        assertNull(table.get(rule(1, 1)));
+        assertTrue(table.isEmpty());
+    }
+
+    @Test
+    public void sharedFlowId() {
+        DeviceFlowTable table = new DeviceFlowTable();
+        StoredFlowEntry first = entry(7, 1);
+        StoredFlowEntry second = entry(7, 2);
+        table.put(first);
+        table.put(second);
+
+        assertEquals(2, table.size());
+        assertSame(first, table.get(rule(7, 1)));
+        assertSame(second, table.get(rule(7, 2)));
+
+        assertSame(first, table.remove(rule(7, 1)));
+        assertSame(second, table.get(rule(7, 2)));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void conditionalRemove() {
+        DeviceFlowTable table = new DeviceFlowTable();
+        StoredFlowEntry entry = entry(3, 1);
+        table.put(entry);
+
+        assertNull(table.remove(rule(3, 1), stored -> false));
+        assertSame(entry, table.get(rule(3, 1)));
+        assertSame(entry, table.remove(rule(3, 1), stored -> true));
+    }
+
+    @Test
+    public void iterateAcrossResizes() {
+        DeviceFlowTable table = new DeviceFlowTable();
+        Set<StoredFlowEntry> expected = Sets.newHashSet();
+        for (int i = 0; i < 5000; i++) {
+            StoredFlowEntry entry = entry((1L << 48) | i, i);
+            table.put(entry);
+            expected.add(entry);
+        }
+        assertEquals(expected.size(), table.size());
+        assertEquals(expected, Sets.newHashSet(table));
+        expected.forEach(entry -> assertTrue(table.contains(entry)));
+
+        table.clear();
+        assertTrue(table.isEmpty());
+        assertFalse(table.iterator().hasNext());
+    }
+
+    @Test
+    public void iterateWhileModified() {
+        DeviceFlowTable table = new DeviceFlowTable();
+        for (int i = 0; i < 100; i++) {
+            table.put(entry(i, i));
+        }
+        Iterator<StoredFlowEntry> it = table.iterator();
+        int seen = 0;
+        while (it.hasNext()) {
+            StoredFlowEntry entry = it.next();
+            table.remove(entry);
+            if (seen < 100) {
+                table.put(entry(1000 + seen, 1000 + seen));
+            }
+            seen++;
+        }
+        assertTrue(seen >= 100);
+    }
+
+    @Test
+    public void writesThrough() {
+        Map<FlowId, Map<StoredFlowEntry, StoredFlowEntry>> persisted = Maps.newHashMap();
+        DeviceFlowTable table = new DeviceFlowTable(persisted);
+        StoredFlowEntry first = entry(5, 1);
+        StoredFlowEntry second = entry(5, 2);
+        table.put(first);
+        table.put(second);
+        assertEquals(2, persisted.get(FlowId.valueOf(5)).size());
+
+        DeviceFlowTable reloaded = new DeviceFlowTable(persisted);
+        assertEquals(2, reloaded.size());
+        assertSame(second, reloaded.get(rule(5, 2)));
+
+        table.remove(rule(5, 1));
+        table.remove(rule(5, 2));
+        assertTrue(persisted.isEmpty());
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.flow.impl;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.onosproject.net.flow.StoredFlowEntry;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.onosproject.store.flow.impl.FlowTestTools.DID;
+import static org.onosproject.store.flow.impl.FlowTestTools.entry;
+
+/**
+ * Unit tests for the flow table change log.
+ */
+public class FlowChangeLogTest {
+
+    @Test
+    public void logIds() {
+        FlowChangeLog first = new FlowChangeLog(DID);
+        FlowChangeLog second = new FlowChangeLog(DID);
+        assertNotEquals(first.id(), second.id());
+        assertEquals(first.id(), first.deltaSince(0).logId());
+    }
+
+    @Test
+    public void ignoredUntilTracked() {
+        FlowChangeLog changeLog = new FlowChangeLog(DID);
+        changeLog.updated(entry(1));
+        changeLog.removed(entry(2));
+        assertEquals(0, changeLog.version());
+        assertEquals(0, changeLog.size());
+
+        assertEquals(0, changeLog.startTracking());
+        changeLog.updated(entry(1));
+        assertEquals(1, changeLog.version());
+        assertEquals(1, changeLog.size());
+    }
+
+    @Test
+    public void deltaSince() {
+        FlowChangeLog changeLog = new FlowChangeLog(DID);
+        long base = changeLog.startTracking();
+        changeLog.updated(entry(1));
+        changeLog.updated(entry(2));
+        changeLog.removed(entry(1));
+        changeLog.updated(entry(3));
+        // only the latest change of each entry is kept
+        assertEquals(4, changeLog.version());
+        assertEquals(3, changeLog.size());
+
+        FlowTableBackup delta = changeLog.deltaSince(base);
+        assertFalse(delta.isFull());
+        assertEquals(DID, delta.deviceId());
+        assertEquals(base, delta.baseVersion());
+        assertEquals(4, delta.version());
+        assertEquals(ImmutableList.of(entry(1)), delta.removed());
+        assertEquals(2, delta.updated().size());
+        assertTrue(delta.updated().containsAll(ImmutableList.of(entry(2), entry(3))));
+
+        delta = changeLog.deltaSince(3);
+        assertEquals(3, delta.baseVersion());
+        assertEquals(ImmutableList.of(entry(3)), delta.updated());
+        assertTrue(delta.removed().isEmpty());
+
+        delta = changeLog.deltaSince(4);
+        assertTrue(delta.updated().isEmpty());
+        assertTrue(delta.removed().isEmpty());
+    }
+
+    @Test
+    public void acknowledged() {
+        FlowChangeLog changeLog = new FlowChangeLog(DID);
+        changeLog.startTracking();
+        changeLog.updated(entry(1));
+        changeLog.updated(entry(2));
+        changeLog.removed(entry(3));
+
+        changeLog.acknowledged(2);
+        assertEquals(1, changeLog.size());
+        assertEquals(3, changeLog.version());
+        FlowTableBackup delta = changeLog.deltaSince(2);
+        assertTrue(delta.updated().isEmpty());
+        assertEquals(ImmutableList.of(entry(3)), delta.removed());
+
+        // a change acknowledged before is recorded again when made again
+        changeLog.updated(entry(1));
+        assertEquals(2, changeLog.size());
+        changeLog.acknowledged(changeLog.version());
+        assertEquals(0, changeLog.size());
+    }
+
+    @Test
+    public void fullBackupFallback() {
+        FlowChangeLog changeLog = new FlowChangeLog(DID);
+        List<StoredFlowEntry> table = ImmutableList.of(entry(1), entry(2));
+
+        // no version held by the backup node
+        FlowTableBackup backup = changeLog.backup(null, false, table);
+        assertTrue(backup.isFull());
+        assertEquals(changeLog.id(), backup.logId());
+        assertEquals(0, backup.version());
+        assertEquals(table, backup.updated());
+
+        changeLog.updated(entry(3));
+        backup = changeLog.backup(0L, false, table);
+        assertFalse(backup.isFull());
+        assertEquals(0, backup.baseVersion());
+        assertEquals(1, backup.version());
+
+        // snapshot due
+        backup = changeLog.backup(0L, true, table);
+        assertTrue(backup.isFull());
+        assertEquals(1, backup.version());
+
+        // more changes than flow entries
+        changeLog.updated(entry(4));
+        changeLog.updated(entry(5));
+        backup = changeLog.backup(1L, false, table);
+        assertTrue(backup.isFull());
+        assertEquals(3, backup.version());
+    }
+
+    @Test
+    public void removedOverflow() {
+        FlowChangeLog changeLog = new FlowChangeLog(DID, 2);
+        List<StoredFlowEntry> table = ImmutableList.of(entry(1), entry(2), entry(3), entry(4));
+        changeLog.backup(null, false, table);
+
+        // a removed entry made again is no longer counted
+        changeLog.removed(entry(1));
+        changeLog.updated(entry(1));
+        changeLog.removed(entry(2));
+        changeLog.removed(entry(3));
+        assertEquals(3, changeLog.size());
+        assertFalse(changeLog.snapshotRequired());
+
+        // acknowledged removals are no longer counted either
+        changeLog.acknowledged(changeLog.version());
+        changeLog.removed(entry(2));
+        changeLog.removed(entry(3));
+        assertFalse(changeLog.snapshotRequired());
+
+        changeLog.removed(entry(4));
+        assertTrue(changeLog.snapshotRequired());
+        assertEquals(0, changeLog.size());
+        assertEquals(7, changeLog.version());
+
+        // nothing is recorded until the next snapshot
+        changeLog.updated(entry(5));
+        assertEquals(7, changeLog.version());
+        assertEquals(0, changeLog.size());
+
+        FlowTableBackup backup = changeLog.backup(4L, false, table);
+        assertTrue(backup.isFull());
+        assertEquals(7, backup.version());
+        assertFalse(changeLog.snapshotRequired());
+
+        changeLog.updated(entry(5));
+        assertEquals(8, changeLog.version());
+        assertEquals(1, changeLog.size());
+        assertFalse(changeLog.backup(7L, false, table).isFull());
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.flow.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+import org.onosproject.net.flow.StoredFlowEntry;
+
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.onosproject.store.flow.impl.FlowTestTools.DID;
+import static org.onosproject.store.flow.impl.FlowTestTools.entry;
+
+/**
+ * Unit tests for applying flow table backups.
+ */
+public class FlowTableBackupTest {
+
+    private static Set<StoredFlowEntry> contents(DeviceFlowTable table) {
+        return Sets.newHashSet(table);
+    }
+
+    @Test
+    public void snapshotReplacesTable() {
+        DeviceFlowTable table = new DeviceFlowTable();
+        table.put(entry(1));
+        FlowTableBackup snapshot = FlowTableBackup.snapshot(DID, 7, 3, ImmutableList.of(entry(2), entry(3)));
+
+        assertTrue(snapshot.applyTo(table, null, null));
+        assertEquals(ImmutableSet.of(entry(2), entry(3)), contents(table));
+    }
+
+    @Test
+    public void deltaApplies() {
+        DeviceFlowTable table = new DeviceFlowTable();
+        table.put(entry(1));
+        table.put(entry(2));
+        FlowTableBackup delta = FlowTableBackup.delta(DID, 7, 3, 5,
+                                                      ImmutableList.of(entry(3)), ImmutableList.of(entry(1)));
+
+        assertTrue(delta.applyTo(table, 7L, 3L));
+        assertEquals(ImmutableSet.of(entry(2), entry(3)), contents(table));
+    }
+
+    @Test
+    public void deltaRejected() {
+        DeviceFlowTable table = new DeviceFlowTable();
+        table.put(entry(1));
+        FlowTableBackup delta = FlowTableBackup.delta(DID, 7, 3, 5,
+                                                      ImmutableList.of(entry(2)), ImmutableList.of(entry(1)));
+
+        // base version not held
+        assertFalse(delta.applyTo(table, 7L, 2L));
+        // built from another change log
+        assertFalse(delta.applyTo(table, 8L, 3L));
+        // nothing held yet
+        assertFalse(delta.applyTo(table, null, null));
+        assertEquals(ImmutableSet.of(entry(1)), contents(table));
+    }
+
+    @Test
+    public void missedDeltaFallsBackToSnapshot() {
+        FlowChangeLog changeLog = new FlowChangeLog(DID);
+        DeviceFlowTable master = new DeviceFlowTable();
+        DeviceFlowTable backup = new DeviceFlowTable();
+        master.put(entry(1));
+
+        FlowTableBackup snapshot = changeLog.backup(null, false, master);
+        assertTrue(snapshot.applyTo(backup, null, null));
+        long heldVersion = snapshot.version();
+
+        master.put(entry(2));
+        changeLog.updated(entry(2));
+        // lost on its way to the backup node
+        FlowTableBackup lost = changeLog.backup(heldVersion, false, master);
+        assertFalse(lost.isFull());
+
+        master.put(entry(3));
+        changeLog.updated(entry(3));
+        FlowTableBackup next = changeLog.deltaSince(lost.version());
+        assertFalse(next.applyTo(backup, changeLog.id(), heldVersion));
+        assertEquals(ImmutableSet.of(entry(1)), contents(backup));
+
+        // the rejected backup is not acknowledged, the master sends a snapshot
+        snapshot = changeLog.backup(null, false, master);
+        assertTrue(snapshot.isFull());
+        assertTrue(snapshot.applyTo(backup, changeLog.id(), heldVersion));
+        assertEquals(contents(master), contents(backup));
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.flow.impl;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.DefaultFlowEntry;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.StoredFlowEntry;
+
+/**
+ * Flow entries for testing the flow tables of the distributed flow store.
+ */
+final class FlowTestTools {
+
+    private FlowTestTools() {
+    }
+
+    static final DeviceId DID = DeviceId.deviceId("of:1");
+
+    // Short-hand for a permanent rule of the test device matching an input port
+    static FlowRule rule(long flowId, int inPort) {
+        return DefaultFlowRule.builder()
+                .forDevice(DID)
+                .withCookie(flowId)
+                .withSelector(DefaultTrafficSelector.builder()
+                                      .matchInPort(PortNumber.portNumber(inPort)).build())
+                .withTreatment(DefaultTrafficTreatment.emptyTreatment())
+                .withPriority(10)
+                .makePermanent()
+                .build();
+    }
+
+    static StoredFlowEntry entry(long flowId, int inPort) {
+        return new DefaultFlowEntry(rule(flowId, inPort));
+    }
+
+    // Short-hand for an entry whose input port is its flow id
+    static StoredFlowEntry entry(long flowId) {
+        return entry(flowId, (int) flowId);
+    }
+}
@@ -55,6 +55,9 @@ public class EventuallyConsistentMapBuilderImpl<K, V>
     private boolean convergeFaster = false;
     private boolean persistent = false;
     private boolean persistentMap = false;
+    private boolean merkleTreeAntiEntropy = false;
+    private boolean offHeap = false;
+    private int offHeapCacheSize = 0;
     private final PersistenceService persistenceService;
 
     /**
@@ -151,6 +154,20 @@ public class EventuallyConsistentMapBuilderImpl<K, V>
         return this;
     }
 
+    @Override
+    public EventuallyConsistentMapBuilder<K, V> withMerkleTreeAntiEntropy() {
+        merkleTreeAntiEntropy = true;
+        return this;
+    }
+
+    @Override
+    public EventuallyConsistentMapBuilder<K, V> withOffHeapStorage(int cacheSize) {
+        checkArgument(cacheSize >= 0, "cache size must not be negative");
+        offHeap = true;
+        offHeapCacheSize = cacheSize;
+        return this;
+    }
+
     @Override
     public EventuallyConsistentMap<K, V> build() {
         checkNotNull(name, "name is a mandatory parameter");
@@ -159,6 +176,7 @@ public class EventuallyConsistentMapBuilderImpl<K, V>
             serializer = serializerBuilder.build(name);
         }
         checkNotNull(serializer, "serializer is a mandatory parameter");
+        checkArgument(!(persistent && offHeap), "off-heap storage cannot be combined with persistence");
 
         return new EventuallyConsistentMapImpl<>(name,
                                                  clusterService,
@@ -174,6 +192,9 @@ public class EventuallyConsistentMapBuilderImpl<K, V>
                                                  antiEntropyTimeUnit,
                                                  convergeFaster,
                                                  persistent,
-                                                 persistenceService);
+                                                 persistenceService,
+                                                 merkleTreeAntiEntropy,
+                                                 offHeap,
+                                                 offHeapCacheSize);
     }
 }
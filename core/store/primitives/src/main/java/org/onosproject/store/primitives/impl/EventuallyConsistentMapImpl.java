@@ -18,9 +18,11 @@ package org.onosproject.store.primitives.impl;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
 import org.apache.commons.lang3.tuple.Pair;
 import org.onlab.util.AbstractAccumulator;
 import org.onlab.util.KryoNamespace;
@@ -61,6 +63,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
@@ -91,6 +94,7 @@ public class EventuallyConsistentMapImpl<K, V>
     private final MessageSubject updateMessageSubject;
     private final MessageSubject antiEntropyAdvertisementSubject;
     private final MessageSubject updateRequestSubject;
+    private final MessageSubject antiEntropyTreeSubject;
 
     private final Set<EventuallyConsistentMapListener<K, V>> listeners
             = Sets.newCopyOnWriteArraySet();
@@ -125,6 +129,9 @@ public class EventuallyConsistentMapImpl<K, V>
 
     private final boolean persistent;
 
+    // hash tree of the items, null unless anti-entropy exchanges trees
+    private final MerkleTree<K> merkleTree;
+
     private static final String PERSISTENT_LOCAL_MAP_NAME = "itemsMap";
 
 
@@ -155,6 +162,11 @@ public class EventuallyConsistentMapImpl<K, V>
      * @param convergeFaster        make anti-entropy try to converge faster
      * @param persistent            persist data to disk
      * @param persistenceService    persistence service
+     * @param merkleTreeAntiEntropy make anti-entropy exchange a hash tree of
+     *                              the map instead of every entry digest
+     * @param offHeap               keep entries serialized in direct memory
+     * @param offHeapCacheSize      number of decoded values kept on heap when
+     *                              entries are stored off heap
      */
     EventuallyConsistentMapImpl(String mapName,
                                 ClusterService clusterService,
@@ -170,7 +182,11 @@ public class EventuallyConsistentMapImpl<K, V>
                                 TimeUnit antiEntropyTimeUnit,
                                 boolean convergeFaster,
                                 boolean persistent,
-                                PersistenceService persistenceService) {
+                                PersistenceService persistenceService,
+                                boolean merkleTreeAntiEntropy,
+                                boolean offHeap,
+                                int offHeapCacheSize) {
+        checkArgument(!(persistent && offHeap), "off-heap storage cannot be combined with persistence");
         this.mapName = mapName;
         this.serializer = createSerializer(ns);
         this.persistenceService = persistenceService;
@@ -181,9 +197,17 @@ public class EventuallyConsistentMapImpl<K, V>
                     .withName(PERSISTENT_LOCAL_MAP_NAME)
                     .withSerializer(this.serializer)
                     .build();
+        } else if (offHeap) {
+            items = new OffHeapMap<>(this.serializer, offHeapCacheSize);
         } else {
             items = Maps.newConcurrentMap();
         }
+        if (merkleTreeAntiEntropy) {
+            merkleTree = new MerkleTree<>(serializer);
+            items.forEach(merkleTree::update);
+        } else {
+            merkleTree = null;
+        }
         senderPending = Maps.newConcurrentMap();
         destroyedMessage = mapName + ERROR_DESTROYED;
 
@@ -251,6 +275,15 @@ public class EventuallyConsistentMapImpl<K, V>
                                           this::handleUpdateRequests,
                                           this.backgroundExecutor);
 
+        antiEntropyTreeSubject = new MessageSubject("ecm-" + mapName + "-anti-entropy-tree");
+        if (merkleTree != null) {
+            clusterCommunicator.addSubscriber(antiEntropyTreeSubject,
+                                              serializer::decode,
+                                              this::handleTreeAdvertisement,
+                                              serializer::encode,
+                                              this.backgroundExecutor);
+        }
+
         if (!tombstonesDisabled) {
             previousTombstonePurgeTime = 0;
             this.backgroundExecutor.scheduleWithFixedDelay(this::purgeTombstones,
@@ -281,6 +314,7 @@ public class EventuallyConsistentMapImpl<K, V>
                          .register(MapValue.class)
                          .register(MapValue.Digest.class)
                          .register(UpdateRequest.class)
+                         .register(MerkleTreeAdvertisement.class)
                          .build(name() + "-ecmap"));
     }
 
@@ -397,6 +431,7 @@ public class EventuallyConsistentMapImpl<K, V>
             }
             if (updated.get()) {
                 previousValue.set(existing);
+                updateTree(k, tombstone.orElse(null));
                 return tombstone.orElse(null);
             } else {
                 return existing;
@@ -421,7 +456,9 @@ public class EventuallyConsistentMapImpl<K, V>
                 updated.set(true);
                 // We return a copy to ensure updates to peers can be serialized.
                 // This prevents replica divergence due to serialization failures.
-                return serializer.copy(newValue);
+                MapValue<V> copy = serializer.copy(newValue);
+                updateTree(k, copy);
+                return copy;
             } else {
                 return mv;
             }
@@ -492,6 +529,7 @@ public class EventuallyConsistentMapImpl<K, V>
         items.compute(key, (k, existing) -> {
             if (existing == null || newValue.isNewerThan(existing)) {
                 updated.set(true);
+                updateTree(k, newValue);
                 return newValue;
             }
             return existing;
@@ -499,6 +537,12 @@ public class EventuallyConsistentMapImpl<K, V>
         return updated.get();
     }
 
+    private void updateTree(K key, MapValue<V> value) {
+        if (merkleTree != null) {
+            merkleTree.update(key, value);
+        }
+    }
+
     @Override
     public void addListener(EventuallyConsistentMapListener<K, V> listener) {
         checkState(!destroyed, destroyedMessage);
@@ -526,6 +570,9 @@ public class EventuallyConsistentMapImpl<K, V>
         clusterCommunicator.removeSubscriber(updateMessageSubject);
         clusterCommunicator.removeSubscriber(updateRequestSubject);
         clusterCommunicator.removeSubscriber(antiEntropyAdvertisementSubject);
+        if (merkleTree != null) {
+            clusterCommunicator.removeSubscriber(antiEntropyTreeSubject);
+        }
         return CompletableFuture.completedFuture(null);
     }
 
@@ -576,18 +623,53 @@ public class EventuallyConsistentMapImpl<K, V>
 
     private void sendAdvertisementToPeer(NodeId peer) {
         long adCreationTime = System.currentTimeMillis();
-        AntiEntropyAdvertisement<K> ad = createAdvertisement();
-        clusterCommunicator.sendAndReceive(ad,
+        CompletableFuture<AntiEntropyResponse> response;
+        if (merkleTree != null) {
+            response = compareTree(peer, 0, MerkleTree.roots());
+        } else {
+            response = sendAdvertisementToPeer(peer, createAdvertisement());
+        }
+        response.whenComplete((result, error) -> {
+            if (error != null) {
+                log.debug("Failed to send anti-entropy advertisement to {}", peer, error);
+            } else if (result == AntiEntropyResponse.PROCESSED) {
+                antiEntropyTimes.put(peer, adCreationTime);
+            }
+        });
+    }
+
+    private CompletableFuture<AntiEntropyResponse> sendAdvertisementToPeer(NodeId peer,
+                                                                           AntiEntropyAdvertisement<K> ad) {
+        return clusterCommunicator.sendAndReceive(ad,
                 antiEntropyAdvertisementSubject,
                 serializer::encode,
                 serializer::decode,
+                peer);
+    }
+
+    /**
+     * Compares the hashes of tree nodes with the peer, descending into the
+     * nodes that differ until the differing leaves are found, and then
+     * advertises the digests of the entries of these leaves.
+     */
+    private CompletableFuture<AntiEntropyResponse> compareTree(NodeId peer, int level, int[] nodes) {
+        MerkleTreeAdvertisement ad =
+                new MerkleTreeAdvertisement(localNodeId, level, nodes, merkleTree.hashes(level, nodes));
+        return clusterCommunicator.<MerkleTreeAdvertisement, int[]>sendAndReceive(ad,
+                antiEntropyTreeSubject,
+                serializer::encode,
+                serializer::decode,
                 peer)
-                .whenComplete((result, error) -> {
-                    if (error != null) {
-                        log.debug("Failed to send anti-entropy advertisement to {}", peer, error);
-                    } else if (result == AntiEntropyResponse.PROCESSED) {
-                        antiEntropyTimes.put(peer, adCreationTime);
+                .thenCompose(differing -> {
+                    if (differing == null) {
+                        return CompletableFuture.completedFuture(AntiEntropyResponse.IGNORED);
+                    } else if (differing.length == 0) {
+                        return CompletableFuture.completedFuture(AntiEntropyResponse.PROCESSED);
+                    } else if (level < MerkleTree.LEAF_LEVEL) {
+                        return compareTree(peer, level + 1, MerkleTree.children(differing));
                     }
+                    Set<Integer> buckets = ImmutableSet.copyOf(Ints.asList(differing));
+                    return sendAdvertisementToPeer(peer, createAdvertisement(buckets));
                 });
     }
 
@@ -609,6 +691,40 @@ public class EventuallyConsistentMapImpl<K, V>
                 ImmutableMap.copyOf(Maps.transformValues(items, MapValue::digest)));
     }
 
+    private AntiEntropyAdvertisement<K> createAdvertisement(Set<Integer> buckets) {
+        Map<K, MapValue.Digest> digest = Maps.newHashMap();
+        localItems(buckets).forEach((key, value) -> digest.put(key, value.digest()));
+        return new AntiEntropyAdvertisement<>(localNodeId, digest, buckets);
+    }
+
+    /**
+     * Returns the local items of the given tree leaves.
+     *
+     * @param buckets leaf indexes; null for all items
+     * @return items
+     */
+    private Map<K, MapValue<V>> localItems(Set<Integer> buckets) {
+        if (buckets == null) {
+            return items;
+        }
+        Map<K, MapValue<V>> bucketItems = Maps.newHashMap();
+        buckets.forEach(bucket -> merkleTree.keys(bucket).forEach(key -> {
+            MapValue<V> value = items.get(key);
+            if (value != null) {
+                bucketItems.put(key, value);
+            }
+        }));
+        return bucketItems;
+    }
+
+    private int[] handleTreeAdvertisement(MerkleTreeAdvertisement ad) {
+        if (destroyed || underHighLoad()) {
+            // tells the sender the advertisement was ignored
+            return null;
+        }
+        return merkleTree.differences(ad.level(), ad.nodes(), ad.hashes());
+    }
+
     private AntiEntropyResponse handleAntiEntropyAdvertisement(AntiEntropyAdvertisement<K> ad) {
         if (destroyed || underHighLoad()) {
             return AntiEntropyResponse.IGNORED;
@@ -640,7 +756,10 @@ public class EventuallyConsistentMapImpl<K, V>
         Set<K> staleOrMissing = new HashSet<>();
         Set<K> locallyUnknown = new HashSet<>(ad.digest().keySet());
 
-        items.forEach((key, localValue) -> {
+        if (ad.buckets() != null && merkleTree == null) {
+            throw new IllegalStateException("Received tree anti-entropy advertisement for " + mapName);
+        }
+        localItems(ad.buckets()).forEach((key, localValue) -> {
             locallyUnknown.remove(key);
             MapValue.Digest remoteValueDigest = ad.digest().get(key);
             if (remoteValueDigest == null || localValue.isNewerThan(remoteValueDigest.timestamp())) {
@@ -703,7 +822,13 @@ public class EventuallyConsistentMapImpl<K, V>
                                           .filter(e -> e.getValue().creationTime() <= currentSafeTombstonePurgeTime)
                                           .collect(Collectors.toList());
         previousTombstonePurgeTime = currentSafeTombstonePurgeTime;
-        tombStonesToDelete.forEach(entry -> items.remove(entry.getKey(), entry.getValue()));
+        tombStonesToDelete.forEach(entry -> items.computeIfPresent(entry.getKey(), (key, existing) -> {
+            if (!existing.equals(entry.getValue())) {
+                return existing;
+            }
+            updateTree(key, null);
+            return null;
+        }));
     }
 
     private void processUpdates(Collection<UpdateEntry<K, V>> updates) {
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2016-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.primitives.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Ints;
+import org.onosproject.store.serializers.StoreSerializer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Hash tree of the entries of an eventually consistent map, used by
+ * anti-entropy to find the entries that differ between two replicas.
+ * <p>
+ * Entries are bucketed by the hash of their serialized key into
+ * {@value #LEAF_COUNT} leaves. A leaf hash is the XOR of the hashes of its
+ * entries, each computed from the serialized key and the digest of the value,
+ * so that it is updated in place as entries change and is the same on every
+ * node holding the same entries. Inner nodes, {@value #FANOUT} children each,
+ * XOR the hashes of their children and are computed on demand.
+ * </p>
+ *
+ * @param <K> key type
+ */
+final class MerkleTree<K> {
+
+    static final int FANOUT = 16;
+    static final int LEAF_LEVEL = 2;
+    static final int LEAF_COUNT = FANOUT * FANOUT * FANOUT;
+
+    private static final HashFunction BUCKET_HASH = Hashing.murmur3_32();
+    private static final HashFunction ENTRY_HASH = Hashing.murmur3_128();
+
+    private final StoreSerializer serializer;
+    private final AtomicLongArray leafHashes = new AtomicLongArray(LEAF_COUNT);
+    // hash of every entry of a leaf, leaves are created on first use
+    private final AtomicReferenceArray<Map<K, Long>> leafEntries = new AtomicReferenceArray<>(LEAF_COUNT);
+
+    /**
+     * Creates an empty tree.
+     *
+     * @param serializer serializer of the map keys and value digests
+     */
+    MerkleTree(StoreSerializer serializer) {
+        this.serializer = serializer;
+    }
+
+    /**
+     * Updates the entry of a key. Updates of the same key must not run
+     * concurrently.
+     *
+     * @param key   map key
+     * @param value new value, tombstones included; null if the key was removed
+     */
+    void update(K key, MapValue<?> value) {
+        byte[] keyBytes = serializer.encode(key);
+        int leaf = BUCKET_HASH.hashBytes(keyBytes).asInt() & (LEAF_COUNT - 1);
+        Map<K, Long> entries = leafEntries.get(leaf);
+        if (entries == null) {
+            leafEntries.compareAndSet(leaf, null, new ConcurrentHashMap<>());
+            entries = leafEntries.get(leaf);
+        }
+        Long previous;
+        long hash = 0;
+        if (value == null) {
+            previous = entries.remove(key);
+        } else {
+            hash = ENTRY_HASH.newHasher()
+                    .putBytes(keyBytes)
+                    .putBytes(serializer.encode(value.digest()))
+                    .hash().asLong();
+            previous = entries.put(key, hash);
+        }
+        long delta = hash ^ (previous == null ? 0 : previous);
+        if (delta != 0) {
+            leafHashes.getAndAccumulate(leaf, delta, (x, y) -> x ^ y);
+        }
+    }
+
+    /**
+     * Returns the hashes of nodes of a level.
+     *
+     * @param level tree level, 0 for the children of the root
+     * @param nodes node indexes in the level
+     * @return node hashes, in the order of the indexes
+     */
+    long[] hashes(int level, int[] nodes) {
+        int span = span(level);
+        long[] hashes = new long[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            checkArgument(nodes[i] >= 0 && nodes[i] < LEAF_COUNT / span, "Invalid node %s", nodes[i]);
+            long hash = 0;
+            for (int leaf = nodes[i] * span; leaf < (nodes[i] + 1) * span; leaf++) {
+                hash ^= leafHashes.get(leaf);
+            }
+            hashes[i] = hash;
+        }
+        return hashes;
+    }
+
+    /**
+     * Returns the nodes whose hashes differ from the given ones.
+     *
+     * @param level  tree level
+     * @param nodes  node indexes in the level
+     * @param hashes node hashes of the peer
+     * @return indexes of the nodes that differ
+     */
+    int[] differences(int level, int[] nodes, long[] hashes) {
+        checkArgument(nodes.length == hashes.length, "Mismatched tree advertisement");
+        long[] local = hashes(level, nodes);
+        List<Integer> differing = Lists.newArrayList();
+        for (int i = 0; i < nodes.length; i++) {
+            if (local[i] != hashes[i]) {
+                differing.add(nodes[i]);
+            }
+        }
+        return Ints.toArray(differing);
+    }
+
+    /**
+     * Returns the keys of a leaf, tombstones included.
+     *
+     * @param leaf leaf index
+     * @return keys
+     */
+    Set<K> keys(int leaf) {
+        Map<K, Long> entries = leafEntries.get(leaf);
+        return entries == null ? Collections.emptySet() : entries.keySet();
+    }
+
+    /**
+     * Returns the indexes of the nodes of the first level.
+     *
+     * @return node indexes
+     */
+    static int[] roots() {
+        int[] roots = new int[FANOUT];
+        for (int i = 0; i < FANOUT; i++) {
+            roots[i] = i;
+        }
+        return roots;
+    }
+
+    /**
+     * Returns the children of nodes, in the next level.
+     *
+     * @param nodes node indexes
+     * @return indexes of the children
+     */
+    static int[] children(int[] nodes) {
+        int[] children = new int[nodes.length * FANOUT];
+        for (int i = 0; i < nodes.length; i++) {
+            for (int j = 0; j < FANOUT; j++) {
+                children[i * FANOUT + j] = nodes[i] * FANOUT + j;
+            }
+        }
+        return children;
+    }
+
+    // number of leaves under a node of the level
+    private static int span(int level) {
+        checkArgument(level >= 0 && level <= LEAF_LEVEL, "Invalid tree level %s", level);
+        int span = 1;
+        for (int i = level; i < LEAF_LEVEL; i++) {
+            span *= FANOUT;
+        }
+        return span;
+    }
+}
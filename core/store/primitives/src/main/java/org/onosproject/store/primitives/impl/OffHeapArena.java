@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.primitives.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Allocator of byte blocks in direct memory.
+ * <p>
+ * Blocks are carved out of {@value #CHUNK_SIZE} byte chunks, rounded up to a
+ * power of two, and recycled through one free list per block size; chunks
+ * are kept for the lifetime of the arena. Blocks larger than a chunk get a
+ * chunk of their own, released when the block is freed.
+ * </p>
+ * <p>
+ * Blocks are addressed by a handle, and their length is kept by the caller.
+ * A block may be freed and reused while it is being read, so readers must
+ * check that the block was still theirs once the read completed. The chunk
+ * index of a released oversized block may be reused by a smaller chunk; a
+ * read that no longer fits its chunk returns null.
+ * </p>
+ */
+final class OffHeapArena {
+
+    static final int CHUNK_SIZE = 1 << 20;
+
+    private static final int MIN_BLOCK_SHIFT = 5;
+    private static final int CHUNK_SHIFT = 20;
+
+    private final SizeClass[] sizeClasses = new SizeClass[CHUNK_SHIFT - MIN_BLOCK_SHIFT + 1];
+    // replaced as a whole when grown, written under the arena lock only
+    private volatile AtomicReferenceArray<ByteBuffer> chunks = new AtomicReferenceArray<>(16);
+    private int chunkCount;
+    // indexes of released oversized chunks
+    private final Deque<Integer> releasedChunks = new ArrayDeque<>();
+
+    /**
+     * Creates an empty arena.
+     */
+    OffHeapArena() {
+        for (int i = 0; i < sizeClasses.length; i++) {
+            sizeClasses[i] = new SizeClass(1 << (MIN_BLOCK_SHIFT + i));
+        }
+    }
+
+    /**
+     * Allocates a block and copies the given bytes into it.
+     *
+     * @param bytes block content
+     * @return block handle
+     */
+    long allocate(byte[] bytes) {
+        long handle = bytes.length > CHUNK_SIZE
+                ? handle(newChunk(bytes.length), 0)
+                : sizeClass(bytes.length).allocate();
+        ByteBuffer buffer = chunks.get(chunk(handle)).duplicate();
+        buffer.position(offset(handle));
+        buffer.put(bytes);
+        return handle;
+    }
+
+    /**
+     * Reads the content of a block.
+     *
+     * @param handle block handle
+     * @param length block length
+     * @return block content, null if the block was released
+     */
+    byte[] read(long handle, int length) {
+        ByteBuffer chunk = chunks.get(chunk(handle));
+        if (chunk == null || offset(handle) + length > chunk.capacity()) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = chunk.duplicate();
+        buffer.position(offset(handle));
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Frees a block.
+     *
+     * @param handle block handle
+     * @param length block length
+     */
+    void free(long handle, int length) {
+        if (length > CHUNK_SIZE) {
+            releaseChunk(chunk(handle));
+        } else {
+            sizeClass(length).free(handle);
+        }
+    }
+
+    private SizeClass sizeClass(int length) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(length, 1) - 1);
+        return sizeClasses[Math.max(shift - MIN_BLOCK_SHIFT, 0)];
+    }
+
+    private synchronized int newChunk(int size) {
+        Integer released = releasedChunks.poll();
+        int index = released != null ? released : chunkCount++;
+        AtomicReferenceArray<ByteBuffer> table = chunks;
+        if (index >= table.length()) {
+            AtomicReferenceArray<ByteBuffer> grown = new AtomicReferenceArray<>(table.length() << 1);
+            for (int i = 0; i < table.length(); i++) {
+                grown.set(i, table.get(i));
+            }
+            chunks = grown;
+            table = grown;
+        }
+        table.set(index, ByteBuffer.allocateDirect(size));
+        return index;
+    }
+
+    private synchronized void releaseChunk(int index) {
+        // memory is reclaimed once no reader holds the buffer any longer
+        chunks.set(index, null);
+        releasedChunks.push(index);
+    }
+
+    private static long handle(int chunk, int offset) {
+        return ((long) chunk << 32) | offset;
+    }
+
+    private static int chunk(long handle) {
+        return (int) (handle >>> 32);
+    }
+
+    private static int offset(long handle) {
+        return (int) handle;
+    }
+
+    private final class SizeClass {
+        private final int blockSize;
+        private long[] freeBlocks = new long[16];
+        private int freeCount;
+        private int chunk = -1;
+        private int offset;
+
+        private SizeClass(int blockSize) {
+            this.blockSize = blockSize;
+        }
+
+        private synchronized long allocate() {
+            if (freeCount > 0) {
+                return freeBlocks[--freeCount];
+            }
+            if (chunk < 0 || offset + blockSize > CHUNK_SIZE) {
+                chunk = newChunk(CHUNK_SIZE);
+                offset = 0;
+            }
+            long handle = handle(chunk, offset);
+            offset += blockSize;
+            return handle;
+        }
+
+        private synchronized void free(long handle) {
+            if (freeCount == freeBlocks.length) {
+                freeBlocks = Arrays.copyOf(freeBlocks, freeCount << 1);
+            }
+            freeBlocks[freeCount++] = handle;
+        }
+    }
+}
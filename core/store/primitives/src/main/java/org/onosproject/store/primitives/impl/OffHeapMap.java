@@ -0,0 +1,392 @@
+/*
+ * Copyright 2016-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.primitives.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import org.onosproject.store.serializers.StoreSerializer;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Items of an eventually consistent map stored serialized in an
+ * {@link OffHeapArena}.
+ * <p>
+ * Only the keys and the location of the serialized values are kept on heap.
+ * Values are decoded on every read, unless found in an optional cache of the
+ * most recently read values. Writes to a key are serialized by the key index,
+ * reads take no lock and retry if the value was replaced while being read.
+ * </p>
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+final class OffHeapMap<K, V> extends AbstractMap<K, MapValue<V>>
+        implements ConcurrentMap<K, MapValue<V>> {
+
+    private final StoreSerializer serializer;
+    private final OffHeapArena arena = new OffHeapArena();
+    private final ConcurrentMap<K, Slot> index = Maps.newConcurrentMap();
+    // decoded values of recently read keys, null if disabled
+    private final Cache<K, Decoded<V>> cache;
+
+    /**
+     * Creates an empty map.
+     *
+     * @param serializer serializer of the map values
+     * @param cacheSize  maximum number of decoded values kept on heap
+     */
+    OffHeapMap(StoreSerializer serializer, int cacheSize) {
+        this.serializer = serializer;
+        this.cache = cacheSize > 0
+                ? CacheBuilder.newBuilder().maximumSize(cacheSize).build()
+                : null;
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    public MapValue<V> get(Object key) {
+        while (true) {
+            Slot slot = index.get(key);
+            if (slot == null) {
+                return null;
+            }
+            MapValue<V> value = read(key, slot);
+            if (value != null) {
+                return value;
+            }
+        }
+    }
+
+    @Override
+    public MapValue<V> compute(K key,
+                               BiFunction<? super K, ? super MapValue<V>, ? extends MapValue<V>> function) {
+        checkNotNull(function);
+        AtomicReference<Slot> replaced = new AtomicReference<>();
+        AtomicReference<MapValue<V>> result = new AtomicReference<>();
+        index.compute(key, (k, slot) -> {
+            // the slot cannot be freed while the key is being computed
+            MapValue<V> existing = slot == null ? null : decode(k, slot);
+            MapValue<V> value = function.apply(k, existing);
+            result.set(value);
+            if (value == existing) {
+                return slot;
+            }
+            Slot updated = value == null ? null : store(value);
+            replaced.set(slot);
+            return updated;
+        });
+        Slot slot = replaced.get();
+        if (slot != null) {
+            // freed once unreachable from the index, so that readers notice
+            if (cache != null) {
+                cache.invalidate(key);
+            }
+            arena.free(slot.handle, slot.length);
+        }
+        return result.get();
+    }
+
+    @Override
+    public MapValue<V> computeIfPresent(K key,
+                                        BiFunction<? super K, ? super MapValue<V>, ? extends MapValue<V>> function) {
+        checkNotNull(function);
+        return compute(key, (k, existing) -> existing == null ? null : function.apply(k, existing));
+    }
+
+    @Override
+    public MapValue<V> computeIfAbsent(K key, Function<? super K, ? extends MapValue<V>> function) {
+        checkNotNull(function);
+        return compute(key, (k, existing) -> existing != null ? existing : function.apply(k));
+    }
+
+    @Override
+    public MapValue<V> put(K key, MapValue<V> value) {
+        checkNotNull(value);
+        AtomicReference<MapValue<V>> previous = new AtomicReference<>();
+        compute(key, (k, existing) -> {
+            previous.set(existing);
+            return value;
+        });
+        return previous.get();
+    }
+
+    @Override
+    public MapValue<V> putIfAbsent(K key, MapValue<V> value) {
+        checkNotNull(value);
+        AtomicReference<MapValue<V>> previous = new AtomicReference<>();
+        compute(key, (k, existing) -> {
+            previous.set(existing);
+            return existing != null ? existing : value;
+        });
+        return previous.get();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public MapValue<V> remove(Object key) {
+        if (!index.containsKey(key)) {
+            return null;
+        }
+        AtomicReference<MapValue<V>> previous = new AtomicReference<>();
+        compute((K) key, (k, existing) -> {
+            previous.set(existing);
+            return null;
+        });
+        return previous.get();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object key, Object value) {
+        if (value == null || !index.containsKey(key)) {
+            return false;
+        }
+        AtomicBoolean removed = new AtomicBoolean(false);
+        compute((K) key, (k, existing) -> {
+            if (Objects.equals(existing, value)) {
+                removed.set(true);
+                return null;
+            }
+            return existing;
+        });
+        return removed.get();
+    }
+
+    @Override
+    public boolean replace(K key, MapValue<V> oldValue, MapValue<V> newValue) {
+        checkNotNull(newValue);
+        AtomicBoolean replaced = new AtomicBoolean(false);
+        compute(key, (k, existing) -> {
+            if (existing != null && Objects.equals(existing, oldValue)) {
+                replaced.set(true);
+                return newValue;
+            }
+            return existing;
+        });
+        return replaced.get();
+    }
+
+    @Override
+    public MapValue<V> replace(K key, MapValue<V> value) {
+        checkNotNull(value);
+        AtomicReference<MapValue<V>> previous = new AtomicReference<>();
+        compute(key, (k, existing) -> {
+            previous.set(existing);
+            return existing != null ? value : null;
+        });
+        return previous.get();
+    }
+
+    @Override
+    public void clear() {
+        index.keySet().forEach(this::remove);
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new KeySet();
+    }
+
+    @Override
+    public Set<Map.Entry<K, MapValue<V>>> entrySet() {
+        return new EntrySet();
+    }
+
+    /**
+     * Reads the value of a slot.
+     *
+     * @return value, null if the slot was replaced while being read
+     */
+    @SuppressWarnings("unchecked")
+    private MapValue<V> read(Object key, Slot slot) {
+        if (cache != null) {
+            Decoded<V> decoded = cache.getIfPresent(key);
+            if (decoded != null && decoded.slot == slot) {
+                return decoded.value;
+            }
+        }
+        byte[] bytes = arena.read(slot.handle, slot.length);
+        if (bytes == null || index.get(key) != slot) {
+            return null;
+        }
+        MapValue<V> value = serializer.decode(bytes);
+        if (cache != null) {
+            cache.put((K) key, new Decoded<>(slot, value));
+        }
+        return value;
+    }
+
+    private MapValue<V> decode(K key, Slot slot) {
+        if (cache != null) {
+            Decoded<V> decoded = cache.getIfPresent(key);
+            if (decoded != null && decoded.slot == slot) {
+                return decoded.value;
+            }
+        }
+        return serializer.decode(arena.read(slot.handle, slot.length));
+    }
+
+    private Slot store(MapValue<V> value) {
+        byte[] bytes = serializer.encode(value);
+        return new Slot(arena.allocate(bytes), bytes.length);
+    }
+
+    private static final class Slot {
+        private final long handle;
+        private final int length;
+
+        private Slot(long handle, int length) {
+            this.handle = handle;
+            this.length = length;
+        }
+    }
+
+    private static final class Decoded<V> {
+        private final Slot slot;
+        private final MapValue<V> value;
+
+        private Decoded(Slot slot, MapValue<V> value) {
+            this.slot = slot;
+            this.value = value;
+        }
+    }
+
+    private final class KeySet extends AbstractSet<K> {
+        @Override
+        public Iterator<K> iterator() {
+            Iterator<K> keys = index.keySet().iterator();
+            return new Iterator<K>() {
+                private K current;
+
+                @Override
+                public boolean hasNext() {
+                    return keys.hasNext();
+                }
+
+                @Override
+                public K next() {
+                    current = keys.next();
+                    return current;
+                }
+
+                @Override
+                public void remove() {
+                    if (current == null) {
+                        throw new IllegalStateException();
+                    }
+                    OffHeapMap.this.remove(current);
+                    current = null;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return index.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return index.containsKey(o);
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K, MapValue<V>>> {
+        @Override
+        public Iterator<Map.Entry<K, MapValue<V>>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return index.size();
+        }
+    }
+
+    /**
+     * Iterates over the entries present when reached, skipping the keys
+     * removed while iterating.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<K, MapValue<V>>> {
+        private final Iterator<K> keys = index.keySet().iterator();
+        private Map.Entry<K, MapValue<V>> next;
+        private K current;
+
+        private EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && keys.hasNext()) {
+                K key = keys.next();
+                MapValue<V> value = get(key);
+                if (value != null) {
+                    next = new SimpleImmutableEntry<>(key, value);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<K, MapValue<V>> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<K, MapValue<V>> entry = next;
+            current = entry.getKey();
+            advance();
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            if (current == null) {
+                throw new IllegalStateException();
+            }
+            OffHeapMap.this.remove(current);
+            current = null;
+        }
+    }
+}
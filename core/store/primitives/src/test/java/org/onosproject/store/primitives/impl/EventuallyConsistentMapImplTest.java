@@ -630,6 +630,18 @@ public class EventuallyConsistentMapImplTest {
         return true;
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void testOffHeapStorageWithPersistence() {
+        new EventuallyConsistentMapBuilderImpl<String, String>(
+                clusterService, clusterCommunicator, persistenceService)
+                .withName(MAP_NAME)
+                .withSerializer(KryoNamespace.newBuilder().register(KryoNamespaces.API))
+                .withTimestampProvider((k, v) -> clockService.getTimestamp(k, v))
+                .withPersistence()
+                .withOffHeapStorage(0)
+                .build();
+    }
+
     @Test
     public void testDestroy() throws Exception {
         clusterCommunicator.removeSubscriber(UPDATE_MESSAGE_SUBJECT);
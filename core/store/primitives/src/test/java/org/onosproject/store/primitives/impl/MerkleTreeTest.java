@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.primitives.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.onlab.util.KryoNamespace;
+import org.onosproject.store.LogicalTimestamp;
+import org.onosproject.store.serializers.KryoNamespaces;
+import org.onosproject.store.serializers.StoreSerializer;
+
+/**
+ * Unit tests for MerkleTree.
+ */
+public class MerkleTreeTest {
+
+    private static final StoreSerializer SERIALIZER = StoreSerializer.using(KryoNamespace.newBuilder()
+            .register(KryoNamespaces.BASIC)
+            .nextId(KryoNamespaces.BEGIN_USER_CUSTOM_ID)
+            .register(LogicalTimestamp.class)
+            .register(MapValue.Digest.class)
+            .build());
+
+    private static MapValue<String> value(long time) {
+        return new MapValue<>("foo", new LogicalTimestamp(time));
+    }
+
+    private static int[] compare(MerkleTree<String> local, MerkleTree<String> remote) {
+        int[] nodes = MerkleTree.roots();
+        for (int level = 0; level <= MerkleTree.LEAF_LEVEL; level++) {
+            nodes = local.differences(level, nodes, remote.hashes(level, nodes));
+            if (nodes.length == 0 || level == MerkleTree.LEAF_LEVEL) {
+                break;
+            }
+            nodes = MerkleTree.children(nodes);
+        }
+        return nodes;
+    }
+
+    @Test
+    public void testSameEntries() {
+        MerkleTree<String> first = new MerkleTree<>(SERIALIZER);
+        MerkleTree<String> second = new MerkleTree<>(SERIALIZER);
+        for (int i = 0; i < 1000; i++) {
+            first.update("key" + i, value(i));
+            second.update("key" + (999 - i), value(999 - i));
+        }
+        assertEquals(0, compare(first, second).length);
+    }
+
+    @Test
+    public void testDifferentEntry() {
+        MerkleTree<String> first = new MerkleTree<>(SERIALIZER);
+        MerkleTree<String> second = new MerkleTree<>(SERIALIZER);
+        for (int i = 0; i < 1000; i++) {
+            first.update("key" + i, value(i));
+            second.update("key" + i, value(i));
+        }
+        second.update("key42", value(1042));
+
+        int[] leaves = compare(first, second);
+        assertEquals(1, leaves.length);
+        assertTrue(first.keys(leaves[0]).contains("key42"));
+
+        second.update("key42", value(42));
+        assertEquals(0, compare(first, second).length);
+    }
+
+    @Test
+    public void testRemovedEntry() {
+        MerkleTree<String> first = new MerkleTree<>(SERIALIZER);
+        MerkleTree<String> second = new MerkleTree<>(SERIALIZER);
+        long[] empty = first.hashes(0, MerkleTree.roots());
+
+        first.update("foo", value(1));
+        second.update("foo", MapValue.tombstone(new LogicalTimestamp(2)));
+        int[] leaves = compare(first, second);
+        assertEquals(1, leaves.length);
+
+        first.update("foo", null);
+        second.update("foo", null);
+        assertArrayEquals(empty, first.hashes(0, MerkleTree.roots()));
+        assertEquals(0, compare(first, second).length);
+        assertTrue(first.keys(leaves[0]).isEmpty());
+    }
+}
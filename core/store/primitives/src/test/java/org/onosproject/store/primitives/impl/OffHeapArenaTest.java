@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.primitives.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for OffHeapArena.
+ */
+public class OffHeapArenaTest {
+
+    @Test
+    public void testAllocateRead() {
+        OffHeapArena arena = new OffHeapArena();
+        byte[] small = {1, 2, 3};
+        byte[] large = new byte[OffHeapArena.CHUNK_SIZE + 1];
+        large[OffHeapArena.CHUNK_SIZE] = 4;
+        long smallHandle = arena.allocate(small);
+        long largeHandle = arena.allocate(large);
+        assertArrayEquals(small, arena.read(smallHandle, small.length));
+        assertArrayEquals(large, arena.read(largeHandle, large.length));
+    }
+
+    @Test
+    public void testReadReleasedLargeBlock() {
+        OffHeapArena arena = new OffHeapArena();
+        int length = OffHeapArena.CHUNK_SIZE * 2;
+        long handle = arena.allocate(new byte[length]);
+        arena.free(handle, length);
+        assertNull(arena.read(handle, length));
+
+        // the released chunk index is reused by a smaller block
+        arena.allocate(new byte[OffHeapArena.CHUNK_SIZE + 1]);
+        assertNull(arena.read(handle, length));
+    }
+}
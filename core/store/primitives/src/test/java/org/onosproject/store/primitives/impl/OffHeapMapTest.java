@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.primitives.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.onlab.util.KryoNamespace;
+import org.onosproject.store.LogicalTimestamp;
+import org.onosproject.store.serializers.KryoNamespaces;
+import org.onosproject.store.serializers.StoreSerializer;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Unit tests for OffHeapMap.
+ */
+public class OffHeapMapTest {
+
+    private static final StoreSerializer SERIALIZER = StoreSerializer.using(KryoNamespace.newBuilder()
+            .register(KryoNamespaces.BASIC)
+            .nextId(KryoNamespaces.BEGIN_USER_CUSTOM_ID)
+            .register(LogicalTimestamp.class)
+            .register(MapValue.class)
+            .build());
+
+    private static MapValue<String> value(String value, long time) {
+        return new MapValue<>(value, new LogicalTimestamp(time), 0);
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        OffHeapMap<String, String> map = new OffHeapMap<>(SERIALIZER, 0);
+        assertNull(map.put("foo", value("bar", 1)));
+        assertEquals(value("bar", 1), map.get("foo"));
+        assertEquals(value("bar", 1), map.put("foo", value("baz", 2)));
+        assertEquals(value("baz", 2), map.get("foo"));
+        assertEquals(1, map.size());
+
+        assertFalse(map.remove("foo", value("bar", 1)));
+        assertTrue(map.remove("foo", value("baz", 2)));
+        assertNull(map.get("foo"));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testCompute() {
+        OffHeapMap<String, String> map = new OffHeapMap<>(SERIALIZER, 10);
+        map.put("foo", value("bar", 1));
+        MapValue<String> cached = map.get("foo");
+        assertSame(cached, map.get("foo"));
+
+        assertSame(cached, map.compute("foo", (k, existing) -> existing));
+        assertEquals(value("baz", 2), map.compute("foo", (k, existing) -> value("baz", 2)));
+        assertEquals(value("baz", 2), map.get("foo"));
+
+        assertNull(map.computeIfPresent("foo", (k, existing) -> null));
+        assertNull(map.computeIfPresent("foo", (k, existing) -> value("bar", 3)));
+        assertFalse(map.containsKey("foo"));
+    }
+
+    @Test
+    public void testLargeValues() {
+        OffHeapMap<String, String> map = new OffHeapMap<>(SERIALIZER, 0);
+        char[] chars = new char[OffHeapArena.CHUNK_SIZE + 1];
+        Arrays.fill(chars, 'x');
+        MapValue<String> large = value(new String(chars), 1);
+        map.put("large", large);
+        map.put("small", value("foo", 1));
+        assertEquals(large, map.get("large"));
+
+        map.remove("large");
+        map.put("large", value("bar", 2));
+        assertEquals(value("bar", 2), map.get("large"));
+        assertEquals(value("foo", 1), map.get("small"));
+    }
+
+    @Test
+    public void testReplaceLargeValueWhileReading() throws InterruptedException {
+        OffHeapMap<String, String> map = new OffHeapMap<>(SERIALIZER, 0);
+        // values of alternating sizes above a chunk, so that a released chunk index is reused by a smaller chunk
+        MapValue<String> larger = value(largeString(OffHeapArena.CHUNK_SIZE * 2), 1);
+        MapValue<String> smaller = value(largeString(OffHeapArena.CHUNK_SIZE + OffHeapArena.CHUNK_SIZE / 2), 2);
+        map.put("large", larger);
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    MapValue<String> read = map.get("large");
+                    if (!larger.equals(read) && !smaller.equals(read)) {
+                        throw new AssertionError("unexpected value read");
+                    }
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 50; i++) {
+            map.put("large", i % 2 == 0 ? smaller : larger);
+        }
+        done.set(true);
+        reader.join();
+        assertNull(failure.get());
+    }
+
+    private static String largeString(int length) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+
+    @Test
+    public void testIteration() {
+        OffHeapMap<String, String> map = new OffHeapMap<>(SERIALIZER, 0);
+        Map<String, MapValue<String>> expected = Maps.newHashMap();
+        for (int i = 0; i < 1000; i++) {
+            map.put("key" + i, value("value" + i, i));
+            expected.put("key" + i, value("value" + i, i));
+        }
+        assertEquals(expected, Maps.newHashMap(map));
+        assertEquals(expected.keySet(), map.keySet());
+
+        map.entrySet().removeIf(e -> e.getValue().timestamp().isNewerThan(new LogicalTimestamp(499)));
+        assertEquals(500, map.size());
+        map.clear();
+        assertTrue(map.isEmpty());
+    }
+}
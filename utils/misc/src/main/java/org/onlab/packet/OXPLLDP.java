@@ -34,6 +34,7 @@ public class OXPLLDP extends LLDP {
     public static final byte OXP_DOMAINID_SUBTYPE = 7;
     public static final byte OXP_VPORTID_TYPE = 10;
     public static final byte OXP_VPORTID_SUBTYPE = 2;
+    public static final byte OXP_TIMESTAMP_TYPE = 11;
 
     public static final short OXP_TL_LENGTH = 2;
 
@@ -95,6 +96,19 @@ public class OXPLLDP extends LLDP {
         optionalTLVList.add(vportTlv);
     }
 
+    /**
+     * Adds the time the probe was sent, in the sender's clock.
+     *
+     * @param timestamp send time, in ns
+     */
+    public void setTimestamp(long timestamp) {
+        LLDPTLV timestampTlv = new LLDPTLV();
+        timestampTlv.setLength((short) Long.BYTES);
+        timestampTlv.setType(OXP_TIMESTAMP_TYPE);
+        timestampTlv.setValue(ByteBuffer.allocate(Long.BYTES).putLong(timestamp).array());
+        optionalTLVList.add(timestampTlv);
+    }
+
     public void setOXPLLDPName(String name) {
         LLDPOrganizationalTLV nametlv = new LLDPOrganizationalTLV();
         nametlv.setLength((short) (name.length() + NAME_LENGTH));
@@ -174,6 +188,15 @@ public class OXPLLDP extends LLDP {
         return null;
     }
 
+    public Long getTimestamp() {
+        for (LLDPTLV tlv : this.getOptionalTLVList()) {
+            if (tlv.getType() == OXP_TIMESTAMP_TYPE && tlv.getValue().length == Long.BYTES) {
+                return ByteBuffer.wrap(tlv.getValue()).getLong();
+            }
+        }
+        return null;
+    }
+
     public static OXPLLDP parseOXPLLDP(Ethernet eth) {
         if (eth.getEtherType() == Ethernet.TYPE_LLDP) {
             OXPLLDP oxpLldp = new OXPLLDP((LLDP) eth.getPayload());